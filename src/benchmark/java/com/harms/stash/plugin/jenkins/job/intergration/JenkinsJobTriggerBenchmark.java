@@ -0,0 +1,72 @@
+package com.harms.stash.plugin.jenkins.job.intergration;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.atlassian.sal.api.pluginsettings.PluginSettings;
+import com.atlassian.sal.api.pluginsettings.PluginSettingsFactory;
+import com.harms.stash.plugin.jenkins.job.intergration.metrics.TriggerMetrics;
+import com.harms.stash.plugin.jenkins.job.intergration.server.JenkinsServerRegistry;
+import com.harms.stash.plugin.jenkins.job.settings.EncryptException;
+import com.harms.stash.plugin.jenkins.job.settings.InMemoryPluginSettings;
+import com.harms.stash.plugin.jenkins.job.settings.JobTarget;
+import com.harms.stash.plugin.jenkins.job.settings.PluginSettingsHelper;
+
+/**
+ * Build the query string with the job parameters sent to Jenkins for every trigger.
+ *
+ * @author fharms
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JenkinsJobTriggerBenchmark {
+    private static final String SLUG = "benchmark-repository";
+    private static final String STASH_BASE_URL = "http://stash.example.com:7990/stash";
+
+    private JenkinsJobTrigger trigger;
+    private JobTarget jobTarget;
+
+    @Setup
+    public void setUp() throws EncryptException {
+        final InMemoryPluginSettings settings = InMemoryPluginSettings.forRepository(SLUG);
+        PluginSettingsFactory settingsFactory = new PluginSettingsFactory() {
+            @Override
+            public PluginSettings createSettingsForKey(String key) {
+                return settings;
+            }
+
+            @Override
+            public PluginSettings createGlobalSettings() {
+                return settings;
+            }
+        };
+        trigger = new JenkinsJobTrigger(null, settingsFactory, null, null, new JenkinsServerRegistry(), new TriggerMetrics(), null);
+        jobTarget = PluginSettingsHelper.getRepositorySettings(SLUG, settings).getJobTargets().get(0);
+    }
+
+    @Benchmark
+    public String buildJobParameters() {
+        return trigger.buildJobParameters(jobTarget, SLUG, "8d7f3c4b2a19e6d5c0b1a2f3e4d5c6b7a8f9e0d1", 4711L,
+                "Fix the encoding of the branch names & titles", STASH_BASE_URL, "PROJ", "feature/JIRA-1234-encoding", "master");
+    }
+
+    @Benchmark
+    public String nextCIServer() {
+        return trigger.nextCIServer(SLUG);
+    }
+}
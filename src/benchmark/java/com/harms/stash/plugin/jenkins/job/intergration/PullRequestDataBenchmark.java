@@ -0,0 +1,71 @@
+package com.harms.stash.plugin.jenkins.job.intergration;
+
+import java.util.concurrent.TimeUnit;
+
+import org.mockito.Mockito;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.atlassian.stash.project.Project;
+import com.atlassian.stash.pull.PullRequest;
+import com.atlassian.stash.pull.PullRequestRef;
+import com.atlassian.stash.repository.Repository;
+
+/**
+ * Copy the trigger information out of the pull-request. The pull-request is a mock, so the
+ * result include the cost of the mock invocations, compare runs against each other and not
+ * against absolute numbers.
+ *
+ * @author fharms
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PullRequestDataBenchmark {
+
+    private PullRequest pullRequest;
+
+    @Setup
+    public void setUp() {
+        Project project = Mockito.mock(Project.class);
+        Mockito.when(project.getKey()).thenReturn("PROJ");
+
+        Repository repository = Mockito.mock(Repository.class);
+        Mockito.when(repository.getId()).thenReturn(42);
+        Mockito.when(repository.getSlug()).thenReturn("benchmark-repository");
+        Mockito.when(repository.getProject()).thenReturn(project);
+
+        PullRequestRef fromRef = Mockito.mock(PullRequestRef.class);
+        Mockito.when(fromRef.getRepository()).thenReturn(repository);
+        Mockito.when(fromRef.getDisplayId()).thenReturn("feature/JIRA-1234-encoding");
+        Mockito.when(fromRef.getLatestChangeset()).thenReturn("8d7f3c4b2a19e6d5c0b1a2f3e4d5c6b7a8f9e0d1");
+
+        PullRequestRef toRef = Mockito.mock(PullRequestRef.class);
+        Mockito.when(toRef.getRepository()).thenReturn(repository);
+        Mockito.when(toRef.getDisplayId()).thenReturn("master");
+        Mockito.when(toRef.getLatestChangeset()).thenReturn("0a1b2c3d4e5f60718293a4b5c6d7e8f901234567");
+
+        pullRequest = Mockito.mock(PullRequest.class);
+        Mockito.when(pullRequest.getId()).thenReturn(4711L);
+        Mockito.when(pullRequest.getTitle()).thenReturn("Fix the encoding of the branch names & titles");
+        Mockito.when(pullRequest.getFromRef()).thenReturn(fromRef);
+        Mockito.when(pullRequest.getToRef()).thenReturn(toRef);
+    }
+
+    @Benchmark
+    public PullRequestData createPullRequestData() {
+        return new PullRequestData(pullRequest);
+    }
+}
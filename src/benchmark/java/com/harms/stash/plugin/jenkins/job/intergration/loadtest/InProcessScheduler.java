@@ -0,0 +1,137 @@
+package com.harms.stash.plugin.jenkins.job.intergration.loadtest;
+
+import java.io.Serializable;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Date;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.atlassian.scheduler.JobRunner;
+import com.atlassian.scheduler.JobRunnerRequest;
+import com.atlassian.scheduler.SchedulerService;
+import com.atlassian.scheduler.config.JobConfig;
+import com.atlassian.scheduler.config.JobId;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.harms.stash.plugin.jenkins.job.intergration.schedule.PendingTriggerRegistry;
+
+/**
+ * In-process stand-in for the Atlassian {@link SchedulerService}. A scheduled job run once on
+ * a small thread pool at the {@link PendingTriggerRegistry#FIRE_TIME} from the job parameters,
+ * and scheduling a job with the same id replace the job, like the real scheduler.
+ *
+ * Only the methods used by the plug-in are implemented, the others return null.
+ *
+ * @author fharms
+ *
+ */
+public class InProcessScheduler implements InvocationHandler {
+    private final ScheduledExecutorService executor;
+    private final ConcurrentMap<JobId, ScheduledFuture<?>> jobs = new ConcurrentHashMap<JobId, ScheduledFuture<?>>();
+    private final AtomicLong scheduled = new AtomicLong();
+    private final AtomicLong executed = new AtomicLong();
+    private volatile JobRunner jobRunner;
+
+    public InProcessScheduler(int threads) {
+        executor = Executors.newScheduledThreadPool(threads, new ThreadFactoryBuilder().setNameFormat("scheduler-%d").setDaemon(true).build());
+    }
+
+    /**
+     * @return a {@link SchedulerService} backed by this scheduler
+     */
+    public SchedulerService asSchedulerService() {
+        return (SchedulerService) Proxy.newProxyInstance(SchedulerService.class.getClassLoader(), new Class<?>[] { SchedulerService.class }, this);
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        String name = method.getName();
+        if ("registerJobRunner".equals(name)) {
+            jobRunner = (JobRunner) args[1];
+        } else if ("unregisterJobRunner".equals(name)) {
+            jobRunner = null;
+        } else if ("scheduleJob".equals(name)) {
+            schedule((JobId) args[0], (JobConfig) args[1]);
+        } else if ("unscheduleJob".equals(name)) {
+            ScheduledFuture<?> job = jobs.remove(args[0]);
+            if (job != null) {
+                job.cancel(false);
+            }
+        } else if ("hashCode".equals(name)) {
+            return System.identityHashCode(proxy);
+        } else if ("equals".equals(name)) {
+            return proxy == args[0];
+        } else if ("toString".equals(name)) {
+            return "InProcessScheduler";
+        }
+        return null;
+    }
+
+    private void schedule(final JobId jobId, final JobConfig jobConfig) {
+        Serializable fireTime = jobConfig.getParameters().get(PendingTriggerRegistry.FIRE_TIME);
+        long delay = fireTime instanceof Long ? (Long) fireTime - System.currentTimeMillis() : 0;
+        scheduled.incrementAndGet();
+        final AtomicReference<ScheduledFuture<?>> self = new AtomicReference<ScheduledFuture<?>>();
+        Runnable run = new Runnable() {
+            @Override
+            public void run() {
+                jobs.remove(jobId, self.get());
+                JobRunner runner = jobRunner;
+                if (runner != null) {
+                    executed.incrementAndGet();
+                    runner.runJob(newRequest(jobId, jobConfig));
+                }
+            }
+        };
+        ScheduledFuture<?> job = executor.schedule(run, Math.max(0, delay), TimeUnit.MILLISECONDS);
+        self.set(job);
+        ScheduledFuture<?> previous = jobs.put(jobId, job);
+        if (previous != null) {
+            previous.cancel(false);
+        }
+    }
+
+    private static JobRunnerRequest newRequest(final JobId jobId, final JobConfig jobConfig) {
+        final Date startTime = new Date();
+        return (JobRunnerRequest) Proxy.newProxyInstance(JobRunnerRequest.class.getClassLoader(), new Class<?>[] { JobRunnerRequest.class }, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                String name = method.getName();
+                if ("getJobId".equals(name)) {
+                    return jobId;
+                } else if ("getJobConfig".equals(name)) {
+                    return jobConfig;
+                } else if ("getStartTime".equals(name)) {
+                    return startTime;
+                }
+                return SyntheticStash.defaultValue(method.getReturnType());
+            }
+        });
+    }
+
+    /**
+     * @return the number of jobs waiting to run
+     */
+    public int getPendingJobs() {
+        return jobs.size();
+    }
+
+    public long getScheduled() {
+        return scheduled.get();
+    }
+
+    public long getExecuted() {
+        return executed.get();
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
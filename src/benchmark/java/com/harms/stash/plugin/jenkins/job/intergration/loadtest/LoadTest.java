@@ -0,0 +1,292 @@
+package com.harms.stash.plugin.jenkins.job.intergration.loadtest;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.atlassian.sal.api.pluginsettings.PluginSettings;
+import com.atlassian.sal.api.pluginsettings.PluginSettingsFactory;
+import com.atlassian.scheduler.SchedulerService;
+import com.atlassian.stash.event.pull.PullRequestEvent;
+import com.atlassian.stash.event.pull.PullRequestOpenedEvent;
+import com.atlassian.stash.event.pull.PullRequestReopenedEvent;
+import com.atlassian.stash.event.pull.PullRequestRescopedEvent;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.harms.stash.plugin.jenkins.job.intergration.AsyncJenkinsJobTrigger;
+import com.harms.stash.plugin.jenkins.job.intergration.JenkinsHttpClient;
+import com.harms.stash.plugin.jenkins.job.intergration.JenkinsJobScheduler;
+import com.harms.stash.plugin.jenkins.job.intergration.JenkinsJobTrigger;
+import com.harms.stash.plugin.jenkins.job.intergration.StashEventListener;
+import com.harms.stash.plugin.jenkins.job.intergration.TriggerRequestEvent;
+import com.harms.stash.plugin.jenkins.job.intergration.comment.PullRequestCommentWriter;
+import com.harms.stash.plugin.jenkins.job.intergration.metrics.Histogram;
+import com.harms.stash.plugin.jenkins.job.intergration.metrics.TriggerMetrics;
+import com.harms.stash.plugin.jenkins.job.intergration.schedule.LocalPendingTriggerRegistry;
+import com.harms.stash.plugin.jenkins.job.intergration.schedule.PendingTriggerRegistry;
+import com.harms.stash.plugin.jenkins.job.intergration.server.JenkinsServerRegistry;
+import com.harms.stash.plugin.jenkins.job.intergration.status.BuildStatusPoller;
+import com.harms.stash.plugin.jenkins.job.settings.InMemoryPluginSettings;
+import com.harms.stash.plugin.jenkins.job.settings.PluginSettingsHelper;
+
+/**
+ * End-to-end load test of the plug-in. Synthetic pull-request events is published to the
+ * {@link StashEventListener} at a fixed rate, and the triggers go all the way through the
+ * pending trigger registry, an in-process scheduler, the {@link JenkinsJobScheduler} and the
+ * {@link JenkinsJobTrigger} to embedded stub Jenkins servers over HTTP.
+ *
+ * Run it with : mvn -Pbenchmarks test-compile exec:exec -Dbenchmark.main=com.harms.stash.plugin.jenkins.job.intergration.loadtest.LoadTest -Dbenchmark="duration=60 eventsPerSecond=200"
+ *
+ * The settings are given as name=value arguments, see {@link #DEFAULTS}.
+ *
+ * @author fharms
+ *
+ */
+public class LoadTest {
+    private static final String[][] DEFAULTS = {
+        {"duration", "60", "seconds the events are published"},
+        {"eventsPerSecond", "100", "pull-request events published per second"},
+        {"repositories", "10", "number of repositories"},
+        {"pullRequests", "20", "open pull-requests per repository"},
+        {"buildDelay", "1", "build delay in seconds"},
+        {"eventThreads", "4", "threads publishing the events, like the Stash event threads"},
+        {"servers", "2", "number of stub Jenkins servers"},
+        {"latency", "50", "response time of the stub Jenkins in milliseconds, plus up to the same jitter"},
+        {"errorRate", "0.01", "share of the build requests failing with 500"},
+        {"crumbFailureRate", "0.01", "share of the build requests rejected with 403"},
+        {"requireCrumb", "false", "reject all build requests without a valid crumb"},
+        {"hedgePercentile", "0", "percentile of the response times after which the trigger is hedged, 0 for not hedging"},
+        {"drainTimeout", "60", "seconds to wait for the pending triggers after the events stop"},
+    };
+
+    private static final long TICK = 10;
+    private static final long SAMPLE_INTERVAL = 100;
+
+    public static void main(String[] args) throws Exception {
+        Properties config = parse(args);
+        int duration = Integer.parseInt(config.getProperty("duration"));
+        final double eventsPerSecond = Double.parseDouble(config.getProperty("eventsPerSecond"));
+        int repositories = Integer.parseInt(config.getProperty("repositories"));
+        int buildDelay = Integer.parseInt(config.getProperty("buildDelay"));
+
+        StubJenkinsServer[] stubs = new StubJenkinsServer[Integer.parseInt(config.getProperty("servers"))];
+        String[] jobUrls = new String[stubs.length];
+        for (int i = 0; i < stubs.length; i++) {
+            stubs[i] = new StubJenkinsServer(64, Long.parseLong(config.getProperty("latency")), Double.parseDouble(config.getProperty("errorRate")),
+                    Double.parseDouble(config.getProperty("crumbFailureRate")), Boolean.parseBoolean(config.getProperty("requireCrumb")));
+            stubs[i].start();
+            jobUrls[i] = stubs[i].getJobUrl();
+        }
+
+        final InMemoryPluginSettings settings = new InMemoryPluginSettings();
+        for (int r = 1; r <= repositories; r++) {
+            settings.configureRepository(SyntheticStash.getSlug(r), jobUrls, buildDelay);
+            PluginSettingsHelper.setHedgePercentile(SyntheticStash.getSlug(r), Integer.valueOf(config.getProperty("hedgePercentile")), settings);
+        }
+        PluginSettingsFactory settingsFactory = new PluginSettingsFactory() {
+            @Override
+            public PluginSettings createSettingsForKey(String key) {
+                return settings;
+            }
+
+            @Override
+            public PluginSettings createGlobalSettings() {
+                return settings;
+            }
+        };
+
+        final SyntheticStash stash = new SyntheticStash(repositories, Integer.parseInt(config.getProperty("pullRequests")));
+        final JenkinsHttpClient httpClient = new JenkinsHttpClient();
+        TriggerMetrics metrics = new TriggerMetrics();
+        JenkinsServerRegistry serverRegistry = new JenkinsServerRegistry();
+        final PullRequestCommentWriter commentWriter = new PullRequestCommentWriter(stash.getPullRequestService(), stash.getSecurityService(), stash.getAuthenticationContext());
+        BuildStatusPoller buildStatusPoller = new BuildStatusPoller(commentWriter, stash.getAuthenticationContext(), settingsFactory, httpClient, serverRegistry);
+        JenkinsJobTrigger jobTrigger = new JenkinsJobTrigger(commentWriter, settingsFactory, stash.getWebResourceUrlProvider(), httpClient, serverRegistry, metrics, buildStatusPoller);
+        final InProcessScheduler scheduler = new InProcessScheduler(4);
+        SchedulerService schedulerService = scheduler.asSchedulerService();
+        PendingTriggerRegistry pendingTriggers = new LocalPendingTriggerRegistry(schedulerService);
+        final AsyncJenkinsJobTrigger asyncTrigger = new AsyncJenkinsJobTrigger(stash.getPullRequestService(), stash.getSecurityService(), jobTrigger, pendingTriggers, metrics);
+        schedulerService.registerJobRunner(JenkinsJobScheduler.jobRunnerKey, new JenkinsJobScheduler(stash.getUserService(), asyncTrigger, pendingTriggers, metrics));
+        final StashEventListener listener = new StashEventListener(settingsFactory, pendingTriggers, stash.getAuthenticationContext(), metrics, stash.getClusterLockService());
+
+        final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        threads.resetPeakThreadCount();
+        final Peaks peaks = new Peaks();
+        final AtomicLong[] events = new AtomicLong[] { new AtomicLong(), new AtomicLong(), new AtomicLong() };
+        final ExecutorService eventThreads = Executors.newFixedThreadPool(Integer.parseInt(config.getProperty("eventThreads")),
+                new ThreadFactoryBuilder().setNameFormat("event-%d").setDaemon(true).build());
+        ScheduledExecutorService driver = Executors.newScheduledThreadPool(2, new ThreadFactoryBuilder().setNameFormat("load-driver-%d").setDaemon(true).build());
+
+        System.out.println(String.format("Publishing %s events per second for %s seconds to %s repositories", eventsPerSecond, duration, repositories));
+        long start = System.currentTimeMillis();
+        driver.scheduleAtFixedRate(new Runnable() {
+            private final Random random = new Random(42);
+            private double owed = 0;
+
+            @Override
+            public void run() {
+                owed += eventsPerSecond * TICK / 1000;
+                for (; owed >= 1; owed--) {
+                    final PullRequestEvent event = stash.nextEvent(random);
+                    eventThreads.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            publish(listener, event, events);
+                        }
+                    });
+                }
+            }
+        }, 0, TICK, TimeUnit.MILLISECONDS);
+        driver.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                peaks.sample(threads.getThreadCount(), httpClient.getOpenConnections(), httpClient.getLeasedConnections(), asyncTrigger.getQueueSize(), scheduler.getPendingJobs());
+            }
+        }, 0, SAMPLE_INTERVAL, TimeUnit.MILLISECONDS);
+
+        Thread.sleep(TimeUnit.SECONDS.toMillis(duration));
+        driver.shutdown();
+        eventThreads.shutdown();
+        eventThreads.awaitTermination(10, TimeUnit.SECONDS);
+        long published = System.currentTimeMillis();
+
+        //wait for the pending triggers to be built
+        long drainDeadline = published + TimeUnit.SECONDS.toMillis(Long.parseLong(config.getProperty("drainTimeout")));
+        while (System.currentTimeMillis() < drainDeadline && (listener.getQueuedEvents() > 0 || scheduler.getPendingJobs() > 0 || asyncTrigger.getQueueSize() > 0 || asyncTrigger.getActiveCount() > 0 || commentWriter.getPendingComments() > 0)) {
+            peaks.sample(threads.getThreadCount(), httpClient.getOpenConnections(), httpClient.getLeasedConnections(), asyncTrigger.getQueueSize(), scheduler.getPendingJobs());
+            Thread.sleep(SAMPLE_INTERVAL);
+        }
+        long end = System.currentTimeMillis();
+
+        report(config, start, published, end, events, stubs, stash, metrics, asyncTrigger, scheduler, peaks, threads.getPeakThreadCount());
+
+        listener.destroy();
+        asyncTrigger.shutdown();
+        commentWriter.destroy();
+        scheduler.shutdown();
+        httpClient.shutdown();
+        for (StubJenkinsServer stub : stubs) {
+            stub.stop();
+        }
+    }
+
+    private static void publish(StashEventListener listener, PullRequestEvent event, AtomicLong[] events) {
+        try {
+            if (event instanceof PullRequestOpenedEvent) {
+                events[0].incrementAndGet();
+                listener.openPullRequest((PullRequestOpenedEvent) event);
+            } else if (event instanceof PullRequestRescopedEvent) {
+                events[1].incrementAndGet();
+                listener.updatePullRequest((PullRequestRescopedEvent) event);
+            } else if (event instanceof PullRequestReopenedEvent) {
+                events[2].incrementAndGet();
+                listener.reopenPullRequest((PullRequestReopenedEvent) event);
+            }
+        } catch (RuntimeException e) {
+            System.err.println("The listener failed : " + e);
+        }
+    }
+
+    private static void report(Properties config, long start, long published, long end, AtomicLong[] events, StubJenkinsServer[] stubs,
+            SyntheticStash stash, TriggerMetrics metrics, AsyncJenkinsJobTrigger asyncTrigger, InProcessScheduler scheduler, Peaks peaks, int peakThreads) {
+        long requests = 0, accepted = 0, errors = 0, crumbFailures = 0, crumbRequests = 0;
+        int peakInFlight = 0;
+        for (StubJenkinsServer stub : stubs) {
+            requests += stub.getRequests();
+            accepted += stub.getAccepted();
+            errors += stub.getErrors();
+            crumbFailures += stub.getCrumbFailures();
+            crumbRequests += stub.getCrumbRequests();
+            peakInFlight = Math.max(peakInFlight, stub.getPeakInFlight());
+        }
+        double seconds = (end - start) / 1000.0;
+        long triggers = 0;
+        for (TriggerRequestEvent event : TriggerRequestEvent.values()) {
+            triggers += metrics.getTriggers(event);
+        }
+
+        System.out.println();
+        System.out.println("=== Load test report ===");
+        System.out.println("Settings              : " + config);
+        System.out.println(String.format("Run time              : %.1f s publishing, %.1f s draining", (published - start) / 1000.0, (end - published) / 1000.0));
+        System.out.println(String.format("Events                : %s opened, %s rescoped, %s reopened", events[0].get(), events[1].get(), events[2].get()));
+        System.out.println(String.format("Event queue           : %s queued, %s handled on the event thread, delay ms %s", metrics.getEventsQueued(), metrics.getEventsRejected(), format(metrics.getEventQueueDelay())));
+        System.out.println(String.format("Jobs                  : %s scheduled, %s run, %s still pending", scheduler.getScheduled(), scheduler.getExecuted(), scheduler.getPendingJobs()));
+        System.out.println(String.format("Triggers              : %s (%.1f per second), %s failed", triggers, triggers / seconds, metrics.getFailedTriggers()));
+        System.out.println(String.format("Suppressed            : %s duplicate change sets, %s deferred", metrics.getDuplicatesSuppressed(), asyncTrigger.getDeferredCount()));
+        System.out.println(String.format("Failover hops         : %s", metrics.getFailoverHops()));
+        System.out.println(String.format("Hedged triggers       : %s sent, %s won", metrics.getHedgedTriggers(), metrics.getHedgeWins()));
+        System.out.println(String.format("End-to-end latency ms : %s", format(stash.getEndToEndLatency())));
+        System.out.println(String.format("Trigger delay ms      : %s", format(metrics.getTriggerDelay())));
+        System.out.println(String.format("HTTP latency ms       : %s", format(metrics.getHttpLatency())));
+        System.out.println(String.format("Comments              : %s (%s build, %s failure), %s pull-requests not built", stash.getComments(), stash.getBuildComments(), stash.getFailureComments(), stash.getUnbuiltPullRequests()));
+        System.out.println(String.format("Stub Jenkins          : %s requests, %s accepted, %s errors, %s crumb failures, %s crumb requests, %s peak in flight", requests, accepted, errors, crumbFailures, crumbRequests, peakInFlight));
+        System.out.println(String.format("Threads               : %s peak, %s peak live during the run", peakThreads, peaks.threads.get()));
+        System.out.println(String.format("Connections           : %s peak open, %s peak leased", peaks.openConnections.get(), peaks.leasedConnections.get()));
+        System.out.println(String.format("Queues                : %s peak queued triggers, %s peak pending jobs", peaks.queuedTriggers.get(), peaks.pendingJobs.get()));
+    }
+
+    private static String format(Histogram histogram) {
+        return String.format("count=%s mean=%.1f p50=%s p99=%s max=%s", histogram.getCount(), histogram.getMean(), histogram.getPercentile(50), histogram.getPercentile(99), histogram.getMax());
+    }
+
+    private static Properties parse(String[] args) {
+        Properties config = new Properties();
+        for (String[] setting : DEFAULTS) {
+            config.setProperty(setting[0], setting[1]);
+        }
+        for (String arg : args) {
+            for (String pair : arg.trim().split("\\s+")) {
+                if (pair.isEmpty()) {
+                    continue;
+                }
+                String[] nameValue = pair.split("=", 2);
+                if (nameValue.length != 2 || config.getProperty(nameValue[0]) == null) {
+                    usage(pair);
+                }
+                config.setProperty(nameValue[0], nameValue[1]);
+            }
+        }
+        return config;
+    }
+
+    private static void usage(String argument) {
+        System.err.println("Unknown argument " + argument + ", the arguments are name=value of :");
+        for (String[] setting : DEFAULTS) {
+            System.err.println(String.format("  %-18s %s (default %s)", setting[0], setting[2], setting[1]));
+        }
+        System.exit(1);
+    }
+
+    /**
+     * The peak values sampled during the test
+     */
+    private static class Peaks {
+        final AtomicInteger threads = new AtomicInteger();
+        final AtomicInteger openConnections = new AtomicInteger();
+        final AtomicInteger leasedConnections = new AtomicInteger();
+        final AtomicInteger queuedTriggers = new AtomicInteger();
+        final AtomicInteger pendingJobs = new AtomicInteger();
+
+        void sample(int threadCount, int open, int leased, int queued, int pending) {
+            max(threads, threadCount);
+            max(openConnections, open);
+            max(leasedConnections, leased);
+            max(queuedTriggers, queued);
+            max(pendingJobs, pending);
+        }
+
+        private static void max(AtomicInteger peak, int value) {
+            int current = peak.get();
+            while (value > current && !peak.compareAndSet(current, value)) {
+                current = peak.get();
+            }
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package com.harms.stash.plugin.jenkins.job.intergration.loadtest;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Embedded HTTP server that mimics the Jenkins "buildWithParameters" and "crumbIssuer" API.
+ *
+ * Every build request is answered after the configured latency (plus up to the same amount
+ * of random jitter). A share of the requests fail with a 500 error, and a share is rejected
+ * with 403 as if the crumb had expired. When the crumb is required, requests without a valid
+ * crumb header is always rejected with 403.
+ *
+ * @author fharms
+ *
+ */
+public class StubJenkinsServer {
+    public static final String CRUMB_FIELD = "Jenkins-Crumb";
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final long latency;
+    private final double errorRate;
+    private final double crumbFailureRate;
+    private final boolean requireCrumb;
+    private final String crumb = Long.toHexString(new Random().nextLong());
+
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong accepted = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+    private final AtomicLong crumbFailures = new AtomicLong();
+    private final AtomicLong crumbRequests = new AtomicLong();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger peakInFlight = new AtomicInteger();
+    private final AtomicLong queueId = new AtomicLong();
+
+    /**
+     * @param threads - The number of threads serving requests
+     * @param latency - The response time in milliseconds
+     * @param errorRate - The share of build requests failing with 500, between 0 and 1
+     * @param crumbFailureRate - The share of build requests rejected with 403, between 0 and 1
+     * @param requireCrumb - Reject build requests without the crumb header
+     * @throws IOException
+     */
+    public StubJenkinsServer(int threads, long latency, double errorRate, double crumbFailureRate, boolean requireCrumb) throws IOException {
+        this.latency = latency;
+        this.errorRate = errorRate;
+        this.crumbFailureRate = crumbFailureRate;
+        this.requireCrumb = requireCrumb;
+        this.executor = Executors.newFixedThreadPool(threads, new ThreadFactoryBuilder().setNameFormat("stub-jenkins-%d").setDaemon(true).build());
+        this.server = HttpServer.create(new InetSocketAddress("localhost", 0), 200);
+        this.server.setExecutor(executor);
+        this.server.createContext("/", new JenkinsHandler());
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    public void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    /**
+     * @return the URL of the build job, e.g. http://localhost:port/job/build/
+     */
+    public String getJobUrl() {
+        return String.format("http://localhost:%s/job/build/", server.getAddress().getPort());
+    }
+
+    public long getRequests() {
+        return requests.get();
+    }
+
+    public long getAccepted() {
+        return accepted.get();
+    }
+
+    public long getErrors() {
+        return errors.get();
+    }
+
+    public long getCrumbFailures() {
+        return crumbFailures.get();
+    }
+
+    public long getCrumbRequests() {
+        return crumbRequests.get();
+    }
+
+    public int getPeakInFlight() {
+        return peakInFlight.get();
+    }
+
+    private class JenkinsHandler implements HttpHandler {
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            try {
+                String path = exchange.getRequestURI().getPath();
+                if (path.endsWith("/crumbIssuer/api/json")) {
+                    crumbRequests.incrementAndGet();
+                    respond(exchange, 200, String.format("{\"crumbRequestField\":\"%s\",\"crumb\":\"%s\"}", CRUMB_FIELD, crumb), null);
+                } else if (path.endsWith("/buildWithParameters")) {
+                    build(exchange);
+                } else {
+                    respond(exchange, 404, "Not found", null);
+                }
+            } finally {
+                exchange.close();
+            }
+        }
+
+        private void build(HttpExchange exchange) throws IOException {
+            requests.incrementAndGet();
+            int current = inFlight.incrementAndGet();
+            int peak = peakInFlight.get();
+            while (current > peak && !peakInFlight.compareAndSet(peak, current)) {
+                peak = peakInFlight.get();
+            }
+            try {
+                drain(exchange);
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                if (latency > 0) {
+                    Thread.sleep(latency + random.nextLong(latency + 1));
+                }
+                String requestCrumb = exchange.getRequestHeaders().getFirst(CRUMB_FIELD);
+                if ((requireCrumb && !crumb.equals(requestCrumb)) || random.nextDouble() < crumbFailureRate) {
+                    crumbFailures.incrementAndGet();
+                    respond(exchange, 403, "No valid crumb was included in the request", null);
+                } else if (random.nextDouble() < errorRate) {
+                    errors.incrementAndGet();
+                    respond(exchange, 500, "Internal server error", null);
+                } else {
+                    accepted.incrementAndGet();
+                    String location = String.format("http://localhost:%s/queue/item/%s/", server.getAddress().getPort(), queueId.incrementAndGet());
+                    respond(exchange, 201, "", location);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                respond(exchange, 503, "Shutting down", null);
+            } finally {
+                inFlight.decrementAndGet();
+            }
+        }
+
+        private void drain(HttpExchange exchange) throws IOException {
+            byte[] buffer = new byte[1024];
+            while (exchange.getRequestBody().read(buffer) != -1) {
+                //discard the form body
+            }
+        }
+
+        private void respond(HttpExchange exchange, int status, String body, String location) throws IOException {
+            byte[] bytes = body.getBytes("UTF-8");
+            if (location != null) {
+                exchange.getResponseHeaders().add("Location", location);
+            }
+            exchange.sendResponseHeaders(status, bytes.length == 0 ? -1 : bytes.length);
+            if (bytes.length > 0) {
+                OutputStream out = exchange.getResponseBody();
+                out.write(bytes);
+                out.flush();
+            }
+        }
+    }
+}
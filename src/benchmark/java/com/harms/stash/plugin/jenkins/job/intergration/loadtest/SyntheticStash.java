@@ -0,0 +1,337 @@
+package com.harms.stash.plugin.jenkins.job.intergration.loadtest;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.atlassian.beehive.ClusterLock;
+import com.atlassian.beehive.ClusterLockService;
+import com.atlassian.plugin.webresource.WebResourceUrlProvider;
+import com.atlassian.stash.event.pull.PullRequestEvent;
+import com.atlassian.stash.event.pull.PullRequestOpenedEvent;
+import com.atlassian.stash.event.pull.PullRequestReopenedEvent;
+import com.atlassian.stash.event.pull.PullRequestRescopedEvent;
+import com.atlassian.stash.project.Project;
+import com.atlassian.stash.pull.PullRequest;
+import com.atlassian.stash.pull.PullRequestRef;
+import com.atlassian.stash.pull.PullRequestService;
+import com.atlassian.stash.repository.Repository;
+import com.atlassian.stash.user.EscalatedSecurityContext;
+import com.atlassian.stash.user.SecurityService;
+import com.atlassian.stash.user.StashAuthenticationContext;
+import com.atlassian.stash.user.StashUser;
+import com.atlassian.stash.user.UserService;
+import com.atlassian.stash.util.Operation;
+import com.harms.stash.plugin.jenkins.job.intergration.metrics.Histogram;
+import com.harms.stash.plugin.jenkins.job.intergration.schedule.PendingTriggerKey;
+
+/**
+ * A synthetic Stash with a fixed set of repositories and open pull-requests, and the Stash
+ * services used by the plug-in. The services are dynamic proxies that don't record the calls,
+ * so they can run for a long time under load without growing.
+ *
+ * The time of the first event not yet built is kept per pull-request, and when the build
+ * comment is added the end-to-end latency from that event is recorded.
+ *
+ * @author fharms
+ *
+ */
+public class SyntheticStash {
+    public static final String PROJECT_KEY = "LOAD";
+    public static final String USER_NAME = "loadtest";
+
+    private final SyntheticPullRequest[] pullRequests;
+    private final ConcurrentMap<Long, SyntheticPullRequest> pullRequestsByKey = new ConcurrentHashMap<Long, SyntheticPullRequest>();
+    private final ConcurrentMap<Long, Long> firstEventTimes = new ConcurrentHashMap<Long, Long>();
+    private final Histogram endToEndLatency = new Histogram();
+    private final AtomicLong comments = new AtomicLong();
+    private final AtomicLong buildComments = new AtomicLong();
+    private final AtomicLong failureComments = new AtomicLong();
+    private final AtomicLong changesets = new AtomicLong();
+    private final StashUser user;
+    private final ConcurrentMap<String, ClusterLock> locks = new ConcurrentHashMap<String, ClusterLock>();
+
+    public SyntheticStash(int repositories, int pullRequestsPerRepository) {
+        pullRequests = new SyntheticPullRequest[repositories * pullRequestsPerRepository];
+        for (int r = 0; r < repositories; r++) {
+            for (int p = 0; p < pullRequestsPerRepository; p++) {
+                SyntheticPullRequest pr = new SyntheticPullRequest(r + 1, p + 1L, getSlug(r + 1), nextChangeset(), nextChangeset());
+                pullRequests[r * pullRequestsPerRepository + p] = pr;
+                pullRequestsByKey.put(PendingTriggerKey.of(pr.repositoryId, pr.id), pr);
+            }
+        }
+        user = proxy(StashUser.class, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                return "getName".equals(method.getName()) || "getDisplayName".equals(method.getName()) ? USER_NAME : defaultValue(method.getReturnType());
+            }
+        });
+    }
+
+    public static String getSlug(int repositoryId) {
+        return "repository-" + repositoryId;
+    }
+
+    /**
+     * Create the next event for a random pull-request, 80% is a new change set pushed to the
+     * source branch, 10% is opened and 10% is reopened.
+     * @param random - The source of randomness
+     * @return the event
+     */
+    public PullRequestEvent nextEvent(Random random) {
+        SyntheticPullRequest pr = pullRequests[random.nextInt(pullRequests.length)];
+        int type = random.nextInt(10);
+        PullRequestEvent event;
+        if (type == 0) {
+            event = new PullRequestOpenedEvent(this, pr.asPullRequest());
+        } else if (type == 1) {
+            event = new PullRequestReopenedEvent(this, pr.asPullRequest());
+        } else {
+            String previous = pr.fromChangeset;
+            pr.fromChangeset = nextChangeset();
+            event = new PullRequestRescopedEvent(this, pr.asPullRequest(), previous, pr.toChangeset);
+        }
+        Long key = PendingTriggerKey.of(pr.repositoryId, pr.id);
+        if (!firstEventTimes.containsKey(key)) {
+            firstEventTimes.putIfAbsent(key, System.currentTimeMillis());
+        }
+        return event;
+    }
+
+    private String nextChangeset() {
+        return String.format("%040x", changesets.incrementAndGet());
+    }
+
+    private void onComment(int repositoryId, long pullRequestId, String text) {
+        comments.incrementAndGet();
+        boolean built = text.startsWith("Build triggered");
+        if (built) {
+            buildComments.incrementAndGet();
+        } else if (text.startsWith("All CI servers failed")) {
+            failureComments.incrementAndGet();
+        }
+        Long eventTime = firstEventTimes.remove(PendingTriggerKey.of(repositoryId, pullRequestId));
+        if (built && eventTime != null) {
+            endToEndLatency.record(System.currentTimeMillis() - eventTime);
+        }
+    }
+
+    public PullRequestService getPullRequestService() {
+        return proxy(PullRequestService.class, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                String name = method.getName();
+                if ("getById".equals(name)) {
+                    SyntheticPullRequest pr = pullRequestsByKey.get(PendingTriggerKey.of((Integer) args[0], (Long) args[1]));
+                    return pr == null ? null : pr.asPullRequest();
+                } else if ("addComment".equals(name)) {
+                    onComment((Integer) args[0], (Long) args[1], (String) args[2]);
+                }
+                return defaultValue(method.getReturnType());
+            }
+        });
+    }
+
+    public SecurityService getSecurityService() {
+        final EscalatedSecurityContext securityContext = proxy(EscalatedSecurityContext.class, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                if ("call".equals(method.getName())) {
+                    return ((Operation<?, ?>) args[0]).perform();
+                }
+                return defaultValue(method.getReturnType());
+            }
+        });
+        return proxy(SecurityService.class, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                return "impersonating".equals(method.getName()) ? securityContext : defaultValue(method.getReturnType());
+            }
+        });
+    }
+
+    public UserService getUserService() {
+        return proxy(UserService.class, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                return "getUserByName".equals(method.getName()) ? user : defaultValue(method.getReturnType());
+            }
+        });
+    }
+
+    public StashAuthenticationContext getAuthenticationContext() {
+        return proxy(StashAuthenticationContext.class, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if ("getCurrentUser".equals(method.getName())) {
+                    return user;
+                } else if ("isAuthenticated".equals(method.getName())) {
+                    return true;
+                }
+                return defaultValue(method.getReturnType());
+            }
+        });
+    }
+
+    public WebResourceUrlProvider getWebResourceUrlProvider() {
+        return proxy(WebResourceUrlProvider.class, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                return "getBaseUrl".equals(method.getName()) ? "http://stash.example.com:7990" : defaultValue(method.getReturnType());
+            }
+        });
+    }
+
+    /**
+     * @return a {@link ClusterLockService} with a local lock per name, as on a single node
+     */
+    public ClusterLockService getClusterLockService() {
+        return proxy(ClusterLockService.class, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if (!"getLockForName".equals(method.getName())) {
+                    return defaultValue(method.getReturnType());
+                }
+                String name = (String) args[0];
+                ClusterLock lock = locks.get(name);
+                if (lock == null) {
+                    final Lock local = new ReentrantLock();
+                    locks.putIfAbsent(name, proxy(ClusterLock.class, new InvocationHandler() {
+                        @Override
+                        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                            return method.invoke(local, args);
+                        }
+                    }));
+                    lock = locks.get(name);
+                }
+                return lock;
+            }
+        });
+    }
+
+    public Histogram getEndToEndLatency() {
+        return endToEndLatency;
+    }
+
+    public long getComments() {
+        return comments.get();
+    }
+
+    public long getBuildComments() {
+        return buildComments.get();
+    }
+
+    public long getFailureComments() {
+        return failureComments.get();
+    }
+
+    /**
+     * @return the number of pull-requests with events not yet built
+     */
+    public int getUnbuiltPullRequests() {
+        return firstEventTimes.size();
+    }
+
+    static <T> T proxy(Class<T> type, InvocationHandler handler) {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] { type }, handler));
+    }
+
+    /**
+     * @return the value returned by a proxy method that is not implemented
+     */
+    static Object defaultValue(Class<?> type) {
+        if (type == boolean.class) {
+            return false;
+        } else if (type == int.class) {
+            return 0;
+        } else if (type == long.class) {
+            return 0L;
+        } else if (type == double.class) {
+            return 0.0;
+        }
+        return null;
+    }
+
+    /**
+     * The state of a synthetic pull-request, the source change set move with every push
+     */
+    private static class SyntheticPullRequest implements InvocationHandler {
+        final int repositoryId;
+        final long id;
+        final String slug;
+        final String toChangeset;
+        volatile String fromChangeset;
+        private final PullRequest pullRequest;
+        private final PullRequestRef fromRef;
+        private final PullRequestRef toRef;
+        private final Repository repository;
+        private final Project project;
+
+        SyntheticPullRequest(int repositoryId, long id, String slug, String fromChangeset, String toChangeset) {
+            this.repositoryId = repositoryId;
+            this.id = id;
+            this.slug = slug;
+            this.fromChangeset = fromChangeset;
+            this.toChangeset = toChangeset;
+            this.pullRequest = proxy(PullRequest.class, this);
+            this.fromRef = proxy(PullRequestRef.class, this);
+            this.toRef = proxy(PullRequestRef.class, this);
+            this.repository = proxy(Repository.class, this);
+            this.project = proxy(Project.class, this);
+        }
+
+        PullRequest asPullRequest() {
+            return pullRequest;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) {
+            String name = method.getName();
+            if (proxy == pullRequest) {
+                if ("getId".equals(name)) {
+                    return id;
+                } else if ("getTitle".equals(name)) {
+                    return String.format("Synthetic pull-request %s in %s", id, slug);
+                } else if ("getFromRef".equals(name)) {
+                    return fromRef;
+                } else if ("getToRef".equals(name)) {
+                    return toRef;
+                } else if ("isOpen".equals(name)) {
+                    return true;
+                }
+            } else if (proxy == fromRef || proxy == toRef) {
+                if ("getRepository".equals(name)) {
+                    return repository;
+                } else if ("getLatestChangeset".equals(name)) {
+                    return proxy == fromRef ? fromChangeset : toChangeset;
+                } else if ("getDisplayId".equals(name)) {
+                    return proxy == fromRef ? "feature/load-" + id : "master";
+                } else if ("getId".equals(name)) {
+                    return proxy == fromRef ? "refs/heads/feature/load-" + id : "refs/heads/master";
+                }
+            } else if (proxy == repository) {
+                if ("getId".equals(name)) {
+                    return repositoryId;
+                } else if ("getSlug".equals(name) || "getName".equals(name)) {
+                    return slug;
+                } else if ("getProject".equals(name)) {
+                    return project;
+                }
+            } else if (proxy == project && "getKey".equals(name)) {
+                return PROJECT_KEY;
+            }
+            if ("hashCode".equals(name)) {
+                return System.identityHashCode(proxy);
+            } else if ("equals".equals(name)) {
+                return proxy == args[0];
+            }
+            return defaultValue(method.getReturnType());
+        }
+    }
+}
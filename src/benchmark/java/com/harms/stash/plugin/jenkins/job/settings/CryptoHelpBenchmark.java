@@ -0,0 +1,70 @@
+package com.harms.stash.plugin.jenkins.job.settings;
+
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Encrypt and decrypt the credentials, and get the encryption key both from the cache
+ * and by computing it from the network interfaces.
+ *
+ * @author fharms
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CryptoHelpBenchmark {
+
+    private byte[] key;
+    private byte[] password;
+    private byte[] encrypted;
+    private String storedPassword;
+
+    @Setup
+    public void setUp() throws IOException, GeneralSecurityException {
+        key = CryptoHelp.getComputedKey();
+        password = "MySecretPassword".getBytes("UTF-8");
+        encrypted = CryptoHelp.encrypt(key, password);
+        storedPassword = new String(encrypted);
+    }
+
+    @Benchmark
+    public byte[] encrypt() throws GeneralSecurityException {
+        return CryptoHelp.encrypt(key, password);
+    }
+
+    @Benchmark
+    public byte[] decrypt() throws GeneralSecurityException {
+        return CryptoHelp.decrypt(key, encrypted);
+    }
+
+    @Benchmark
+    public byte[] getComputedKey() throws IOException {
+        return CryptoHelp.getComputedKey();
+    }
+
+    @Benchmark
+    public byte[] refreshComputedKey() throws IOException {
+        return CryptoHelp.refreshComputedKey();
+    }
+
+    @Benchmark
+    public byte[] decryptCachedCredential() throws DecryptException {
+        return PluginSettingsHelper.decryptCredential(storedPassword);
+    }
+}
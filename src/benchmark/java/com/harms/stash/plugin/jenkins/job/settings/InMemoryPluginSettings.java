@@ -0,0 +1,66 @@
+package com.harms.stash.plugin.jenkins.job.settings;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.atlassian.sal.api.pluginsettings.PluginSettings;
+
+/**
+ * {@link PluginSettings} kept in memory, so the benchmarks measure the plug-in code
+ * and not the settings storage or a mock framework.
+ *
+ * @author fharms
+ *
+ */
+public class InMemoryPluginSettings implements PluginSettings {
+    private final ConcurrentMap<String, Object> values = new ConcurrentHashMap<String, Object>();
+
+    @Override
+    public Object get(String key) {
+        return values.get(key);
+    }
+
+    @Override
+    public Object put(String key, Object value) {
+        return value == null ? values.remove(key) : values.put(key, value);
+    }
+
+    @Override
+    public Object remove(String key) {
+        return values.remove(key);
+    }
+
+    /**
+     * Create settings for a repository with all the fields, triggers and credentials set
+     * @param slug - The slug of the repository
+     * @return the settings
+     * @throws EncryptException
+     */
+    public static InMemoryPluginSettings forRepository(String slug) throws EncryptException {
+        InMemoryPluginSettings settings = new InMemoryPluginSettings();
+        settings.configureRepository(slug, new String[] {"http://ci1:8080/job/build/", "http://ci2:8080/job/build/", "http://ci3:8080/job/build/"}, 300);
+        return settings;
+    }
+
+    /**
+     * Set all the fields, triggers and credentials for the repository
+     * @param slug - The slug of the repository
+     * @param jenkinsCIServers - The job URL of the Jenkins servers
+     * @param buildDelay - The build delay in seconds
+     * @throws EncryptException
+     */
+    public void configureRepository(String slug, String[] jenkinsCIServers, int buildDelay) throws EncryptException {
+        PluginSettingsHelper.setBuildReferenceField(slug, "REF_ID", this);
+        PluginSettingsHelper.setBuildTitleField(slug, "TITLE", this);
+        PluginSettingsHelper.setPullRequestUrlFieldName(slug, "PULL_REQUEST_URL", this);
+        PluginSettingsHelper.setFromBranchField(slug, "FROM_BRANCH", this);
+        PluginSettingsHelper.setToBranchField(slug, "TO_BRANCH", this);
+        PluginSettingsHelper.setBuildDelay(slug, buildDelay, this);
+        PluginSettingsHelper.setJenkinsCIServerList(jenkinsCIServers, slug, this);
+        PluginSettingsHelper.enableTriggerOnCreate(slug, this);
+        PluginSettingsHelper.enableTriggerOnUpdate(slug, this);
+        PluginSettingsHelper.enableTriggerOnReopen(slug, this);
+        PluginSettingsHelper.setUsername(slug, "jenkins".getBytes(), this);
+        PluginSettingsHelper.setPassword(slug, "MySecretPassword".getBytes(), this);
+    }
+}
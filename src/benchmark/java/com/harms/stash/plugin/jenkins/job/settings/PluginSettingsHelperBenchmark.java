@@ -0,0 +1,73 @@
+package com.harms.stash.plugin.jenkins.job.settings;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Read the repository settings the way the event listener and the trigger do, both the
+ * single getters reading the settings storage and the cached {@link RepositorySettings}.
+ *
+ * @author fharms
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PluginSettingsHelperBenchmark {
+    private static final String SLUG = "benchmark-repository";
+
+    private InMemoryPluginSettings settings;
+
+    @Setup
+    public void setUp() throws EncryptException {
+        settings = InMemoryPluginSettings.forRepository(SLUG);
+    }
+
+    @Benchmark
+    public String getBuildReferenceField() {
+        return PluginSettingsHelper.getBuildReferenceField(SLUG, settings);
+    }
+
+    @Benchmark
+    public boolean isTriggerBuildOnUpdate() {
+        return PluginSettingsHelper.isTriggerBuildOnUpdate(SLUG, settings);
+    }
+
+    @Benchmark
+    public String[] getJenkinsCIServerList() {
+        return PluginSettingsHelper.getJenkinsCIServerList(SLUG, settings);
+    }
+
+    @Benchmark
+    public Integer getBuildDelay() {
+        return PluginSettingsHelper.getBuildDelay(SLUG, settings);
+    }
+
+    @Benchmark
+    public byte[] getPassword() throws DecryptException {
+        return PluginSettingsHelper.getPassword(SLUG, settings);
+    }
+
+    @Benchmark
+    public RepositorySettings getRepositorySettings() {
+        return PluginSettingsHelper.getRepositorySettings(SLUG, settings);
+    }
+
+    @Benchmark
+    public RepositorySettings loadRepositorySettings() {
+        return RepositorySettings.load(SLUG, settings);
+    }
+}
@@ -0,0 +1,276 @@
+package com.harms.stash.plugin.jenkins.job.intergration;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.atlassian.scheduler.SchedulerServiceException;
+import com.atlassian.stash.pull.PullRequest;
+import com.atlassian.stash.pull.PullRequestService;
+import com.atlassian.stash.user.SecurityService;
+import com.atlassian.stash.user.StashUser;
+import com.atlassian.stash.util.Operation;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.harms.stash.plugin.jenkins.job.intergration.metrics.TriggerMetrics;
+import com.harms.stash.plugin.jenkins.job.intergration.schedule.PendingTriggerKey;
+import com.harms.stash.plugin.jenkins.job.intergration.schedule.PendingTriggerRegistry;
+
+/**
+ * Trigger the Jenkins jobs in the background on a small dedicated pool of threads, so the
+ * threads of the shared scheduler is not blocked while waiting on a slow Jenkins server.
+ *
+ * The trigger run inside a doAsUser on the trigger thread to make sure it called with the
+ * correct user and authorization, this is required otherwise it will give not authorized
+ * when it add the comments to the pull-request.
+ *
+ * The triggers waiting for a free thread are ordered by the priority of the event, so a
+ * {@link TriggerRequestEvent#FORCED_BUILD} go before a new pull-request, which go before an
+ * updated pull-request. The queue is bounded, when it's full the trigger with the lowest
+ * priority is deferred and scheduled again {@link #DEFER_DELAY} milliseconds later. A trigger
+ * refused by the rate limiters is deferred {@link #THROTTLED_DELAY} milliseconds, and is not
+ * reported as a failed trigger.
+ *
+ * A build is only triggered once for the same source and target change set of a pull-request,
+ * unless it's a {@link TriggerRequestEvent#FORCED_BUILD}.
+ *
+ * @author fharms
+ *
+ */
+public class AsyncJenkinsJobTrigger {
+    private static final Logger log = LoggerFactory.getLogger(AsyncJenkinsJobTrigger.class);
+
+    private static final int TRIGGER_THREADS = 4;
+    private static final int MAX_QUEUED_TRIGGERS = 500;
+    public static final long DEFER_DELAY = 60000;
+    public static final long THROTTLED_DELAY = 10000;
+
+    private final PullRequestService pullRequestService;
+    private final SecurityService securityService;
+    private final JobTrigger jenkinsCI;
+    private final PendingTriggerRegistry pendingTriggers;
+    private final TriggerMetrics metrics;
+    private final PriorityBlockingQueue<Runnable> queue = new PriorityBlockingQueue<Runnable>();
+    private final ThreadPoolExecutor executor;
+    private final TriggeredChangesets triggeredChangesets = new TriggeredChangesets();
+    private final AtomicLong sequence = new AtomicLong();
+    private final AtomicLong deferred = new AtomicLong();
+
+    public AsyncJenkinsJobTrigger(PullRequestService pullRequestService, SecurityService securityService, JobTrigger jenkinsCI, PendingTriggerRegistry pendingTriggers, TriggerMetrics metrics) {
+        this.pullRequestService = pullRequestService;
+        this.securityService = securityService;
+        this.jenkinsCI = jenkinsCI;
+        this.pendingTriggers = pendingTriggers;
+        this.metrics = metrics;
+        this.executor = new ThreadPoolExecutor(TRIGGER_THREADS, TRIGGER_THREADS, 60L, TimeUnit.SECONDS, queue,
+                new ThreadFactoryBuilder().setNameFormat("jenkins-job-trigger-%d").setDaemon(true).build());
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Trigger a build of the latest change set of the pull-request in the background
+     * @param user - The user the trigger is executed as
+     * @param repositoryId - The id of the repository
+     * @param pullRequestId - The id of the pull-request
+     * @param eventType - The type of job trigger event
+     * @return a {@link Future} which is done when the build is triggered and the pull-request is commented,
+     * or cancelled if the trigger is deferred
+     */
+    public Future<Object> triggerBuild(final StashUser user, final Integer repositoryId, final Long pullRequestId, final TriggerRequestEvent eventType) {
+        final UserOperation operation = new UserOperation(pullRequestService, jenkinsCI, triggeredChangesets, metrics, pullRequestId, repositoryId, eventType);
+        TriggerTask task = new TriggerTask(new Callable<Object>() {
+            @Override
+            public Object call() throws Exception {
+                try {
+                    return securityService.impersonating(user, "background_trigger_jenkins_job").call(operation);
+                } catch (TriggerThrottledException e) {
+                    log.info(String.format("The trigger for pull-request %s is rate limited : %s",pullRequestId,e.getMessage()));
+                    defer(user.getName(), repositoryId, pullRequestId, eventType, THROTTLED_DELAY);
+                    return null;
+                } catch (Throwable e) {
+                    log.error(String.format("Not able to execute the background job as user %s",user.getDisplayName()), e);
+                    return null;
+                }
+            }
+        }, user.getName(), repositoryId, pullRequestId, eventType, sequence.incrementAndGet());
+
+        TriggerTask rejected = null;
+        synchronized (queue) {
+            if (queue.size() >= MAX_QUEUED_TRIGGERS) {
+                TriggerTask lowest = getLowestPriority();
+                if (lowest != null && task.compareTo(lowest) < 0 && queue.remove(lowest)) {
+                    rejected = lowest;
+                } else {
+                    rejected = task;
+                }
+            }
+            if (rejected != task) {
+                executor.execute(task);
+            }
+        }
+        if (rejected != null) {
+            rejected.cancel(false);
+            log.warn(String.format("The trigger queue is full, the trigger for pull-request %s is deferred",rejected.pullRequestId));
+            defer(rejected.userName, rejected.repositoryId, rejected.pullRequestId, rejected.eventType, DEFER_DELAY);
+        }
+        return task;
+    }
+
+    private TriggerTask getLowestPriority() {
+        TriggerTask lowest = null;
+        for (Runnable r : queue) {
+            TriggerTask t = (TriggerTask) r;
+            if (lowest == null || t.compareTo(lowest) > 0) {
+                lowest = t;
+            }
+        }
+        return lowest;
+    }
+
+    /**
+     * Schedule the trigger again later
+     * @param userName - The name of the user the trigger is executed as
+     * @param repositoryId - The id of the repository
+     * @param pullRequestId - The id of the pull-request
+     * @param eventType - The type of job trigger event
+     * @param delay - The delay in milliseconds
+     */
+    private void defer(String userName, Integer repositoryId, Long pullRequestId, TriggerRequestEvent eventType, long delay) {
+        deferred.incrementAndGet();
+        long key = PendingTriggerKey.of(repositoryId, pullRequestId);
+        try {
+            pendingTriggers.schedule(key, JenkinsJobScheduler.buildJobDataMap(repositoryId, pullRequestId, eventType, userName), delay, delay);
+        } catch (SchedulerServiceException e) {
+            log.error(String.format("The trigger for pull-request %s could not be deferred",pullRequestId),e);
+        }
+    }
+
+    /**
+     * @return the number of triggers waiting for a free trigger thread
+     */
+    public int getQueueSize() {
+        return queue.size();
+    }
+
+    /**
+     * @return the number of triggers running right now
+     */
+    public int getActiveCount() {
+        return executor.getActiveCount();
+    }
+
+    /**
+     * @return the number of triggers deferred because the queue was full or the trigger was rate limited
+     */
+    public long getDeferredCount() {
+        return deferred.get();
+    }
+
+    /**
+     * Stop accepting new triggers and wait a short while for the running triggers to finish
+     */
+    public void shutdown() {
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(10, TimeUnit.SECONDS)) {
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * A queued trigger, ordered by the priority of the event and then by the order it was queued
+     */
+    static class TriggerTask extends FutureTask<Object> implements Comparable<TriggerTask> {
+        final String userName;
+        final Integer repositoryId;
+        final Long pullRequestId;
+        final TriggerRequestEvent eventType;
+        final long sequence;
+
+        TriggerTask(Callable<Object> callable, String userName, Integer repositoryId, Long pullRequestId, TriggerRequestEvent eventType, long sequence) {
+            super(callable);
+            this.userName = userName;
+            this.repositoryId = repositoryId;
+            this.pullRequestId = pullRequestId;
+            this.eventType = eventType;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public int compareTo(TriggerTask other) {
+            if (eventType.getPriority() != other.eventType.getPriority()) {
+                return eventType.getPriority() < other.eventType.getPriority() ? -1 : 1;
+            }
+            return sequence < other.sequence ? -1 : (sequence == other.sequence ? 0 : 1);
+        }
+    }
+
+    private static class UserOperation implements Operation<Object, Throwable> {
+
+        private final TriggerRequestEvent eventType;
+        private final JobTrigger jenkinsCI;
+        private final Long pullRequestId;
+        private final Integer repositoryId;
+        private final PullRequestService pullrequestService;
+        private final TriggeredChangesets triggeredChangesets;
+        private final TriggerMetrics metrics;
+
+        public UserOperation(PullRequestService pullrequestService, JobTrigger jenkinsCI, TriggeredChangesets triggeredChangesets, TriggerMetrics metrics, Long pullRequestId, Integer repositoryId, TriggerRequestEvent eventType) {
+            this.pullrequestService = pullrequestService;
+            this.triggeredChangesets = triggeredChangesets;
+            this.metrics = metrics;
+            this.pullRequestId = pullRequestId;
+            this.repositoryId = repositoryId;
+            this.jenkinsCI = jenkinsCI;
+            this.eventType = eventType;
+        }
+
+        @Override
+        public Object perform() throws Throwable {
+            PullRequest pr = pullrequestService.getById(repositoryId, pullRequestId); //this make sure we always working on the latest change set
+            if (pr != null) {
+                PullRequestData prd = new PullRequestData(pr);
+                long key = PendingTriggerKey.of(prd.repositoryId, prd.pullRequestId);
+                boolean firstTrigger = triggeredChangesets.record(key, prd.latestChanges, prd.toLatestChanges);
+                if (!firstTrigger && eventType != TriggerRequestEvent.FORCED_BUILD) {
+                    metrics.onDuplicateSuppressed();
+                    log.info(String.format("A build is already triggered for pull-request %s with the change sets %s and %s",prd.pullRequestId,prd.latestChanges,prd.toLatestChanges));
+                    return null;
+                }
+                //the CI server is only selected when the trigger is sent, the selection move the round-robin cursor
+                String jenkinsBaseUrl = jenkinsCI.nextCIServer(prd.slug);
+                if (jenkinsCI.validateSettings(jenkinsBaseUrl,prd.slug)) {
+                    log.debug(String.format("trigger build with parameter (%s, %s, %s, %s, %s, %s,%s",prd.repositoryId, prd.latestChanges, prd.pullRequestId,prd.title,prd.slug,eventType,jenkinsBaseUrl));
+                    try {
+                        jenkinsCI.triggerBuild(prd.repositoryId, prd.latestChanges, prd.pullRequestId,prd.title,prd.slug,eventType,jenkinsBaseUrl, prd.projectKey, prd.fromBranchId, prd.toBranchId);
+                    } catch (RuntimeException e) {
+                        //the build was not triggered, so allow the same change sets to be triggered again
+                        if (firstTrigger) {
+                            triggeredChangesets.forget(key, prd.latestChanges, prd.toLatestChanges);
+                        }
+                        throw e;
+                    }
+                } else {
+                    if (firstTrigger) {
+                        triggeredChangesets.forget(key, prd.latestChanges, prd.toLatestChanges);
+                    }
+                    log.warn("Jenkins base URL & Build reference field is missing, please add the information in the pull-in settings");
+                }
+            } else {
+                log.warn(String.format("No able to retrieve the pull-request with the key repository id (%s) and pull-request id (%s)", repositoryId,pullRequestId));
+            }
+            return null;
+        }
+
+    }
+}
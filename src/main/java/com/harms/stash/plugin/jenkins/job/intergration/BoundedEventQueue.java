@@ -0,0 +1,144 @@
+package com.harms.stash.plugin.jenkins.job.intergration;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Bounded queue drained by one dedicated worker thread, so the thread adding the events never
+ * wait on the work. Adding an event is lock-free, it's a {@link ConcurrentLinkedQueue} with an
+ * atomic counter for the bound, and the worker is only woken up when it's parked.
+ *
+ * The worker take up to the batch size of events at a time in the order they was added, and hand
+ * them to the {@link BatchHandler}, so the handler can share settings reads and coalesce work
+ * for the same pull-request.
+ *
+ * @author fharms
+ *
+ * @param <E> - The type of event
+ */
+public class BoundedEventQueue<E> {
+    private static final Logger log = LoggerFactory.getLogger(BoundedEventQueue.class);
+
+    //the worker check the queue at least this often, even if a wake up is lost
+    private static final long IDLE_PARK = TimeUnit.SECONDS.toNanos(1);
+    private static final long SHUTDOWN_TIMEOUT = 5000;
+
+    /**
+     * Handle a batch of events on the worker thread
+     */
+    public interface BatchHandler<E> {
+        void handle(List<E> events);
+    }
+
+    private final Queue<E> queue = new ConcurrentLinkedQueue<E>();
+    private final AtomicInteger size = new AtomicInteger();
+    private final int capacity;
+    private final int batchSize;
+    private final BatchHandler<E> handler;
+    private final Thread worker;
+    private volatile boolean parked = false;
+    private volatile boolean running = true;
+
+    /**
+     * Create the queue and start the worker thread
+     * @param name - The name of the worker thread
+     * @param capacity - The maximum number of events waiting in the queue
+     * @param batchSize - The maximum number of events handled at a time
+     * @param handler - The {@link BatchHandler}
+     */
+    public BoundedEventQueue(String name, int capacity, int batchSize, BatchHandler<E> handler) {
+        this.capacity = capacity;
+        this.batchSize = batchSize;
+        this.handler = handler;
+        this.worker = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                drain();
+            }
+        }, name);
+        this.worker.setDaemon(true);
+        this.worker.start();
+    }
+
+    /**
+     * Add the event to the queue
+     * @param event - The event
+     * @return false if the queue is full or shut down, the event is not added
+     */
+    public boolean offer(E event) {
+        if (!running) {
+            return false;
+        }
+        if (size.incrementAndGet() > capacity) {
+            size.decrementAndGet();
+            return false;
+        }
+        queue.offer(event);
+        if (parked) {
+            LockSupport.unpark(worker);
+        }
+        return true;
+    }
+
+    /**
+     * @return the number of events waiting in the queue
+     */
+    public int size() {
+        return size.get();
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Stop the worker, the batch being handled is finished but the waiting events are discarded
+     * @return the number of discarded events
+     */
+    public int shutdown() {
+        running = false;
+        LockSupport.unpark(worker);
+        try {
+            worker.join(SHUTDOWN_TIMEOUT);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        int discarded = size.getAndSet(0);
+        queue.clear();
+        return discarded;
+    }
+
+    private void drain() {
+        List<E> batch = new ArrayList<E>(batchSize);
+        while (running) {
+            E event;
+            while (batch.size() < batchSize && (event = queue.poll()) != null) {
+                batch.add(event);
+            }
+            if (batch.isEmpty()) {
+                parked = true;
+                //check again after the flag is set, an event added before it was set did not wake us
+                if (queue.isEmpty() && running) {
+                    LockSupport.parkNanos(this, IDLE_PARK);
+                }
+                parked = false;
+                continue;
+            }
+            size.addAndGet(-batch.size());
+            try {
+                handler.handle(batch);
+            } catch (RuntimeException e) {
+                log.error(String.format("Not able to handle %s events",batch.size()), e);
+            }
+            batch.clear();
+        }
+    }
+}
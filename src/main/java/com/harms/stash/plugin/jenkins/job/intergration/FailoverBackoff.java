@@ -0,0 +1,79 @@
+package com.harms.stash.plugin.jenkins.job.intergration;
+
+import java.util.Random;
+
+/**
+ * Control the pause between the attempts when a trigger fail over to the next CI server.
+ * The pause grow exponential with a random jitter, so triggers failing at the same time
+ * don't hit the next server at the same time, and the whole fail over is bounded by a
+ * total deadline.
+ *
+ * @author fharms
+ *
+ */
+public class FailoverBackoff {
+    public static final long DEFAULT_DEADLINE = 30000;
+    public static final long INITIAL_BACKOFF = 250;
+    public static final long MAX_BACKOFF = 4000;
+
+    private final long deadline;
+    private final long initialBackoff;
+    private final long maxBackoff;
+    private final Random random;
+
+    public FailoverBackoff() {
+        this(DEFAULT_DEADLINE, INITIAL_BACKOFF, MAX_BACKOFF, new Random());
+    }
+
+    /**
+     * @param timeout - The total time in milliseconds the fail over is allowed to take
+     * @param initialBackoff - The pause in milliseconds before the first retry
+     * @param maxBackoff - The maximum pause in milliseconds between two attempts
+     * @param random - Source of the jitter
+     */
+    public FailoverBackoff(long timeout, long initialBackoff, long maxBackoff, Random random) {
+        this.deadline = System.currentTimeMillis() + timeout;
+        this.initialBackoff = initialBackoff;
+        this.maxBackoff = maxBackoff;
+        this.random = random;
+    }
+
+    /**
+     * Return the pause before the specified retry. The pause is doubled for every retry up to
+     * the maximum pause, and half of it is random.
+     * @param retry - The retry number starting from 1
+     * @return the pause in milliseconds
+     */
+    public long nextBackoff(int retry) {
+        int shift = Math.min(Math.max(retry - 1, 0), 30);
+        long backoff = Math.min(maxBackoff, initialBackoff << shift);
+        long half = backoff / 2;
+        return half + (half > 0 ? (long) (random.nextDouble() * half) : 0);
+    }
+
+    /**
+     * @return the time left in milliseconds before the deadline
+     */
+    public long remaining() {
+        return Math.max(0, deadline - System.currentTimeMillis());
+    }
+
+    /**
+     * Pause before the specified retry, but never beyond the deadline
+     * @param retry - The retry number starting from 1
+     * @return false if the deadline is reached and no more attempts should be made
+     * @throws InterruptedException
+     */
+    public boolean await(int retry) throws InterruptedException {
+        long remaining = remaining();
+        if (remaining <= 0) {
+            return false;
+        }
+        long backoff = nextBackoff(retry);
+        if (backoff >= remaining) {
+            return false;
+        }
+        Thread.sleep(backoff);
+        return remaining() > 0;
+    }
+}
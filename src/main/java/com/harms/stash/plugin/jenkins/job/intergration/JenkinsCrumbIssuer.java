@@ -0,0 +1,102 @@
+package com.harms.stash.plugin.jenkins.job.intergration;
+
+import java.io.IOException;
+
+import org.apache.http.HttpStatus;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.util.EntityUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonSyntaxException;
+import com.harms.stash.plugin.jenkins.job.intergration.server.JenkinsServerRegistry;
+import com.harms.stash.plugin.jenkins.job.intergration.server.JenkinsSession;
+import com.harms.stash.plugin.jenkins.job.intergration.server.JenkinsSession.Crumb;
+
+/**
+ * Fetch the CSRF crumb from the Jenkins crumb issuer "crumbIssuer/api/json" at the root of the
+ * Jenkins server the job belong to. The crumb is cached
+ * in the {@link JenkinsSession}, so it's only fetched the first time a server is called and when
+ * the server reject the cached crumb, and not for every trigger.
+ *
+ * @author fharms
+ *
+ */
+public class JenkinsCrumbIssuer {
+    private static final Logger log = LoggerFactory.getLogger(JenkinsCrumbIssuer.class);
+
+    private final JenkinsHttpClient httpClient;
+
+    public JenkinsCrumbIssuer(JenkinsHttpClient httpClient) {
+        this.httpClient = httpClient;
+    }
+
+    /**
+     * Return the crumb of the session. The crumb is fetched if none is cached, or if the cached crumb
+     * is the rejected crumb. Concurrent triggers rejected with the same crumb only fetch it once.
+     * @param baseUrl - The base URL of the job
+     * @param session - The {@link JenkinsSession} of the user
+     * @param rejected - The crumb rejected by the server or null
+     * @param userName - The username or null
+     * @param password - The password or null
+     * @return the {@link Crumb} or null if the server has no crumb issuer
+     * @throws IOException
+     */
+    public Crumb getCrumb(String baseUrl, JenkinsSession session, Crumb rejected, byte[] userName, byte[] password) throws IOException {
+        if (!isFetchNeeded(session, rejected)) {
+            return session.getCrumb();
+        }
+        synchronized (session) {
+            if (!isFetchNeeded(session, rejected)) {
+                return session.getCrumb();
+            }
+            return fetchCrumb(baseUrl, session, userName, password);
+        }
+    }
+
+    private boolean isFetchNeeded(JenkinsSession session, Crumb rejected) {
+        Crumb crumb = session.getCrumb();
+        if (crumb == null) {
+            return session.isCrumbNeeded(System.currentTimeMillis());
+        }
+        return crumb == rejected;
+    }
+
+    private Crumb fetchCrumb(String baseUrl, JenkinsSession session, byte[] userName, byte[] password) throws IOException {
+        CloseableHttpResponse response = httpClient.execute(new HttpGet(JenkinsServerRegistry.getRootUrl(baseUrl) + "crumbIssuer/api/json"), userName, password, session.getCookieStore());
+        try {
+            int statusCode = response.getStatusLine().getStatusCode();
+            if (statusCode == HttpStatus.SC_NOT_FOUND) {
+                log.info(String.format("%s has no crumb issuer, the build is triggered without a crumb", baseUrl));
+                session.setNoCrumb(System.currentTimeMillis());
+                return null;
+            }
+            if (statusCode >= 400) {
+                log.warn(String.format("Not able to fetch the crumb from %s (%s)", baseUrl, statusCode));
+                return session.getCrumb();
+            }
+            CrumbResponse crumbResponse = new Gson().fromJson(EntityUtils.toString(response.getEntity(), "UTF-8"), CrumbResponse.class);
+            if (crumbResponse == null || crumbResponse.crumb == null || crumbResponse.crumbRequestField == null) {
+                throw new IOException(String.format("The crumb issuer of %s returned no crumb", baseUrl));
+            }
+            Crumb crumb = new Crumb(crumbResponse.crumbRequestField, crumbResponse.crumb);
+            session.setCrumb(crumb);
+            return crumb;
+        } catch (JsonSyntaxException e) {
+            throw new IOException(String.format("The crumb issuer of %s returned invalid JSON", baseUrl), e);
+        } finally {
+            EntityUtils.consume(response.getEntity());
+            response.close();
+        }
+    }
+
+    /**
+     * The JSON response of the crumb issuer
+     */
+    static class CrumbResponse {
+        String crumb;
+        String crumbRequestField;
+    }
+}
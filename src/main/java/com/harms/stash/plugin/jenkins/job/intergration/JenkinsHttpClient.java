@@ -0,0 +1,203 @@
+package com.harms.stash.plugin.jenkins.job.intergration;
+
+import java.io.IOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.HeaderElement;
+import org.apache.http.HeaderElementIterator;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpResponse;
+import org.apache.http.auth.AuthScope;
+import org.apache.http.auth.UsernamePasswordCredentials;
+import org.apache.http.client.AuthCache;
+import org.apache.http.client.CookieStore;
+import org.apache.http.client.CredentialsProvider;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.client.utils.URIUtils;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.impl.auth.BasicScheme;
+import org.apache.http.impl.client.BasicAuthCache;
+import org.apache.http.impl.client.BasicCredentialsProvider;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.message.BasicHeaderElementIterator;
+import org.apache.http.pool.PoolStats;
+import org.apache.http.protocol.HTTP;
+import org.apache.http.protocol.HttpContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Plug-in wide HTTP client for calling the Jenkins API. Every trigger share the same
+ * pooled connection manager, so the connections to the Jenkins servers are kept alive
+ * and reused between triggers instead of opening a new connection for every build.
+ *
+ * Idle and expired connections are evicted in the background, and the pool is closed
+ * when {@link #shutdown()} is called on plug-in shutdown.
+ *
+ * @author fharms
+ *
+ */
+public class JenkinsHttpClient {
+    private static final Logger log = LoggerFactory.getLogger(JenkinsHttpClient.class);
+
+    private static final int CONNECT_TIMEOUT = 5000;
+    private static final int SOCKET_TIMEOUT = 7000;
+    private static final int CONNECTION_REQUEST_TIMEOUT = 5000;
+    private static final int MAX_TOTAL_CONNECTIONS = 50;
+    private static final int MAX_CONNECTIONS_PER_ROUTE = 10;
+    private static final long DEFAULT_KEEP_ALIVE = 20000;
+    private static final long IDLE_CONNECTION_TIMEOUT = 30000;
+    private static final long EVICTION_INTERVAL = 10000;
+
+    private final PoolingHttpClientConnectionManager connectionManager;
+    private final CloseableHttpClient client;
+    private final ScheduledExecutorService evictor;
+
+    private volatile boolean shutdown = false;
+
+    public JenkinsHttpClient() {
+        connectionManager = new PoolingHttpClientConnectionManager();
+        connectionManager.setMaxTotal(MAX_TOTAL_CONNECTIONS);
+        connectionManager.setDefaultMaxPerRoute(MAX_CONNECTIONS_PER_ROUTE);
+
+        RequestConfig requestConfig = RequestConfig.custom()
+                .setConnectTimeout(CONNECT_TIMEOUT)
+                .setSocketTimeout(SOCKET_TIMEOUT)
+                .setConnectionRequestTimeout(CONNECTION_REQUEST_TIMEOUT)
+                .setStaleConnectionCheckEnabled(true)
+                .build();
+
+        client = HttpClients.custom()
+                .setConnectionManager(connectionManager)
+                .setDefaultRequestConfig(requestConfig)
+                .setKeepAliveStrategy(new JenkinsKeepAliveStrategy())
+                .build();
+
+        evictor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("jenkins-http-connection-evictor")
+                .setDaemon(true)
+                .build());
+        evictor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                connectionManager.closeExpiredConnections();
+                connectionManager.closeIdleConnections(IDLE_CONNECTION_TIMEOUT, TimeUnit.MILLISECONDS);
+            }
+        }, EVICTION_INTERVAL, EVICTION_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Execute the request on the shared client. If a username and password is specified
+     * the request is authenticated preemptive with basic authentication.
+     *
+     * The caller is responsible for consuming the response entity, otherwise the
+     * connection is not released back to the pool.
+     *
+     * @param request - The request to execute
+     * @param userName - The username or null
+     * @param password - The password or null
+     * @return the {@link HttpResponse}
+     * @throws IOException
+     */
+    public CloseableHttpResponse execute(HttpUriRequest request, byte[] userName, byte[] password) throws IOException {
+        return execute(request, userName, password, null);
+    }
+
+    /**
+     * Execute the request on the shared client with the cookies of a session, so the request
+     * belong to the same Jenkins session as the earlier requests with the cookies.
+     *
+     * @param request - The request to execute
+     * @param userName - The username or null
+     * @param password - The password or null
+     * @param cookieStore - The cookies of the session or null
+     * @return the {@link HttpResponse}
+     * @throws IOException
+     */
+    public CloseableHttpResponse execute(HttpUriRequest request, byte[] userName, byte[] password, CookieStore cookieStore) throws IOException {
+        if (shutdown) {
+            throw new IllegalStateException("The Jenkins HTTP client is shutdown");
+        }
+        HttpClientContext context = HttpClientContext.create();
+        if (cookieStore != null) {
+            context.setCookieStore(cookieStore);
+        }
+        if (userName != null && password != null) {
+            HttpHost targetHost = URIUtils.extractHost(request.getURI());
+            CredentialsProvider credentialsProvider = new BasicCredentialsProvider();
+            credentialsProvider.setCredentials(new AuthScope(AuthScope.ANY_HOST, AuthScope.ANY_PORT), new UsernamePasswordCredentials(new String(userName), new String(password)));
+            context.setCredentialsProvider(credentialsProvider);
+
+            AuthCache authCache = new BasicAuthCache();
+            authCache.put(targetHost, new BasicScheme());
+            context.setAuthCache(authCache);
+        }
+        return client.execute(request, context);
+    }
+
+    /**
+     * @return the number of open connections, both the connections in use and the idle connections in the pool
+     */
+    public int getOpenConnections() {
+        PoolStats stats = connectionManager.getTotalStats();
+        return stats.getLeased() + stats.getAvailable();
+    }
+
+    /**
+     * @return the number of connections in use
+     */
+    public int getLeasedConnections() {
+        return connectionManager.getTotalStats().getLeased();
+    }
+
+    /**
+     * Close all pooled connections and stop the eviction of idle connections.
+     * It's safe to call this more than once.
+     */
+    public void shutdown() {
+        if (shutdown) {
+            return;
+        }
+        shutdown = true;
+        evictor.shutdownNow();
+        try {
+            client.close();
+        } catch (IOException e) {
+            log.warn("Not able to close the Jenkins HTTP client", e);
+        }
+        connectionManager.shutdown();
+        log.info("Jenkins HTTP client is shutdown");
+    }
+
+    /**
+     * Keep the connection alive as long as the Jenkins server allows it with the
+     * "Keep-Alive" header, or fall back to a default timeout if the server doesn't tell.
+     */
+    static class JenkinsKeepAliveStrategy implements ConnectionKeepAliveStrategy {
+
+        @Override
+        public long getKeepAliveDuration(HttpResponse response, HttpContext context) {
+            HeaderElementIterator it = new BasicHeaderElementIterator(response.headerIterator(HTTP.CONN_KEEP_ALIVE));
+            while (it.hasNext()) {
+                HeaderElement he = it.nextElement();
+                if (he.getValue() != null && "timeout".equalsIgnoreCase(he.getName())) {
+                    try {
+                        return Long.parseLong(he.getValue()) * 1000;
+                    } catch (NumberFormatException ignore) {
+                        break;
+                    }
+                }
+            }
+            return DEFAULT_KEEP_ALIVE;
+        }
+    }
+}
@@ -12,19 +12,19 @@ import com.atlassian.scheduler.JobRunnerRequest;
 import com.atlassian.scheduler.JobRunnerResponse;
 import com.atlassian.scheduler.config.JobRunnerKey;
 import com.atlassian.stash.pull.PullRequest;
-import com.atlassian.stash.pull.PullRequestService;
-import com.atlassian.stash.user.SecurityService;
 import com.atlassian.stash.user.StashAuthenticationContext;
 import com.atlassian.stash.user.StashUser;
 import com.atlassian.stash.user.UserService;
-import com.atlassian.stash.util.Operation;
-import com.harms.stash.plugin.jenkins.job.settings.PluginSettingsHelper;
+import com.harms.stash.plugin.jenkins.job.intergration.metrics.TriggerMetrics;
+import com.harms.stash.plugin.jenkins.job.intergration.schedule.PendingTriggerKey;
+import com.harms.stash.plugin.jenkins.job.intergration.schedule.PendingTriggerRegistry;
 
 /**
  * A Job executor for trigger the jenkins job when the background job is executed
- * The triggerBuild code run inside a doAsUser to make sure it called with the correct
- * user and authorization, this is required otherwise it will give not authorized when
- * it try to update the pull-request
+ * The trigger is handed over to the {@link AsyncJenkinsJobTrigger} so the scheduler
+ * thread is released right away instead of waiting on the Jenkins server.
+ * If the pending trigger has been moved forward by new events, the job is scheduled
+ * again at the new time instead of triggering the build
  *
  * @author fharms
  *
@@ -33,17 +33,20 @@ public class JenkinsJobScheduler implements JobRunner {
 	public static final  JobRunnerKey jobRunnerKey = JobRunnerKey.of("com.harms.stash.plugin.jenkins.job.intergration:jenkins-job-intergration:ScheduleBuild");
     private static final Logger log = LoggerFactory.getLogger(JenkinsJobScheduler.class);
 
-	private final PullRequestService pullRequestService;
-	private final SecurityService securityService;
+    //fire a little early rather than re-arm the job for less than a second
+    private static final long FIRE_TOLERANCE = 1000;
+
 	private final UserService userService;
-	private JobTrigger jenkinsCI;
+	private final AsyncJenkinsJobTrigger jobTrigger;
+	private final PendingTriggerRegistry pendingTriggers;
+	private final TriggerMetrics metrics;
 		
     
-    public JenkinsJobScheduler(PullRequestService pullRequestService, UserService userService,SecurityService securityService, JobTrigger jenkinsCiIntergration) {
-		this.pullRequestService = pullRequestService;
+    public JenkinsJobScheduler(UserService userService, AsyncJenkinsJobTrigger jobTrigger, PendingTriggerRegistry pendingTriggers, TriggerMetrics metrics) {
 		this.userService = userService;
-		this.securityService = securityService;
-		this.jenkinsCI = jenkinsCiIntergration;
+		this.jobTrigger = jobTrigger;
+		this.pendingTriggers = pendingTriggers;
+		this.metrics = metrics;
 	}
     @Override
 	public JobRunnerResponse runJob(JobRunnerRequest request) {
@@ -51,17 +54,25 @@ public class JenkinsJobScheduler implements JobRunner {
 	    	 Map<String, Serializable> jobDataMap = request.getJobConfig().getParameters();
 	         Long pullRequestId = (Long) jobDataMap.get("pullrequest_id");
 	         Integer repositoryId = (Integer) jobDataMap.get("repository_id");
-	         String slug = (String) jobDataMap.get("slug");
+	         long key = PendingTriggerKey.of(repositoryId, pullRequestId);
+	         
+	         jobDataMap = pendingTriggers.tryFire(key, jobDataMap, System.currentTimeMillis() + FIRE_TOLERANCE);
+	         if (jobDataMap == null) {
+	             //new events has moved the trigger forward, the job is scheduled again at the new time
+	             log.debug(String.format("Job trigger %s is postponed",request.getJobId()));
+	             return JobRunnerResponse.success("Postponed");
+	         }
+	         
 	         TriggerRequestEvent eventType = (TriggerRequestEvent) jobDataMap.get("TriggerRequestEvent");
 	         StashUser user = userService.getUserByName((String) jobDataMap.get("User"));
-	         String jobKey = PluginSettingsHelper.getScheduleJobKey(slug,pullRequestId);
-	         
+	         Serializable fireTime = jobDataMap.get(PendingTriggerRegistry.FIRE_TIME);
+	         if (fireTime instanceof Long) {
+	             metrics.recordTriggerDelay(System.currentTimeMillis() - (Long) fireTime);
+	         }
 	         try {
-	         	securityService.impersonating(user, "background_trigger_jenkins_job").call(new UserOperation(pullRequestService, jenkinsCI, pullRequestId, repositoryId, eventType));
-	         } catch (Throwable e) {
-	             log.error(String.format("Not able to execute the background job as user %s",user.getDisplayName(), e));
+	         	jobTrigger.triggerBuild(user, repositoryId, pullRequestId, eventType);
 	         } finally {
-	             PluginSettingsHelper.resetScheduleTime(jobKey);
+	             pendingTriggers.fired(key);
 	         }
     	} catch (Exception e) {
     		log.error(String.format("Not able to run job with id %s",request.getJobId().toString()),e);
@@ -73,56 +84,48 @@ public class JenkinsJobScheduler implements JobRunner {
     /**
      * Build a map of job data to be passed to the {@link JenkinsJobScheduler}
      * @param pr - The {@link PullRequest}
+     * @param stashAuthenticationContext - The context of the current user
      * @param event - The type of {@link TriggerRequestEvent}
-     * @param pullRequestService - The {@link PullRequestService}
-     * @param userManager - The {@link UserManager}
-     * @param securityService - Then {@link SecurityService}
      * @return A map with the job data
      */
     static public Map<String, Serializable> buildJobDataMap(PullRequest pr, StashAuthenticationContext stashAuthenticationContext, TriggerRequestEvent event) {
+        return buildJobDataMap(pr.getToRef().getRepository().getId(), pr.getId(), event, stashAuthenticationContext.getCurrentUser().getName());
+    }
+
+    /**
+     * Build a map of job data to be passed to the {@link JenkinsJobScheduler}
+     * @param repositoryId - The id of the repository the pull-request belong to
+     * @param pullRequestId - The id of the pull-request
+     * @param event - The type of {@link TriggerRequestEvent}
+     * @param userName - The name of the user the job is executed as
+     * @return A map with the job data
+     */
+    static public Map<String, Serializable> buildJobDataMap(Integer repositoryId, Long pullRequestId, TriggerRequestEvent event, String userName) {
         Map<String, Serializable> jobDataMap = new HashMap<String, Serializable>();
-        jobDataMap.put("pullrequest_id", pr.getId());
-        jobDataMap.put("repository_id", pr.getFromRef().getRepository().getId());
-        jobDataMap.put("slug", pr.getFromRef().getRepository().getSlug());
+        jobDataMap.put("pullrequest_id", pullRequestId);
+        jobDataMap.put("repository_id", repositoryId);
         jobDataMap.put("TriggerRequestEvent", event);
-        jobDataMap.put("User",stashAuthenticationContext.getCurrentUser().getName());
+        jobDataMap.put("User",userName);
         return jobDataMap;
     }
 
-    private class UserOperation implements Operation<Object, Throwable> {
-
-        private final TriggerRequestEvent eventType;
-        private final JobTrigger jenkinsCI;
-        private final Long pullRequestId;
-        private final Integer repositoryId;
-        private final PullRequestService pullrequestService;
-
-        public UserOperation(PullRequestService pullrequestService, JobTrigger jenkinsCI, Long pullRequestId, Integer repositoryId, TriggerRequestEvent eventType) {
-            this.pullrequestService = pullrequestService;
-            this.pullRequestId = pullRequestId;
-            this.repositoryId = repositoryId;
-            this.jenkinsCI = jenkinsCI;
-            this.eventType = eventType;
-        }
-
-        @Override
-        public Object perform() throws Throwable {
-            PullRequest pr = pullrequestService.getById(repositoryId, pullRequestId); //this make sure we always working on the latest change set
-            if (pr != null) {
-                PullRequestData prd = new PullRequestData(pr);
-                String jenkinsBaseUrl = jenkinsCI.nextCIServer(prd.slug);
-                if (jenkinsCI.validateSettings(jenkinsBaseUrl,prd.slug)) {
-                    log.debug(String.format("trigger build with parameter (%s, %s, %s, %s, %s, %s,%s",prd.repositoryId, prd.latestChanges, prd.pullRequestId,prd.title,prd.slug,eventType,jenkinsBaseUrl));
-                    jenkinsCI.triggerBuild(prd.repositoryId, prd.latestChanges, prd.pullRequestId,prd.title,prd.slug,eventType, 0,jenkinsBaseUrl, prd.projectKey, prd.fromBranchId, prd.toBranchId);
-                } else {
-                    log.warn("Jenkins base URL & Build reference field is missing, please add the information in the pull-in settings");
-                }
-            } else {
-                log.warn(String.format("No able to retrieve the pull-request with the key repository id (%s) and pull-request id (%s)", repositoryId,pullRequestId));
-            }
-            return null;
+    /**
+     * Merge the job data of a new event into the job data of the pending trigger it's coalesced with.
+     * The event with the highest priority win, and the latest event if they have the same priority,
+     * so e.g. a created pull-request is still triggered as created when it's updated right after.
+     * @param current - The job data of the pending trigger
+     * @param latest - The job data of the new event
+     * @return A new map with the merged job data
+     */
+    static public Map<String, Serializable> mergeJobDataMap(Map<String, Serializable> current, Map<String, Serializable> latest) {
+        Map<String, Serializable> jobDataMap = new HashMap<String, Serializable>(current);
+        TriggerRequestEvent currentEvent = (TriggerRequestEvent) current.get("TriggerRequestEvent");
+        TriggerRequestEvent latestEvent = (TriggerRequestEvent) latest.get("TriggerRequestEvent");
+        if (currentEvent == null || latestEvent == null || latestEvent.getPriority() <= currentEvent.getPriority()) {
+            jobDataMap.put("TriggerRequestEvent", latestEvent);
+            jobDataMap.put("User", latest.get("User"));
         }
-
+        return jobDataMap;
     }
 
 }
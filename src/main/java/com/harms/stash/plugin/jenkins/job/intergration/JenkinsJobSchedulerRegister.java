@@ -1,43 +1,60 @@
 package com.harms.stash.plugin.jenkins.job.intergration;
 
+import java.io.IOException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.InitializingBean;
 
 import com.atlassian.scheduler.SchedulerService;
-import com.atlassian.stash.pull.PullRequestService;
-import com.atlassian.stash.user.SecurityService;
 import com.atlassian.stash.user.UserService;
+import com.harms.stash.plugin.jenkins.job.intergration.metrics.TriggerMetrics;
+import com.harms.stash.plugin.jenkins.job.intergration.schedule.PendingTriggerRegistry;
+import com.harms.stash.plugin.jenkins.job.settings.PluginSettingsHelper;
 
 /**
- * Register/unegister the Job Runner when the bean is Initializing / Disposable
+ * Register/unegister the Job Runner when the bean is Initializing / Disposable,
+ * compute the encryption key when the plug-in is started
+ * and release the shared {@link JenkinsHttpClient} and {@link AsyncJenkinsJobTrigger} when the plug-in is shutdown
  * 
  * @author fharms
  *
  */
 public class JenkinsJobSchedulerRegister implements DisposableBean, InitializingBean { 
+    private static final Logger log = LoggerFactory.getLogger(JenkinsJobSchedulerRegister.class);
 
     private final SchedulerService schedulerService;
-	private final PullRequestService pullRequestService;
 	private final UserService userService;
-	private final SecurityService securityService;
-	private final JobTrigger jenkinsCiIntergration; 
+	private final AsyncJenkinsJobTrigger jobTrigger; 
+	private final JenkinsHttpClient httpClient;
+	private final PendingTriggerRegistry pendingTriggers;
+	private final TriggerMetrics metrics;
 
-    public JenkinsJobSchedulerRegister(SchedulerService schedulerService, PullRequestService pullRequestService,UserService userService,SecurityService securityService,JobTrigger jenkinsCiIntergration) { 
+    public JenkinsJobSchedulerRegister(SchedulerService schedulerService, UserService userService, AsyncJenkinsJobTrigger jobTrigger, JenkinsHttpClient httpClient, PendingTriggerRegistry pendingTriggers, TriggerMetrics metrics) { 
         this.schedulerService = schedulerService;
-		this.pullRequestService = pullRequestService;
 		this.userService = userService;
-		this.securityService = securityService;
-		this.jenkinsCiIntergration = jenkinsCiIntergration; 
+		this.jobTrigger = jobTrigger; 
+		this.httpClient = httpClient;
+		this.pendingTriggers = pendingTriggers;
+		this.metrics = metrics;
     } 
 
     @Override 
     public void afterPropertiesSet()  { 
-    	schedulerService.registerJobRunner(JenkinsJobScheduler.jobRunnerKey, new JenkinsJobScheduler(pullRequestService,userService,securityService,jenkinsCiIntergration));
+        try {
+            PluginSettingsHelper.refreshEncryptionKey();
+        } catch (IOException e) {
+            log.warn("Not able to compute the encryption key, it will be computed on first use", e);
+        }
+    	schedulerService.registerJobRunner(JenkinsJobScheduler.jobRunnerKey, new JenkinsJobScheduler(userService,jobTrigger,pendingTriggers,metrics));
     	    
     } 
 
     @Override 
     public void destroy() { 
         schedulerService.unregisterJobRunner(JenkinsJobScheduler.jobRunnerKey); 
+        jobTrigger.shutdown();
+        httpClient.shutdown();
     } 
 }
\ No newline at end of file
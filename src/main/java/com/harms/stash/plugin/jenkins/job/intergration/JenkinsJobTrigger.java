@@ -1,59 +1,105 @@
 package com.harms.stash.plugin.jenkins.job.intergration;
 
 import java.io.IOException;
-import java.io.UnsupportedEncodingException;
-import java.net.URLEncoder;
-
-import org.apache.http.HttpException;
-import org.apache.http.HttpHost;
-import org.apache.http.HttpRequest;
-import org.apache.http.HttpRequestInterceptor;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.Header;
 import org.apache.http.HttpResponse;
-import org.apache.http.auth.AuthScheme;
-import org.apache.http.auth.AuthScope;
-import org.apache.http.auth.AuthState;
-import org.apache.http.auth.Credentials;
-import org.apache.http.auth.UsernamePasswordCredentials;
-import org.apache.http.client.ClientProtocolException;
-import org.apache.http.client.CredentialsProvider;
+import org.apache.http.HttpStatus;
 import org.apache.http.client.methods.HttpPost;
-import org.apache.http.client.methods.HttpRequestBase;
-import org.apache.http.client.protocol.ClientContext;
-import org.apache.http.impl.auth.BasicScheme;
-import org.apache.http.impl.client.DefaultHttpClient;
-import org.apache.http.params.BasicHttpParams;
-import org.apache.http.params.HttpConnectionParams;
-import org.apache.http.params.HttpParams;
-import org.apache.http.protocol.BasicHttpContext;
-import org.apache.http.protocol.ExecutionContext;
-import org.apache.http.protocol.HttpContext;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
 import org.apache.http.util.EntityUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
 
 import com.atlassian.plugin.webresource.UrlMode;
 import com.atlassian.plugin.webresource.WebResourceUrlProvider;
 import com.atlassian.sal.api.pluginsettings.PluginSettings;
 import com.atlassian.sal.api.pluginsettings.PluginSettingsFactory;
-import com.atlassian.stash.pull.PullRequestService;
+import com.google.common.base.Joiner;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.harms.stash.plugin.jenkins.job.intergration.comment.PullRequestCommentWriter;
+import com.harms.stash.plugin.jenkins.job.intergration.metrics.TriggerMetrics;
+import com.harms.stash.plugin.jenkins.job.intergration.server.CircuitBreaker;
+import com.harms.stash.plugin.jenkins.job.intergration.server.EwmaLatencySelection;
+import com.harms.stash.plugin.jenkins.job.intergration.server.JenkinsServer;
+import com.harms.stash.plugin.jenkins.job.intergration.server.JenkinsServerRegistry;
+import com.harms.stash.plugin.jenkins.job.intergration.server.JenkinsSession;
+import com.harms.stash.plugin.jenkins.job.intergration.server.JenkinsSession.Crumb;
+import com.harms.stash.plugin.jenkins.job.intergration.server.LeastOutstandingSelection;
+import com.harms.stash.plugin.jenkins.job.intergration.server.PowerOfTwoChoicesSelection;
+import com.harms.stash.plugin.jenkins.job.intergration.server.RoundRobinSelection;
+import com.harms.stash.plugin.jenkins.job.intergration.server.ServerSelection;
+import com.harms.stash.plugin.jenkins.job.intergration.server.ServerSelectionStrategy;
+import com.harms.stash.plugin.jenkins.job.intergration.status.BuildStatusPoller;
+import com.harms.stash.plugin.jenkins.job.settings.JobTarget;
 import com.harms.stash.plugin.jenkins.job.settings.PluginSettingsHelper;
+import com.harms.stash.plugin.jenkins.job.settings.RepositorySettings;
 
-final public class JenkinsJobTrigger implements JobTrigger {
+final public class JenkinsJobTrigger implements JobTrigger, DisposableBean {
 	private static final long serialVersionUID = 8685235357537808631L;
 
 	private transient static final Logger log = LoggerFactory.getLogger(JenkinsJobTrigger.class);
 
-    private final PullRequestService pullRequestService;
+    private static final int MAX_FAN_OUT_THREADS = 8;
+    private static final long FAN_OUT_KEEP_ALIVE = 60000;
+    static final long DEFAULT_HEDGE_DELAY = 1000;
+    static final long MIN_HEDGE_DELAY = 20;
+    static final long MIN_HEDGE_SAMPLES = 20;
+
+    private final PullRequestCommentWriter commentWriter;
     private final PluginSettings settings;
     private final WebResourceUrlProvider webResourceUrlProvider;
-
-    private volatile String[] serverList;
-
-
-	public JenkinsJobTrigger(PullRequestService pullRequestService, PluginSettingsFactory pluginSettingsFactory, WebResourceUrlProvider webResourceUrlProvider) {
-		this.pullRequestService = pullRequestService;
+    private final JenkinsHttpClient httpClient;
+    private final JenkinsCrumbIssuer crumbIssuer;
+    private final JenkinsServerRegistry serverRegistry;
+    private final TriggerMetrics metrics;
+    private final Map<ServerSelection, ServerSelectionStrategy> selectionStrategies;
+    private final ExecutorService fanOutExecutor;
+    private final BuildStatusPoller buildStatusPoller;
+    private volatile long failoverDeadline = FailoverBackoff.DEFAULT_DEADLINE;
+
+
+	public JenkinsJobTrigger(PullRequestCommentWriter commentWriter, PluginSettingsFactory pluginSettingsFactory, WebResourceUrlProvider webResourceUrlProvider, JenkinsHttpClient httpClient, JenkinsServerRegistry serverRegistry, TriggerMetrics metrics, BuildStatusPoller buildStatusPoller) {
+		this.commentWriter = commentWriter;
         this.webResourceUrlProvider = webResourceUrlProvider;
+        this.httpClient = httpClient;
+        this.crumbIssuer = new JenkinsCrumbIssuer(httpClient);
+        this.serverRegistry = serverRegistry;
+        this.metrics = metrics;
+        this.buildStatusPoller = buildStatusPoller;
         this.settings = pluginSettingsFactory.createGlobalSettings();
+        this.selectionStrategies = new EnumMap<ServerSelection, ServerSelectionStrategy>(ServerSelection.class);
+        this.selectionStrategies.put(ServerSelection.ROUND_ROBIN, new RoundRobinSelection(settings));
+        this.selectionStrategies.put(ServerSelection.LEAST_OUTSTANDING, new LeastOutstandingSelection(serverRegistry));
+        this.selectionStrategies.put(ServerSelection.EWMA_LATENCY, new EwmaLatencySelection(serverRegistry));
+        this.selectionStrategies.put(ServerSelection.POWER_OF_TWO_CHOICES, new PowerOfTwoChoicesSelection(serverRegistry));
+        //when all the threads is busy the job target is triggered by the calling thread
+        this.fanOutExecutor = new ThreadPoolExecutor(0, MAX_FAN_OUT_THREADS, FAN_OUT_KEEP_ALIVE, TimeUnit.MILLISECONDS,
+                new SynchronousQueue<Runnable>(),
+                new ThreadFactoryBuilder().setNameFormat("jenkins-job-fan-out-%d").setDaemon(true).build(),
+                new ThreadPoolExecutor.CallerRunsPolicy());
 	}
 
 	/* (non-Javadoc)
@@ -61,29 +107,25 @@ final public class JenkinsJobTrigger implements JobTrigger {
      */
 	@Override
     public String nextCIServer(String slug) {
-	    String lastCiServer = null;
-	    synchronized (settings) {
-
-	        serverList = PluginSettingsHelper.getJenkinsCIServerList(slug, settings);
-
-	        lastCiServer = serverList[0];
-
-	        String lastStoredCiServer = PluginSettingsHelper.getLastJenkinsCIServer(slug, settings);
-    	    if (lastStoredCiServer != null) {
-    	        for (int i = 0; i < serverList.length; i++) {
-                   if (serverList[i].equals(lastStoredCiServer)) {
-                       if (i+1 < serverList.length) {
-                           lastCiServer = serverList[i+1];
-                       }
-                       break;
-                   }
-                }
-    	    }
-    	    lastCiServer = getBaseUrl(lastCiServer);
-    	    log.info(String.format("select the next CI server from the list %s", lastCiServer));
-    	    PluginSettingsHelper.setLastJenkinsCIServer(slug, lastCiServer, settings);
-	    }
-	    return lastCiServer;
+        RepositorySettings repositorySettings = PluginSettingsHelper.getRepositorySettings(slug, settings);
+        String[] serverList = repositorySettings.getJenkinsCIServerList();
+        if (serverList.length == 0) {
+            return null;
+        }
+        for (int i = 0; i < serverList.length; i++) {
+            serverList[i] = getBaseUrl(serverList[i]);
+        }
+
+        //skip the servers with an open circuit, if all is open the trigger will fail fast
+        List<String> available = serverRegistry.getAvailableServers(serverList);
+        if (available.isEmpty()) {
+            return serverList[0];
+        }
+
+        ServerSelection selection = ServerSelection.fromName(repositorySettings.getJenkinsCIServerSelection());
+        String nextCiServer = selectionStrategies.get(selection).select(slug, available);
+        log.info(String.format("select the next CI server from the list %s (%s)", nextCiServer, selection.getText()));
+        return nextCiServer;
 	}
 
 	/* (non-Javadoc)
@@ -91,181 +133,682 @@ final public class JenkinsJobTrigger implements JobTrigger {
      */
 	@Override
     public boolean validateSettings(String jenkinsBaseUrl, String slug) {
-	    return (jenkinsBaseUrl != null) && (PluginSettingsHelper.getBuildReferenceField(slug, settings) != null);
+	    return (jenkinsBaseUrl != null) && (PluginSettingsHelper.getRepositorySettings(slug, settings).getBuildReferenceField() != null);
 	}
 
     /* (non-Javadoc)
-     * @see com.harms.stash.plugin.jenkins.job.intergration.TriggerJobIntergration#triggerBuild(java.lang.Integer, java.lang.String, java.lang.Long, java.lang.String, java.lang.String, com.harms.stash.plugin.jenkins.job.intergration.TriggerRequestEvent, int, java.lang.String)
+     * @see com.harms.stash.plugin.jenkins.job.intergration.TriggerJobIntergration#triggerBuild(java.lang.Integer, java.lang.String, java.lang.Long, java.lang.String, java.lang.String, com.harms.stash.plugin.jenkins.job.intergration.TriggerRequestEvent, java.lang.String)
      */
     @Override
-    public void triggerBuild(Integer toRefRepositoryId, String latestChangeset, Long pullRequestId, String pullRequestTitle, String slug, TriggerRequestEvent eventType, int retryCount, String baseUrl, String projectKey, String fromBranchId, String toBranchId) {
-        String url = "";
-        HttpResponse response = null;
+    public void triggerBuild(Integer toRefRepositoryId, String latestChangeset, Long pullRequestId, String pullRequestTitle, String slug, TriggerRequestEvent eventType, String baseUrl, String projectKey, String fromBranchId, String toBranchId) {
+        final RepositorySettings repositorySettings = PluginSettingsHelper.getRepositorySettings(slug, settings);
+        final String[] servers = getFailoverOrder(repositorySettings, baseUrl);
+        final String stashBaseUrl = webResourceUrlProvider.getBaseUrl(UrlMode.ABSOLUTE);
 
+        final byte[] userName;
+        final byte[] password;
         try {
-            url = buildJenkinsUrl(latestChangeset, pullRequestId,pullRequestTitle,slug, baseUrl, projectKey, fromBranchId, toBranchId);
-            HttpPost post = new HttpPost(url);
-            byte[] userName = PluginSettingsHelper.getUsername(slug, settings);
-            byte[] password = PluginSettingsHelper.getPassword(slug, settings);
-            response = httpClientRequest(post, userName, password);
-            EntityUtils.consume(response.getEntity());
+            userName = repositorySettings.getUsername();
+            password = repositorySettings.getPassword();
         } catch (Exception e) {
-            if (!retryTriggerJob(toRefRepositoryId,latestChangeset,pullRequestId,pullRequestTitle,slug,projectKey,eventType, retryCount, url,-1,e.getMessage(), fromBranchId, toBranchId)) {
-                addErrorComment(toRefRepositoryId, pullRequestId, String.format("Failed to trigger build %s\nException : %s",url,e.getMessage()));
-                throw new RuntimeException(e);
+            addErrorComment(toRefRepositoryId, pullRequestId, String.format("Failed to trigger build\nException : %s",e.getMessage()), repositorySettings);
+            throw new RuntimeException(e);
+        }
+
+        //the same key is sent to every server and job of the trigger, so a job can skip the duplicate of a hedged trigger
+        final String idempotencyKey = UUID.randomUUID().toString();
+
+        //trigger the additional job targets concurrently with the configured job
+        List<JobTarget> jobTargets = repositorySettings.getJobTargets();
+        List<Future<TargetResult>> futures = new ArrayList<Future<TargetResult>>(jobTargets.size()-1);
+        for (final JobTarget jobTarget : jobTargets.subList(1, jobTargets.size())) {
+            final String jobParameters = withIdempotencyKey(repositorySettings, buildJobParameters(jobTarget, slug, latestChangeset, pullRequestId, pullRequestTitle, stashBaseUrl, projectKey, fromBranchId, toBranchId), idempotencyKey);
+            final TriggerRequestEvent event = eventType;
+            final Long id = pullRequestId;
+            futures.add(fanOutExecutor.submit(new Callable<TargetResult>() {
+                @Override
+                public TargetResult call() {
+                    return triggerJobTarget(repositorySettings, jobTarget, servers, jobParameters, userName, password, event, id);
+                }
+            }));
+        }
+        JobTarget configuredJob = jobTargets.get(0);
+        List<TargetResult> results = new ArrayList<TargetResult>(jobTargets.size());
+        String configuredJobParameters = withIdempotencyKey(repositorySettings, buildJobParameters(configuredJob, slug, latestChangeset, pullRequestId, pullRequestTitle, stashBaseUrl, projectKey, fromBranchId, toBranchId), idempotencyKey);
+        results.add(triggerJobTarget(repositorySettings, configuredJob, servers, configuredJobParameters, userName, password, eventType, pullRequestId));
+        for (int i = 0; i < futures.size(); i++) {
+            JobTarget jobTarget = jobTargets.get(i+1);
+            try {
+                results.add(futures.get(i).get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                results.add(new TargetResult(jobTarget, null, null, null, Collections.singletonList("interrupted")));
+            } catch (ExecutionException e) {
+                results.add(new TargetResult(jobTarget, null, null, null, Collections.singletonList(String.valueOf(e.getCause().getMessage()))));
             }
-        } finally {
-            if (response != null) {
-                int statusCode = response.getStatusLine().getStatusCode();
-                if (statusCode >= 400) {
-                    if (!retryTriggerJob(toRefRepositoryId,latestChangeset,pullRequestId,pullRequestTitle,slug,projectKey,eventType, retryCount, url, statusCode,"", fromBranchId, toBranchId)) {
-                        addErrorComment(toRefRepositoryId, pullRequestId, String.format("All CI servers failed, no job is triggered",url));
-                        throw new RuntimeException("All CI servers failed, no job is triggered\nFailed : HTTP error code : " + statusCode);
+        }
+
+        List<String> failures = new ArrayList<String>();
+        boolean triggered = false;
+        boolean throttled = true;
+        for (TargetResult result : results) {
+            if (result.jobUrl != null) {
+                triggered = true;
+            } else {
+                failures.add(result.getFailureText());
+                throttled &= result.throttled;
+            }
+        }
+        if (!triggered && throttled) {
+            //no CI server failed, the trigger is tried again later
+            throw new TriggerThrottledException("The trigger is rate limited\nRefused : " + Joiner.on(", ").join(failures));
+        }
+        for (int i = 0; i < failures.size(); i++) {
+            metrics.onTriggerFailed();
+        }
+        if (!triggered) {
+            addErrorComment(toRefRepositoryId, pullRequestId, String.format("All CI servers failed, no job is triggered\n%s",Joiner.on('\n').join(failures)), repositorySettings);
+            throw new RuntimeException("All CI servers failed, no job is triggered\nFailed : " + Joiner.on(", ").join(failures));
+        }
+        addComment(toRefRepositoryId, pullRequestId, eventType, latestChangeset, results, repositorySettings);
+        if (repositorySettings.isReportBuildResult()) {
+            for (TargetResult result : results) {
+                if (result.jobUrl != null) {
+                    buildStatusPoller.track(toRefRepositoryId, pullRequestId, latestChangeset, slug, result.serverUrl, result.jobUrl, result.queueItemUrl);
+                }
+            }
+        }
+    }
+
+    /**
+     * Trigger the job of the job target, starting with the selected CI server and fail over to the next
+     * servers in the list until one of them accept the build. When the triggers are hedged the first
+     * trigger is sent to the next server too, if the selected server is slow.
+     * @param repositorySettings - The settings of the repository
+     * @param jobTarget - The {@link JobTarget} to trigger
+     * @param servers - The CI servers in fail over order
+     * @param jobParameters - The encoded job parameters
+     * @param userName - The username or null
+     * @param password - The password or null
+     * @param eventType - The type of the event
+     * @param pullRequestId - The id of the pull-request
+     * @return the {@link TargetResult}
+     */
+    private TargetResult triggerJobTarget(RepositorySettings repositorySettings, JobTarget jobTarget, String[] servers, String jobParameters, byte[] userName, byte[] password,
+            TriggerRequestEvent eventType, Long pullRequestId) {
+        List<String> failures = new ArrayList<String>();
+        FailoverBackoff backoff = new FailoverBackoff(failoverDeadline, FailoverBackoff.INITIAL_BACKOFF, FailoverBackoff.MAX_BACKOFF, new Random());
+        int attempts = 0;
+        boolean rateLimited = false;
+        boolean sent = false;
+        for (int i = 0; i < servers.length; i++) {
+            if (i > 0) {
+                metrics.onFailoverHop();
+            }
+            JenkinsServer server = serverRegistry.getServer(servers[i]);
+            CircuitBreaker circuitBreaker = server.getCircuitBreaker();
+            if (!circuitBreaker.isCallPermitted()) {
+                failures.add(String.format("%s(circuit open)",servers[i]));
+                continue;
+            }
+            try {
+                if (attempts++ > 0 && !backoff.await(attempts-1)) {
+                    log.warn(String.format("Deadline reached for triggering pull-request %s after %s attempts",pullRequestId,attempts-1));
+                    break;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            try {
+                RateLimit rateLimit = acquireRateLimit(server, backoff.remaining());
+                if (rateLimit != RateLimit.ACQUIRED) {
+                    rateLimited = true;
+                    failures.add(String.format("%s(rate limited)",servers[i]));
+                    if (rateLimit == RateLimit.GLOBAL_LIMITED) {
+                        //the global limit is shared by all the servers
+                        break;
                     }
-                } else {
+                    continue;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            if (!circuitBreaker.tryAcquirePermission()) {
+                releaseRateLimit(server);
+                failures.add(String.format("%s(circuit open)",servers[i]));
+                continue;
+            }
+            sent = true;
+
+            TargetResult result;
+            if (i == 0 && servers.length > 1 && repositorySettings.getHedgePercentile() > 0) {
+                Hedge hedge = new Hedge();
+                result = triggerHedged(hedge, repositorySettings, jobTarget, servers, jobParameters, userName, password, eventType);
+                if (hedge.isHedgeSent()) {
+                    //the next server is tried by the hedged trigger
+                    attempts++;
+                    i++;
+                }
+            } else {
+                result = sendTrigger(null, repositorySettings, jobTarget, servers[i], jobParameters, userName, password, eventType);
+            }
+            failures.addAll(result.failures);
+            if (result.jobUrl != null) {
+                return new TargetResult(jobTarget, result.serverUrl, result.jobUrl, result.queueItemUrl, failures);
+            }
+            log.warn(String.format("Failed to trigger build on %s", failures.get(failures.size()-1)));
+        }
+        TargetResult result = new TargetResult(jobTarget, null, null, null, failures);
+        result.throttled = rateLimited && !sent;
+        return result;
+    }
 
-                    addComment(toRefRepositoryId,pullRequestId,
-                            eventType,
-                            latestChangeset,
-                            response, baseUrl);
+    /**
+     * Send the trigger to the selected CI server, and to the next CI server as well if the selected server
+     * has not answered within the hedge percentile of its response times. The first server accepting the
+     * build win, the request to the other server is aborted or the build it queued is cancelled.
+     *
+     * The requests are sent by the fan out threads, when they are all busy the selected server is called
+     * by the calling thread and the trigger is not hedged.
+     * @param hedge - The {@link Hedge} shared by the requests
+     * @param repositorySettings - The settings of the repository
+     * @param jobTarget - The {@link JobTarget} to trigger
+     * @param servers - The CI servers in fail over order, the permission to call the first server is acquired
+     * @param jobParameters - The encoded job parameters
+     * @param userName - The username or null
+     * @param password - The password or null
+     * @param eventType - The type of the event
+     * @return the {@link TargetResult} of the winning server, or the failures of both servers
+     */
+    private TargetResult triggerHedged(final Hedge hedge, final RepositorySettings repositorySettings, final JobTarget jobTarget, final String[] servers, final String jobParameters,
+            final byte[] userName, final byte[] password, final TriggerRequestEvent eventType) {
+        long hedgeDelay = getHedgeDelay(serverRegistry.getServer(servers[0]), repositorySettings.getHedgePercentile());
+        CompletionService<TargetResult> completionService = new ExecutorCompletionService<TargetResult>(fanOutExecutor);
+        //the server each request is sent to, so a failed request is reported for the right server
+        Map<Future<TargetResult>, String> requestServers = new HashMap<Future<TargetResult>, String>();
+        requestServers.put(completionService.submit(new Callable<TargetResult>() {
+            @Override
+            public TargetResult call() {
+                return sendTrigger(hedge, repositorySettings, jobTarget, servers[0], jobParameters, userName, password, eventType);
+            }
+        }), servers[0]);
+        int outstanding = 1;
+        List<String> failures = new ArrayList<String>();
+        try {
+            Future<TargetResult> completed = completionService.poll(hedgeDelay, TimeUnit.MILLISECONDS);
+            if (completed == null && tryAcquireHedge(serverRegistry.getServer(servers[1]))) {
+                metrics.onHedgedTrigger();
+                hedge.hedgeSent = true;
+                log.info(String.format("%s has not answered within %s ms, the trigger is sent to %s too",servers[0],hedgeDelay,servers[1]));
+                requestServers.put(completionService.submit(new Callable<TargetResult>() {
+                    @Override
+                    public TargetResult call() {
+                        return sendTrigger(hedge, repositorySettings, jobTarget, servers[1], jobParameters, userName, password, eventType);
+                    }
+                }), servers[1]);
+                outstanding++;
+            }
+            for (; outstanding > 0; outstanding--) {
+                Future<TargetResult> request = completed != null ? completed : completionService.take();
+                completed = null;
+                TargetResult result;
+                try {
+                    result = request.get();
+                } catch (ExecutionException e) {
+                    //the other request may still win
+                    failures.add(String.format("%s(-1) %s",requestServers.get(request),e.getCause().getMessage()));
+                    continue;
                 }
+                if (result == null) {
+                    //lost to the other server
+                    continue;
+                }
+                if (result.jobUrl != null) {
+                    if (hedge.hedgeSent && result.serverUrl.equals(servers[1])) {
+                        metrics.onHedgeWon();
+                    }
+                    failures.addAll(result.failures);
+                    return new TargetResult(jobTarget, result.serverUrl, result.jobUrl, result.queueItemUrl, failures);
+                }
+                failures.addAll(result.failures);
             }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            hedge.cancel();
+            failures.add(String.format("%s(-1) interrupted",servers[0]));
         }
+        return new TargetResult(jobTarget, null, null, null, failures);
     }
 
-    private boolean retryTriggerJob(Integer toRefRepositoryId, String latestChangeset, Long pullRequestId, String pullRequestTitle, String slug, String projectId, TriggerRequestEvent eventType, int retryCount, String url, int status, String errorText, String fromBranchId, String toBranchId)  {
-        String baseUrl;
-        //try the next server in case of an error
-        if (retryCount++ < serverList.length-1) {
-            String comment = String.format("Try next CI server in the list, failed to call %s(%s)\n%s",url,status,errorText);
-            addErrorComment(toRefRepositoryId, pullRequestId, comment);
-            baseUrl = nextCIServer(slug);
-            triggerBuild(toRefRepositoryId,latestChangeset, pullRequestId, pullRequestTitle, slug, eventType, retryCount, baseUrl, projectId, fromBranchId, toBranchId);
-            return true;
+    /**
+     * The time to wait for the selected server before the trigger is hedged, the percentile of the response
+     * times of the server, or {@link #DEFAULT_HEDGE_DELAY} until enough response times are measured
+     * @param server - The selected server
+     * @param percentile - The hedge percentile
+     * @return the delay in milliseconds
+     */
+    static long getHedgeDelay(JenkinsServer server, int percentile) {
+        if (server.getStatistics().getSamples() < MIN_HEDGE_SAMPLES) {
+            return DEFAULT_HEDGE_DELAY;
+        }
+        return Math.max(MIN_HEDGE_DELAY, server.getStatistics().getLatencyPercentile(percentile));
+    }
+
+    /**
+     * Acquire the permission to send the hedged trigger without waiting, the hedge is skipped
+     * if the server is rate limited or the circuit is open
+     * @param server - The next server
+     * @return true if the trigger can be sent to the server
+     * @throws InterruptedException
+     */
+    private boolean tryAcquireHedge(JenkinsServer server) throws InterruptedException {
+        if (!server.getCircuitBreaker().isCallPermitted() || acquireRateLimit(server, 0) != RateLimit.ACQUIRED) {
+            return false;
+        }
+        if (!server.getCircuitBreaker().tryAcquirePermission()) {
+            releaseRateLimit(server);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Send the trigger to the CI server, the permission to call the server must be acquired
+     * @param hedge - The {@link Hedge} when the trigger is hedged or null
+     * @param repositorySettings - The settings of the repository
+     * @param jobTarget - The {@link JobTarget} to trigger
+     * @param serverUrl - The base URL of the CI server
+     * @param jobParameters - The encoded job parameters
+     * @param userName - The username or null
+     * @param password - The password or null
+     * @param eventType - The type of the event
+     * @return the {@link TargetResult} with the failure if the build is not accepted, or null if the hedged trigger lost
+     */
+    private TargetResult sendTrigger(Hedge hedge, RepositorySettings repositorySettings, JobTarget jobTarget, String serverUrl, String jobParameters, byte[] userName, byte[] password,
+            TriggerRequestEvent eventType) {
+        JenkinsServer server = serverRegistry.getServer(serverUrl);
+        CircuitBreaker circuitBreaker = server.getCircuitBreaker();
+        JenkinsSession session = serverRegistry.getSession(serverUrl, userName);
+        HttpResponse response = null;
+        HttpPost request = null;
+        long start = System.currentTimeMillis();
+        server.getStatistics().onStart();
+        try {
+            String jobUrl = jobTarget.getJobUrl(serverUrl);
+            Crumb crumb = crumbIssuer.getCrumb(serverUrl, session, null, userName, password);
+            request = createBuildRequest(repositorySettings, jobUrl, jobParameters, crumb);
+            if (hedge != null && !hedge.start(request)) {
+                throw new IOException("cancelled");
+            }
+            response = httpClient.execute(request, userName, password, session.getCookieStore());
+            if (response.getStatusLine().getStatusCode() == HttpStatus.SC_FORBIDDEN) {
+                //the crumb or the session is expired, retry once with a new crumb
+                Crumb newCrumb = crumbIssuer.getCrumb(serverUrl, session, crumb, userName, password);
+                if (newCrumb != null && newCrumb != crumb) {
+                    EntityUtils.consume(response.getEntity());
+                    if (hedge != null) {
+                        hedge.finish(request);
+                    }
+                    request = createBuildRequest(repositorySettings, jobUrl, jobParameters, newCrumb);
+                    if (hedge != null && !hedge.start(request)) {
+                        throw new IOException("cancelled");
+                    }
+                    response = httpClient.execute(request, userName, password, session.getCookieStore());
+                }
+            }
+            EntityUtils.consume(response.getEntity());
+            if (hedge != null) {
+                hedge.finish(request);
+            }
+            long latency = System.currentTimeMillis() - start;
+            server.getStatistics().onComplete(latency);
+            metrics.recordHttpLatency(latency);
+            int statusCode = response.getStatusLine().getStatusCode();
+            if (statusCode < 400) {
+                circuitBreaker.onSuccess(latency);
+                server.getStatistics().onSuccess();
+                Header location = response.getFirstHeader("Location");
+                TargetResult result = new TargetResult(jobTarget, serverUrl, jobUrl, location == null ? null : location.getValue(), new ArrayList<String>());
+                if (hedge != null && !hedge.win()) {
+                    //both servers accepted the build, cancel the build of the loser
+                    cancelQueueItem(server, result.queueItemUrl, session, userName, password);
+                    return null;
+                }
+                metrics.onTrigger(eventType);
+                return result;
+            }
+            circuitBreaker.onFailure(latency);
+            server.getStatistics().onFailure();
+            return new TargetResult(jobTarget, null, null, null, Collections.singletonList(String.format("%s(%s)",jobUrl,statusCode)));
+        } catch (Exception e) {
+            if (hedge != null) {
+                hedge.finish(request);
+                if (hedge.isDecided()) {
+                    //aborted because the other server won
+                    server.getStatistics().onCancel();
+                    circuitBreaker.onCancel();
+                    return null;
+                }
+            }
+            long latency = System.currentTimeMillis() - start;
+            server.getStatistics().onComplete(latency);
+            metrics.recordHttpLatency(latency);
+            circuitBreaker.onFailure(latency);
+            server.getStatistics().onFailure();
+            return new TargetResult(jobTarget, null, null, null, Collections.singletonList(String.format("%s(-1) %s",serverUrl,e.getMessage())));
+        }
+    }
+
+    /**
+     * Cancel the queued build of a hedged trigger that lost, if the build already started it's left running
+     * @param server - The server the build is queued on
+     * @param queueItemUrl - The URL of the queue item from the "Location" header or null
+     * @param session - The session of the user
+     * @param userName - The username or null
+     * @param password - The password or null
+     */
+    private void cancelQueueItem(JenkinsServer server, String queueItemUrl, JenkinsSession session, byte[] userName, byte[] password) {
+        Long queueId = BuildStatusPoller.getQueueId(queueItemUrl);
+        if (queueId == null) {
+            log.warn(String.format("Both %s and the hedged server triggered the build, the duplicate build is not cancelled",server.getBaseUrl()));
+            return;
+        }
+        HttpResponse response = null;
+        try {
+            //http://ci:8080/queue/item/42/ is cancelled with http://ci:8080/queue/cancelItem?id=42
+            HttpPost post = new HttpPost(queueItemUrl.substring(0, queueItemUrl.lastIndexOf("/item/")) + "/cancelItem?id=" + queueId);
+            Crumb crumb = crumbIssuer.getCrumb(server.getBaseUrl(), session, null, userName, password);
+            if (crumb != null) {
+                post.setHeader(crumb.getField(), crumb.getValue());
+            }
+            response = httpClient.execute(post, userName, password, session.getCookieStore());
+            log.info(String.format("Cancelled the duplicate build of the hedged trigger %s (%s)",queueItemUrl,response.getStatusLine().getStatusCode()));
+        } catch (Exception e) {
+            log.warn(String.format("Not able to cancel the duplicate build of the hedged trigger %s : %s",queueItemUrl,e.getMessage()));
+        } finally {
+            if (response != null) {
+                EntityUtils.consumeQuietly(response.getEntity());
+            }
         }
-        return false;
     }
 
     /**
-     * Build up the URL for trigger job on Jenkins with the specified parameters
+     * Create the request for triggering the job, with the job parameters either in the query string or as a form
+     * @param repositorySettings - The settings of the repository
+     * @param baseUrl - The base URL of the server
+     * @param jobParameters - The encoded job parameters
+     * @param crumb - The CSRF crumb or null
+     * @return the {@link HttpPost}
+     */
+    private HttpPost createBuildRequest(RepositorySettings repositorySettings, String baseUrl, String jobParameters, Crumb crumb) {
+        HttpPost post;
+        if (repositorySettings.isPostParametersAsForm()) {
+            post = new HttpPost(baseUrl + "buildWithParameters");
+            post.setEntity(new StringEntity(jobParameters, ContentType.APPLICATION_FORM_URLENCODED));
+        } else {
+            post = new HttpPost(baseUrl + "buildWithParameters?" + jobParameters);
+        }
+        if (crumb != null) {
+            post.setHeader(crumb.getField(), crumb.getValue());
+        }
+        return post;
+    }
+
+    /**
+     * Wait for a token from both the rate limiter of the server and the global rate limiter. The token of the
+     * server is given back if the global rate limiter refuse the call
+     * @param server - The server to call
+     * @param timeout - The maximum time in milliseconds to wait
+     * @return the {@link RateLimit} telling if the call is allowed within the timeout, or which rate limiter refused it
+     * @throws InterruptedException
+     */
+    private RateLimit acquireRateLimit(JenkinsServer server, long timeout) throws InterruptedException {
+        long start = System.currentTimeMillis();
+        if (!server.getRateLimiter().acquire(timeout)) {
+            return RateLimit.SERVER_LIMITED;
+        }
+        if (!serverRegistry.getGlobalRateLimiter().acquire(Math.max(0, timeout - (System.currentTimeMillis() - start)))) {
+            server.getRateLimiter().release();
+            return RateLimit.GLOBAL_LIMITED;
+        }
+        return RateLimit.ACQUIRED;
+    }
+
+    /**
+     * Give the tokens back to the rate limiter of the server and the global rate limiter, when the
+     * call is not sent after all
+     * @param server - The server that was not called
+     */
+    private void releaseRateLimit(JenkinsServer server) {
+        server.getRateLimiter().release();
+        serverRegistry.getGlobalRateLimiter().release();
+    }
+
+    /**
+     * Return the list of CI servers in the order they should be tried, starting with the
+     * selected server and continue with the next servers in the list.
+     * @param repositorySettings - The settings of the repository
+     * @param baseUrl - the selected Jenkins CI base URL
+     * @return the CI servers base URL in fail over order
+     */
+    private String[] getFailoverOrder(RepositorySettings repositorySettings, String baseUrl) {
+        String[] serverList = repositorySettings.getJenkinsCIServerList();
+        int start = -1;
+        for (int i = 0; i < serverList.length; i++) {
+            serverList[i] = getBaseUrl(serverList[i]);
+            if (start == -1 && serverList[i].equals(baseUrl)) {
+                start = i;
+            }
+        }
+        if (start == -1) {
+            return new String[] { baseUrl };
+        }
+        String[] order = new String[serverList.length];
+        for (int i = 0; i < serverList.length; i++) {
+            order[i] = serverList[(start + i) % serverList.length];
+        }
+        return order;
+    }
+
+    /**
+     * Build up the job parameters for trigger job on Jenkins with the specified parameters
+     * @param jobTarget - The job target with the mapping of the job parameters
+     * @param slug - The slug of the repository
      * @param latestChanges - SHA commit id
      * @param pullRequestId - The id of the pull request
      * @param pullRequestTitle - The title of the pull request
-     * @param slug
+     * @param stashBaseUrl - The base URL of Stash
+     * @param projectKey - The key of the project
      * @param fromBranch - From Branch name, the origin of the pull request
      * @param toBranch - To Branch name, the destination of the pull request
-     * @return A correct formatted URL for trigger a Jenkins job
-     * @throws UnsupportedEncodingException
+     * @return A correct encoded query string or form body for trigger a Jenkins job
      */
-    private String buildJenkinsUrl(String latestChanges,Long pullRequestId, String pullRequestTitle, String slug, String jenkinsBaseUrl, String projectKey, String fromBranchId, String toBranchId) throws UnsupportedEncodingException {
-        String url;
-        String buildRefField = PluginSettingsHelper.getBuildReferenceField(slug, settings);
-        String refId = String.format("%s=%s", buildRefField, URLEncoder.encode(latestChanges, "utf-8"));
-        @SuppressWarnings("deprecation")
-        String titleValue = URLEncoder.encode(String.format("pull-request #%s - %s", pullRequestId,pullRequestTitle, "utf-8"));
-        String buildTitleField = PluginSettingsHelper.getBuildTitleField(slug, settings);
-        String title = buildTitleField == null || buildTitleField.isEmpty() ? "" : String.format("&%s=%s", buildTitleField, titleValue);
-
-        String pullRequestUrlValue = String.format("%s/projects/%s/repos/%s/pull-requests/%s",webResourceUrlProvider.getBaseUrl(UrlMode.ABSOLUTE),projectKey,slug,pullRequestId);
-        String buildPullRequestUrlField = PluginSettingsHelper.getPullRequestUrlFieldName(slug, settings);
-        String pullRequestUrl = buildPullRequestUrlField == null || buildPullRequestUrlField.isEmpty() ? "" : String.format("&%s=%s", buildPullRequestUrlField, pullRequestUrlValue);
-
-        String fromBranchField = PluginSettingsHelper.getFromBranchField(slug, settings);
-        String fromBranchUrl = fromBranchField == null || fromBranchField.isEmpty() ? "" : String.format("&%s=%s", fromBranchField, fromBranchId);
-
-        String toBranchField = PluginSettingsHelper.getToBranchField(slug, settings);
-        String toBranchUrl = toBranchField == null || toBranchField.isEmpty() ? "" : String.format("&%s=%s", toBranchField, toBranchId);
-
-        url = jenkinsBaseUrl + "buildWithParameters?" + refId + title + pullRequestUrl + fromBranchUrl + toBranchUrl;
-        return url.trim();
+    String buildJobParameters(JobTarget jobTarget, String slug, String latestChanges,Long pullRequestId, String pullRequestTitle, String stashBaseUrl, String projectKey, String fromBranchId, String toBranchId) {
+        return jobTarget.getJobParametersTemplate().fill(latestChanges, pullRequestId, pullRequestTitle, stashBaseUrl, projectKey, slug, fromBranchId, toBranchId);
+    }
+
+    /**
+     * Add the idempotency key to the job parameters, if the job parameter for the key is configured
+     * @param repositorySettings - The settings of the repository
+     * @param jobParameters - The encoded job parameters
+     * @param idempotencyKey - The key of the trigger
+     * @return the encoded job parameters with the key
+     */
+    static String withIdempotencyKey(RepositorySettings repositorySettings, String jobParameters, String idempotencyKey) {
+        String field = repositorySettings.getIdempotencyKeyField();
+        if (field.isEmpty()) {
+            return jobParameters;
+        }
+        StringBuilder sb = new StringBuilder(jobParameters.length() + field.length() + idempotencyKey.length() + 2).append(jobParameters);
+        if (sb.length() > 0) {
+            sb.append('&');
+        }
+        JobParametersTemplate.appendEncoded(sb, field);
+        sb.append('=');
+        JobParametersTemplate.appendEncoded(sb, idempotencyKey);
+        return sb.toString();
     }
 
     private String getBaseUrl(String jenkinsBaseUrl) {
         String baseUrl = jenkinsBaseUrl.toUpperCase().startsWith("HTTP") ? jenkinsBaseUrl : "http://" + jenkinsBaseUrl;
-        baseUrl = jenkinsBaseUrl.lastIndexOf('/') == jenkinsBaseUrl.length()-1 ? jenkinsBaseUrl : jenkinsBaseUrl + "/";
+        baseUrl = baseUrl.lastIndexOf('/') == baseUrl.length()-1 ? baseUrl : baseUrl + "/";
         return baseUrl;
     }
 
     /**
-     * Add a general comment to the pull-request with information about the commit id and link to the job
+     * Add one comment to the pull-request for all the job targets, with information about the commit id and link to the jobs
      * @param repositoryId - The id of the current repository
      * @param pullRequestId - The id of the current pull-request
      * @param eventType - The type of the event
-     * @param response
+     * @param lastChangeSet - The change set the jobs is triggered for
+     * @param results - The result of each job target
+     * @param repositorySettings - The settings of the repository
      */
-    private void addComment(Integer repositoryId, Long pullRequestId,TriggerRequestEvent eventType, String lastChangeSet, HttpResponse response, String jenkinsBaseUrl) {
-        String comment = String.format("Build triggered\nEvent: %s\nCommit id: %s\nJob: %s",eventType.getText(),lastChangeSet,jenkinsBaseUrl);
-        pullRequestService.addComment(repositoryId, pullRequestId, comment);
+    private void addComment(Integer repositoryId, Long pullRequestId,TriggerRequestEvent eventType, String lastChangeSet, List<TargetResult> results, RepositorySettings repositorySettings) {
+        StringBuilder comment = new StringBuilder(String.format("Build triggered\nEvent: %s\nCommit id: %s",eventType.getText(),lastChangeSet));
+        List<String> failedJobs = new ArrayList<String>();
+        List<String> failedServers = new ArrayList<String>();
+        for (TargetResult result : results) {
+            if (result.jobUrl != null) {
+                comment.append("\nJob: ").append(result.jobUrl);
+                failedServers.addAll(result.failures);
+            } else {
+                failedJobs.add(result.getFailureText());
+            }
+        }
+        if (!failedJobs.isEmpty()) {
+            comment.append(String.format("\nFailed jobs:\n%s", Joiner.on('\n').join(failedJobs)));
+        }
+        if (!failedServers.isEmpty()) {
+            comment.append(String.format("\nFailed CI servers:\n%s", Joiner.on('\n').join(failedServers)));
+        }
+        commentWriter.post(repositoryId, pullRequestId, comment.toString(), repositorySettings.isUpdatePreviousComment());
     }
 
     /**
      * Add a error message to the pull-request comment section
      * @param repositoryId - The id of the current repository
      * @param pullRequestId - The id of the current pull-request
-     * @param e - the {@link Exception}
+     * @param comment - The error message
+     * @param repositorySettings - The settings of the repository
      */
-    private void addErrorComment(Integer repositoryId, Long pullRequestId, String comment) {
-          pullRequestService.addComment(repositoryId,pullRequestId, comment);
+    private void addErrorComment(Integer repositoryId, Long pullRequestId, String comment, RepositorySettings repositorySettings) {
+          commentWriter.post(repositoryId, pullRequestId, comment, repositorySettings.isUpdatePreviousComment());
     }
 
-    private HttpResponse httpClientRequest(HttpRequestBase request, byte[] userName, byte[] password) throws IOException, ClientProtocolException {
-        HttpParams httpParams = new BasicHttpParams();
-        HttpConnectionParams.setConnectionTimeout(httpParams, 5000);
-        HttpConnectionParams.setSoTimeout(httpParams, 7000);
+    /**
+     * Set the total time a trigger may spend failing over to the next CI servers
+     * @param failoverDeadline - The deadline in milliseconds, default {@link FailoverBackoff#DEFAULT_DEADLINE}
+     */
+    void setFailoverDeadline(long failoverDeadline) {
+        this.failoverDeadline = failoverDeadline;
+    }
+
+    /**
+     * Stop the threads triggering the job targets
+     */
+    @Override
+    public void destroy() {
+        fanOutExecutor.shutdownNow();
+    }
+
+    /**
+     * The requests of a hedged trigger, the first server accepting the build decide the trigger and
+     * the requests still waiting for a response are aborted
+     */
+    private static class Hedge {
+        private final Set<HttpUriRequest> inFlight = new HashSet<HttpUriRequest>();
+        private boolean decided = false;
+        volatile boolean hedgeSent = false;
+
+        /**
+         * @return false if the trigger is decided and the request should not be sent
+         */
+        synchronized boolean start(HttpUriRequest request) {
+            if (decided) {
+                return false;
+            }
+            inFlight.add(request);
+            return true;
+        }
+
+        synchronized void finish(HttpUriRequest request) {
+            inFlight.remove(request);
+        }
 
-    	DefaultHttpClient client;
-        client = new DefaultHttpClient(httpParams);
+        /**
+         * @return true if the build is the first accepted build of the trigger
+         */
+        synchronized boolean win() {
+            if (decided) {
+                return false;
+            }
+            decide();
+            return true;
+        }
 
-        BasicHttpContext context = new BasicHttpContext();
-        if (userName != null && password != null) {
-            client.getCredentialsProvider().setCredentials(new AuthScope(AuthScope.ANY_HOST, AuthScope.ANY_PORT), new UsernamePasswordCredentials(new String(userName), new String(password)));
+        synchronized void cancel() {
+            decide();
+        }
 
-            BasicScheme basicAuth = new BasicScheme();
-            context.setAttribute("preemptive-auth", basicAuth);
+        synchronized boolean isDecided() {
+            return decided;
+        }
 
-            client.addRequestInterceptor((HttpRequestInterceptor) new PreemptiveAuth(), 0);
+        boolean isHedgeSent() {
+            return hedgeSent;
         }
 
-        HttpResponse response = client.execute(request, context);
-        return response;
+        private void decide() {
+            decided = true;
+            for (HttpUriRequest request : inFlight) {
+                request.abort();
+            }
+            inFlight.clear();
+        }
     }
 
     /**
-     * Preemptive authentication interceptor
-     *
+     * The outcome of acquiring a token from the rate limiters
      */
-    static class PreemptiveAuth implements HttpRequestInterceptor {
+    private enum RateLimit {
+        ACQUIRED, SERVER_LIMITED, GLOBAL_LIMITED
+    }
 
-        /*
-         * (non-Javadoc)
-         *
-         * @see org.apache.http.HttpRequestInterceptor#process(org.apache.http.HttpRequest,
-         * org.apache.http.protocol.HttpContext)
+    /**
+     * The result of triggering one job target
+     */
+    private static class TargetResult {
+        final JobTarget jobTarget;
+        final String serverUrl;
+        final String jobUrl;
+        final String queueItemUrl;
+        final List<String> failures;
+        //true if the rate limiters refused the trigger and it was not sent to any server
+        boolean throttled = false;
+
+        /**
+         * @param jobTarget - The {@link JobTarget}
+         * @param serverUrl - The CI server the job is triggered on or null
+         * @param jobUrl - The URL of the triggered job or null if it failed on all CI servers
+         * @param queueItemUrl - The queue item of the build from the "Location" header or null
+         * @param failures - The CI servers failed
          */
-        @SuppressWarnings("deprecation")
-        public void process(HttpRequest request, HttpContext context) throws HttpException, IOException {
-            // Get the AuthState
-            AuthState authState = (AuthState) context.getAttribute(ClientContext.TARGET_AUTH_STATE);
-
-            // If no auth scheme available yet, try to initialize it preemptively
-            if (authState.getAuthScheme() == null) {
-                AuthScheme authScheme = (AuthScheme) context.getAttribute("preemptive-auth");
-                CredentialsProvider credsProvider = (CredentialsProvider) context
-                        .getAttribute(ClientContext.CREDS_PROVIDER);
-                HttpHost targetHost = (HttpHost) context.getAttribute(ExecutionContext.HTTP_TARGET_HOST);
-                if (authScheme != null) {
-                    Credentials creds = credsProvider.getCredentials(new AuthScope(targetHost.getHostName(), targetHost
-                            .getPort()));
-                    if (creds == null) {
-                        throw new HttpException("No credentials for preemptive authentication");
-                    }
-                    authState.setAuthScheme(authScheme);
-                    authState.setCredentials(creds);
-                }
-            }
-
+        TargetResult(JobTarget jobTarget, String serverUrl, String jobUrl, String queueItemUrl, List<String> failures) {
+            this.jobTarget = jobTarget;
+            this.serverUrl = serverUrl;
+            this.jobUrl = jobUrl;
+            this.queueItemUrl = queueItemUrl;
+            this.failures = failures;
         }
 
+        String getFailureText() {
+            if (jobTarget.getName().isEmpty()) {
+                return Joiner.on('\n').join(failures);
+            }
+            return String.format("%s: %s", jobTarget.getName(), Joiner.on(", ").join(failures));
+        }
     }
-
 }
@@ -0,0 +1,152 @@
+package com.harms.stash.plugin.jenkins.job.intergration;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The job parameters of a repository compiled once from the settings, so a trigger only fill
+ * in the values. The parameter names are encoded when the template is compiled, and the values
+ * are appended and encoded in a single pass over one {@link StringBuilder}.
+ *
+ * The values are encoded as application/x-www-form-urlencoded with UTF-8, the same as
+ * {@link java.net.URLEncoder}, so the result can be used both as a query string and as a form body.
+ *
+ * @author fharms
+ *
+ */
+public final class JobParametersTemplate {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+    private static final int ESTIMATED_VALUE_LENGTH = 64;
+
+    enum Value {
+        REF_ID, TITLE, PULL_REQUEST_URL, FROM_BRANCH, TO_BRANCH
+    }
+
+    private final String[] prefixes;
+    private final Value[] values;
+    private final int estimatedLength;
+
+    private JobParametersTemplate(List<String> prefixes, List<Value> values) {
+        this.prefixes = prefixes.toArray(new String[prefixes.size()]);
+        this.values = values.toArray(new Value[values.size()]);
+        int length = 0;
+        for (String prefix : this.prefixes) {
+            length += prefix.length() + ESTIMATED_VALUE_LENGTH;
+        }
+        this.estimatedLength = length;
+    }
+
+    /**
+     * Compile the template from the names of the job parameters, a parameter without a name is left out
+     * @param buildRefField - The name of the parameter with the change set
+     * @param buildTitleField - The name of the parameter with the title
+     * @param pullRequestUrlField - The name of the parameter with the URL of the pull-request
+     * @param fromBranchField - The name of the parameter with the source branch
+     * @param toBranchField - The name of the parameter with the target branch
+     * @return the {@link JobParametersTemplate}
+     */
+    public static JobParametersTemplate compile(String buildRefField, String buildTitleField, String pullRequestUrlField, String fromBranchField, String toBranchField) {
+        List<String> prefixes = new ArrayList<String>();
+        List<Value> values = new ArrayList<Value>();
+        add(prefixes, values, buildRefField, Value.REF_ID);
+        add(prefixes, values, buildTitleField, Value.TITLE);
+        add(prefixes, values, pullRequestUrlField, Value.PULL_REQUEST_URL);
+        add(prefixes, values, fromBranchField, Value.FROM_BRANCH);
+        add(prefixes, values, toBranchField, Value.TO_BRANCH);
+        return new JobParametersTemplate(prefixes, values);
+    }
+
+    private static void add(List<String> prefixes, List<Value> values, String field, Value value) {
+        if (field == null || field.trim().isEmpty()) {
+            return;
+        }
+        StringBuilder prefix = new StringBuilder();
+        if (!prefixes.isEmpty()) {
+            prefix.append('&');
+        }
+        appendEncoded(prefix, field.trim());
+        prefixes.add(prefix.append('=').toString());
+        values.add(value);
+    }
+
+    /**
+     * Fill in the values of the job parameters
+     * @param latestChangeset - The latest change set of the source branch
+     * @param pullRequestId - The id of the pull-request
+     * @param pullRequestTitle - The title of the pull-request
+     * @param stashBaseUrl - The base URL of Stash
+     * @param projectKey - The key of the project
+     * @param slug - The slug of the repository
+     * @param fromBranch - The name of the source branch
+     * @param toBranch - The name of the target branch
+     * @return the encoded job parameters, e.g. REF=123abc&amp;TITLE=pull-request+%231+-+Title
+     */
+    public String fill(String latestChangeset, Long pullRequestId, String pullRequestTitle, String stashBaseUrl, String projectKey, String slug, String fromBranch, String toBranch) {
+        StringBuilder sb = new StringBuilder(estimatedLength);
+        for (int i = 0; i < values.length; i++) {
+            sb.append(prefixes[i]);
+            switch (values[i]) {
+            case REF_ID:
+                appendEncoded(sb, latestChangeset);
+                break;
+            case TITLE:
+                sb.append("pull-request+%23").append(pullRequestId).append("+-+");
+                appendEncoded(sb, pullRequestTitle);
+                break;
+            case PULL_REQUEST_URL:
+                appendEncoded(sb, stashBaseUrl);
+                sb.append("%2Fprojects%2F");
+                appendEncoded(sb, projectKey);
+                sb.append("%2Frepos%2F");
+                appendEncoded(sb, slug);
+                sb.append("%2Fpull-requests%2F").append(pullRequestId);
+                break;
+            case FROM_BRANCH:
+                appendEncoded(sb, fromBranch);
+                break;
+            case TO_BRANCH:
+                appendEncoded(sb, toBranch);
+                break;
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Append the value encoded as application/x-www-form-urlencoded with UTF-8, a null value is appended as empty
+     * @param sb - The {@link StringBuilder} to append to
+     * @param value - The value to encode
+     */
+    static void appendEncoded(StringBuilder sb, String value) {
+        if (value == null) {
+            return;
+        }
+        int length = value.length();
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '.' || c == '-' || c == '*' || c == '_') {
+                sb.append(c);
+            } else if (c == ' ') {
+                sb.append('+');
+            } else if (c < 0x80) {
+                appendByte(sb, c);
+            } else {
+                //encode the run of non ASCII characters together, so surrogate pairs stay together
+                int end = i + 1;
+                while (end < length && value.charAt(end) >= 0x80) {
+                    end++;
+                }
+                for (byte b : value.substring(i, end).getBytes(UTF_8)) {
+                    appendByte(sb, b);
+                }
+                i = end - 1;
+            }
+        }
+    }
+
+    private static void appendByte(StringBuilder sb, int b) {
+        sb.append('%').append(HEX_DIGITS[(b >> 4) & 0x0F]).append(HEX_DIGITS[b & 0x0F]);
+    }
+}
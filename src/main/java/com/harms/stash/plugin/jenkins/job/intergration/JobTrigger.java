@@ -11,7 +11,7 @@ import java.io.Serializable;
 public interface JobTrigger extends Serializable {
 
     /**
-     * @return the next CI server from the list of servers
+     * @return the next CI server from the list of servers, or null if no servers is configured
      */
     public String nextCIServer(String slug);
 
@@ -30,14 +30,14 @@ public interface JobTrigger extends Serializable {
      * @param pullRequestTitle - The title of the pull-request
      * @param slug - The slug id
      * @param eventType - The type of job trigger event
-     * @param retryCount - Number of current retries
-     * @param baseUrl - the Jenkins CI base URL
+     * @param baseUrl - the Jenkins CI base URL, if it fails the next servers in the list is tried
      * @param projectId - The project id
      * @param fromBranch - From Branch name, the origin of the pull request
      * @param toBranch - To Branch name, the destination of the pull request
+     * @throws TriggerThrottledException if the rate limiters refused the trigger on all the servers
      */
     public void triggerBuild(Integer toRefRepositoryId, String latestChangeset, Long pullRequestId, String pullRequestTitle, String slug, TriggerRequestEvent eventType,
-            int retryCount, String baseUrl, String projectId, String fromBranch, String toBranch);
+            String baseUrl, String projectId, String fromBranch, String toBranch);
 
 
 }
\ No newline at end of file
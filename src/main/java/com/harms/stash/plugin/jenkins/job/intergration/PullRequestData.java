@@ -14,6 +14,7 @@ final public class PullRequestData {
     final public Integer repositoryId;
     final public Long pullRequestId;
     final public String latestChanges;
+    final public String toLatestChanges;
     final public String title;
     final public String fromBranchId;
     final public String toBranchId;
@@ -26,6 +27,7 @@ final public class PullRequestData {
         fromBranchId = pr.getFromRef().getDisplayId();
         pullRequestId = pr.getId();
         latestChanges = pr.getFromRef().getLatestChangeset();
+        toLatestChanges = pr.getToRef().getLatestChangeset();
         title = pr.getTitle();
         slug = pr.getFromRef().getRepository().getSlug();
     }
@@ -1,22 +1,25 @@
 package com.harms.stash.plugin.jenkins.job.intergration;
 
 import java.io.Serializable;
-import java.util.Calendar;
-import java.util.Date;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
 
+import com.atlassian.beehive.ClusterLockService;
 import com.atlassian.event.api.EventListener;
 import com.atlassian.sal.api.pluginsettings.PluginSettings;
 import com.atlassian.sal.api.pluginsettings.PluginSettingsFactory;
-import com.atlassian.scheduler.SchedulerService;
 import com.atlassian.scheduler.SchedulerServiceException;
-import com.atlassian.scheduler.config.JobConfig;
-import com.atlassian.scheduler.config.JobId;
-import com.atlassian.scheduler.config.RunMode;
-import com.atlassian.scheduler.config.Schedule;
+import com.atlassian.stash.event.RepositoryDeletedEvent;
 import com.atlassian.stash.event.pull.PullRequestDeclinedEvent;
 import com.atlassian.stash.event.pull.PullRequestEvent;
 import com.atlassian.stash.event.pull.PullRequestMergedEvent;
@@ -26,133 +29,310 @@ import com.atlassian.stash.event.pull.PullRequestRescopedEvent;
 import com.atlassian.stash.pull.PullRequest;
 import com.atlassian.stash.repository.Repository;
 import com.atlassian.stash.user.StashAuthenticationContext;
+import com.atlassian.stash.user.StashUser;
+import com.harms.stash.plugin.jenkins.job.intergration.metrics.TriggerMetrics;
+import com.harms.stash.plugin.jenkins.job.intergration.schedule.PendingTriggerKey;
+import com.harms.stash.plugin.jenkins.job.intergration.schedule.PendingTriggerRegistry;
+import com.harms.stash.plugin.jenkins.job.settings.DisabledPullRequestSweeper;
 import com.harms.stash.plugin.jenkins.job.settings.PluginSettingsHelper;
+import com.harms.stash.plugin.jenkins.job.settings.RepositorySettings;
 
-public class StashEventListener {
+/**
+ * Listen for the pull-request events and schedule the job triggers.
+ *
+ * The event threads of Stash only copy the few values needed into a {@link QueuedEvent} and add it
+ * to a {@link BoundedEventQueue}, the settings reads and scheduler calls are done by the worker of
+ * the queue. The worker handle the events in batches, the settings of a repository is read once
+ * per batch, the disable automatic build flags of a repository is written once per batch and
+ * the events for the same pull-request is coalesced into one scheduler call.
+ *
+ * When the queue is full the event is handled on the event thread as before, so no event is lost.
+ *
+ * @author fharms
+ *
+ */
+public class StashEventListener implements BoundedEventQueue.BatchHandler<StashEventListener.QueuedEvent>, DisposableBean {
     private static final Logger log = LoggerFactory.getLogger(StashEventListener.class);
-    
+
+    //a pending trigger is never postponed more than this times the build delay
+    private static final int MAX_WAIT_FACTOR = 3;
+    private static final int MAX_QUEUED_EVENTS = 10000;
+    private static final int EVENT_BATCH_SIZE = 100;
+
     private final PluginSettings settings;
-    private final SchedulerService schedulerService;
+    private final PendingTriggerRegistry pendingTriggers;
     private final StashAuthenticationContext stashAuthContext;
-    
-    public StashEventListener(PluginSettingsFactory pluginSettingsFactory, SchedulerService pluginScheduler,StashAuthenticationContext stashAuthContext) {
-        this.schedulerService = pluginScheduler;
+    private final TriggerMetrics metrics;
+    private final ClusterLockService lockService;
+    private final BoundedEventQueue<QueuedEvent> queue;
+
+    public StashEventListener(PluginSettingsFactory pluginSettingsFactory, PendingTriggerRegistry pendingTriggers,StashAuthenticationContext stashAuthContext, TriggerMetrics metrics, ClusterLockService lockService) {
+        this.pendingTriggers = pendingTriggers;
         this.settings = pluginSettingsFactory.createGlobalSettings();
         this.stashAuthContext = stashAuthContext;
+        this.metrics = metrics;
+        this.lockService = lockService;
+        this.queue = new BoundedEventQueue<QueuedEvent>("jenkins-event-worker", MAX_QUEUED_EVENTS, EVENT_BATCH_SIZE, this);
+    }
+
+    /**
+     * The kind of pull-request event
+     */
+    enum EventType {
+        OPENED, RESCOPED, REOPENED, CLOSED
     }
-    
+
     /**
-     * Return the Jenkins Trigger Job event type from the {@link PullRequestEvent}
-     * @param pushEvent - The {@link PullRequest} eventtype 
-     * @return a {@link TriggerRequestEvent}
+     * The values of a pull-request event needed by the worker. The user is taken on the event
+     * thread, the worker thread is not authenticated.
      */
-    private TriggerRequestEvent getTriggerEventType(PullRequestEvent pushEvent) {
-        TriggerRequestEvent eventType = TriggerRequestEvent.PULLREQUEST_EVENT_CREATED;
-        if (pushEvent instanceof PullRequestRescopedEvent) {
-           eventType = TriggerRequestEvent.PULLREQUEST_EVENT_SOURCE_UPDATED;
-        } else if (pushEvent instanceof PullRequestReopenedEvent) {
-           eventType = TriggerRequestEvent.PULLREQUEST_EVENT_REOPEN;
+    static final class QueuedEvent {
+        final EventType type;
+        final Integer repositoryId;
+        final Long pullRequestId;
+        final String projectKey;
+        final String repositorySlug;
+        final String slug;
+        final String userName;
+        final boolean sourceChanged;
+        final long queueTime;
+
+        QueuedEvent(EventType type, PullRequest pullRequest, String userName, boolean sourceChanged) {
+            Repository repository = pullRequest.getToRef().getRepository();
+            this.type = type;
+            this.repositoryId = repository.getId();
+            this.pullRequestId = pullRequest.getId();
+            this.projectKey = repository.getProject().getKey();
+            this.repositorySlug = repository.getSlug();
+            //the settings is read with the slug of the source repository, as PullRequestData do
+            this.slug = pullRequest.getFromRef().getRepository().getSlug();
+            this.userName = userName;
+            this.sourceChanged = sourceChanged;
+            this.queueTime = System.currentTimeMillis();
+        }
+
+        TriggerRequestEvent getTriggerEventType() {
+            switch (type) {
+            case RESCOPED:
+                return TriggerRequestEvent.PULLREQUEST_EVENT_SOURCE_UPDATED;
+            case REOPENED:
+                return TriggerRequestEvent.PULLREQUEST_EVENT_REOPEN;
+            default:
+                return TriggerRequestEvent.PULLREQUEST_EVENT_CREATED;
+            }
         }
-        return eventType;
     }
-    
-    
+
     @EventListener
     public void openPullRequest(PullRequestOpenedEvent pushEvent)
     {
-        PullRequestData prd = new PullRequestData(pushEvent.getPullRequest());
-        
-        boolean isDisableAutomaticBuildByDefault = PluginSettingsHelper.isDisableAutomaticBuildByDefault(prd.slug,settings);
-        if (isDisableAutomaticBuildByDefault) {
-        	PluginSettingsHelper.enableAutomaticBuildFlag(prd.projectKey, prd.slug, prd.pullRequestId, settings);
-        	return;
-        }
-        
-        boolean triggerBuildOnCreate = PluginSettingsHelper.isTriggerBuildOnCreate(prd.slug,settings);
-        if (triggerBuildOnCreate) {
-            scheduleJobTrigger(pushEvent, prd);
+        if (isRepositoryEnabled(pushEvent)) {
+            enqueue(EventType.OPENED, pushEvent, false);
         }
     }
-    
+
     @EventListener
     public void updatePullRequest(PullRequestRescopedEvent pushEvent)
     {
-        PullRequestData prd = new PullRequestData(pushEvent.getPullRequest());
-        
+        if (!isRepositoryEnabled(pushEvent)) {
+            return;
+        }
         boolean isSourceChanged = !pushEvent.getPullRequest().getFromRef().getLatestChangeset().equals(pushEvent.getPreviousFromHash());
-        boolean automaticBuildDisabled = PluginSettingsHelper.isAutomaticBuildDisabled(prd.projectKey,prd.slug,prd.pullRequestId,settings);
-        
-        boolean triggerBuildOnUpdate = PluginSettingsHelper.isTriggerBuildOnUpdate(prd.slug,settings);
-        if ((triggerBuildOnUpdate) && (!automaticBuildDisabled) && (isSourceChanged)) {
-            scheduleJobTrigger(pushEvent, prd);
+        if (isSourceChanged) {
+            enqueue(EventType.RESCOPED, pushEvent, true);
         }
     }
 
     @EventListener
     public void reopenPullRequest(PullRequestReopenedEvent pushEvent)
     {
-        PullRequestData prd = new PullRequestData(pushEvent.getPullRequest());
-        
-        boolean isDisableAutomaticBuildByDefault = PluginSettingsHelper.isDisableAutomaticBuildByDefault(prd.slug,settings);
-        if (isDisableAutomaticBuildByDefault) {
-        	PluginSettingsHelper.enableAutomaticBuildFlag(prd.projectKey, prd.slug, prd.pullRequestId, settings);
-        	return;
-        }
-        
-        boolean automaticBuildDisabled = PluginSettingsHelper.isAutomaticBuildDisabled(prd.projectKey,prd.slug,prd.pullRequestId,settings);
-        boolean triggerBuildOnReopen = PluginSettingsHelper.isTriggerBuildOnReopen(prd.slug,settings);
-        if (triggerBuildOnReopen && !automaticBuildDisabled) {
-            scheduleJobTrigger(pushEvent, prd);
+        if (isRepositoryEnabled(pushEvent)) {
+            enqueue(EventType.REOPENED, pushEvent, false);
         }
     }
 
     /**
-     * Schedule a job trigger if a job is not already scheduled.
-     * @param pushEvent
-     * @param prd
-     */
-    private void scheduleJobTrigger(PullRequestEvent pushEvent, PullRequestData prd) {
-    	String scheduleJobKey = PluginSettingsHelper.getScheduleJobKey(prd.slug,prd.pullRequestId);
-		final Calendar scheduleJobTime = PluginSettingsHelper.getScheduleJobTime(scheduleJobKey);
-        if ((scheduleJobTime == null) || (System.currentTimeMillis() > scheduleJobTime.getTime().getTime())) {
-            Map<String, Serializable> jobData = JenkinsJobScheduler.buildJobDataMap(pushEvent.getPullRequest(),stashAuthContext,getTriggerEventType(pushEvent));
-            Date jobTime = PluginSettingsHelper.generateScheduleJobTime(prd.slug, settings, prd.pullRequestId);
-            try {
-    			schedulerService.scheduleJob( 
-    					JobId.of(scheduleJobKey), 
-    			        JobConfig.forJobRunnerKey(JenkinsJobScheduler.jobRunnerKey) 
-    			                .withParameters(jobData)
-    			                .withRunMode(RunMode.RUN_ONCE_PER_CLUSTER) 
-    			                .withSchedule(Schedule.runOnce(jobTime)));
-    		} catch (SchedulerServiceException e) {
-    			log.error(String.format("Not able to schedule jenkins build with job id %s at %t",scheduleJobKey,jobTime));
-    		}
-        }
-    }
-    
-    /**
-     * Remove the disable automatic build settins when the pull-request is merged or declined
+     * A pull-request of a repository without Jenkins has no pending trigger, and a disable automatic
+     * build flag left from when Jenkins was configured is removed by the {@link DisabledPullRequestSweeper}
      * @param pushEvent
      */
-    private void removeDisableAutomaticBuildProperty(PullRequestEvent pushEvent) {
-        PullRequest pullRequest = pushEvent.getPullRequest();
-        Repository repository = pullRequest.getToRef().getRepository();
-        PluginSettingsHelper.clearAutomaticBuildFlag(repository.getProject().getKey(),repository.getSlug(),pullRequest.getId(),settings);
-    }
-
     @EventListener
     public void declinedPullRequest(PullRequestDeclinedEvent pushEvent)
     {
-        PluginSettingsHelper.resetScheduleTime(PluginSettingsHelper.getScheduleJobKey(pushEvent.getPullRequest().getFromRef().getRepository().getSlug(),pushEvent.getPullRequest().getId()));
-        //make sure we clean up the disable automatic property 
-        removeDisableAutomaticBuildProperty(pushEvent);
+        if (isRepositoryEnabled(pushEvent)) {
+            enqueue(EventType.CLOSED, pushEvent, false);
+        }
     }
-    
+
     @EventListener
     public void mergePullRequest(PullRequestMergedEvent pushEvent)
     {
-        PluginSettingsHelper.resetScheduleTime(PluginSettingsHelper.getScheduleJobKey(pushEvent.getPullRequest().getFromRef().getRepository().getSlug(),pushEvent.getPullRequest().getId()));
-        //make sure we clean up the disable automatic property 
-        removeDisableAutomaticBuildProperty(pushEvent);
+        if (isRepositoryEnabled(pushEvent)) {
+            enqueue(EventType.CLOSED, pushEvent, false);
+        }
+    }
+
+    /**
+     * Remove the disabled pull-requests of the repository when the repository is deleted
+     * @param deletedEvent
+     */
+    @EventListener
+    public void deletedRepository(RepositoryDeletedEvent deletedEvent)
+    {
+        PluginSettingsHelper.clearDisabledPullRequests(deletedEvent.getRepository().getId(), settings, lockService);
+    }
+
+    /**
+     * Test if Jenkins is configured for the repository of the pull-request, before any
+     * settings is read or the {@link QueuedEvent} is created
+     * @param pushEvent
+     * @return false if the event can be ignored
+     */
+    private boolean isRepositoryEnabled(PullRequestEvent pushEvent) {
+        return PluginSettingsHelper.isRepositoryEnabled(pushEvent.getPullRequest().getFromRef().getRepository().getSlug(), settings);
+    }
+
+    /**
+     * Add the event to the queue, or handle it on the calling thread if the queue is full
+     */
+    private void enqueue(EventType type, PullRequestEvent pushEvent, boolean sourceChanged) {
+        StashUser user = stashAuthContext.getCurrentUser();
+        QueuedEvent event = new QueuedEvent(type, pushEvent.getPullRequest(), user == null ? null : user.getName(), sourceChanged);
+        if (queue.offer(event)) {
+            metrics.onEventQueued();
+        } else {
+            metrics.onEventRejected();
+            log.warn(String.format("The event queue is full, the event for pull-request %s is handled on the event thread",event.pullRequestId));
+            handle(Collections.singletonList(event));
+        }
+    }
+
+    /**
+     * @return the number of events waiting for the worker
+     */
+    public int getQueuedEvents() {
+        return queue.size();
+    }
+
+    @Override
+    public void destroy() {
+        int discarded = queue.shutdown();
+        if (discarded > 0) {
+            log.warn(String.format("%s pull-request events was discarded when the plug-in was stopped",discarded));
+        }
+    }
+
+    /**
+     * Handle a batch of events in the order they happened. The triggers are collected per
+     * pull-request and scheduled at the end, so a later event for the same pull-request replace
+     * the earlier and a closed pull-request drop the trigger collected before it.
+     */
+    @Override
+    public void handle(List<QueuedEvent> events) {
+        long now = System.currentTimeMillis();
+        Map<String, RepositorySettings> repositorySettings = new HashMap<String, RepositorySettings>();
+        Map<Integer, Set<Long>> disableAutomaticBuild = new HashMap<Integer, Set<Long>>();
+        Map<Long, QueuedEvent> triggers = new LinkedHashMap<Long, QueuedEvent>();
+
+        for (QueuedEvent event : events) {
+            metrics.recordEventQueueDelay(now - event.queueTime);
+            long key = PendingTriggerKey.of(event.repositoryId, event.pullRequestId);
+            if (event.type == EventType.CLOSED) {
+                triggers.remove(key);
+                Set<Long> disabled = disableAutomaticBuild.get(event.repositoryId);
+                if (disabled != null) {
+                    disabled.remove(event.pullRequestId);
+                }
+                closed(key, event);
+                continue;
+            }
+
+            RepositorySettings settingsSnapshot = repositorySettings.get(event.slug);
+            if (settingsSnapshot == null) {
+                settingsSnapshot = PluginSettingsHelper.getRepositorySettings(event.slug, settings);
+                repositorySettings.put(event.slug, settingsSnapshot);
+            }
+
+            if (event.type != EventType.RESCOPED && settingsSnapshot.isDisableAutomaticBuildByDefault()) {
+                Set<Long> disabled = disableAutomaticBuild.get(event.repositoryId);
+                if (disabled == null) {
+                    disabled = new HashSet<Long>();
+                    disableAutomaticBuild.put(event.repositoryId, disabled);
+                }
+                disabled.add(event.pullRequestId);
+                triggers.remove(key);
+            } else if (isTriggerEnabled(event, settingsSnapshot) && !isAutomaticBuildDisabled(event, disableAutomaticBuild)) {
+                triggers.remove(key); //keep the order of the latest event
+                triggers.put(key, event);
+            }
+        }
+
+        for (Map.Entry<Integer, Set<Long>> disabled : disableAutomaticBuild.entrySet()) {
+            if (!disabled.getValue().isEmpty()) {
+                PluginSettingsHelper.addDisabledPullRequests(disabled.getKey(), disabled.getValue(), settings, lockService);
+            }
+        }
+        for (Map.Entry<Long, QueuedEvent> trigger : triggers.entrySet()) {
+            scheduleJobTrigger(trigger.getKey(), trigger.getValue(), repositorySettings.get(trigger.getValue().slug));
+        }
+    }
+
+    private boolean isTriggerEnabled(QueuedEvent event, RepositorySettings repositorySettings) {
+        switch (event.type) {
+        case OPENED:
+            return repositorySettings.isTriggerBuildOnCreate();
+        case RESCOPED:
+            return repositorySettings.isTriggerBuildOnUpdate() && event.sourceChanged;
+        case REOPENED:
+            return repositorySettings.isTriggerBuildOnReopen();
+        default:
+            return false;
+        }
+    }
+
+    /**
+     * Test if the automatic build is disabled, including the flags set earlier in the same batch.
+     * A new pull-request can't be disabled yet, so the settings is not read for it.
+     */
+    private boolean isAutomaticBuildDisabled(QueuedEvent event, Map<Integer, Set<Long>> disableAutomaticBuild) {
+        if (event.type == EventType.OPENED) {
+            return false;
+        }
+        Set<Long> disabled = disableAutomaticBuild.get(event.repositoryId);
+        if (disabled != null && disabled.contains(event.pullRequestId)) {
+            return true;
+        }
+        return PluginSettingsHelper.isAutomaticBuildDisabled(event.repositoryId, event.projectKey, event.repositorySlug, event.pullRequestId, settings);
+    }
+
+    /**
+     * Schedule a job trigger if a job is not already scheduled. If a job is already scheduled
+     * the pending trigger is moved forward instead, and the job will build the latest change set.
+     * @param key - The pull-request key
+     * @param event - The latest event for the pull-request
+     * @param repositorySettings - The settings of the repository
+     */
+    private void scheduleJobTrigger(long key, QueuedEvent event, RepositorySettings repositorySettings) {
+        long delay = repositorySettings.getBuildDelay() * 1000L;
+        Map<String, Serializable> jobData = JenkinsJobScheduler.buildJobDataMap(event.repositoryId, event.pullRequestId, event.getTriggerEventType(), event.userName);
+        try {
+            if (pendingTriggers.schedule(key, jobData, delay, delay * MAX_WAIT_FACTOR) == null) {
+                log.debug(String.format("Job trigger %s is already scheduled, the event is coalesced with the pending trigger",PendingTriggerKey.toJobId(key)));
+            }
+		} catch (SchedulerServiceException e) {
+			log.error(String.format("Not able to schedule jenkins build with job id %s",PendingTriggerKey.toJobId(key)),e);
+		}
+    }
+
+    /**
+     * Cancel the pending job trigger and remove the disable automatic build flag when the
+     * pull-request is merged or declined
+     * @param key - The pull-request key
+     * @param event - The merged or declined event
+     */
+    private void closed(long key, QueuedEvent event) {
+        pendingTriggers.cancel(key);
+        //make sure we clean up the disable automatic property
+        PluginSettingsHelper.clearAutomaticBuildFlag(event.repositoryId, event.projectKey, event.repositorySlug, event.pullRequestId, settings, lockService);
     }
 }
@@ -7,18 +7,27 @@ package com.harms.stash.plugin.jenkins.job.intergration;
  */
 public enum TriggerRequestEvent {
 
-    PULLREQUEST_EVENT_CREATED("CREATED"),
-    PULLREQUEST_EVENT_SOURCE_UPDATED("SOURCE UPDATED"),
-    PULLREQUEST_EVENT_REOPEN("REOPEN"),
-    FORCED_BUILD("FORCED A MANUAL BUILD");
+    PULLREQUEST_EVENT_CREATED("CREATED", 1),
+    PULLREQUEST_EVENT_SOURCE_UPDATED("SOURCE UPDATED", 3),
+    PULLREQUEST_EVENT_REOPEN("REOPEN", 2),
+    FORCED_BUILD("FORCED A MANUAL BUILD", 0);
     
     private final String eventText;
+    private final int priority;
     
-    private TriggerRequestEvent(String eventText) {
+    private TriggerRequestEvent(String eventText, int priority) {
         this.eventText = eventText;
+        this.priority = priority;
     }
     
     public String getText() {
         return this.eventText;
     }
+
+    /**
+     * @return the priority of the trigger when waiting to be triggered, lowest value go first
+     */
+    public int getPriority() {
+        return this.priority;
+    }
 }
@@ -0,0 +1,16 @@
+package com.harms.stash.plugin.jenkins.job.intergration;
+
+/**
+ * Throw to indicate the build is not triggered because the rate limiters refused it,
+ * no CI server has failed and the trigger should be tried again later
+ * @author fharms
+ *
+ */
+public class TriggerThrottledException extends RuntimeException {
+
+    private static final long serialVersionUID = -2215873404617512170L;
+
+    public TriggerThrottledException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,88 @@
+package com.harms.stash.plugin.jenkins.job.intergration;
+
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * Remember the latest source and target change sets a build was triggered for per pull-request,
+ * so the same combination is not built twice, e.g. when a pull-request is reopened without
+ * changes or a manual trigger race an update.
+ *
+ * Only the last {@link #CHANGESETS_PER_PULL_REQUEST} combinations are kept per pull-request,
+ * and pull-requests not triggered for a while are forgotten.
+ *
+ * @author fharms
+ *
+ */
+public class TriggeredChangesets {
+    public static final int CHANGESETS_PER_PULL_REQUEST = 5;
+    private static final int MAX_PULL_REQUESTS = 10000;
+    private static final long EXPIRE_AFTER_DAYS = 7;
+
+    private final Cache<Long, Recent> triggered = CacheBuilder.newBuilder()
+            .maximumSize(MAX_PULL_REQUESTS)
+            .expireAfterAccess(EXPIRE_AFTER_DAYS, TimeUnit.DAYS)
+            .build();
+
+    /**
+     * Record the change sets for the pull-request
+     * @param key - The pull-request key
+     * @param fromChangeset - The latest change set of the source branch
+     * @param toChangeset - The latest change set of the target branch
+     * @return false if a build is already triggered for the change sets
+     */
+    public boolean record(long key, String fromChangeset, String toChangeset) {
+        Recent recent = triggered.getIfPresent(key);
+        if (recent == null) {
+            Recent newRecent = new Recent();
+            recent = triggered.asMap().putIfAbsent(key, newRecent);
+            if (recent == null) {
+                recent = newRecent;
+            }
+        }
+        return recent.add(fromChangeset + ":" + toChangeset);
+    }
+
+    /**
+     * Forget the change sets for the pull-request, e.g. when the trigger failed and
+     * the same change sets should be triggered again
+     * @param key - The pull-request key
+     * @param fromChangeset - The latest change set of the source branch
+     * @param toChangeset - The latest change set of the target branch
+     */
+    public void forget(long key, String fromChangeset, String toChangeset) {
+        Recent recent = triggered.getIfPresent(key);
+        if (recent != null) {
+            recent.remove(fromChangeset + ":" + toChangeset);
+        }
+    }
+
+    /**
+     * A small ring of the latest change set combinations for one pull-request
+     */
+    private static class Recent {
+        private final String[] changesets = new String[CHANGESETS_PER_PULL_REQUEST];
+        private int next = 0;
+
+        synchronized boolean add(String changeset) {
+            for (String c : changesets) {
+                if (changeset.equals(c)) {
+                    return false;
+                }
+            }
+            changesets[next] = changeset;
+            next = (next + 1) % changesets.length;
+            return true;
+        }
+
+        synchronized void remove(String changeset) {
+            for (int i = 0; i < changesets.length; i++) {
+                if (changeset.equals(changesets[i])) {
+                    changesets[i] = null;
+                }
+            }
+        }
+    }
+}
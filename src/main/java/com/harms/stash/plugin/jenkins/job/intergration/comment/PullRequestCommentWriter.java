@@ -0,0 +1,256 @@
+package com.harms.stash.plugin.jenkins.job.intergration.comment;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+
+import com.atlassian.stash.comment.Comment;
+import com.atlassian.stash.pull.PullRequestService;
+import com.atlassian.stash.user.SecurityService;
+import com.atlassian.stash.user.StashAuthenticationContext;
+import com.atlassian.stash.user.StashUser;
+import com.atlassian.stash.util.Operation;
+import com.google.common.base.Joiner;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.harms.stash.plugin.jenkins.job.intergration.schedule.PendingTriggerKey;
+
+/**
+ * Write the comments of the plug-in to the pull-requests from one shared thread, so the triggers
+ * never wait on the comment transaction and the notifications to the reviewers.
+ *
+ * All the comments for the same pull-request within {@link #COALESCE_WINDOW} milliseconds are
+ * written as one comment, e.g. the failed CI servers and the triggered jobs. The comment is written
+ * as the user who posted the first of them. When "Update the previous comment" is enabled the text is
+ * added to the last comment the plug-in wrote on the pull-request instead, until it's longer than
+ * {@link #MAX_COMMENT_LENGTH} characters or it has been changed or deleted by someone else.
+ *
+ * @author fharms
+ *
+ */
+public class PullRequestCommentWriter implements DisposableBean {
+    private static final Logger log = LoggerFactory.getLogger(PullRequestCommentWriter.class);
+
+    public static final long COALESCE_WINDOW = 2000;
+    public static final int MAX_COMMENT_LENGTH = 10000;
+    private static final int MAX_PENDING_COMMENTS = 10000;
+    private static final int MAX_PREVIOUS_COMMENTS = 1000;
+    private static final long PREVIOUS_COMMENT_EXPIRE_HOURS = 24;
+    private static final String SEPARATOR = "\n\n";
+
+    private final PullRequestService pullRequestService;
+    private final SecurityService securityService;
+    private final StashAuthenticationContext authContext;
+    private final ConcurrentMap<Long, PendingComment> pendingComments = new ConcurrentHashMap<Long, PendingComment>();
+    private final Cache<Long, PreviousComment> previousComments = CacheBuilder.newBuilder()
+            .maximumSize(MAX_PREVIOUS_COMMENTS)
+            .expireAfterWrite(PREVIOUS_COMMENT_EXPIRE_HOURS, TimeUnit.HOURS)
+            .build();
+    private final ScheduledExecutorService writer;
+
+    public PullRequestCommentWriter(PullRequestService pullRequestService, SecurityService securityService, StashAuthenticationContext authContext) {
+        this.pullRequestService = pullRequestService;
+        this.securityService = securityService;
+        this.authContext = authContext;
+        this.writer = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("jenkins-pull-request-comment-writer")
+                .setDaemon(true)
+                .build());
+    }
+
+    /**
+     * Comment on the pull-request as the current user
+     * @param repositoryId - The id of the repository
+     * @param pullRequestId - The id of the pull-request
+     * @param text - The text of the comment
+     * @param updatePrevious - true if the text should be added to the previous comment of the plug-in
+     */
+    public void post(Integer repositoryId, Long pullRequestId, String text, boolean updatePrevious) {
+        post(authContext.getCurrentUser(), repositoryId, pullRequestId, text, updatePrevious);
+    }
+
+    /**
+     * Comment on the pull-request as the user, the comment is written within {@link #COALESCE_WINDOW} milliseconds
+     * together with the other comments for the pull-request
+     * @param user - The user the comment is written as, or null for the current user of the writing thread
+     * @param repositoryId - The id of the repository
+     * @param pullRequestId - The id of the pull-request
+     * @param text - The text of the comment
+     * @param updatePrevious - true if the text should be added to the previous comment of the plug-in
+     */
+    public void post(StashUser user, Integer repositoryId, Long pullRequestId, String text, boolean updatePrevious) {
+        final long key = PendingTriggerKey.of(repositoryId, pullRequestId);
+        while (true) {
+            PendingComment pending = pendingComments.get(key);
+            if (pending == null) {
+                if (pendingComments.size() >= MAX_PENDING_COMMENTS) {
+                    log.warn(String.format("%s comments is already waiting, the comment for pull-request %s is written by the calling thread",MAX_PENDING_COMMENTS,pullRequestId));
+                    PendingComment comment = new PendingComment(user, repositoryId, pullRequestId);
+                    comment.add(text, updatePrevious);
+                    write(comment, comment.take());
+                    return;
+                }
+                PendingComment created = new PendingComment(user, repositoryId, pullRequestId);
+                created.add(text, updatePrevious);
+                if (pendingComments.putIfAbsent(key, created) == null) {
+                    scheduleFlush(key);
+                    return;
+                }
+            } else if (pending.add(text, updatePrevious)) {
+                return;
+            }
+            //the pending comment was taken by the writer, start a new one
+        }
+    }
+
+    /**
+     * @return the number of pull-requests with comments waiting to be written
+     */
+    public int getPendingComments() {
+        return pendingComments.size();
+    }
+
+    /**
+     * Write all the waiting comments now
+     */
+    public void flush() {
+        for (Long key : new ArrayList<Long>(pendingComments.keySet())) {
+            flush(key);
+        }
+    }
+
+    /**
+     * Stop the writer thread and write the waiting comments by the calling thread
+     */
+    @Override
+    public void destroy() {
+        writer.shutdownNow();
+        flush();
+    }
+
+    private void scheduleFlush(final long key) {
+        try {
+            writer.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    flush(key);
+                }
+            }, COALESCE_WINDOW, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            //the writer is stopped
+            flush(key);
+        }
+    }
+
+    private void flush(long key) {
+        PendingComment pending = pendingComments.remove(key);
+        if (pending != null) {
+            write(pending, pending.take());
+        }
+    }
+
+    private void write(final PendingComment pending, List<String> texts) {
+        final String text = Joiner.on(SEPARATOR).join(texts);
+        try {
+            if (pending.user == null) {
+                publish(pending, text);
+                return;
+            }
+            securityService.impersonating(pending.user, "comment_jenkins_build").call(new Operation<Object, RuntimeException>() {
+                @Override
+                public Object perform() {
+                    publish(pending, text);
+                    return null;
+                }
+            });
+        } catch (RuntimeException e) {
+            log.error(String.format("Not able to comment on pull-request %s",pending.pullRequestId),e);
+        }
+    }
+
+    private void publish(PendingComment pending, String text) {
+        long key = PendingTriggerKey.of(pending.repositoryId, pending.pullRequestId);
+        if (!pending.updatePrevious) {
+            pullRequestService.addComment(pending.repositoryId, pending.pullRequestId, text);
+            return;
+        }
+        PreviousComment previous = previousComments.getIfPresent(key);
+        if (previous != null && previous.text.length() + SEPARATOR.length() + text.length() <= MAX_COMMENT_LENGTH) {
+            try {
+                remember(key, pullRequestService.updateComment(pending.repositoryId, pending.pullRequestId, previous.id, previous.version, previous.text + SEPARATOR + text));
+                return;
+            } catch (RuntimeException e) {
+                //the comment is changed or deleted since it was written
+                log.debug(String.format("Not able to update comment %s on pull-request %s, a new comment is added : %s",previous.id,pending.pullRequestId,e.getMessage()));
+                previousComments.invalidate(key);
+            }
+        }
+        remember(key, pullRequestService.addComment(pending.repositoryId, pending.pullRequestId, text));
+    }
+
+    private void remember(long key, Comment comment) {
+        if (comment != null) {
+            previousComments.put(key, new PreviousComment(comment.getId(), comment.getVersion(), comment.getText()));
+        }
+    }
+
+    /**
+     * The comments for a pull-request waiting to be written
+     */
+    private static class PendingComment {
+        final StashUser user;
+        final int repositoryId;
+        final long pullRequestId;
+        private final List<String> texts = new ArrayList<String>(2);
+        private boolean updatePrevious;
+        private boolean taken;
+
+        PendingComment(StashUser user, int repositoryId, long pullRequestId) {
+            this.user = user;
+            this.repositoryId = repositoryId;
+            this.pullRequestId = pullRequestId;
+        }
+
+        /**
+         * @return false if the comments is already taken by the writer
+         */
+        synchronized boolean add(String text, boolean updatePrevious) {
+            if (taken) {
+                return false;
+            }
+            texts.add(text);
+            this.updatePrevious = updatePrevious;
+            return true;
+        }
+
+        synchronized List<String> take() {
+            taken = true;
+            return texts;
+        }
+    }
+
+    /**
+     * The last comment written by the plug-in on a pull-request
+     */
+    private static class PreviousComment {
+        final long id;
+        final int version;
+        final String text;
+
+        PreviousComment(long id, int version, String text) {
+            this.id = id;
+            this.version = version;
+            this.text = text;
+        }
+    }
+}
@@ -0,0 +1,297 @@
+package com.harms.stash.plugin.jenkins.job.intergration.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+
+import com.harms.stash.plugin.jenkins.job.intergration.AsyncJenkinsJobTrigger;
+import com.harms.stash.plugin.jenkins.job.intergration.JenkinsHttpClient;
+import com.harms.stash.plugin.jenkins.job.intergration.StashEventListener;
+import com.harms.stash.plugin.jenkins.job.intergration.TriggerRequestEvent;
+import com.harms.stash.plugin.jenkins.job.intergration.server.JenkinsServer;
+import com.harms.stash.plugin.jenkins.job.intergration.server.JenkinsServerRegistry;
+
+/**
+ * Expose the {@link TriggerMetrics}, the statistics of the Jenkins servers and the state of
+ * the event queue, trigger queue and connection pool as a MXBean. The bean is registered in the platform
+ * MBean server when the plug-in is started and unregistered when it's stopped.
+ *
+ * @author fharms
+ *
+ */
+public class JmxTriggerMetrics implements TriggerMetricsMXBean, InitializingBean, DisposableBean {
+    private static final Logger log = LoggerFactory.getLogger(JmxTriggerMetrics.class);
+
+    public static final String OBJECT_NAME = "com.harms.stash.plugin.jenkins:type=TriggerMetrics";
+
+    private final TriggerMetrics metrics;
+    private final JenkinsServerRegistry serverRegistry;
+    private final AsyncJenkinsJobTrigger jobTrigger;
+    private final JenkinsHttpClient httpClient;
+    private final StashEventListener eventListener;
+
+    public JmxTriggerMetrics(TriggerMetrics metrics, JenkinsServerRegistry serverRegistry, AsyncJenkinsJobTrigger jobTrigger, JenkinsHttpClient httpClient, StashEventListener eventListener) {
+        this.metrics = metrics;
+        this.serverRegistry = serverRegistry;
+        this.jobTrigger = jobTrigger;
+        this.httpClient = httpClient;
+        this.eventListener = eventListener;
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(this, name);
+        } catch (JMException e) {
+            log.warn("Not able to register the trigger metrics in JMX", e);
+        }
+    }
+
+    @Override
+    public void destroy() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+        } catch (JMException e) {
+            log.warn("Not able to unregister the trigger metrics from JMX", e);
+        }
+    }
+
+    /**
+     * @return all the metrics by name, e.g. to be serialized to JSON
+     */
+    public Map<String, Object> snapshot() {
+        Map<String, Object> snapshot = new LinkedHashMap<String, Object>();
+        snapshot.put("triggersByEvent", getTriggersByEvent());
+        snapshot.put("failedTriggers", getFailedTriggers());
+        snapshot.put("failoverHops", getFailoverHops());
+        snapshot.put("hedgedTriggers", getHedgedTriggers());
+        snapshot.put("hedgeWins", getHedgeWins());
+        snapshot.put("duplicatesSuppressed", getDuplicatesSuppressed());
+        snapshot.put("deferredTriggers", getDeferredTriggers());
+        snapshot.put("serverSuccesses", getServerSuccesses());
+        snapshot.put("serverFailures", getServerFailures());
+        snapshot.put("httpLatency", toMap(metrics.getHttpLatency()));
+        snapshot.put("triggerDelay", toMap(metrics.getTriggerDelay()));
+        snapshot.put("eventsQueued", getEventsQueued());
+        snapshot.put("eventsRejected", getEventsRejected());
+        snapshot.put("eventQueueDelay", toMap(metrics.getEventQueueDelay()));
+        snapshot.put("queuedEvents", getQueuedEvents());
+        snapshot.put("queuedTriggers", getQueuedTriggers());
+        snapshot.put("activeTriggers", getActiveTriggers());
+        snapshot.put("openConnections", getOpenConnections());
+        snapshot.put("leasedConnections", getLeasedConnections());
+        return snapshot;
+    }
+
+    private static Map<String, Object> toMap(Histogram histogram) {
+        Map<String, Object> map = new LinkedHashMap<String, Object>();
+        map.put("count", histogram.getCount());
+        map.put("mean", histogram.getMean());
+        map.put("p50", histogram.getPercentile(50));
+        map.put("p95", histogram.getPercentile(95));
+        map.put("p99", histogram.getPercentile(99));
+        map.put("max", histogram.getMax());
+        return map;
+    }
+
+    @Override
+    public Map<String, Long> getTriggersByEvent() {
+        Map<String, Long> triggers = new LinkedHashMap<String, Long>();
+        for (TriggerRequestEvent event : TriggerRequestEvent.values()) {
+            triggers.put(event.name(), metrics.getTriggers(event));
+        }
+        return triggers;
+    }
+
+    @Override
+    public long getFailedTriggers() {
+        return metrics.getFailedTriggers();
+    }
+
+    @Override
+    public long getFailoverHops() {
+        return metrics.getFailoverHops();
+    }
+
+    @Override
+    public long getHedgedTriggers() {
+        return metrics.getHedgedTriggers();
+    }
+
+    @Override
+    public long getHedgeWins() {
+        return metrics.getHedgeWins();
+    }
+
+    @Override
+    public long getDuplicatesSuppressed() {
+        return metrics.getDuplicatesSuppressed();
+    }
+
+    @Override
+    public long getDeferredTriggers() {
+        return jobTrigger.getDeferredCount();
+    }
+
+    @Override
+    public Map<String, Long> getServerSuccesses() {
+        Map<String, Long> successes = new TreeMap<String, Long>();
+        for (JenkinsServer server : serverRegistry.getServers()) {
+            successes.put(server.getBaseUrl(), server.getStatistics().getSuccesses());
+        }
+        return successes;
+    }
+
+    @Override
+    public Map<String, Long> getServerFailures() {
+        Map<String, Long> failures = new TreeMap<String, Long>();
+        for (JenkinsServer server : serverRegistry.getServers()) {
+            failures.put(server.getBaseUrl(), server.getStatistics().getFailures());
+        }
+        return failures;
+    }
+
+    @Override
+    public long getHttpLatencyCount() {
+        return metrics.getHttpLatency().getCount();
+    }
+
+    @Override
+    public double getHttpLatencyMean() {
+        return metrics.getHttpLatency().getMean();
+    }
+
+    @Override
+    public long getHttpLatency50thPercentile() {
+        return metrics.getHttpLatency().getPercentile(50);
+    }
+
+    @Override
+    public long getHttpLatency95thPercentile() {
+        return metrics.getHttpLatency().getPercentile(95);
+    }
+
+    @Override
+    public long getHttpLatency99thPercentile() {
+        return metrics.getHttpLatency().getPercentile(99);
+    }
+
+    @Override
+    public long getHttpLatencyMax() {
+        return metrics.getHttpLatency().getMax();
+    }
+
+    @Override
+    public long getTriggerDelayCount() {
+        return metrics.getTriggerDelay().getCount();
+    }
+
+    @Override
+    public double getTriggerDelayMean() {
+        return metrics.getTriggerDelay().getMean();
+    }
+
+    @Override
+    public long getTriggerDelay50thPercentile() {
+        return metrics.getTriggerDelay().getPercentile(50);
+    }
+
+    @Override
+    public long getTriggerDelay95thPercentile() {
+        return metrics.getTriggerDelay().getPercentile(95);
+    }
+
+    @Override
+    public long getTriggerDelay99thPercentile() {
+        return metrics.getTriggerDelay().getPercentile(99);
+    }
+
+    @Override
+    public long getTriggerDelayMax() {
+        return metrics.getTriggerDelay().getMax();
+    }
+
+    @Override
+    public long getEventsQueued() {
+        return metrics.getEventsQueued();
+    }
+
+    @Override
+    public long getEventsRejected() {
+        return metrics.getEventsRejected();
+    }
+
+    @Override
+    public long getEventQueueDelayCount() {
+        return metrics.getEventQueueDelay().getCount();
+    }
+
+    @Override
+    public double getEventQueueDelayMean() {
+        return metrics.getEventQueueDelay().getMean();
+    }
+
+    @Override
+    public long getEventQueueDelay50thPercentile() {
+        return metrics.getEventQueueDelay().getPercentile(50);
+    }
+
+    @Override
+    public long getEventQueueDelay95thPercentile() {
+        return metrics.getEventQueueDelay().getPercentile(95);
+    }
+
+    @Override
+    public long getEventQueueDelay99thPercentile() {
+        return metrics.getEventQueueDelay().getPercentile(99);
+    }
+
+    @Override
+    public long getEventQueueDelayMax() {
+        return metrics.getEventQueueDelay().getMax();
+    }
+
+    @Override
+    public int getQueuedEvents() {
+        return eventListener.getQueuedEvents();
+    }
+
+    @Override
+    public int getQueuedTriggers() {
+        return jobTrigger.getQueueSize();
+    }
+
+    @Override
+    public int getActiveTriggers() {
+        return jobTrigger.getActiveCount();
+    }
+
+    @Override
+    public int getOpenConnections() {
+        return httpClient.getOpenConnections();
+    }
+
+    @Override
+    public int getLeasedConnections() {
+        return httpClient.getLeasedConnections();
+    }
+}
@@ -0,0 +1,159 @@
+package com.harms.stash.plugin.jenkins.job.intergration.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.harms.stash.plugin.jenkins.job.intergration.TriggerRequestEvent;
+
+/**
+ * Plug-in wide counters and histograms of the job triggers. The recording methods are called
+ * on the trigger path, so they only update atomic counters and never allocate.
+ *
+ * The success and failure counts per Jenkins server is kept in the
+ * {@link com.harms.stash.plugin.jenkins.job.intergration.server.ServerStatistics} of the server.
+ *
+ * @author fharms
+ *
+ */
+public class TriggerMetrics {
+    private final AtomicLongArray triggers = new AtomicLongArray(TriggerRequestEvent.values().length);
+    private final AtomicLong failoverHops = new AtomicLong();
+    private final AtomicLong hedgedTriggers = new AtomicLong();
+    private final AtomicLong hedgeWins = new AtomicLong();
+    private final AtomicLong duplicatesSuppressed = new AtomicLong();
+    private final AtomicLong failedTriggers = new AtomicLong();
+    private final Histogram httpLatency = new Histogram();
+    private final Histogram triggerDelay = new Histogram();
+    private final AtomicLong eventsQueued = new AtomicLong();
+    private final AtomicLong eventsRejected = new AtomicLong();
+    private final Histogram eventQueueDelay = new Histogram();
+
+    /**
+     * Register a build is triggered
+     * @param eventType - The event the build is triggered for
+     */
+    public void onTrigger(TriggerRequestEvent eventType) {
+        triggers.incrementAndGet(eventType.ordinal());
+    }
+
+    /**
+     * Register all the Jenkins servers failed and no build is triggered
+     */
+    public void onTriggerFailed() {
+        failedTriggers.incrementAndGet();
+    }
+
+    /**
+     * Register the trigger moved on to the next server in the fail over order
+     */
+    public void onFailoverHop() {
+        failoverHops.incrementAndGet();
+    }
+
+    /**
+     * Register the trigger is sent to the next server too, because the selected server is slow
+     */
+    public void onHedgedTrigger() {
+        hedgedTriggers.incrementAndGet();
+    }
+
+    /**
+     * Register the build is triggered by the hedged request before the selected server answered
+     */
+    public void onHedgeWon() {
+        hedgeWins.incrementAndGet();
+    }
+
+    /**
+     * Register a trigger is skipped because the change sets are already built
+     */
+    public void onDuplicateSuppressed() {
+        duplicatesSuppressed.incrementAndGet();
+    }
+
+    /**
+     * Record the response time of a call to a Jenkins server
+     * @param latency - The response time in milliseconds
+     */
+    public void recordHttpLatency(long latency) {
+        httpLatency.record(latency);
+    }
+
+    /**
+     * Record the time from the trigger was scheduled to fire until the job actually run
+     * @param delay - The delay in milliseconds
+     */
+    public void recordTriggerDelay(long delay) {
+        triggerDelay.record(delay);
+    }
+
+    /**
+     * Register a pull-request event is added to the event queue
+     */
+    public void onEventQueued() {
+        eventsQueued.incrementAndGet();
+    }
+
+    /**
+     * Register the event queue was full and the pull-request event is handled on the event thread
+     */
+    public void onEventRejected() {
+        eventsRejected.incrementAndGet();
+    }
+
+    /**
+     * Record the time a pull-request event waited in the event queue
+     * @param delay - The delay in milliseconds
+     */
+    public void recordEventQueueDelay(long delay) {
+        eventQueueDelay.record(delay);
+    }
+
+    /**
+     * @param eventType - The type of event
+     * @return the number of builds triggered for the event type
+     */
+    public long getTriggers(TriggerRequestEvent eventType) {
+        return triggers.get(eventType.ordinal());
+    }
+
+    public long getFailedTriggers() {
+        return failedTriggers.get();
+    }
+
+    public long getFailoverHops() {
+        return failoverHops.get();
+    }
+
+    public long getHedgedTriggers() {
+        return hedgedTriggers.get();
+    }
+
+    public long getHedgeWins() {
+        return hedgeWins.get();
+    }
+
+    public long getDuplicatesSuppressed() {
+        return duplicatesSuppressed.get();
+    }
+
+    public Histogram getHttpLatency() {
+        return httpLatency;
+    }
+
+    public Histogram getTriggerDelay() {
+        return triggerDelay;
+    }
+
+    public long getEventsQueued() {
+        return eventsQueued.get();
+    }
+
+    public long getEventsRejected() {
+        return eventsRejected.get();
+    }
+
+    public Histogram getEventQueueDelay() {
+        return eventQueueDelay;
+    }
+}
@@ -0,0 +1,80 @@
+package com.harms.stash.plugin.jenkins.job.intergration.metrics;
+
+import java.util.Map;
+
+/**
+ * The metrics of the Jenkins job triggers exposed through JMX. The times are in milliseconds.
+ *
+ * @author fharms
+ *
+ */
+public interface TriggerMetricsMXBean {
+
+    Map<String, Long> getTriggersByEvent();
+
+    long getFailedTriggers();
+
+    long getFailoverHops();
+
+    long getHedgedTriggers();
+
+    long getHedgeWins();
+
+    long getDuplicatesSuppressed();
+
+    long getDeferredTriggers();
+
+    Map<String, Long> getServerSuccesses();
+
+    Map<String, Long> getServerFailures();
+
+    long getHttpLatencyCount();
+
+    double getHttpLatencyMean();
+
+    long getHttpLatency50thPercentile();
+
+    long getHttpLatency95thPercentile();
+
+    long getHttpLatency99thPercentile();
+
+    long getHttpLatencyMax();
+
+    long getTriggerDelayCount();
+
+    double getTriggerDelayMean();
+
+    long getTriggerDelay50thPercentile();
+
+    long getTriggerDelay95thPercentile();
+
+    long getTriggerDelay99thPercentile();
+
+    long getTriggerDelayMax();
+
+    long getEventsQueued();
+
+    long getEventsRejected();
+
+    long getEventQueueDelayCount();
+
+    double getEventQueueDelayMean();
+
+    long getEventQueueDelay50thPercentile();
+
+    long getEventQueueDelay95thPercentile();
+
+    long getEventQueueDelay99thPercentile();
+
+    long getEventQueueDelayMax();
+
+    int getQueuedEvents();
+
+    int getQueuedTriggers();
+
+    int getActiveTriggers();
+
+    int getOpenConnections();
+
+    int getLeasedConnections();
+}
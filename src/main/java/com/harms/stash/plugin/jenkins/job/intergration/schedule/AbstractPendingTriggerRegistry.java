@@ -0,0 +1,62 @@
+package com.harms.stash.plugin.jenkins.job.intergration.schedule;
+
+import java.io.Serializable;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.atlassian.scheduler.SchedulerService;
+import com.atlassian.scheduler.SchedulerServiceException;
+import com.atlassian.scheduler.config.JobConfig;
+import com.atlassian.scheduler.config.RunMode;
+import com.atlassian.scheduler.config.Schedule;
+import com.harms.stash.plugin.jenkins.job.intergration.JenkinsJobScheduler;
+
+/**
+ * Schedule and unschedule the {@link JenkinsJobScheduler} job for the pending triggers
+ *
+ * @author fharms
+ *
+ */
+public abstract class AbstractPendingTriggerRegistry implements PendingTriggerRegistry {
+    private static final Logger log = LoggerFactory.getLogger(AbstractPendingTriggerRegistry.class);
+
+    protected final SchedulerService schedulerService;
+
+    protected AbstractPendingTriggerRegistry(SchedulerService schedulerService) {
+        this.schedulerService = schedulerService;
+    }
+
+    /**
+     * Schedule the job to run once at the specified time. An already scheduled job for
+     * the same key is replaced. The time is added to the job data as {@link #FIRE_TIME}.
+     * @param key - The pending trigger key
+     * @param jobData - The job data passed to the job
+     * @param fireTime - The time to run the job
+     * @throws SchedulerServiceException
+     */
+    protected void scheduleJob(long key, Map<String, Serializable> jobData, Date fireTime) throws SchedulerServiceException {
+        Map<String, Serializable> parameters = new HashMap<String, Serializable>(jobData);
+        parameters.put(FIRE_TIME, fireTime.getTime());
+        schedulerService.scheduleJob(
+                PendingTriggerKey.toJobId(key),
+                JobConfig.forJobRunnerKey(JenkinsJobScheduler.jobRunnerKey)
+                        .withParameters(parameters)
+                        .withRunMode(RunMode.RUN_ONCE_PER_CLUSTER)
+                        .withSchedule(Schedule.runOnce(fireTime)));
+        if (log.isDebugEnabled()) {
+            log.debug(String.format("Job trigger %1$s is scheduled at %2$tH:%2$tM:%2$tS",PendingTriggerKey.toJobId(key),fireTime));
+        }
+    }
+
+    protected void unscheduleJob(long key) {
+        try {
+            schedulerService.unscheduleJob(PendingTriggerKey.toJobId(key));
+        } catch (IllegalArgumentException e) {
+            log.debug("No current job was scheduled for job id "+PendingTriggerKey.toJobId(key));
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package com.harms.stash.plugin.jenkins.job.intergration.schedule;
+
+import java.io.Serializable;
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.atlassian.scheduler.SchedulerService;
+import com.atlassian.scheduler.SchedulerServiceException;
+
+/**
+ * Keep the pending triggers in memory on this node. Postponing a trigger only update the
+ * in-memory {@link PendingTrigger}, and the job re-arm itself with the merged job data when
+ * it run too early.
+ *
+ * The state is not shared between the nodes in a cluster, use the
+ * {@link SchedulerPendingTriggerRegistry} for that. This is useful for a single node and for tests.
+ *
+ * @author fharms
+ *
+ */
+public class LocalPendingTriggerRegistry extends AbstractPendingTriggerRegistry {
+    private final ConcurrentMap<Long, PendingTrigger> pendingTriggers = new ConcurrentHashMap<Long, PendingTrigger>();
+
+    public LocalPendingTriggerRegistry(SchedulerService schedulerService) {
+        super(schedulerService);
+    }
+
+    @Override
+    public Date schedule(long key, Map<String, Serializable> jobData, long delay, long maxWait) throws SchedulerServiceException {
+        long now = System.currentTimeMillis();
+        PendingTrigger current = pendingTriggers.get(key);
+        while (true) {
+            if (current != null && current.getFireTime() >= now && current.postpone(now + delay)) {
+                current.merge(jobData);
+                return null;
+            }
+            PendingTrigger next = new PendingTrigger(now + delay, now + maxWait, jobData);
+            boolean added = current == null ? pendingTriggers.putIfAbsent(key, next) == null : pendingTriggers.replace(key, current, next);
+            if (added) {
+                return schedule(key, jobData, next);
+            }
+            current = pendingTriggers.get(key);
+        }
+    }
+
+    @Override
+    public Date scheduleForced(long key, Map<String, Serializable> jobData, long delay) throws SchedulerServiceException {
+        long fireTime = System.currentTimeMillis() + delay;
+        PendingTrigger pending = new PendingTrigger(fireTime, fireTime, jobData);
+        pendingTriggers.put(key, pending);
+        return schedule(key, jobData, pending);
+    }
+
+    private Date schedule(long key, Map<String, Serializable> jobData, PendingTrigger pending) throws SchedulerServiceException {
+        Date fireTime = new Date(pending.getFireTime());
+        try {
+            scheduleJob(key, jobData, fireTime);
+        } catch (SchedulerServiceException e) {
+            pendingTriggers.remove(key, pending);
+            throw e;
+        }
+        return fireTime;
+    }
+
+    @Override
+    public Map<String, Serializable> tryFire(long key, Map<String, Serializable> jobData, long now) throws SchedulerServiceException {
+        PendingTrigger pending = pendingTriggers.get(key);
+        if (pending == null) {
+            return jobData;
+        }
+        if (pending.tryFire(now)) {
+            return pending.getJobData();
+        }
+        scheduleJob(key, pending.getJobData(), new Date(pending.getFireTime()));
+        return null;
+    }
+
+    @Override
+    public void fired(long key) {
+        PendingTrigger pending = pendingTriggers.get(key);
+        if (pending != null && pending.isFired()) {
+            pendingTriggers.remove(key, pending);
+        }
+    }
+
+    @Override
+    public void cancel(long key) {
+        pendingTriggers.remove(key);
+        unscheduleJob(key);
+    }
+
+    @Override
+    public Date getFireTime(long key) {
+        PendingTrigger pending = pendingTriggers.get(key);
+        if (pending == null || pending.isFired()) {
+            return null;
+        }
+        return new Date(pending.getFireTime());
+    }
+}
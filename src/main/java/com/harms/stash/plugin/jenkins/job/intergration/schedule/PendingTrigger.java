@@ -0,0 +1,112 @@
+package com.harms.stash.plugin.jenkins.job.intergration.schedule;
+
+import java.io.Serializable;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.harms.stash.plugin.jenkins.job.intergration.JenkinsJobScheduler;
+
+/**
+ * A scheduled job trigger for a pull-request that is not fired yet.
+ *
+ * Every new event for the pull-request within the delay move the fire time forward
+ * (trailing edge debounce), but never beyond the latest fire time, so a steady stream
+ * of pushes can't postpone the build forever. When the scheduled job runs it check
+ * if the fire time has been moved, and if so it re-arm itself instead of triggering.
+ * The job data of the coalesced events is merged, so the trigger fire with the event
+ * that win in {@link JenkinsJobScheduler#mergeJobDataMap(Map, Map)}.
+ *
+ * @author fharms
+ *
+ */
+public class PendingTrigger {
+    private static final long FIRED = -1;
+
+    private final AtomicLong fireTime;
+    private final long latestFireTime;
+    private final AtomicReference<Map<String, Serializable>> jobData;
+
+    /**
+     * @param fireTime - The time in milliseconds the trigger should fire
+     * @param latestFireTime - The time in milliseconds the trigger can't be postponed beyond
+     * @param jobData - The job data of the first event
+     */
+    public PendingTrigger(long fireTime, long latestFireTime, Map<String, Serializable> jobData) {
+        this.fireTime = new AtomicLong(fireTime);
+        this.latestFireTime = Math.max(fireTime, latestFireTime);
+        this.jobData = new AtomicReference<Map<String, Serializable>>(jobData);
+    }
+
+    /**
+     * Move the fire time forward to the specified time, but not beyond the latest fire time
+     * @param time - The new fire time in milliseconds
+     * @return false if the trigger is already fired and a new trigger must be scheduled
+     */
+    public boolean postpone(long time) {
+        long next = Math.min(time, latestFireTime);
+        while (true) {
+            long current = fireTime.get();
+            if (current == FIRED) {
+                return false;
+            }
+            if (next <= current || fireTime.compareAndSet(current, next)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Mark the trigger as fired if the fire time is reached
+     * @param now - The current time in milliseconds
+     * @return true if the trigger should fire now, false if the fire time has been moved forward
+     */
+    public boolean tryFire(long now) {
+        while (true) {
+            long current = fireTime.get();
+            if (current == FIRED) {
+                return true;
+            }
+            if (current > now) {
+                return false;
+            }
+            if (fireTime.compareAndSet(current, FIRED)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Merge the job data of an event coalesced with the trigger
+     * @param latest - The job data of the event
+     */
+    public void merge(Map<String, Serializable> latest) {
+        while (true) {
+            Map<String, Serializable> current = jobData.get();
+            if (jobData.compareAndSet(current, JenkinsJobScheduler.mergeJobDataMap(current, latest))) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return the merged job data of the events coalesced with the trigger
+     */
+    public Map<String, Serializable> getJobData() {
+        return jobData.get();
+    }
+
+    /**
+     * @return true if the trigger is fired
+     */
+    public boolean isFired() {
+        return fireTime.get() == FIRED;
+    }
+
+    /**
+     * @return the time in milliseconds the trigger fire, or -1 if it's already fired
+     */
+    public long getFireTime() {
+        return fireTime.get();
+    }
+}
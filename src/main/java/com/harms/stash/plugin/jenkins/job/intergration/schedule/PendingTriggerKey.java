@@ -0,0 +1,43 @@
+package com.harms.stash.plugin.jenkins.job.intergration.schedule;
+
+import com.atlassian.scheduler.config.JobId;
+
+/**
+ * Pack the repository id and the pull-request id into one long, used as key for the
+ * pending triggers. The repository id is stored in the high 32 bits and the pull-request
+ * id in the low 32 bits, pull-request ids are numbered per repository so they fit.
+ *
+ * @author fharms
+ *
+ */
+final public class PendingTriggerKey {
+    private static final String JOB_ID_PREFIX = "jenkins-trigger-";
+
+    private PendingTriggerKey() {
+    }
+
+    /**
+     * @param repositoryId - The id of the repository the pull-request belong to
+     * @param pullRequestId - The id of the pull-request
+     * @return the key for the pull-request
+     */
+    public static long of(int repositoryId, long pullRequestId) {
+        return ((long) repositoryId << 32) | (pullRequestId & 0xFFFFFFFFL);
+    }
+
+    public static int getRepositoryId(long key) {
+        return (int) (key >>> 32);
+    }
+
+    public static long getPullRequestId(long key) {
+        return key & 0xFFFFFFFFL;
+    }
+
+    /**
+     * @param key - The pending trigger key
+     * @return the id of the scheduled job for the pull-request
+     */
+    public static JobId toJobId(long key) {
+        return JobId.of(JOB_ID_PREFIX + getRepositoryId(key) + "." + getPullRequestId(key));
+    }
+}
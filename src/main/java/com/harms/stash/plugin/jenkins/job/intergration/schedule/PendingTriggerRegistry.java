@@ -0,0 +1,76 @@
+package com.harms.stash.plugin.jenkins.job.intergration.schedule;
+
+import java.io.Serializable;
+import java.util.Date;
+import java.util.Map;
+
+import com.atlassian.scheduler.SchedulerServiceException;
+import com.harms.stash.plugin.jenkins.job.intergration.JenkinsJobScheduler;
+
+/**
+ * Keep track of the scheduled job triggers, so there is at most one pending trigger
+ * for a pull-request. The triggers are identified by the key from {@link PendingTriggerKey}.
+ *
+ * @author fharms
+ *
+ */
+public interface PendingTriggerRegistry {
+    /**
+     * The job parameter with the time in milliseconds the job is scheduled to run
+     */
+    String FIRE_TIME = "fire_time";
+
+    /**
+     * Schedule a job trigger for the pull-request. If a trigger is already pending it's moved
+     * forward with the delay, but never beyond the max wait after it was first scheduled, and
+     * the job data is merged with {@link JenkinsJobScheduler#mergeJobDataMap(Map, Map)}.
+     * @param key - The pending trigger key
+     * @param jobData - The job data passed to the job
+     * @param delay - The delay in milliseconds
+     * @param maxWait - The maximum time in milliseconds a trigger can be postponed
+     * @return the time the job is scheduled, or null if the trigger is coalesced with the pending trigger
+     * @throws SchedulerServiceException
+     */
+    Date schedule(long key, Map<String, Serializable> jobData, long delay, long maxWait) throws SchedulerServiceException;
+
+    /**
+     * Schedule a job trigger for the pull-request that replace any pending trigger and
+     * can't be postponed by later events.
+     * @param key - The pending trigger key
+     * @param jobData - The job data passed to the job
+     * @param delay - The delay in milliseconds
+     * @return the time the job is scheduled
+     * @throws SchedulerServiceException
+     */
+    Date scheduleForced(long key, Map<String, Serializable> jobData, long delay) throws SchedulerServiceException;
+
+    /**
+     * Called when the job run, to check if the trigger should fire now. If the trigger has been
+     * postponed the job is scheduled again at the new time.
+     * @param key - The pending trigger key
+     * @param jobData - The job data of the running job
+     * @param now - The current time in milliseconds
+     * @return the job data to trigger the build with, including the events coalesced with the trigger,
+     * or null if the trigger is postponed
+     * @throws SchedulerServiceException
+     */
+    Map<String, Serializable> tryFire(long key, Map<String, Serializable> jobData, long now) throws SchedulerServiceException;
+
+    /**
+     * Called when the trigger is fired and the build is handed over to be triggered
+     * @param key - The pending trigger key
+     */
+    void fired(long key);
+
+    /**
+     * Remove the pending trigger and unschedule the job, e.g. when the pull-request is merged
+     * @param key - The pending trigger key
+     */
+    void cancel(long key);
+
+    /**
+     * @param key - The pending trigger key
+     * @return the time the trigger fire, or null if no trigger is pending
+     */
+    Date getFireTime(long key);
+}
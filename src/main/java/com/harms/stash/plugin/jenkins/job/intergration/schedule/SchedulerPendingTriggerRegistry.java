@@ -0,0 +1,103 @@
+package com.harms.stash.plugin.jenkins.job.intergration.schedule;
+
+import java.io.Serializable;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.atlassian.scheduler.SchedulerService;
+import com.atlassian.scheduler.SchedulerServiceException;
+import com.atlassian.scheduler.status.JobDetails;
+import com.harms.stash.plugin.jenkins.job.intergration.JenkinsJobScheduler;
+
+/**
+ * Use the scheduled job itself as the pending trigger, so every node in the cluster see the
+ * same triggers. The next run time of the job is the fire time, and the latest fire time is
+ * stored in the job parameters.
+ *
+ * Postponing a trigger replace the scheduled job with a later run time and the merged job data.
+ * To keep the writes to the scheduler down, the job is only replaced if the event that win the
+ * merge change the job data, or the fire time move more than a quarter of the build delay, but
+ * at most {@link #RESCHEDULE_THRESHOLD} milliseconds. So a trigger can fire up to that much
+ * earlier than the last event plus the delay.
+ *
+ * @author fharms
+ *
+ */
+public class SchedulerPendingTriggerRegistry extends AbstractPendingTriggerRegistry {
+    public static final String LATEST_FIRE_TIME = "latest_fire_time";
+    public static final long RESCHEDULE_THRESHOLD = 5000;
+    private static final long RESCHEDULE_DELAY_FRACTION = 4;
+
+    public SchedulerPendingTriggerRegistry(SchedulerService schedulerService) {
+        super(schedulerService);
+    }
+
+    @Override
+    public Date schedule(long key, Map<String, Serializable> jobData, long delay, long maxWait) throws SchedulerServiceException {
+        long now = System.currentTimeMillis();
+        JobDetails details = schedulerService.getJobDetails(PendingTriggerKey.toJobId(key));
+        Date nextRunTime = details == null ? null : details.getNextRunTime();
+        if (nextRunTime != null && nextRunTime.getTime() > now) {
+            Map<String, Serializable> parameters = details.getParameters();
+            Serializable latest = parameters.get(LATEST_FIRE_TIME);
+            long latestFireTime = latest instanceof Long ? (Long) latest : nextRunTime.getTime();
+            long fireTime = Math.max(Math.min(now + delay, latestFireTime), nextRunTime.getTime());
+            Map<String, Serializable> merged = JenkinsJobScheduler.mergeJobDataMap(parameters, jobData);
+            if (fireTime - nextRunTime.getTime() > getRescheduleThreshold(delay) || !merged.equals(parameters)) {
+                scheduleJob(key, merged, new Date(fireTime));
+            }
+            return null;
+        }
+        return scheduleAt(key, jobData, now + delay, now + maxWait);
+    }
+
+    /**
+     * @param delay - The build delay in milliseconds
+     * @return how many milliseconds the fire time must move before the job is replaced
+     */
+    static long getRescheduleThreshold(long delay) {
+        return Math.min(RESCHEDULE_THRESHOLD, delay / RESCHEDULE_DELAY_FRACTION);
+    }
+
+    @Override
+    public Date scheduleForced(long key, Map<String, Serializable> jobData, long delay) throws SchedulerServiceException {
+        long fireTime = System.currentTimeMillis() + delay;
+        return scheduleAt(key, jobData, fireTime, fireTime);
+    }
+
+    private Date scheduleAt(long key, Map<String, Serializable> jobData, long fireTime, long latestFireTime) throws SchedulerServiceException {
+        Map<String, Serializable> parameters = new HashMap<String, Serializable>(jobData);
+        parameters.put(LATEST_FIRE_TIME, Math.max(fireTime, latestFireTime));
+        Date date = new Date(fireTime);
+        scheduleJob(key, parameters, date);
+        return date;
+    }
+
+    /**
+     * The job is replaced when the trigger is postponed, so when the job run it's always due
+     */
+    @Override
+    public Map<String, Serializable> tryFire(long key, Map<String, Serializable> jobData, long now) {
+        return jobData;
+    }
+
+    @Override
+    public void fired(long key) {
+        //the run once job is removed by the scheduler when it has run
+    }
+
+    @Override
+    public void cancel(long key) {
+        unscheduleJob(key);
+    }
+
+    @Override
+    public Date getFireTime(long key) {
+        JobDetails details = schedulerService.getJobDetails(PendingTriggerKey.toJobId(key));
+        if (details == null || details.getNextRunTime() == null || details.getNextRunTime().getTime() < System.currentTimeMillis()) {
+            return null;
+        }
+        return details.getNextRunTime();
+    }
+}
@@ -0,0 +1,216 @@
+package com.harms.stash.plugin.jenkins.job.intergration.server;
+
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Ticker;
+
+/**
+ * Circuit breaker for a single Jenkins CI server. It keep track of the outcome of the last
+ * calls to the server and stop sending triggers to it while it's failing.
+ * <pre>
+ * CLOSED    - The server is healthy and all calls is permitted. When the failure rate or the
+ *             slow call rate of the last calls reach the threshold the circuit is opened.
+ * OPEN      - No calls is permitted until the cooldown period is over, then it move to half open.
+ * HALF_OPEN - A limited number of trial calls is permitted. If they succeed the circuit is
+ *             closed again, if one of them fails the circuit is opened for a new cooldown period.
+ * </pre>
+ *
+ * @author fharms
+ *
+ */
+public class CircuitBreaker {
+    private static final Logger log = LoggerFactory.getLogger(CircuitBreaker.class);
+
+    public static final int DEFAULT_WINDOW_SIZE = 10;
+    public static final int DEFAULT_MINIMUM_CALLS = 4;
+    public static final int DEFAULT_FAILURE_RATE_THRESHOLD = 50;
+    public static final int DEFAULT_SLOW_CALL_RATE_THRESHOLD = 80;
+    public static final long DEFAULT_SLOW_CALL_DURATION = 4000;
+    public static final long DEFAULT_COOLDOWN = 30000;
+    public static final int DEFAULT_HALF_OPEN_PERMITS = 1;
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final String name;
+    private final int minimumCalls;
+    private final int failureRateThreshold;
+    private final int slowCallRateThreshold;
+    private final long slowCallDurationNanos;
+    private final long cooldownNanos;
+    private final int halfOpenPermits;
+    private final Ticker ticker;
+
+    /* ring buffer with the outcome of the last calls, guarded by this */
+    private final boolean[] failedCalls;
+    private final boolean[] slowCalls;
+    private int next;
+    private int calls;
+    private int failures;
+    private int slow;
+
+    private State state = State.CLOSED;
+    private long openedAt;
+    private int halfOpenCalls;
+
+    public CircuitBreaker(String name) {
+        this(name, DEFAULT_WINDOW_SIZE, DEFAULT_MINIMUM_CALLS, DEFAULT_FAILURE_RATE_THRESHOLD, DEFAULT_SLOW_CALL_RATE_THRESHOLD,
+                DEFAULT_SLOW_CALL_DURATION, DEFAULT_COOLDOWN, DEFAULT_HALF_OPEN_PERMITS, Ticker.systemTicker());
+    }
+
+    /**
+     * @param name - The name of the circuit, normally the base URL of the server
+     * @param windowSize - The number of calls the rates is calculated from
+     * @param minimumCalls - The number of calls required before the circuit can open
+     * @param failureRateThreshold - The failure rate in percent that open the circuit
+     * @param slowCallRateThreshold - The slow call rate in percent that open the circuit
+     * @param slowCallDuration - Calls taking longer than this in milliseconds count as slow
+     * @param cooldown - The time in milliseconds the circuit stays open
+     * @param halfOpenPermits - The number of trial calls permitted when half open
+     * @param ticker - The time source
+     */
+    public CircuitBreaker(String name, int windowSize, int minimumCalls, int failureRateThreshold, int slowCallRateThreshold,
+            long slowCallDuration, long cooldown, int halfOpenPermits, Ticker ticker) {
+        this.name = name;
+        this.minimumCalls = Math.min(minimumCalls, windowSize);
+        this.failureRateThreshold = failureRateThreshold;
+        this.slowCallRateThreshold = slowCallRateThreshold;
+        this.slowCallDurationNanos = TimeUnit.MILLISECONDS.toNanos(slowCallDuration);
+        this.cooldownNanos = TimeUnit.MILLISECONDS.toNanos(cooldown);
+        this.halfOpenPermits = halfOpenPermits;
+        this.ticker = ticker;
+        this.failedCalls = new boolean[windowSize];
+        this.slowCalls = new boolean[windowSize];
+    }
+
+    /**
+     * Test if a call would be permitted without acquiring a permission. This is used when
+     * selecting a server and doesn't change the state of the circuit.
+     * @return true if the server accept calls
+     */
+    public synchronized boolean isCallPermitted() {
+        switch (state) {
+        case OPEN:
+            return ticker.read() - openedAt >= cooldownNanos;
+        case HALF_OPEN:
+            return halfOpenCalls < halfOpenPermits;
+        default:
+            return true;
+        }
+    }
+
+    /**
+     * Acquire a permission to call the server. When the permission is granted the outcome of
+     * the call must be reported with {@link #onSuccess(long)} or {@link #onFailure(long)}.
+     * @return true if the call is permitted
+     */
+    public synchronized boolean tryAcquirePermission() {
+        if (state == State.OPEN) {
+            if (ticker.read() - openedAt < cooldownNanos) {
+                return false;
+            }
+            transitionTo(State.HALF_OPEN);
+        }
+        if (state == State.HALF_OPEN) {
+            if (halfOpenCalls >= halfOpenPermits) {
+                return false;
+            }
+            halfOpenCalls++;
+        }
+        return true;
+    }
+
+    /**
+     * Record a successful call
+     * @param duration - The duration of the call in milliseconds
+     */
+    public synchronized void onSuccess(long duration) {
+        boolean slowCall = TimeUnit.MILLISECONDS.toNanos(duration) >= slowCallDurationNanos;
+        if (state == State.HALF_OPEN) {
+            if (slowCall) {
+                transitionTo(State.OPEN);
+            } else if (--halfOpenCalls <= 0) {
+                transitionTo(State.CLOSED);
+            }
+            return;
+        }
+        record(false, slowCall);
+    }
+
+    /**
+     * Record a failed call
+     * @param duration - The duration of the call in milliseconds
+     */
+    public synchronized void onFailure(long duration) {
+        if (state == State.HALF_OPEN) {
+            transitionTo(State.OPEN);
+            return;
+        }
+        record(true, TimeUnit.MILLISECONDS.toNanos(duration) >= slowCallDurationNanos);
+    }
+
+    /**
+     * Give back the permission of a call that is cancelled before the outcome is known,
+     * e.g. the losing request of a hedged trigger
+     */
+    public synchronized void onCancel() {
+        if (state == State.HALF_OPEN && halfOpenCalls > 0) {
+            halfOpenCalls--;
+        }
+    }
+
+    /**
+     * @return the current state of the circuit
+     */
+    public synchronized State getState() {
+        if (state == State.OPEN && ticker.read() - openedAt >= cooldownNanos) {
+            return State.HALF_OPEN;
+        }
+        return state;
+    }
+
+    /**
+     * @return the name of the circuit
+     */
+    public String getName() {
+        return name;
+    }
+
+    private void record(boolean failed, boolean slowCall) {
+        if (calls == failedCalls.length) {
+            failures -= failedCalls[next] ? 1 : 0;
+            slow -= slowCalls[next] ? 1 : 0;
+        } else {
+            calls++;
+        }
+        failedCalls[next] = failed;
+        slowCalls[next] = slowCall;
+        failures += failed ? 1 : 0;
+        slow += slowCall ? 1 : 0;
+        next = (next + 1) % failedCalls.length;
+
+        if (state == State.CLOSED && calls >= minimumCalls) {
+            if (failures * 100 >= failureRateThreshold * calls || slow * 100 >= slowCallRateThreshold * calls) {
+                transitionTo(State.OPEN);
+            }
+        }
+    }
+
+    private void transitionTo(State newState) {
+        log.info(String.format("Circuit for CI server %s changed from %s to %s", name, state, newState));
+        state = newState;
+        halfOpenCalls = 0;
+        if (newState == State.OPEN) {
+            openedAt = ticker.read();
+        } else if (newState == State.CLOSED) {
+            next = 0;
+            calls = 0;
+            failures = 0;
+            slow = 0;
+        }
+    }
+}
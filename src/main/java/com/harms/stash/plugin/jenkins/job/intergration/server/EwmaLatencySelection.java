@@ -0,0 +1,38 @@
+package com.harms.stash.plugin.jenkins.job.intergration.server;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Select a server at random weighted by the inverse of the expected cost, so a server
+ * responding twice as fast receive twice as many builds. Servers without any measured
+ * response time is treated as fast, so they are tried early.
+ *
+ * @author fharms
+ *
+ */
+public class EwmaLatencySelection implements ServerSelectionStrategy {
+    private final JenkinsServerRegistry serverRegistry;
+
+    public EwmaLatencySelection(JenkinsServerRegistry serverRegistry) {
+        this.serverRegistry = serverRegistry;
+    }
+
+    @Override
+    public String select(String slug, List<String> servers) {
+        double[] weights = new double[servers.size()];
+        double total = 0;
+        for (int i = 0; i < weights.length; i++) {
+            weights[i] = 1.0 / serverRegistry.getServer(servers.get(i)).getStatistics().getCost();
+            total += weights[i];
+        }
+        double random = ThreadLocalRandom.current().nextDouble() * total;
+        for (int i = 0; i < weights.length; i++) {
+            random -= weights[i];
+            if (random < 0) {
+                return servers.get(i);
+            }
+        }
+        return servers.get(weights.length - 1);
+    }
+}
@@ -0,0 +1,52 @@
+package com.harms.stash.plugin.jenkins.job.intergration.server;
+
+/**
+ * Shared runtime state of a single Jenkins CI server, identified by it's base URL.
+ *
+ * @author fharms
+ *
+ */
+public class JenkinsServer {
+    public static final long RATE_LIMIT_BURST = 10;
+    public static final double RATE_LIMIT_PER_SECOND = 5;
+
+    private final String baseUrl;
+    private final CircuitBreaker circuitBreaker;
+    private final ServerStatistics statistics;
+    private final TokenBucket rateLimiter;
+
+    public JenkinsServer(String baseUrl) {
+        this.baseUrl = baseUrl;
+        this.circuitBreaker = new CircuitBreaker(baseUrl);
+        this.statistics = new ServerStatistics();
+        this.rateLimiter = new TokenBucket(RATE_LIMIT_BURST, RATE_LIMIT_PER_SECOND);
+    }
+
+    /**
+     * @return the base URL of the server
+     */
+    public String getBaseUrl() {
+        return baseUrl;
+    }
+
+    /**
+     * @return the {@link CircuitBreaker} of the server
+     */
+    public CircuitBreaker getCircuitBreaker() {
+        return circuitBreaker;
+    }
+
+    /**
+     * @return the {@link ServerStatistics} of the server
+     */
+    public ServerStatistics getStatistics() {
+        return statistics;
+    }
+
+    /**
+     * @return the {@link TokenBucket} limiting the trigger rate to the server
+     */
+    public TokenBucket getRateLimiter() {
+        return rateLimiter;
+    }
+}
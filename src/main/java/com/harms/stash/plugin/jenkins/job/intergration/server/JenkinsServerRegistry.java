@@ -0,0 +1,108 @@
+package com.harms.stash.plugin.jenkins.job.intergration.server;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Registry of the Jenkins CI servers keyed by the base URL, so the health of a server is
+ * shared between all triggers and repositories using the same server. The registry also
+ * hold the rate limiter shared by all the servers.
+ *
+ * The sessions are keyed by the root URL of the Jenkins server and not the base URL of the job,
+ * because Jenkins bind the crumb and the cookies to the server, so all the jobs of a server share
+ * one session per user.
+ *
+ * @author fharms
+ *
+ */
+public class JenkinsServerRegistry {
+    public static final long GLOBAL_RATE_LIMIT_BURST = 20;
+    public static final double GLOBAL_RATE_LIMIT_PER_SECOND = 10;
+
+    private final ConcurrentMap<String, JenkinsServer> servers = new ConcurrentHashMap<String, JenkinsServer>();
+    private final ConcurrentMap<String, JenkinsSession> sessions = new ConcurrentHashMap<String, JenkinsSession>();
+    private final TokenBucket globalRateLimiter = new TokenBucket(GLOBAL_RATE_LIMIT_BURST, GLOBAL_RATE_LIMIT_PER_SECOND);
+
+    /**
+     * Return the server with the specified base URL, the server is registered if it's not known
+     * @param baseUrl - The base URL of the server
+     * @return the {@link JenkinsServer}
+     */
+    public JenkinsServer getServer(String baseUrl) {
+        JenkinsServer server = servers.get(baseUrl);
+        if (server == null) {
+            JenkinsServer newServer = new JenkinsServer(baseUrl);
+            server = servers.putIfAbsent(baseUrl, newServer);
+            if (server == null) {
+                server = newServer;
+            }
+        }
+        return server;
+    }
+
+    /**
+     * Return the servers from the list that accept calls, in the same order as the list
+     * @param baseUrls - The base URL of the servers
+     * @return the base URL of the available servers
+     */
+    public List<String> getAvailableServers(String[] baseUrls) {
+        List<String> available = new ArrayList<String>(baseUrls.length);
+        for (String baseUrl : baseUrls) {
+            if (getServer(baseUrl).getCircuitBreaker().isCallPermitted()) {
+                available.add(baseUrl);
+            }
+        }
+        return available;
+    }
+
+    /**
+     * @return the {@link TokenBucket} limiting the trigger rate to all the servers together
+     */
+    public TokenBucket getGlobalRateLimiter() {
+        return globalRateLimiter;
+    }
+
+    /**
+     * @return all the known servers
+     */
+    public Collection<JenkinsServer> getServers() {
+        return servers.values();
+    }
+
+    /**
+     * Return the session of the user on the Jenkins server the job belong to, the session is created if it's not known
+     * @param baseUrl - The base URL of the job
+     * @param userName - The username or null for anonymous
+     * @return the {@link JenkinsSession}
+     */
+    public JenkinsSession getSession(String baseUrl, byte[] userName) {
+        String key = getRootUrl(baseUrl) + "|" + (userName == null ? "" : new String(userName, Charset.forName("UTF-8")));
+        JenkinsSession session = sessions.get(key);
+        if (session == null) {
+            JenkinsSession newSession = new JenkinsSession();
+            session = sessions.putIfAbsent(key, newSession);
+            if (session == null) {
+                session = newSession;
+            }
+        }
+        return session;
+    }
+
+    /**
+     * Return the root URL of the Jenkins server from the URL of a job, e.g. "http://ci:8080/jenkins/"
+     * from "http://ci:8080/jenkins/job/folder/job/build/"
+     * @param jobUrl - The URL of the job
+     * @return the root URL ending with a slash
+     */
+    public static String getRootUrl(String jobUrl) {
+        int index = jobUrl.indexOf("/job/");
+        if (index >= 0) {
+            return jobUrl.substring(0, index + 1);
+        }
+        return jobUrl.endsWith("/") ? jobUrl : jobUrl + "/";
+    }
+}
@@ -0,0 +1,83 @@
+package com.harms.stash.plugin.jenkins.job.intergration.server;
+
+import org.apache.http.client.CookieStore;
+import org.apache.http.impl.client.BasicCookieStore;
+
+/**
+ * The session of one user on a Jenkins CI server. Jenkins bind the CSRF crumb to the HTTP session,
+ * so the crumb is kept together with the session cookies and both are sent with every trigger.
+ *
+ * If the server has no crumb issuer, e.g. the CSRF protection is disabled, the crumb is not
+ * fetched again for {@link #NO_CRUMB_RECHECK} milliseconds.
+ *
+ * @author fharms
+ *
+ */
+public class JenkinsSession {
+    public static final long NO_CRUMB_RECHECK = 600000;
+
+    private final CookieStore cookieStore = new BasicCookieStore();
+    private volatile Crumb crumb;
+    private volatile long noCrumbUntil = 0;
+
+    /**
+     * @return the cookies of the session
+     */
+    public CookieStore getCookieStore() {
+        return cookieStore;
+    }
+
+    /**
+     * @return the cached crumb or null if no crumb is fetched
+     */
+    public Crumb getCrumb() {
+        return crumb;
+    }
+
+    /**
+     * Cache the crumb fetched from the crumb issuer
+     * @param crumb - The {@link Crumb}
+     */
+    public void setCrumb(Crumb crumb) {
+        this.crumb = crumb;
+        this.noCrumbUntil = 0;
+    }
+
+    /**
+     * Register the server has no crumb issuer
+     * @param now - The time in milliseconds
+     */
+    public void setNoCrumb(long now) {
+        this.crumb = null;
+        this.noCrumbUntil = now + NO_CRUMB_RECHECK;
+    }
+
+    /**
+     * @param now - The time in milliseconds
+     * @return true if no crumb is cached, and the server is not known to be without a crumb issuer
+     */
+    public boolean isCrumbNeeded(long now) {
+        return crumb == null && now >= noCrumbUntil;
+    }
+
+    /**
+     * The CSRF crumb and the name of the request header it's sent in
+     */
+    public static final class Crumb {
+        private final String field;
+        private final String value;
+
+        public Crumb(String field, String value) {
+            this.field = field;
+            this.value = value;
+        }
+
+        public String getField() {
+            return field;
+        }
+
+        public String getValue() {
+            return value;
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package com.harms.stash.plugin.jenkins.job.intergration.server;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Select the server with the fewest requests waiting for a response. If more servers
+ * have the same number of requests one of them is selected at random.
+ *
+ * @author fharms
+ *
+ */
+public class LeastOutstandingSelection implements ServerSelectionStrategy {
+    private final JenkinsServerRegistry serverRegistry;
+
+    public LeastOutstandingSelection(JenkinsServerRegistry serverRegistry) {
+        this.serverRegistry = serverRegistry;
+    }
+
+    @Override
+    public String select(String slug, List<String> servers) {
+        String selected = null;
+        int least = Integer.MAX_VALUE;
+        int ties = 0;
+        for (String server : servers) {
+            int outstanding = serverRegistry.getServer(server).getStatistics().getOutstanding();
+            if (outstanding < least) {
+                least = outstanding;
+                selected = server;
+                ties = 1;
+            } else if (outstanding == least && ThreadLocalRandom.current().nextInt(++ties) == 0) {
+                selected = server;
+            }
+        }
+        return selected;
+    }
+}
@@ -0,0 +1,35 @@
+package com.harms.stash.plugin.jenkins.job.intergration.server;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Pick two servers at random and select the one with the lowest expected cost. This
+ * avoid sending all builds to the same server when the statistics is out of date.
+ *
+ * @author fharms
+ *
+ */
+public class PowerOfTwoChoicesSelection implements ServerSelectionStrategy {
+    private final JenkinsServerRegistry serverRegistry;
+
+    public PowerOfTwoChoicesSelection(JenkinsServerRegistry serverRegistry) {
+        this.serverRegistry = serverRegistry;
+    }
+
+    @Override
+    public String select(String slug, List<String> servers) {
+        if (servers.size() == 1) {
+            return servers.get(0);
+        }
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int first = random.nextInt(servers.size());
+        int second = random.nextInt(servers.size() - 1);
+        if (second >= first) {
+            second++;
+        }
+        String a = servers.get(first);
+        String b = servers.get(second);
+        return serverRegistry.getServer(a).getStatistics().getCost() <= serverRegistry.getServer(b).getStatistics().getCost() ? a : b;
+    }
+}
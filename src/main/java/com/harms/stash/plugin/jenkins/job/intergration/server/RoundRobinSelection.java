@@ -0,0 +1,68 @@
+package com.harms.stash.plugin.jenkins.job.intergration.server;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.atlassian.sal.api.pluginsettings.PluginSettings;
+import com.harms.stash.plugin.jenkins.job.settings.PluginSettingsHelper;
+
+/**
+ * Select the servers in turn, starting after the last used server.
+ *
+ * The position in the list is kept in memory per repository and moved with an atomic
+ * increment, so triggers for different repositories never wait on each other. The last used
+ * server is only written to the settings once every {@link #PERSIST_INTERVAL} milliseconds,
+ * so the rotation continue from about the same place after a restart.
+ *
+ * @author fharms
+ *
+ */
+public class RoundRobinSelection implements ServerSelectionStrategy {
+    public static final long PERSIST_INTERVAL = 60000;
+
+    private final PluginSettings settings;
+    private final ConcurrentMap<String, Cursor> cursors = new ConcurrentHashMap<String, Cursor>();
+
+    public RoundRobinSelection(PluginSettings settings) {
+        this.settings = settings;
+    }
+
+    @Override
+    public String select(String slug, List<String> servers) {
+        Cursor cursor = getCursor(slug, servers);
+        int position = cursor.position.getAndIncrement() & Integer.MAX_VALUE;
+        String server = servers.get(position % servers.size());
+
+        long now = System.currentTimeMillis();
+        long persistedAt = cursor.persistedAt.get();
+        if (now - persistedAt >= PERSIST_INTERVAL && cursor.persistedAt.compareAndSet(persistedAt, now)) {
+            PluginSettingsHelper.setLastJenkinsCIServer(slug, server, settings);
+        }
+        return server;
+    }
+
+    private Cursor getCursor(String slug, List<String> servers) {
+        Cursor cursor = cursors.get(slug);
+        if (cursor == null) {
+            int next = servers.indexOf(PluginSettingsHelper.getLastJenkinsCIServer(slug, settings)) + 1;
+            Cursor newCursor = new Cursor(next);
+            cursor = cursors.putIfAbsent(slug, newCursor);
+            if (cursor == null) {
+                cursor = newCursor;
+            }
+        }
+        return cursor;
+    }
+
+    private static class Cursor {
+        private final AtomicInteger position;
+        private final AtomicLong persistedAt = new AtomicLong();
+
+        Cursor(int position) {
+            this.position = new AtomicInteger(position);
+        }
+    }
+}
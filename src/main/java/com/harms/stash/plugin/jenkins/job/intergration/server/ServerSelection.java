@@ -0,0 +1,41 @@
+package com.harms.stash.plugin.jenkins.job.intergration.server;
+
+/**
+ * Define the different strategies for selecting the Jenkins CI server.
+ *
+ * @author fharms
+ *
+ */
+public enum ServerSelection {
+
+    ROUND_ROBIN("Round-robin"),
+    LEAST_OUTSTANDING("Least outstanding requests"),
+    EWMA_LATENCY("Latency weighted"),
+    POWER_OF_TWO_CHOICES("Power of two choices");
+
+    private final String text;
+
+    private ServerSelection(String text) {
+        this.text = text;
+    }
+
+    public String getText() {
+        return this.text;
+    }
+
+    /**
+     * Return the selection from it's name
+     * @param name - The name of the selection
+     * @return the {@link ServerSelection} or ROUND_ROBIN if the name is unknown
+     */
+    public static ServerSelection fromName(String name) {
+        if (name != null) {
+            for (ServerSelection selection : values()) {
+                if (selection.name().equals(name)) {
+                    return selection;
+                }
+            }
+        }
+        return ROUND_ROBIN;
+    }
+}
@@ -0,0 +1,20 @@
+package com.harms.stash.plugin.jenkins.job.intergration.server;
+
+import java.util.List;
+
+/**
+ * Strategy for selecting the Jenkins CI server a build is triggered on.
+ *
+ * @author fharms
+ *
+ */
+public interface ServerSelectionStrategy {
+
+    /**
+     * Select the server from the list of available servers
+     * @param slug - The slug of the repository
+     * @param servers - The base URL of the available servers, never empty
+     * @return the base URL of the selected server
+     */
+    String select(String slug, List<String> servers);
+}
@@ -0,0 +1,139 @@
+package com.harms.stash.plugin.jenkins.job.intergration.server;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.harms.stash.plugin.jenkins.job.intergration.metrics.Histogram;
+
+/**
+ * Response time and load statistics of a single Jenkins CI server, used by the
+ * {@link ServerSelectionStrategy} for selecting the next server.
+ *
+ * The latency is an exponentially weighted moving average (EWMA) of the measured response
+ * times, so recent calls count more than old calls. The response times is also counted in a
+ * {@link Histogram} for the percentiles used when hedging the triggers.
+ *
+ * @author fharms
+ *
+ */
+public class ServerStatistics {
+    public static final double DEFAULT_ALPHA = 0.3;
+
+    private final double alpha;
+    private final AtomicInteger outstanding = new AtomicInteger();
+    private final AtomicLong ewmaBits = new AtomicLong(Double.doubleToLongBits(0.0));
+    private final AtomicLong samples = new AtomicLong();
+    private final AtomicLong successes = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final Histogram latencies = new Histogram();
+
+    public ServerStatistics() {
+        this(DEFAULT_ALPHA);
+    }
+
+    /**
+     * @param alpha - The weight of the latest response time between 0 and 1
+     */
+    public ServerStatistics(double alpha) {
+        this.alpha = alpha;
+    }
+
+    /**
+     * Register a request is sent to the server
+     */
+    public void onStart() {
+        outstanding.incrementAndGet();
+    }
+
+    /**
+     * Register the request is completed, either with a response or a failure
+     * @param latency - The response time in milliseconds
+     */
+    public void onComplete(long latency) {
+        outstanding.decrementAndGet();
+        latencies.record(latency);
+        boolean first = samples.getAndIncrement() == 0;
+        while (true) {
+            long currentBits = ewmaBits.get();
+            double current = Double.longBitsToDouble(currentBits);
+            double next = first ? latency : current + alpha * (latency - current);
+            if (ewmaBits.compareAndSet(currentBits, Double.doubleToLongBits(next))) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Register the request is aborted before the response, the response time is not measured
+     */
+    public void onCancel() {
+        outstanding.decrementAndGet();
+    }
+
+    /**
+     * Register a build is triggered on the server
+     */
+    public void onSuccess() {
+        successes.incrementAndGet();
+    }
+
+    /**
+     * Register the server failed to trigger a build
+     */
+    public void onFailure() {
+        failures.incrementAndGet();
+    }
+
+    /**
+     * @return the number of builds triggered on the server
+     */
+    public long getSuccesses() {
+        return successes.get();
+    }
+
+    /**
+     * @return the number of failed calls to the server
+     */
+    public long getFailures() {
+        return failures.get();
+    }
+
+    /**
+     * @return the number of requests waiting for a response
+     */
+    public int getOutstanding() {
+        return outstanding.get();
+    }
+
+    /**
+     * @return the average response time in milliseconds, or 0 if nothing is measured yet
+     */
+    public double getLatency() {
+        return Double.longBitsToDouble(ewmaBits.get());
+    }
+
+    /**
+     * Return the response time below which the percentage of the measured response times fall
+     * @param percentile - The percentile between 0 and 100
+     * @return the response time in milliseconds, or 0 if nothing is measured yet
+     */
+    public long getLatencyPercentile(double percentile) {
+        return latencies.getPercentile(percentile);
+    }
+
+    /**
+     * @return the number of measured response times
+     */
+    public long getSamples() {
+        return samples.get();
+    }
+
+    /**
+     * The expected cost of sending a new request to the server, the average response time
+     * multiplied with the number of requests it has to serve
+     * @return the cost, lower is better
+     */
+    public double getCost() {
+        return Math.max(getLatency(), 1.0) * (getOutstanding() + 1);
+    }
+}
@@ -0,0 +1,102 @@
+package com.harms.stash.plugin.jenkins.job.intergration.server;
+
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.base.Ticker;
+
+/**
+ * Token bucket rate limiter. The bucket hold up to the capacity of tokens and is refilled
+ * with a fixed number of tokens per second, so short bursts are allowed while the average
+ * rate is bounded.
+ *
+ * @author fharms
+ *
+ */
+public class TokenBucket {
+    private final long capacity;
+    private final long nanosPerToken;
+    private final Ticker ticker;
+
+    /* guarded by this */
+    private double tokens;
+    private long refilledAt;
+
+    public TokenBucket(long capacity, double tokensPerSecond) {
+        this(capacity, tokensPerSecond, Ticker.systemTicker());
+    }
+
+    /**
+     * @param capacity - The maximum number of tokens, this is the largest burst allowed
+     * @param tokensPerSecond - The number of tokens added per second
+     * @param ticker - Source of the time
+     */
+    public TokenBucket(long capacity, double tokensPerSecond, Ticker ticker) {
+        if (capacity < 1 || tokensPerSecond <= 0) {
+            throw new IllegalArgumentException("The capacity and rate must be positive");
+        }
+        this.capacity = capacity;
+        this.nanosPerToken = (long) (TimeUnit.SECONDS.toNanos(1) / tokensPerSecond);
+        this.ticker = ticker;
+        this.tokens = capacity;
+        this.refilledAt = ticker.read();
+    }
+
+    /**
+     * Take a token if one is available
+     * @return 0 if a token is taken, otherwise the time in nanoseconds until the next token is available
+     */
+    public synchronized long tryAcquire() {
+        refill();
+        if (tokens >= 1) {
+            tokens--;
+            return 0;
+        }
+        return (long) ((1 - tokens) * nanosPerToken);
+    }
+
+    /**
+     * Take a token, and wait for it if none is available
+     * @param timeout - The maximum time in milliseconds to wait
+     * @return false if no token was available within the timeout
+     * @throws InterruptedException
+     */
+    public boolean acquire(long timeout) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+        while (true) {
+            long wait = tryAcquire();
+            if (wait == 0) {
+                return true;
+            }
+            long remaining = deadline - System.nanoTime();
+            if (wait > remaining) {
+                return false;
+            }
+            TimeUnit.NANOSECONDS.sleep(wait);
+        }
+    }
+
+    /**
+     * Give back a token that was taken but not used, e.g. when another rate limiter refused the call
+     */
+    public synchronized void release() {
+        refill();
+        tokens = Math.min(capacity, tokens + 1);
+    }
+
+    /**
+     * @return the number of whole tokens available right now
+     */
+    public synchronized long getAvailableTokens() {
+        refill();
+        return (long) tokens;
+    }
+
+    private void refill() {
+        long now = ticker.read();
+        long elapsed = now - refilledAt;
+        if (elapsed > 0) {
+            tokens = Math.min(capacity, tokens + (double) elapsed / nanosPerToken);
+            refilledAt = now;
+        }
+    }
+}
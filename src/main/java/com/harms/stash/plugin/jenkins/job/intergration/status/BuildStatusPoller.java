@@ -0,0 +1,445 @@
+package com.harms.stash.plugin.jenkins.job.intergration.status;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.util.EntityUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+
+import com.atlassian.sal.api.pluginsettings.PluginSettings;
+import com.atlassian.sal.api.pluginsettings.PluginSettingsFactory;
+import com.atlassian.stash.user.StashAuthenticationContext;
+import com.atlassian.stash.user.StashUser;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.gson.Gson;
+import com.harms.stash.plugin.jenkins.job.intergration.JenkinsHttpClient;
+import com.harms.stash.plugin.jenkins.job.intergration.comment.PullRequestCommentWriter;
+import com.harms.stash.plugin.jenkins.job.intergration.server.JenkinsServerRegistry;
+import com.harms.stash.plugin.jenkins.job.intergration.server.JenkinsSession;
+import com.harms.stash.plugin.jenkins.job.settings.PluginSettingsHelper;
+import com.harms.stash.plugin.jenkins.job.settings.RepositorySettings;
+
+/**
+ * Follow the triggered builds until they are finished and comment the result on the pull-request.
+ *
+ * Jenkins return the queue item of a triggered build in the "Location" header, and every build
+ * of a job expose the id of the queue item it was started from. One shared thread poll the
+ * latest builds of the jobs, and match them on the queue item id.
+ *
+ * When more than one job is tracked on the same Jenkins server, the builds of all the jobs at the
+ * root of the server are fetched with a single "api/json?tree=jobs[name,builds[...]]" request. The
+ * response contain every job of the server, so a server with many jobs return a large response,
+ * but it's one request per server instead of one per job. A job inside a folder, or a single job
+ * on the server, is polled with its own request.
+ *
+ * A job is polled every {@link #MIN_POLL_INTERVAL} milliseconds after a change, and the interval
+ * is doubled up to {@link #MAX_POLL_INTERVAL} milliseconds while nothing change. At most
+ * {@link #MAX_TRACKED_BUILDS} builds are tracked, and a build is dropped if it's not finished
+ * within {@link #MAX_TRACK_TIME} milliseconds.
+ *
+ * @author fharms
+ *
+ */
+public class BuildStatusPoller implements DisposableBean {
+    private static final Logger log = LoggerFactory.getLogger(BuildStatusPoller.class);
+
+    public static final int MAX_TRACKED_BUILDS = 500;
+    public static final long MIN_POLL_INTERVAL = 5000;
+    public static final long MAX_POLL_INTERVAL = 60000;
+    public static final long MAX_TRACK_TIME = TimeUnit.HOURS.toMillis(6);
+    private static final long TICK = 1000;
+    //tree=builds[number,url,result,building,queueId]{0,50}
+    private static final String BUILDS_QUERY = "api/json?tree=builds%5Bnumber%2Curl%2Cresult%2Cbuilding%2CqueueId%5D%7B0%2C50%7D";
+    //tree=jobs[name,builds[number,url,result,building,queueId]{0,50}]
+    private static final String JOBS_QUERY = "api/json?tree=jobs%5Bname%2Cbuilds%5Bnumber%2Curl%2Cresult%2Cbuilding%2CqueueId%5D%7B0%2C50%7D%5D";
+    private static final Pattern ROOT_JOB = Pattern.compile("^job/([^/]+)/?$");
+    private static final Pattern QUEUE_ITEM = Pattern.compile("/queue/item/(\\d+)/?$");
+
+    private final PullRequestCommentWriter commentWriter;
+    private final StashAuthenticationContext authContext;
+    private final PluginSettings settings;
+    private final JenkinsHttpClient httpClient;
+    private final JenkinsServerRegistry serverRegistry;
+    private final ConcurrentLinkedQueue<TrackedBuild> incoming = new ConcurrentLinkedQueue<TrackedBuild>();
+    private final AtomicInteger tracked = new AtomicInteger();
+    private final AtomicBoolean started = new AtomicBoolean();
+    private final ScheduledExecutorService poller;
+
+    /* only accessed by the poller thread */
+    private final Map<String, PolledJob> jobs = new HashMap<String, PolledJob>();
+
+    public BuildStatusPoller(PullRequestCommentWriter commentWriter, StashAuthenticationContext authContext, PluginSettingsFactory pluginSettingsFactory,
+            JenkinsHttpClient httpClient, JenkinsServerRegistry serverRegistry) {
+        this.commentWriter = commentWriter;
+        this.authContext = authContext;
+        this.settings = pluginSettingsFactory.createGlobalSettings();
+        this.httpClient = httpClient;
+        this.serverRegistry = serverRegistry;
+        this.poller = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("jenkins-build-status-poller")
+                .setDaemon(true)
+                .build());
+    }
+
+    /**
+     * Track the triggered build until it's finished. It must be called as the user the result is commented as.
+     * @param repositoryId - The id of the repository
+     * @param pullRequestId - The id of the pull-request
+     * @param changeset - The change set the build is triggered for
+     * @param slug - The slug of the repository
+     * @param serverUrl - The CI server the build is triggered on
+     * @param jobUrl - The URL of the triggered job
+     * @param queueItemUrl - The URL of the queue item from the "Location" header
+     * @return false if the build is not tracked, because the queue item is unknown or too many builds is tracked
+     */
+    public boolean track(Integer repositoryId, Long pullRequestId, String changeset, String slug, String serverUrl, String jobUrl, String queueItemUrl) {
+        Long queueId = getQueueId(queueItemUrl);
+        if (queueId == null) {
+            return false;
+        }
+        if (tracked.incrementAndGet() > MAX_TRACKED_BUILDS) {
+            tracked.decrementAndGet();
+            log.warn(String.format("%s builds is already tracked, the result of the build for pull-request %s is not reported",MAX_TRACKED_BUILDS,pullRequestId));
+            return false;
+        }
+        incoming.add(new TrackedBuild(authContext.getCurrentUser(), repositoryId, pullRequestId, changeset, slug, serverUrl, jobUrl, queueId));
+        if (started.compareAndSet(false, true)) {
+            poller.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        poll(System.currentTimeMillis());
+                    } catch (RuntimeException e) {
+                        log.error("Not able to poll the status of the builds", e);
+                    }
+                }
+            }, TICK, TICK, TimeUnit.MILLISECONDS);
+        }
+        return true;
+    }
+
+    /**
+     * @param queueItemUrl - The URL of the queue item, e.g. http://ci:8080/queue/item/42/
+     * @return the id of the queue item or null if it's not a queue item
+     */
+    public static Long getQueueId(String queueItemUrl) {
+        if (queueItemUrl == null) {
+            return null;
+        }
+        Matcher matcher = QUEUE_ITEM.matcher(queueItemUrl);
+        return matcher.find() ? Long.valueOf(matcher.group(1)) : null;
+    }
+
+    /**
+     * @return the number of builds tracked right now
+     */
+    public int getTrackedBuilds() {
+        return tracked.get();
+    }
+
+    /**
+     * Poll the jobs due and comment the finished builds
+     * @param now - The time in milliseconds
+     */
+    void poll(long now) {
+        TrackedBuild build;
+        while ((build = incoming.poll()) != null) {
+            String key = build.jobUrl + "\n" + build.slug;
+            PolledJob job = jobs.get(key);
+            if (job == null) {
+                job = new PolledJob(build.jobUrl, build.serverUrl, build.slug, now);
+                jobs.put(key, job);
+            }
+            job.builds.add(build);
+            job.interval = MIN_POLL_INTERVAL;
+            job.nextPollAt = Math.min(job.nextPollAt, now + MIN_POLL_INTERVAL);
+        }
+
+        //the jobs of the same server and repository share the request
+        Map<String, List<PolledJob>> servers = new LinkedHashMap<String, List<PolledJob>>();
+        for (PolledJob job : jobs.values()) {
+            String key = JenkinsServerRegistry.getRootUrl(job.jobUrl) + "\n" + job.slug;
+            List<PolledJob> serverJobs = servers.get(key);
+            if (serverJobs == null) {
+                serverJobs = new ArrayList<PolledJob>();
+                servers.put(key, serverJobs);
+            }
+            serverJobs.add(job);
+        }
+
+        for (List<PolledJob> serverJobs : servers.values()) {
+            if (!isDue(serverJobs, now)) {
+                continue;
+            }
+            Map<PolledJob, Map<Long, BuildInfo>> serverBuilds = serverJobs.size() > 1 ? fetchServerBuilds(serverJobs) : new HashMap<PolledJob, Map<Long, BuildInfo>>();
+            for (PolledJob job : serverJobs) {
+                Map<Long, BuildInfo> builds = serverBuilds.get(job);
+                if (builds == null) {
+                    if (job.nextPollAt > now) {
+                        continue;
+                    }
+                    builds = fetchBuilds(job);
+                }
+                boolean changed = poll(job, builds, now);
+                job.interval = changed ? MIN_POLL_INTERVAL : Math.min(MAX_POLL_INTERVAL, job.interval * 2);
+                job.nextPollAt = now + job.interval;
+            }
+        }
+
+        Iterator<PolledJob> it = jobs.values().iterator();
+        while (it.hasNext()) {
+            if (it.next().builds.isEmpty()) {
+                it.remove();
+            }
+        }
+    }
+
+    private static boolean isDue(List<PolledJob> serverJobs, long now) {
+        for (PolledJob job : serverJobs) {
+            if (job.nextPollAt <= now) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Update the tracked builds of the job with the latest builds fetched from the server
+     * @return true if any of the tracked builds changed
+     */
+    private boolean poll(PolledJob job, Map<Long, BuildInfo> builds, long now) {
+        boolean changed = false;
+        Iterator<TrackedBuild> it = job.builds.iterator();
+        while (it.hasNext()) {
+            TrackedBuild build = it.next();
+            BuildInfo info = builds.get(build.queueId);
+            if (info != null && !info.building && info.result != null) {
+                it.remove();
+                tracked.decrementAndGet();
+                changed = true;
+                publish(build, info);
+            } else if (info != null && build.buildUrl == null) {
+                build.buildUrl = info.url;
+                changed = true;
+            } else if (now - build.trackedAt > MAX_TRACK_TIME) {
+                it.remove();
+                tracked.decrementAndGet();
+                log.info(String.format("The build of pull-request %s on %s did not finish in time, the result is not reported",build.pullRequestId,job.jobUrl));
+            }
+        }
+        return changed;
+    }
+
+    private Map<Long, BuildInfo> fetchBuilds(PolledJob job) {
+        Map<Long, BuildInfo> builds = new HashMap<Long, BuildInfo>();
+        JobBuilds jobBuilds = fetch(job, job.jobUrl + BUILDS_QUERY, JobBuilds.class);
+        if (jobBuilds != null) {
+            addBuilds(builds, jobBuilds.builds);
+        }
+        return builds;
+    }
+
+    /**
+     * Fetch the latest builds of all the jobs at the root of the server with one request
+     * @param serverJobs - The tracked jobs of the server, all with the same root URL and repository
+     * @return the builds keyed by the job, a job inside a folder is not included
+     */
+    private Map<PolledJob, Map<Long, BuildInfo>> fetchServerBuilds(List<PolledJob> serverJobs) {
+        String rootUrl = JenkinsServerRegistry.getRootUrl(serverJobs.get(0).jobUrl);
+        Map<String, Map<Long, BuildInfo>> buildsByName = new HashMap<String, Map<Long, BuildInfo>>();
+        Map<PolledJob, Map<Long, BuildInfo>> serverBuilds = new HashMap<PolledJob, Map<Long, BuildInfo>>();
+        for (PolledJob job : serverJobs) {
+            String name = getRootJobName(rootUrl, job.jobUrl);
+            if (name != null) {
+                Map<Long, BuildInfo> builds = buildsByName.get(name);
+                if (builds == null) {
+                    builds = new HashMap<Long, BuildInfo>();
+                    buildsByName.put(name, builds);
+                }
+                serverBuilds.put(job, builds);
+            }
+        }
+        if (serverBuilds.size() < 2) {
+            //not worth fetching all the jobs of the server
+            return new HashMap<PolledJob, Map<Long, BuildInfo>>();
+        }
+        ServerJobs jobs = fetch(serverJobs.get(0), rootUrl + JOBS_QUERY, ServerJobs.class);
+        if (jobs != null && jobs.jobs != null) {
+            for (ServerJob job : jobs.jobs) {
+                Map<Long, BuildInfo> builds = buildsByName.get(job.name);
+                if (builds != null) {
+                    addBuilds(builds, job.builds);
+                }
+            }
+        }
+        return serverBuilds;
+    }
+
+    /**
+     * @param rootUrl - The root URL of the server
+     * @param jobUrl - The URL of the job
+     * @return the name of the job if it's at the root of the server, or null if it's inside a folder
+     */
+    static String getRootJobName(String rootUrl, String jobUrl) {
+        if (!jobUrl.startsWith(rootUrl)) {
+            return null;
+        }
+        Matcher matcher = ROOT_JOB.matcher(jobUrl.substring(rootUrl.length()));
+        if (!matcher.find()) {
+            return null;
+        }
+        try {
+            return URLDecoder.decode(matcher.group(1), "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            return matcher.group(1);
+        }
+    }
+
+    private static void addBuilds(Map<Long, BuildInfo> builds, List<BuildInfo> infos) {
+        if (infos != null) {
+            for (BuildInfo info : infos) {
+                if (info.queueId != null) {
+                    builds.put(info.queueId, info);
+                }
+            }
+        }
+    }
+
+    /**
+     * Fetch the JSON from the server of the job with the credentials of the repository
+     * @return the parsed JSON or null if the server is not available or the request failed
+     */
+    private <T> T fetch(PolledJob job, String url, Class<T> type) {
+        if (!serverRegistry.getServer(job.serverUrl).getCircuitBreaker().isCallPermitted()) {
+            return null;
+        }
+        CloseableHttpResponse response = null;
+        try {
+            RepositorySettings repositorySettings = PluginSettingsHelper.getRepositorySettings(job.slug, settings);
+            byte[] userName = repositorySettings.getUsername();
+            JenkinsSession session = serverRegistry.getSession(job.serverUrl, userName);
+            response = httpClient.execute(new HttpGet(url), userName, repositorySettings.getPassword(), session.getCookieStore());
+            String json = EntityUtils.toString(response.getEntity(), "UTF-8");
+            if (response.getStatusLine().getStatusCode() >= 400) {
+                log.warn(String.format("Not able to poll the builds of %s (%s)",url,response.getStatusLine().getStatusCode()));
+                return null;
+            }
+            return new Gson().fromJson(json, type);
+        } catch (Exception e) {
+            log.warn(String.format("Not able to poll the builds of %s : %s",url,e.getMessage()));
+            return null;
+        } finally {
+            if (response != null) {
+                EntityUtils.consumeQuietly(response.getEntity());
+            }
+        }
+    }
+
+    /**
+     * Comment the result of the build on the pull-request as the user who triggered the build
+     */
+    private void publish(TrackedBuild build, BuildInfo info) {
+        String comment = String.format("Build finished\nResult: %s\nCommit id: %s\nBuild: %s",info.result,build.changeset,info.url);
+        boolean updatePrevious = PluginSettingsHelper.getRepositorySettings(build.slug, settings).isUpdatePreviousComment();
+        commentWriter.post(build.user, build.repositoryId, build.pullRequestId, comment, updatePrevious);
+    }
+
+    /**
+     * Stop polling, the builds tracked is not reported
+     */
+    @Override
+    public void destroy() {
+        poller.shutdownNow();
+    }
+
+    /**
+     * A triggered build waiting to finish
+     */
+    private static class TrackedBuild {
+        final StashUser user;
+        final Integer repositoryId;
+        final Long pullRequestId;
+        final String changeset;
+        final String slug;
+        final String serverUrl;
+        final String jobUrl;
+        final Long queueId;
+        final long trackedAt = System.currentTimeMillis();
+        String buildUrl;
+
+        TrackedBuild(StashUser user, Integer repositoryId, Long pullRequestId, String changeset, String slug, String serverUrl, String jobUrl, Long queueId) {
+            this.user = user;
+            this.repositoryId = repositoryId;
+            this.pullRequestId = pullRequestId;
+            this.changeset = changeset;
+            this.slug = slug;
+            this.serverUrl = serverUrl;
+            this.jobUrl = jobUrl;
+            this.queueId = queueId;
+        }
+    }
+
+    /**
+     * The tracked builds of one job, polled together
+     */
+    private static class PolledJob {
+        final String jobUrl;
+        final String serverUrl;
+        final String slug;
+        final List<TrackedBuild> builds = new ArrayList<TrackedBuild>();
+        long interval = MIN_POLL_INTERVAL;
+        long nextPollAt;
+
+        PolledJob(String jobUrl, String serverUrl, String slug, long now) {
+            this.jobUrl = jobUrl;
+            this.serverUrl = serverUrl;
+            this.slug = slug;
+            this.nextPollAt = now + MIN_POLL_INTERVAL;
+        }
+    }
+
+    /**
+     * The JSON response with the latest builds of a job
+     */
+    static class JobBuilds {
+        List<BuildInfo> builds;
+    }
+
+    /**
+     * The JSON response with the latest builds of all the jobs at the root of a server
+     */
+    static class ServerJobs {
+        List<ServerJob> jobs;
+    }
+
+    static class ServerJob {
+        String name;
+        List<BuildInfo> builds;
+    }
+
+    static class BuildInfo {
+        Integer number;
+        String url;
+        String result;
+        boolean building;
+        Long queueId;
+    }
+}
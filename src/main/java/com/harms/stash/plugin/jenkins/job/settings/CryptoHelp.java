@@ -26,12 +26,40 @@ import org.slf4j.LoggerFactory;
 public class CryptoHelp {
 
     private static final Logger log = LoggerFactory.getLogger(CryptoHelp.class);
+    private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+
+    private static volatile byte[] computedKey;
+
     /**
+     * Return the computed key. The key is only computed the first time, because looking up
+     * the network interfaces can be slow on hosts with many virtual interfaces.
      * @return a computed key based on the HW MAC address
      * @throws UnknownHostException
      * @throws SocketException
      */
     public static byte[] getComputedKey() throws UnknownHostException, SocketException {
+        byte[] key = computedKey;
+        if (key == null) {
+            key = computeKey();
+            computedKey = key;
+        }
+        return key.clone();
+    }
+
+    /**
+     * Compute the key again, e.g. when the plug-in is started on a host where the
+     * network interfaces has changed.
+     * @return the new computed key
+     * @throws UnknownHostException
+     * @throws SocketException
+     */
+    public static byte[] refreshComputedKey() throws UnknownHostException, SocketException {
+        byte[] key = computeKey();
+        computedKey = key;
+        return key.clone();
+    }
+
+    private static byte[] computeKey() throws UnknownHostException, SocketException {
         String returnAddr = "";
         Enumeration<NetworkInterface> ni = NetworkInterface.getNetworkInterfaces();
         if (ni != null) {
@@ -43,10 +71,7 @@ public class CryptoHelp {
                         /*
                          * Extract each array of mac address and convert it to hexa with the following format 08-00-27-DC-4A-9E.
                          */
-                        returnAddr = ""; //$NON-NLS-1$
-                        for (int i = 0; i < mac.length; i++) {
-                            returnAddr += String.format("%02X%s", mac[i], (i < mac.length - 1) ? "-" : ""); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
-                        }
+                        returnAddr = toHex(mac);
                         log.info("Mac address found "+returnAddr); //$NON-NLS-1$
                         break;
                     } else {
@@ -61,6 +86,17 @@ public class CryptoHelp {
         }
         return Arrays.copyOfRange(returnAddr.getBytes(Charsets.UTF_8),0,16);
     }
+
+    private static String toHex(byte[] mac) {
+        StringBuilder sb = new StringBuilder(mac.length * 3);
+        for (int i = 0; i < mac.length; i++) {
+            if (i > 0) {
+                sb.append('-');
+            }
+            sb.append(HEX_DIGITS[(mac[i] >> 4) & 0x0F]).append(HEX_DIGITS[mac[i] & 0x0F]);
+        }
+        return sb.toString();
+    }
     
     public static byte[] encrypt(byte[] key, byte[] value) throws GeneralSecurityException {
         if (key.length != 16) {
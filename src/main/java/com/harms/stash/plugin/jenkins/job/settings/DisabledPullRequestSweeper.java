@@ -0,0 +1,203 @@
+package com.harms.stash.plugin.jenkins.job.settings;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+
+import com.atlassian.beehive.ClusterLockService;
+import com.atlassian.sal.api.pluginsettings.PluginSettings;
+import com.atlassian.sal.api.pluginsettings.PluginSettingsFactory;
+import com.atlassian.scheduler.JobRunner;
+import com.atlassian.scheduler.JobRunnerRequest;
+import com.atlassian.scheduler.JobRunnerResponse;
+import com.atlassian.scheduler.SchedulerService;
+import com.atlassian.scheduler.SchedulerServiceException;
+import com.atlassian.scheduler.config.JobConfig;
+import com.atlassian.scheduler.config.JobId;
+import com.atlassian.scheduler.config.JobRunnerKey;
+import com.atlassian.scheduler.config.RunMode;
+import com.atlassian.scheduler.config.Schedule;
+import com.atlassian.stash.pull.PullRequest;
+import com.atlassian.stash.pull.PullRequestSearchRequest;
+import com.atlassian.stash.pull.PullRequestService;
+import com.atlassian.stash.repository.Repository;
+import com.atlassian.stash.repository.RepositoryService;
+import com.atlassian.stash.user.Permission;
+import com.atlassian.stash.user.SecurityService;
+import com.atlassian.stash.util.Operation;
+import com.atlassian.stash.util.Page;
+import com.atlassian.stash.util.PageRequest;
+import com.atlassian.stash.util.PageRequestImpl;
+
+/**
+ * Remove the disable automatic build flag of pull-requests that are no longer open. The flag is
+ * cleared when a merge or decline event is seen, but pull-requests closed while the plug-in was
+ * disabled would otherwise keep the flag forever.
+ *
+ * The first run also move the flags stored with one settings key per pull-request by the previous
+ * versions into the {@link PullRequestIdSet} of the repository, and remove the old settings keys.
+ * The old keys is named by the project key, slug and id of the pull-request, and the
+ * {@link PluginSettings} can't list the keys, so only the keys of the pull-requests found in the
+ * repositories as they are named now is removed. A key left by a repository that was moved or
+ * renamed, or by a pull-request that no longer exist, is never read again but stays in the settings.
+ *
+ * The job run once a day on one node in the cluster.
+ *
+ * @author fharms
+ *
+ */
+public class DisabledPullRequestSweeper implements JobRunner, InitializingBean, DisposableBean {
+    private static final Logger log = LoggerFactory.getLogger(DisabledPullRequestSweeper.class);
+
+    public static final JobRunnerKey jobRunnerKey = JobRunnerKey.of(DisabledPullRequestSweeper.class.getName());
+    private static final JobId JOB_ID = JobId.of(DisabledPullRequestSweeper.class.getSimpleName());
+    private static final long SWEEP_INTERVAL = TimeUnit.DAYS.toMillis(1);
+    private static final long FIRST_SWEEP_DELAY = TimeUnit.MINUTES.toMillis(10);
+    private static final int PAGE_SIZE = 100;
+
+    private final SchedulerService schedulerService;
+    private final SecurityService securityService;
+    private final RepositoryService repositoryService;
+    private final PullRequestService pullRequestService;
+    private final PluginSettingsFactory pluginSettingsFactory;
+    private final ClusterLockService lockService;
+
+    public DisabledPullRequestSweeper(SchedulerService schedulerService, SecurityService securityService, RepositoryService repositoryService, PullRequestService pullRequestService, PluginSettingsFactory pluginSettingsFactory,
+            ClusterLockService lockService) {
+        this.schedulerService = schedulerService;
+        this.securityService = securityService;
+        this.repositoryService = repositoryService;
+        this.pullRequestService = pullRequestService;
+        this.pluginSettingsFactory = pluginSettingsFactory;
+        this.lockService = lockService;
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        schedulerService.registerJobRunner(jobRunnerKey, this);
+        try {
+            schedulerService.scheduleJob(JOB_ID, JobConfig.forJobRunnerKey(jobRunnerKey)
+                    .withRunMode(RunMode.RUN_ONCE_PER_CLUSTER)
+                    .withSchedule(Schedule.forInterval(SWEEP_INTERVAL, new Date(System.currentTimeMillis() + FIRST_SWEEP_DELAY))));
+        } catch (SchedulerServiceException e) {
+            log.error("Not able to schedule the clean up of the disabled pull-requests",e);
+        }
+    }
+
+    @Override
+    public void destroy() {
+        schedulerService.unregisterJobRunner(jobRunnerKey);
+    }
+
+    @Override
+    public JobRunnerResponse runJob(JobRunnerRequest request) {
+        try {
+            int removed = securityService.withPermission(Permission.REPO_READ, "Clean up the disabled pull-requests").call(new Operation<Integer, RuntimeException>() {
+                @Override
+                public Integer perform() {
+                    return sweep();
+                }
+            });
+            return JobRunnerResponse.success(String.format("Removed %s closed pull-requests from the disabled pull-requests",removed));
+        } catch (RuntimeException e) {
+            log.error("Not able to clean up the disabled pull-requests",e);
+            return JobRunnerResponse.failed(e);
+        }
+    }
+
+    /**
+     * Sweep all the repositories
+     * @return the number of pull-requests removed from the disabled pull-requests
+     */
+    int sweep() {
+        PluginSettings settings = pluginSettingsFactory.createGlobalSettings();
+        boolean moveLegacyFlags = !PluginSettingsHelper.isLegacyAutomaticBuildFlagsMoved(settings);
+        int removed = 0;
+        PageRequest pageRequest = new PageRequestImpl(0, PAGE_SIZE);
+        while (pageRequest != null) {
+            Page<? extends Repository> page = repositoryService.findAll(pageRequest);
+            for (Repository repository : page.getValues()) {
+                if (moveLegacyFlags) {
+                    moveLegacyFlags(repository, settings);
+                }
+                removed += sweep(repository.getId(), settings);
+            }
+            pageRequest = page.getIsLastPage() ? null : page.getNextPageRequest();
+        }
+        if (moveLegacyFlags) {
+            PluginSettingsHelper.legacyAutomaticBuildFlagsMoved(settings);
+            log.info("The disable automatic build flags are moved to one settings value per repository");
+        }
+        return removed;
+    }
+
+    /**
+     * Remove the pull-requests that no longer exist or is closed from the disabled pull-requests
+     * of the repository. The flag is only set for a few pull-requests at a time, so every flagged
+     * pull-request is looked up instead of paging through all the closed pull-requests.
+     * @param repositoryId - The id of the repository
+     * @param settings - {@link PluginSettings}
+     * @return the number of pull-requests removed
+     */
+    int sweep(Integer repositoryId, PluginSettings settings) {
+        PullRequestIdSet disabled = PluginSettingsHelper.getDisabledPullRequests(repositoryId, settings);
+        if (disabled.isEmpty()) {
+            return 0;
+        }
+        List<Long> stale = new ArrayList<Long>();
+        for (long pullRequestId : disabled.toArray()) {
+            PullRequest pr = pullRequestService.getById(repositoryId, pullRequestId);
+            if (pr == null || !pr.isOpen()) {
+                stale.add(pullRequestId);
+            }
+        }
+        if (stale.isEmpty()) {
+            return 0;
+        }
+        log.debug(String.format("Remove the closed pull-requests %s from the disabled pull-requests of repository %s",stale,repositoryId));
+        return PluginSettingsHelper.removeDisabledPullRequests(repositoryId, stale, settings, lockService);
+    }
+
+    /**
+     * Page through all the pull-requests of the repository and move the flags stored by the previous
+     * versions. The flags of the open pull-requests is added to the {@link PullRequestIdSet} of the
+     * repository in one write per page, and the flags of the closed pull-requests is just removed.
+     * @param repository - The {@link Repository}
+     * @param settings - {@link PluginSettings}
+     */
+    private void moveLegacyFlags(Repository repository, PluginSettings settings) {
+        String projectKey = repository.getProject().getKey();
+        String slug = repository.getSlug();
+        PullRequestSearchRequest searchRequest = new PullRequestSearchRequest.Builder()
+                .toRepositoryId(repository.getId())
+                .build();
+        PageRequest pageRequest = new PageRequestImpl(0, PAGE_SIZE);
+        while (pageRequest != null) {
+            Page<PullRequest> page = pullRequestService.search(searchRequest, pageRequest);
+            List<Long> flagged = new ArrayList<Long>();
+            List<Long> disabled = new ArrayList<Long>();
+            for (PullRequest pr : page.getValues()) {
+                if (PluginSettingsHelper.hasLegacyAutomaticBuildFlag(projectKey, slug, pr.getId(), settings)) {
+                    flagged.add(pr.getId());
+                    if (pr.isOpen()) {
+                        disabled.add(pr.getId());
+                    }
+                }
+            }
+            //add the flags before the old keys are removed, so the flag is never missing
+            if (!disabled.isEmpty()) {
+                PluginSettingsHelper.addDisabledPullRequests(repository.getId(), disabled, settings, lockService);
+            }
+            for (Long pullRequestId : flagged) {
+                PluginSettingsHelper.removeLegacyAutomaticBuildFlag(projectKey, slug, pullRequestId, settings);
+            }
+            pageRequest = page.getIsLastPage() ? null : page.getNextPageRequest();
+        }
+    }
+}
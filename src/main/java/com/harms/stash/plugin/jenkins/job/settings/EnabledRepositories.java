@@ -0,0 +1,109 @@
+package com.harms.stash.plugin.jenkins.job.settings;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.atlassian.sal.api.pluginsettings.PluginSettings;
+import com.google.gson.Gson;
+import com.google.gson.JsonSyntaxException;
+
+/**
+ * Immutable snapshot of the repositories with Jenkins CI servers configured, so the events of
+ * all the other repositories can be rejected without reading the settings.
+ *
+ * The settings is stored per repository slug, so the repositories is indexed by slug too.
+ * Until the {@link EnabledRepositoryIndexer} has indexed the repositories every repository
+ * is considered enabled.
+ *
+ * @author fharms
+ *
+ */
+public final class EnabledRepositories {
+    private static final Logger log = LoggerFactory.getLogger(EnabledRepositories.class);
+
+    private final Set<String> slugs;
+
+    private EnabledRepositories(Set<String> slugs) {
+        this.slugs = slugs;
+    }
+
+    /**
+     * @param slugs - The slugs of the enabled repositories
+     * @return the indexed {@link EnabledRepositories}
+     */
+    public static EnabledRepositories of(Collection<String> slugs) {
+        return new EnabledRepositories(Collections.unmodifiableSet(new HashSet<String>(slugs)));
+    }
+
+    /**
+     * Load the enabled repositories from the settings
+     * @param settings - The plug-in settings
+     * @return the {@link EnabledRepositories}, not indexed if the repositories is not indexed yet
+     */
+    static EnabledRepositories load(PluginSettings settings) {
+        String value = (String) settings.get(PluginSettingsHelper.ENABLED_REPOSITORIES);
+        if (value != null) {
+            try {
+                String[] slugs = new Gson().fromJson(value, String[].class);
+                Set<String> enabled = new HashSet<String>(slugs.length * 2);
+                Collections.addAll(enabled, slugs);
+                return new EnabledRepositories(Collections.unmodifiableSet(enabled));
+            } catch (JsonSyntaxException e) {
+                log.error("Not able to read the enabled repositories, all repositories is enabled until they are indexed again",e);
+            }
+        }
+        return new EnabledRepositories(null);
+    }
+
+    /**
+     * @return the enabled repositories encoded as a settings value
+     */
+    String encode() {
+        return new Gson().toJson(slugs.toArray(new String[slugs.size()]));
+    }
+
+    /**
+     * @param slug - The slug of the repository
+     * @return true if Jenkins is configured for the repository, or the repositories is not indexed
+     */
+    public boolean isEnabled(String slug) {
+        return slugs == null || slugs.contains(slug);
+    }
+
+    /**
+     * @return false until all the repositories is indexed
+     */
+    public boolean isIndexed() {
+        return slugs != null;
+    }
+
+    /**
+     * @param slug - The slug of the repository
+     * @param enabled - true if Jenkins is configured for the repository
+     * @return the snapshot with the repository added or removed, or this snapshot if nothing changed
+     */
+    EnabledRepositories with(String slug, boolean enabled) {
+        if (slugs == null || slugs.contains(slug) == enabled) {
+            return this;
+        }
+        Set<String> updated = new HashSet<String>(slugs);
+        if (enabled) {
+            updated.add(slug);
+        } else {
+            updated.remove(slug);
+        }
+        return new EnabledRepositories(Collections.unmodifiableSet(updated));
+    }
+
+    /**
+     * @return the slugs of the enabled repositories, empty if the repositories is not indexed
+     */
+    public Set<String> getSlugs() {
+        return slugs == null ? Collections.<String>emptySet() : slugs;
+    }
+}
@@ -0,0 +1,146 @@
+package com.harms.stash.plugin.jenkins.job.settings;
+
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+
+import com.atlassian.beehive.ClusterLockService;
+import com.atlassian.sal.api.pluginsettings.PluginSettings;
+import com.atlassian.sal.api.pluginsettings.PluginSettingsFactory;
+import com.atlassian.scheduler.JobRunner;
+import com.atlassian.scheduler.JobRunnerRequest;
+import com.atlassian.scheduler.JobRunnerResponse;
+import com.atlassian.scheduler.SchedulerService;
+import com.atlassian.scheduler.SchedulerServiceException;
+import com.atlassian.scheduler.config.JobConfig;
+import com.atlassian.scheduler.config.JobId;
+import com.atlassian.scheduler.config.JobRunnerKey;
+import com.atlassian.scheduler.config.RunMode;
+import com.atlassian.scheduler.config.Schedule;
+import com.atlassian.stash.repository.Repository;
+import com.atlassian.stash.repository.RepositoryService;
+import com.atlassian.stash.user.Permission;
+import com.atlassian.stash.user.SecurityService;
+import com.atlassian.stash.util.Operation;
+import com.atlassian.stash.util.Page;
+import com.atlassian.stash.util.PageRequest;
+import com.atlassian.stash.util.PageRequestImpl;
+
+/**
+ * Index the repositories with Jenkins CI servers configured into {@link EnabledRepositories}.
+ * The index is kept up to date when the settings are saved, so the job only run shortly after
+ * the plug-in is started and then once a day to correct the index if it has drifted,
+ * e.g. when two cluster nodes saved settings at the same time.
+ *
+ * Every node also refresh the enabled repositories kept in memory every {@link #REFRESH_INTERVAL}
+ * milliseconds, so settings saved on another node is picked up without the event threads reading them.
+ *
+ * @author fharms
+ *
+ */
+public class EnabledRepositoryIndexer implements JobRunner, InitializingBean, DisposableBean {
+    private static final Logger log = LoggerFactory.getLogger(EnabledRepositoryIndexer.class);
+
+    public static final JobRunnerKey jobRunnerKey = JobRunnerKey.of(EnabledRepositoryIndexer.class.getName());
+    private static final JobId JOB_ID = JobId.of(EnabledRepositoryIndexer.class.getSimpleName());
+    public static final JobRunnerKey refreshJobRunnerKey = JobRunnerKey.of(EnabledRepositoryIndexer.class.getName() + ".refresh");
+    private static final JobId REFRESH_JOB_ID = JobId.of(EnabledRepositoryIndexer.class.getSimpleName() + "Refresh");
+    public static final long REFRESH_INTERVAL = TimeUnit.MINUTES.toMillis(1);
+    private static final long INDEX_INTERVAL = TimeUnit.DAYS.toMillis(1);
+    private static final long FIRST_INDEX_DELAY = TimeUnit.MINUTES.toMillis(1);
+    private static final int PAGE_SIZE = 100;
+
+    private final SchedulerService schedulerService;
+    private final SecurityService securityService;
+    private final RepositoryService repositoryService;
+    private final PluginSettingsFactory pluginSettingsFactory;
+    private final ClusterLockService lockService;
+    private final JobRunner refresher = new JobRunner() {
+        @Override
+        public JobRunnerResponse runJob(JobRunnerRequest request) {
+            PluginSettingsHelper.refreshEnabledRepositories(pluginSettingsFactory.createGlobalSettings());
+            return JobRunnerResponse.success();
+        }
+    };
+
+    public EnabledRepositoryIndexer(SchedulerService schedulerService, SecurityService securityService, RepositoryService repositoryService, PluginSettingsFactory pluginSettingsFactory, ClusterLockService lockService) {
+        this.schedulerService = schedulerService;
+        this.securityService = securityService;
+        this.repositoryService = repositoryService;
+        this.pluginSettingsFactory = pluginSettingsFactory;
+        this.lockService = lockService;
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        schedulerService.registerJobRunner(jobRunnerKey, this);
+        try {
+            schedulerService.scheduleJob(JOB_ID, JobConfig.forJobRunnerKey(jobRunnerKey)
+                    .withRunMode(RunMode.RUN_ONCE_PER_CLUSTER)
+                    .withSchedule(Schedule.forInterval(INDEX_INTERVAL, new Date(System.currentTimeMillis() + FIRST_INDEX_DELAY))));
+        } catch (SchedulerServiceException e) {
+            log.error("Not able to schedule the index of the enabled repositories, events for all repositories is handled",e);
+        }
+        schedulerService.registerJobRunner(refreshJobRunnerKey, refresher);
+        try {
+            schedulerService.scheduleJob(REFRESH_JOB_ID, JobConfig.forJobRunnerKey(refreshJobRunnerKey)
+                    .withRunMode(RunMode.RUN_LOCALLY)
+                    .withSchedule(Schedule.forInterval(REFRESH_INTERVAL, new Date(System.currentTimeMillis() + REFRESH_INTERVAL))));
+        } catch (SchedulerServiceException e) {
+            log.error("Not able to schedule the refresh of the enabled repositories, settings saved on other nodes is not picked up",e);
+        }
+    }
+
+    @Override
+    public void destroy() {
+        schedulerService.unscheduleJob(REFRESH_JOB_ID);
+        schedulerService.unregisterJobRunner(refreshJobRunnerKey);
+        schedulerService.unregisterJobRunner(jobRunnerKey);
+    }
+
+    @Override
+    public JobRunnerResponse runJob(JobRunnerRequest request) {
+        try {
+            int enabled = securityService.withPermission(Permission.REPO_READ, "Index the repositories with Jenkins configured").call(new Operation<Integer, RuntimeException>() {
+                @Override
+                public Integer perform() {
+                    return index();
+                }
+            });
+            return JobRunnerResponse.success(String.format("Jenkins is configured for %s repositories",enabled));
+        } catch (RuntimeException e) {
+            log.error("Not able to index the enabled repositories",e);
+            return JobRunnerResponse.failed(e);
+        }
+    }
+
+    /**
+     * Page through all the repositories and store the slugs with Jenkins CI servers configured
+     * @return the number of enabled repositories
+     */
+    int index() {
+        PluginSettings settings = pluginSettingsFactory.createGlobalSettings();
+        Set<String> seen = new HashSet<String>();
+        Set<String> enabled = new HashSet<String>();
+        PageRequest pageRequest = new PageRequestImpl(0, PAGE_SIZE);
+        while (pageRequest != null) {
+            Page<? extends Repository> page = repositoryService.findAll(pageRequest);
+            for (Repository repository : page.getValues()) {
+                String slug = repository.getSlug();
+                if (seen.add(slug) && PluginSettingsHelper.hasJenkinsCIServer(slug, settings)) {
+                    enabled.add(slug);
+                }
+            }
+            pageRequest = page.getIsLastPage() ? null : page.getNextPageRequest();
+        }
+        PluginSettingsHelper.setEnabledRepositories(enabled, settings, lockService);
+        log.info(String.format("Jenkins is configured for %s of %s repositories",enabled.size(),seen.size()));
+        return enabled.size();
+    }
+}
@@ -0,0 +1,152 @@
+package com.harms.stash.plugin.jenkins.job.settings;
+
+import java.net.URI;
+
+import com.harms.stash.plugin.jenkins.job.intergration.JobParametersTemplate;
+
+/**
+ * A Jenkins job triggered for every pull-request event, with it's own mapping of the job parameters.
+ * The job is resolved against the job URL of each CI server, e.g. "../Integration-Build/" is the job
+ * next to the configured job, so the job target fail over between the CI servers the same way as
+ * the configured job.
+ *
+ * In the settings form a job target is one line with the columns separated by "|"
+ * <pre>name | job | build ref. field | title field | pull-request URL field | from branch field | to branch field</pre>
+ * where the name, job and build ref. field is required.
+ *
+ * @author fharms
+ *
+ */
+public final class JobTarget {
+    private static final int COLUMNS = 7;
+
+    private final String name;
+    private final String job;
+    private final String buildReferenceField;
+    private final String buildTitleField;
+    private final String pullRequestUrlField;
+    private final String fromBranchField;
+    private final String toBranchField;
+    private final JobParametersTemplate jobParametersTemplate;
+
+    /**
+     * @param name - The name of the target, used in the pull-request comments
+     * @param job - The job relative to the job URL of the CI servers, empty for the configured job
+     * @param buildReferenceField - The name of the parameter with the change set
+     * @param buildTitleField - The name of the parameter with the title or null
+     * @param pullRequestUrlField - The name of the parameter with the URL of the pull-request or null
+     * @param fromBranchField - The name of the parameter with the source branch or null
+     * @param toBranchField - The name of the parameter with the target branch or null
+     */
+    public JobTarget(String name, String job, String buildReferenceField, String buildTitleField, String pullRequestUrlField, String fromBranchField, String toBranchField) {
+        this.name = name;
+        this.job = job;
+        this.buildReferenceField = buildReferenceField;
+        this.buildTitleField = buildTitleField;
+        this.pullRequestUrlField = pullRequestUrlField;
+        this.fromBranchField = fromBranchField;
+        this.toBranchField = toBranchField;
+        this.jobParametersTemplate = JobParametersTemplate.compile(buildReferenceField, buildTitleField, pullRequestUrlField, fromBranchField, toBranchField);
+    }
+
+    /**
+     * Parse a job target from a line in the settings form
+     * @param line - The columns separated by "|"
+     * @return the {@link JobTarget} or null if the name, job or build ref. field is missing
+     */
+    public static JobTarget parse(String line) {
+        return fromArray(line.split("\\|", -1));
+    }
+
+    /**
+     * Create the job target from the columns stored in the settings
+     * @param columns - name, job, build ref. field, title field, pull-request URL field, from branch field and to branch field
+     * @return the {@link JobTarget} or null if the name, job or build ref. field is missing
+     */
+    static JobTarget fromArray(String[] columns) {
+        String[] values = new String[COLUMNS];
+        for (int i = 0; i < COLUMNS; i++) {
+            values[i] = i < columns.length && columns[i] != null ? columns[i].trim() : "";
+        }
+        if (values[0].isEmpty() || values[1].isEmpty() || values[2].isEmpty()) {
+            return null;
+        }
+        return new JobTarget(values[0], values[1], values[2], values[3], values[4], values[5], values[6]);
+    }
+
+    /**
+     * @return the columns stored in the settings
+     */
+    String[] toArray() {
+        return new String[] { name, job, buildReferenceField, emptyIfNull(buildTitleField), emptyIfNull(pullRequestUrlField), emptyIfNull(fromBranchField), emptyIfNull(toBranchField) };
+    }
+
+    /**
+     * @return the line shown in the settings form
+     */
+    public String format() {
+        StringBuilder sb = new StringBuilder();
+        for (String column : toArray()) {
+            if (sb.length() > 0) {
+                sb.append(" | ");
+            }
+            sb.append(column);
+        }
+        return sb.toString();
+    }
+
+    private static String emptyIfNull(String value) {
+        return value == null ? "" : value;
+    }
+
+    /**
+     * Resolve the URL of the job on a CI server
+     * @param serverUrl - The job URL of the CI server
+     * @return the URL of the job ending with a slash
+     */
+    public String getJobUrl(String serverUrl) {
+        if (job == null || job.isEmpty()) {
+            return serverUrl;
+        }
+        String jobUrl = URI.create(serverUrl).resolve(job).toString();
+        return jobUrl.endsWith("/") ? jobUrl : jobUrl + "/";
+    }
+
+    /**
+     * @return the name of the target, empty for the configured job
+     */
+    public String getName() {
+        return name;
+    }
+
+    public String getJob() {
+        return job;
+    }
+
+    public String getBuildReferenceField() {
+        return buildReferenceField;
+    }
+
+    public String getBuildTitleField() {
+        return buildTitleField;
+    }
+
+    public String getPullRequestUrlField() {
+        return pullRequestUrlField;
+    }
+
+    public String getFromBranchField() {
+        return fromBranchField;
+    }
+
+    public String getToBranchField() {
+        return toBranchField;
+    }
+
+    /**
+     * @return the job parameters compiled from the field names
+     */
+    public JobParametersTemplate getJobParametersTemplate() {
+        return jobParametersTemplate;
+    }
+}
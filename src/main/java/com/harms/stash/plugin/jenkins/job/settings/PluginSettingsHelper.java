@@ -3,17 +3,29 @@ package com.harms.stash.plugin.jenkins.job.settings;
 import java.net.SocketException;
 import java.net.UnknownHostException;
 import java.security.GeneralSecurityException;
-import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Calendar;
-import java.util.Date;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.atlassian.beehive.ClusterLockService;
 import com.atlassian.sal.api.pluginsettings.PluginSettings;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.gson.Gson;
+import com.google.gson.JsonSyntaxException;
 import com.harms.stash.plugin.jenkins.job.settings.servlet.ManualTriggerBuildServlet;
 
 
@@ -31,20 +43,176 @@ public class PluginSettingsHelper {
     public static final String JENKINS_BASE_URL = PLUGIN_STORAGE_KEY + ".jenkinsBaseUrl";
     public static final String JENKINS_CI_SERVER_LIST = PLUGIN_STORAGE_KEY + ".jenkinsCIServerList";
     public static final String JENKINS_LAST_CI_SERVER = PLUGIN_STORAGE_KEY + ".jenkinsLastCIServer";
+    public static final String JENKINS_CI_SERVER_SELECTION = PLUGIN_STORAGE_KEY + ".jenkinsCIServerSelection";
     public static final String TRIGGER_BUILD_ON_CREATE = PLUGIN_STORAGE_KEY + ".triggerBuildOnCreate";
     public static final String TRIGGER_BUILD_ON_UPDATE = PLUGIN_STORAGE_KEY + ".triggerBuildOnUpdate";
     public static final String TRIGGER_BUILD_ON_REOPEN = PLUGIN_STORAGE_KEY + ".triggerBuildOnReopen";
+    public static final String REPORT_BUILD_RESULT = PLUGIN_STORAGE_KEY + ".reportBuildResult";
+    public static final String UPDATE_PREVIOUS_COMMENT = PLUGIN_STORAGE_KEY + ".updatePreviousComment";
+    public static final String JOB_TARGETS = PLUGIN_STORAGE_KEY + ".jobTargets";
+    public static final String POST_PARAMETERS_AS_FORM = PLUGIN_STORAGE_KEY + ".postParametersAsForm";
     public static final String DISABLE_AUTOMATIC_BUILD_BY_DEFAULT = PLUGIN_STORAGE_KEY + ".disableAutomaticBuildByDefault";
+    public static final String ENABLED_REPOSITORIES = PLUGIN_STORAGE_KEY + ".enabledRepositories";
+    public static final String DISABLED_PULL_REQUESTS = PLUGIN_STORAGE_KEY + ".disabledPullRequests";
+    private static final String DISABLED_PULL_REQUESTS_LOCK = "com.harms.stash.plugin.jenkins.disabledPullRequests.";
+    private static final String ENABLED_REPOSITORIES_LOCK = "com.harms.stash.plugin.jenkins.enabledRepositories";
+    private static final String LEGACY_AUTOMATIC_BUILD_FLAGS_MOVED = PLUGIN_STORAGE_KEY + ".legacyAutomaticBuildFlagsMoved";
     private static final String JENKINS_PR_URL_FIELD = PLUGIN_STORAGE_KEY + ".jenkinsPRUrl";
 
     private static final String BUILD_DELAY_FIELD = PLUGIN_STORAGE_KEY + ".buildDelayField";
+    private static final String HEDGE_PERCENTILE_FIELD = PLUGIN_STORAGE_KEY + ".hedgePercentileField";
+    private static final String IDEMPOTENCY_KEY_FIELD = PLUGIN_STORAGE_KEY + ".idempotencyKeyField";
 
     public static final String PLUGIN_VERISON = PLUGIN_STORAGE_KEY + ".pluginVersion";
 
-    private static Map<String, Calendar> jobScheduleDate = new ConcurrentHashMap<String, Calendar>();
+    private static final long REPOSITORY_SETTINGS_TTL = 60000;
+    private static final int MAX_CACHED_CREDENTIALS = 200;
+    private static final long CREDENTIALS_TTL_MINUTES = 10;
+
+    private static ConcurrentMap<String, RepositorySettings> repositorySettings = new ConcurrentHashMap<String, RepositorySettings>();
+    private static final AtomicLong repositorySettingsGeneration = new AtomicLong();
+    //decrypted username and password keyed by the encrypted value, a changed credential is a new key
+    private static Cache<String, byte[]> credentials = CacheBuilder.newBuilder()
+            .maximumSize(MAX_CACHED_CREDENTIALS)
+            .expireAfterWrite(CREDENTIALS_TTL_MINUTES, TimeUnit.MINUTES)
+            .build();
+    private static volatile boolean legacyAutomaticBuildFlagsMoved = false;
+    private static final Object enabledRepositoriesLock = new Object();
+    private static volatile EnabledRepositories enabledRepositories = null;
+
+    /**
+     * Return the cached settings snapshot for the repository. The snapshot is loaded from the
+     * settings storage the first time, when it's invalidated or when it's older than one minute,
+     * so changes made on another cluster node is picked up.
+     * 
+     * A snapshot loaded while the settings is invalidated may hold the old settings, it's returned
+     * to the caller but not kept in the cache.
+     * @param slug - The slug of the repository
+     * @param settings - The plug-in settings
+     * @return the {@link RepositorySettings}
+     */
+    public static RepositorySettings getRepositorySettings(String slug, PluginSettings settings) {
+        RepositorySettings snapshot = repositorySettings.get(slug);
+        if (snapshot == null || System.currentTimeMillis() - snapshot.getLoadTime() > REPOSITORY_SETTINGS_TTL) {
+            long generation = repositorySettingsGeneration.get();
+            snapshot = RepositorySettings.load(slug, settings);
+            repositorySettings.put(slug, snapshot);
+            if (repositorySettingsGeneration.get() != generation) {
+                repositorySettings.remove(slug, snapshot);
+            }
+        }
+        return snapshot;
+    }
+
+    /**
+     * Remove the cached settings snapshot for the repository, the next read will load it again
+     * @param slug - The slug of the repository
+     */
+    public static void invalidateRepositorySettings(String slug) {
+        repositorySettingsGeneration.incrementAndGet();
+        repositorySettings.remove(slug);
+    }
+
+    /**
+     * Test if Jenkins is configured for the repository. The enabled repositories is kept in memory,
+     * it's only loaded by the first call and then updated when the settings are saved on this node
+     * and refreshed by the {@link EnabledRepositoryIndexer} in the background, so the event threads
+     * never parse the enabled repositories.
+     * @param slug - The slug of the repository
+     * @param settings - The plug-in settings
+     * @return true if Jenkins is configured for the repository, or if the repositories is not indexed yet
+     */
+    public static boolean isRepositoryEnabled(String slug, PluginSettings settings) {
+        EnabledRepositories snapshot = enabledRepositories;
+        if (snapshot == null) {
+            synchronized (enabledRepositoriesLock) {
+                snapshot = enabledRepositories;
+                if (snapshot == null) {
+                    snapshot = EnabledRepositories.load(settings);
+                    enabledRepositories = snapshot;
+                }
+            }
+        }
+        return snapshot.isEnabled(slug);
+    }
+
+    /**
+     * Load the enabled repositories kept in memory again, so changes made on another cluster node is picked up
+     * @param settings - The plug-in settings
+     */
+    public static void refreshEnabledRepositories(PluginSettings settings) {
+        synchronized (enabledRepositoriesLock) {
+            enabledRepositories = EnabledRepositories.load(settings);
+        }
+    }
+
+    /**
+     * Add or remove the repository from the enabled repositories, depending on if any Jenkins CI
+     * server is configured. Nothing is changed until the repositories is indexed. The update is done
+     * holding the cluster lock of the enabled repositories, so concurrent updates on other nodes is not lost.
+     * @param slug - The slug of the repository
+     * @param settings - The plug-in settings
+     * @param lockService - {@link ClusterLockService}
+     */
+    public static void updateEnabledRepository(String slug, PluginSettings settings, ClusterLockService lockService) {
+        boolean enabled = hasJenkinsCIServer(slug, settings);
+        Lock lock = lockService.getLockForName(ENABLED_REPOSITORIES_LOCK);
+        lock.lock();
+        try {
+            synchronized (enabledRepositoriesLock) {
+                EnabledRepositories current = EnabledRepositories.load(settings);
+                EnabledRepositories updated = current.with(slug, enabled);
+                if (updated != current) {
+                    settings.put(ENABLED_REPOSITORIES, updated.encode());
+                }
+                enabledRepositories = updated;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
 
     /**
-     * Return the pull-request settings key.
+     * Replace the enabled repositories. A repository enabled while the repositories was indexed
+     * is still in the current index, so it's kept if Jenkins is still configured for it.
+     * The index is replaced holding the cluster lock of the enabled repositories.
+     * @param slugs - The slugs of all the repositories with Jenkins CI servers configured
+     * @param settings - The plug-in settings
+     * @param lockService - {@link ClusterLockService}
+     */
+    public static void setEnabledRepositories(Collection<String> slugs, PluginSettings settings, ClusterLockService lockService) {
+        Lock lock = lockService.getLockForName(ENABLED_REPOSITORIES_LOCK);
+        lock.lock();
+        try {
+            synchronized (enabledRepositoriesLock) {
+                Set<String> enabled = new HashSet<String>(slugs);
+                for (String slug : EnabledRepositories.load(settings).getSlugs()) {
+                    if (!enabled.contains(slug) && hasJenkinsCIServer(slug, settings)) {
+                        enabled.add(slug);
+                    }
+                }
+                EnabledRepositories indexed = EnabledRepositories.of(enabled);
+                settings.put(ENABLED_REPOSITORIES, indexed.encode());
+                enabledRepositories = indexed;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Compute the encryption key again and forget all decrypted credentials
+     * @throws UnknownHostException
+     * @throws SocketException
+     */
+    public static void refreshEncryptionKey() throws UnknownHostException, SocketException {
+        CryptoHelp.refreshComputedKey();
+        credentials.invalidateAll();
+    }
+
+    /**
+     * Return the settings key used for the disable automatic build flag before the flags was
+     * stored as one {@link PullRequestIdSet} per repository.
      * @param repositoryKey - The repository key
      * @param slug - The slug of the repository to search for
      * @param pullRequestId - The id of the pull-request
@@ -59,37 +227,194 @@ public class PluginSettingsHelper {
     }
 
     /**
-     * Clear the automatic build flag for the specified repository, slug and pull request
-     * @param projectKey - the id of the repository
+     * Clear the automatic build flag for the specified repository, slug and pull request. The settings
+     * key of the previous versions is only removed until the flags are moved by the {@link DisabledPullRequestSweeper}
+     * @param repositoryId - the id of the repository
+     * @param projectKey - the key of the project
      * @param slug - the slug
      * @param pullRequestId - the id of the pull request
      * @param settings - {@link PluginSettings}
+     * @param lockService - {@link ClusterLockService}
      */
-    static public void clearAutomaticBuildFlag(String projectKey, String slug, Long pullRequestId, PluginSettings settings) {
-        settings.remove(getDisableAutomaticBuildSettingsKey(projectKey,slug, pullRequestId));
+    static public void clearAutomaticBuildFlag(Integer repositoryId, String projectKey, String slug, Long pullRequestId, PluginSettings settings, ClusterLockService lockService) {
+        removeDisabledPullRequests(repositoryId, Collections.singleton(pullRequestId), settings, lockService);
+        if (!isLegacyAutomaticBuildFlagsMoved(settings)) {
+            settings.remove(getDisableAutomaticBuildSettingsKey(projectKey,slug, pullRequestId));
+        }
     }
 
     /**
      * Set the automatic build flag in the settings for the specified repository, slug and pull request
-     * @param projectKey - the id of the repository
+     * @param repositoryId - the id of the repository
+     * @param projectKey - the key of the project
      * @param slug - the slug
      * @param pullRequestId - the id of the pull request
      * @param settings - {@link PluginSettings}
+     * @param lockService - {@link ClusterLockService}
      */
-    public static void enableAutomaticBuildFlag(String projectKey, String slug, Long pullRequestId, PluginSettings settings) {
-        settings.put(getDisableAutomaticBuildSettingsKey(projectKey,slug, pullRequestId), CHECKED);
+    public static void enableAutomaticBuildFlag(Integer repositoryId, String projectKey, String slug, Long pullRequestId, PluginSettings settings, ClusterLockService lockService) {
+        addDisabledPullRequests(repositoryId, Collections.singleton(pullRequestId), settings, lockService);
     }
 
     /**
-     * Test if the automatic build is disable for the pull-request
-     * @param projectKey - the id of the repository
+     * Test if the automatic build is disable for the pull-request. Until the flags of the
+     * previous versions are moved by the {@link DisabledPullRequestSweeper} the old settings key is read too.
+     * @param repositoryId - the id of the repository
+     * @param projectKey - the key of the project
      * @param slug - the slug
      * @param pullRequestId - the id of the pull request
      * @param settings - {@link PluginSettings}
      * @return true if the automatic build is disabled
      */
-    public static boolean isAutomaticBuildDisabled(String projectKey, String slug, Long pullRequestId,PluginSettings settings) {
-        return (CHECKED.equals(settings.get(PluginSettingsHelper.getDisableAutomaticBuildSettingsKey(projectKey,slug,pullRequestId))));
+    public static boolean isAutomaticBuildDisabled(Integer repositoryId, String projectKey, String slug, Long pullRequestId,PluginSettings settings) {
+        if (getDisabledPullRequests(repositoryId, settings).contains(pullRequestId)) {
+            return true;
+        }
+        return !isLegacyAutomaticBuildFlagsMoved(settings) && CHECKED.equals(settings.get(getDisableAutomaticBuildSettingsKey(projectKey,slug,pullRequestId)));
+    }
+
+    /**
+     * Return the pull-requests with automatic build disabled in the repository
+     * @param repositoryId - the id of the repository
+     * @param settings - {@link PluginSettings}
+     * @return the {@link PullRequestIdSet}, empty if none is disabled
+     */
+    public static PullRequestIdSet getDisabledPullRequests(Integer repositoryId, PluginSettings settings) {
+        String value = (String) settings.get(getPluginKey(DISABLED_PULL_REQUESTS, String.valueOf(repositoryId)));
+        try {
+            return PullRequestIdSet.decode(value);
+        } catch (IllegalArgumentException e) {
+            log.error(String.format("Not able to read the disabled pull-requests of repository %s, automatic build is enabled for all pull-requests",repositoryId),e);
+            return PullRequestIdSet.EMPTY;
+        }
+    }
+
+    /**
+     * Disable automatic build for the pull-requests in the repository in one write. The update is
+     * done holding the cluster lock of the repository, so concurrent updates on other nodes is not lost.
+     * @param repositoryId - the id of the repository
+     * @param pullRequestIds - the ids of the pull requests
+     * @param settings - {@link PluginSettings}
+     * @param lockService - {@link ClusterLockService}
+     */
+    public static void addDisabledPullRequests(Integer repositoryId, Collection<Long> pullRequestIds, PluginSettings settings, ClusterLockService lockService) {
+        PullRequestIdSet current = getDisabledPullRequests(repositoryId, settings);
+        if (current.addAll(pullRequestIds) == current) {
+            //already disabled, no need for the cluster lock
+            return;
+        }
+        Lock lock = getDisabledPullRequestsLock(repositoryId, lockService);
+        lock.lock();
+        try {
+            PullRequestIdSet disabled = getDisabledPullRequests(repositoryId, settings);
+            PullRequestIdSet updated = disabled.addAll(pullRequestIds);
+            if (updated != disabled) {
+                putDisabledPullRequests(repositoryId, updated, settings);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Remove the pull-requests from the disabled pull-requests of the repository in one write. The update
+     * is done holding the cluster lock of the repository, so concurrent updates on other nodes is not lost.
+     * @param repositoryId - the id of the repository
+     * @param pullRequestIds - the ids of the pull requests
+     * @param settings - {@link PluginSettings}
+     * @param lockService - {@link ClusterLockService}
+     * @return the number of pull-requests removed
+     */
+    public static int removeDisabledPullRequests(Integer repositoryId, Collection<Long> pullRequestIds, PluginSettings settings, ClusterLockService lockService) {
+        PullRequestIdSet current = getDisabledPullRequests(repositoryId, settings);
+        if (current.removeAll(pullRequestIds) == current) {
+            //none of them is disabled, no need for the cluster lock
+            return 0;
+        }
+        Lock lock = getDisabledPullRequestsLock(repositoryId, lockService);
+        lock.lock();
+        try {
+            PullRequestIdSet disabled = getDisabledPullRequests(repositoryId, settings);
+            PullRequestIdSet updated = disabled.removeAll(pullRequestIds);
+            if (updated != disabled) {
+                putDisabledPullRequests(repositoryId, updated, settings);
+            }
+            return disabled.size() - updated.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Remove all the disabled pull-requests of the repository, e.g. when the repository is deleted
+     * @param repositoryId - the id of the repository
+     * @param settings - {@link PluginSettings}
+     * @param lockService - {@link ClusterLockService}
+     */
+    public static void clearDisabledPullRequests(Integer repositoryId, PluginSettings settings, ClusterLockService lockService) {
+        Lock lock = getDisabledPullRequestsLock(repositoryId, lockService);
+        lock.lock();
+        try {
+            settings.remove(getPluginKey(DISABLED_PULL_REQUESTS, String.valueOf(repositoryId)));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static Lock getDisabledPullRequestsLock(Integer repositoryId, ClusterLockService lockService) {
+        return lockService.getLockForName(DISABLED_PULL_REQUESTS_LOCK + repositoryId);
+    }
+
+    private static void putDisabledPullRequests(Integer repositoryId, PullRequestIdSet disabled, PluginSettings settings) {
+        String key = getPluginKey(DISABLED_PULL_REQUESTS, String.valueOf(repositoryId));
+        if (disabled.isEmpty()) {
+            settings.remove(key);
+        } else {
+            settings.put(key, disabled.encode());
+        }
+    }
+
+    /**
+     * Test if the disable automatic build flag is stored with the settings key of the previous versions
+     * @param projectKey - the key of the project
+     * @param slug - the slug
+     * @param pullRequestId - the id of the pull request
+     * @param settings - {@link PluginSettings}
+     * @return true if the flag is set
+     */
+    public static boolean hasLegacyAutomaticBuildFlag(String projectKey, String slug, Long pullRequestId, PluginSettings settings) {
+        return settings.get(getDisableAutomaticBuildSettingsKey(projectKey, slug, pullRequestId)) != null;
+    }
+
+    /**
+     * Remove the disable automatic build flag stored with the settings key of the previous versions
+     * @param projectKey - the key of the project
+     * @param slug - the slug
+     * @param pullRequestId - the id of the pull request
+     * @param settings - {@link PluginSettings}
+     */
+    public static void removeLegacyAutomaticBuildFlag(String projectKey, String slug, Long pullRequestId, PluginSettings settings) {
+        settings.remove(getDisableAutomaticBuildSettingsKey(projectKey, slug, pullRequestId));
+    }
+
+    /**
+     * @param settings - {@link PluginSettings}
+     * @return true when the disable automatic build flags of the previous versions are moved to the {@link PullRequestIdSet}
+     */
+    public static boolean isLegacyAutomaticBuildFlagsMoved(PluginSettings settings) {
+        if (!legacyAutomaticBuildFlagsMoved) {
+            legacyAutomaticBuildFlagsMoved = CHECKED.equals(settings.get(LEGACY_AUTOMATIC_BUILD_FLAGS_MOVED));
+        }
+        return legacyAutomaticBuildFlagsMoved;
+    }
+
+    /**
+     * Mark the disable automatic build flags of the previous versions as moved, so the old settings key is no longer read
+     * @param settings - {@link PluginSettings}
+     */
+    public static void legacyAutomaticBuildFlagsMoved(PluginSettings settings) {
+        settings.put(LEGACY_AUTOMATIC_BUILD_FLAGS_MOVED, CHECKED);
+        legacyAutomaticBuildFlagsMoved = true;
     }
 
     /**
@@ -100,20 +425,7 @@ public class PluginSettingsHelper {
      * @throws DecryptException
      */
     static public byte[] getPassword(String slug, PluginSettings settings) throws DecryptException {
-        String key = getPluginKey(JENKINS_PASSWORD, slug);
-        try {
-            byte[] password = new byte[0];
-            if (settings.get(key) != null) {
-                password = CryptoHelp.decrypt(CryptoHelp.getComputedKey(), ((String)settings.get(key)).getBytes());
-            }
-            return password;
-        } catch (UnknownHostException e) {
-            throw new DecryptException("Not alble to get localhost",e);
-        } catch (SocketException e) {
-            throw new DecryptException(e);
-        } catch (GeneralSecurityException e) {
-            throw new DecryptException(e);
-        }
+        return decryptCredential((String) settings.get(getPluginKey(JENKINS_PASSWORD, slug)));
     }
 
     /**
@@ -146,13 +458,27 @@ public class PluginSettingsHelper {
      * @throws DecryptException
      */
     static public byte[] getUsername(String slug, PluginSettings settings) throws DecryptException {
-        String key = getPluginKey(JENKINS_USERNAME, slug);
+        return decryptCredential((String) settings.get(getPluginKey(JENKINS_USERNAME, slug)));
+    }
+
+    /**
+     * Decrypt the username or password stored in the settings. The decrypted value is kept
+     * in memory for a short while, so it's not decrypted for every trigger.
+     * @param encrypted - The encrypted value from the settings
+     * @return the decrypted value in a byte array, or a empty array if value is null
+     * @throws DecryptException
+     */
+    static byte[] decryptCredential(String encrypted) throws DecryptException {
+        if (encrypted == null) {
+            return new byte[0];
+        }
         try {
-            byte[] username = new byte[0];
-            if (settings.get(key) != null) {
-                username = CryptoHelp.decrypt(CryptoHelp.getComputedKey(), ((String)settings.get(key)).getBytes());
+            byte[] value = credentials.getIfPresent(encrypted);
+            if (value == null) {
+                value = CryptoHelp.decrypt(CryptoHelp.getComputedKey(), encrypted.getBytes());
+                credentials.put(encrypted, value);
             }
-            return username;
+            return value.clone();
         } catch (UnknownHostException e) {
             throw new DecryptException("Not alble to get localhost",e);
         } catch (SocketException e) {
@@ -215,6 +541,36 @@ public class PluginSettingsHelper {
         return (CHECKED.equals(settings.get(PluginSettingsHelper.getPluginKey(PluginSettingsHelper.TRIGGER_BUILD_ON_REOPEN,slug))));
     }
 
+    /**
+     * Return true if the job parameters should be posted as a form instead of the query string
+     * @param slug
+     * @param settings
+     * @return
+     */
+    public static boolean isPostParametersAsForm(String slug, PluginSettings settings) {
+        return (CHECKED.equals(settings.get(PluginSettingsHelper.getPluginKey(PluginSettingsHelper.POST_PARAMETERS_AS_FORM,slug))));
+    }
+
+    /**
+     * Return true if the result of the triggered builds should be commented on the pull-request
+     * @param slug
+     * @param settings
+     * @return
+     */
+    public static boolean isReportBuildResult(String slug, PluginSettings settings) {
+        return (CHECKED.equals(settings.get(PluginSettingsHelper.getPluginKey(PluginSettingsHelper.REPORT_BUILD_RESULT,slug))));
+    }
+
+    /**
+     * Return true if the comments should be added to the previous comment of the plug-in on the pull-request
+     * @param slug
+     * @param settings
+     * @return
+     */
+    public static boolean isUpdatePreviousComment(String slug, PluginSettings settings) {
+        return (CHECKED.equals(settings.get(PluginSettingsHelper.getPluginKey(PluginSettingsHelper.UPDATE_PREVIOUS_COMMENT,slug))));
+    }
+
     /**
      * Return true if the trigger on update flag is enabled for the plug-in
      * @param slug
@@ -261,6 +617,57 @@ public class PluginSettingsHelper {
         return buildDelayField;
     }
 
+    /**
+     * Return the percentile of the response times of the selected CI server after which the trigger is
+     * sent to the next CI server too
+     * @param slug
+     * @param settings
+     * @return the percentile between 1 and 99, or 0 if the triggers are not hedged
+     */
+    public static int getHedgePercentile(String slug, PluginSettings settings) {
+        String hedgePercentile = (String) settings.get(PluginSettingsHelper.getPluginKey(PluginSettingsHelper.HEDGE_PERCENTILE_FIELD,slug));
+        if (hedgePercentile == null) {
+            return 0;
+        }
+        try {
+            return Math.max(0, Math.min(99, Integer.parseInt(hedgePercentile)));
+        } catch (NumberFormatException e) {
+            log.warn(String.format("The hedge percentile %s of %s is not a number, the triggers are not hedged",hedgePercentile,slug));
+            return 0;
+        }
+    }
+
+    /**
+     * Set the percentile of the response times after which the trigger is hedged
+     * @param slug
+     * @param hedgePercentile - The percentile between 1 and 99, 0 disable hedging
+     * @param settings
+     */
+    public static void setHedgePercentile(String slug, Integer hedgePercentile, PluginSettings settings) {
+        settings.put(PluginSettingsHelper.getPluginKey(PluginSettingsHelper.HEDGE_PERCENTILE_FIELD,slug), hedgePercentile.toString());
+    }
+
+    /**
+     * Return the name of the job parameter with the idempotency key of the trigger
+     * @param slug
+     * @param settings
+     * @return the name or empty if the key is not sent
+     */
+    public static String getIdempotencyKeyField(String slug, PluginSettings settings) {
+        String idempotencyKeyField = (String) settings.get(PluginSettingsHelper.getPluginKey(PluginSettingsHelper.IDEMPOTENCY_KEY_FIELD,slug));
+        return idempotencyKeyField == null ? "" : idempotencyKeyField;
+    }
+
+    /**
+     * Set the name of the job parameter with the idempotency key of the trigger
+     * @param slug
+     * @param idempotencyKeyField
+     * @param settings
+     */
+    public static void setIdempotencyKeyField(String slug, String idempotencyKeyField, PluginSettings settings) {
+        settings.put(PluginSettingsHelper.getPluginKey(PluginSettingsHelper.IDEMPOTENCY_KEY_FIELD,slug), idempotencyKeyField);
+    }
+
     /**
      * Set the build trigger delay on the settings. This point to a parameter on the Jenkins Job
      * @param slug
@@ -353,6 +760,20 @@ public class PluginSettingsHelper {
         return serverList;
     }
 
+    /**
+     * @param slug
+     * @param settings
+     * @return true if at least one Jenkins CI server is configured
+     */
+    public static boolean hasJenkinsCIServer(String slug, PluginSettings settings) {
+        for (String server : getJenkinsCIServerList(slug, settings)) {
+            if (!server.isEmpty()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     /**
      * Return the last used Jenkins CI server
      * @param slug
@@ -373,6 +794,73 @@ public class PluginSettingsHelper {
         settings.put(PluginSettingsHelper.getPluginKey(PluginSettingsHelper.JENKINS_LAST_CI_SERVER,slug), lastCiServer);
     }
 
+    /**
+     * Return the name of the strategy for selecting the next Jenkins CI server
+     * @param slug
+     * @param settings
+     * @return the name of the strategy or an empty string if not set
+     */
+    public static String getJenkinsCIServerSelection(String slug, PluginSettings settings) {
+        String selection = (String) settings.get(PluginSettingsHelper.getPluginKey(PluginSettingsHelper.JENKINS_CI_SERVER_SELECTION,slug));
+        return selection == null ? "" : selection;
+    }
+
+    /**
+     * Set the name of the strategy for selecting the next Jenkins CI server
+     * @param slug
+     * @param selection
+     * @param settings
+     */
+    public static void setJenkinsCIServerSelection(String slug, String selection, PluginSettings settings) {
+        settings.put(PluginSettingsHelper.getPluginKey(PluginSettingsHelper.JENKINS_CI_SERVER_SELECTION,slug), selection);
+    }
+
+    /**
+     * Return the additional jobs triggered for every pull-request event. The job targets are stored
+     * as one JSON array with an array of columns for each job target.
+     * @param slug
+     * @param settings
+     * @return the list of {@link JobTarget}, empty if none is configured
+     */
+    public static List<JobTarget> getJobTargets(String slug, PluginSettings settings) {
+        List<JobTarget> jobTargets = new ArrayList<JobTarget>();
+        String value = (String) settings.get(PluginSettingsHelper.getPluginKey(PluginSettingsHelper.JOB_TARGETS,slug));
+        if (value == null || value.isEmpty()) {
+            return jobTargets;
+        }
+        try {
+            String[][] rows = new Gson().fromJson(value, String[][].class);
+            for (String[] columns : rows) {
+                JobTarget jobTarget = JobTarget.fromArray(columns);
+                if (jobTarget != null) {
+                    jobTargets.add(jobTarget);
+                }
+            }
+        } catch (JsonSyntaxException e) {
+            log.error(String.format("Not able to read the job targets of %s, the job targets are ignored",slug),e);
+        }
+        return jobTargets;
+    }
+
+    /**
+     * Set the additional jobs triggered for every pull-request event
+     * @param slug
+     * @param jobTargets - The list of {@link JobTarget}
+     * @param settings
+     */
+    public static void setJobTargets(String slug, List<JobTarget> jobTargets, PluginSettings settings) {
+        String key = PluginSettingsHelper.getPluginKey(PluginSettingsHelper.JOB_TARGETS,slug);
+        if (jobTargets.isEmpty()) {
+            settings.remove(key);
+            return;
+        }
+        String[][] rows = new String[jobTargets.size()][];
+        for (int i = 0; i < rows.length; i++) {
+            rows[i] = jobTargets.get(i).toArray();
+        }
+        settings.put(key, new Gson().toJson(rows));
+    }
+
     /**
      * Enable the disable build by default
      * @param slug
@@ -409,6 +897,33 @@ public class PluginSettingsHelper {
         settings.put(PluginSettingsHelper.getPluginKey(PluginSettingsHelper.TRIGGER_BUILD_ON_REOPEN, slug), CHECKED);
     }
 
+    /**
+     * Enable commenting the result of the triggered builds on the pull-request
+     * @param slug
+     * @param settings
+     */
+    public static void enableReportBuildResult(String slug, PluginSettings settings) {
+        settings.put(PluginSettingsHelper.getPluginKey(PluginSettingsHelper.REPORT_BUILD_RESULT, slug), CHECKED);
+    }
+
+    /**
+     * Enable adding the comments to the previous comment of the plug-in on the pull-request
+     * @param slug
+     * @param settings
+     */
+    public static void enableUpdatePreviousComment(String slug, PluginSettings settings) {
+        settings.put(PluginSettingsHelper.getPluginKey(PluginSettingsHelper.UPDATE_PREVIOUS_COMMENT, slug), CHECKED);
+    }
+
+    /**
+     * Enable posting the job parameters as a form instead of the query string
+     * @param slug
+     * @param settings
+     */
+    public static void enablePostParametersAsForm(String slug, PluginSettings settings) {
+        settings.put(PluginSettingsHelper.getPluginKey(PluginSettingsHelper.POST_PARAMETERS_AS_FORM, slug), CHECKED);
+    }
+
     /**
      * Set the list of Jenkins server on the settings.
      * @param jenkinsCIServerList - A list of jenkins servers
@@ -435,71 +950,20 @@ public class PluginSettingsHelper {
         pluginSettings.remove(PluginSettingsHelper.getPluginKey(PluginSettingsHelper.BUILD_REF_FIELD,slug));
         pluginSettings.remove(PluginSettingsHelper.getPluginKey(PluginSettingsHelper.JENKINS_PR_URL_FIELD,slug));
         pluginSettings.remove(PluginSettingsHelper.getPluginKey(PluginSettingsHelper.BUILD_DELAY_FIELD,slug));
+        pluginSettings.remove(PluginSettingsHelper.getPluginKey(PluginSettingsHelper.HEDGE_PERCENTILE_FIELD,slug));
+        pluginSettings.remove(PluginSettingsHelper.getPluginKey(PluginSettingsHelper.IDEMPOTENCY_KEY_FIELD,slug));
         pluginSettings.remove(PluginSettingsHelper.getPluginKey(PluginSettingsHelper.DISABLE_AUTOMATIC_BUILD_BY_DEFAULT,slug));
         pluginSettings.remove(PluginSettingsHelper.getPluginKey(PluginSettingsHelper.TRIGGER_BUILD_ON_CREATE,slug));
         pluginSettings.remove(PluginSettingsHelper.getPluginKey(PluginSettingsHelper.TRIGGER_BUILD_ON_UPDATE,slug));
         pluginSettings.remove(PluginSettingsHelper.getPluginKey(PluginSettingsHelper.TRIGGER_BUILD_ON_REOPEN,slug));
+        pluginSettings.remove(PluginSettingsHelper.getPluginKey(PluginSettingsHelper.POST_PARAMETERS_AS_FORM,slug));
+        pluginSettings.remove(PluginSettingsHelper.getPluginKey(PluginSettingsHelper.JOB_TARGETS,slug));
+        pluginSettings.remove(PluginSettingsHelper.getPluginKey(PluginSettingsHelper.REPORT_BUILD_RESULT,slug));
+        pluginSettings.remove(PluginSettingsHelper.getPluginKey(PluginSettingsHelper.UPDATE_PREVIOUS_COMMENT,slug));
         pluginSettings.remove(PluginSettingsHelper.getPluginKey(PluginSettingsHelper.JENKINS_CI_SERVER_LIST,slug));
         pluginSettings.remove(PluginSettingsHelper.getPluginKey(PluginSettingsHelper.JENKINS_LAST_CI_SERVER,slug));
-    }
-
-    /**
-     * Generate schedule time for when the build should be triggered
-     * @param slug
-     * @param plugin settings
-     * @param pullRequest - the pull request the schedule date should be calculated for
-     * @return {@link Date}
-     */
-    public static Date generateScheduleJobTime(String slug, PluginSettings settings, Long pullRequestId) {
-       return setScheduleJobTime(slug, settings, pullRequestId, getBuildDelay(slug, settings));
-    }
-
-    /**
-     * Return a schedule date time based on the specified delay in seconds
-     * @param slug
-     * @param settings - plug-in settings
-     * @param pullRequestId - the pull request the schedule date should be calculated for
-     * @param delay - the delay in seconds
-     * @return {@link Date}
-     */
-    public static Date setScheduleJobTime(String slug, PluginSettings settings, Long pullRequestId, Integer delay) {
-        String jobKey = getScheduleJobKey(slug,pullRequestId);
-        Calendar calendar = Calendar.getInstance();
-        calendar.add(Calendar.SECOND, delay);
-        jobScheduleDate.put(jobKey, calendar);
-
-        if (log.isDebugEnabled()) {
-            SimpleDateFormat sdf = new SimpleDateFormat("HH:mm:ss");
-            log.debug(String.format("Calculated execution time %s for job %s",sdf.format(calendar.getTime()),jobKey));
-        }
-        return calendar.getTime();
-    }
-
-    /**
-     * Return the registered job time for the specified job
-     * @param jobId
-     * @return
-     */
-    public static Calendar getScheduleJobTime(String jobId) {
-        return jobScheduleDate.get(jobId);
-    }
-    /**
-     * Return the job schedule key calculated based on the pull-request id
-     * @param slug
-     * @param pullRequestId
-     * @return
-     */
-    public static String getScheduleJobKey(String slug, Long pullRequestId) {
-       return slug+"."+pullRequestId;
-    }
-
-    /**
-     * Remove the last job schedule time
-     * @param jobKey
-     */
-    public static void resetScheduleTime(String jobKey) {
-        log.debug("Remove registered job trigger time with key "+jobKey);
-        jobScheduleDate.remove(jobKey);
+        pluginSettings.remove(PluginSettingsHelper.getPluginKey(PluginSettingsHelper.JENKINS_CI_SERVER_SELECTION,slug));
+        invalidateRepositorySettings(slug);
     }
 
     /**
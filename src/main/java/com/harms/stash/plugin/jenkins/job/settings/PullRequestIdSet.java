@@ -0,0 +1,174 @@
+package com.harms.stash.plugin.jenkins.job.settings;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Immutable sorted set of pull-request ids, stored as one settings value per repository.
+ *
+ * The ids are encoded as the difference to the previous id in base 36, separated by a comma,
+ * so a repository with thousands of pull-requests still only take a few characters per id.
+ *
+ * @author fharms
+ *
+ */
+public final class PullRequestIdSet {
+    public static final PullRequestIdSet EMPTY = new PullRequestIdSet(new long[0]);
+
+    private static final char SEPARATOR = ',';
+    private static final int RADIX = 36;
+
+    private final long[] ids;
+
+    private PullRequestIdSet(long[] ids) {
+        this.ids = ids;
+    }
+
+    /**
+     * Create the set from the pull-request ids, duplicates are removed
+     * @param pullRequestIds - The pull-request ids in any order
+     * @return the {@link PullRequestIdSet}
+     */
+    public static PullRequestIdSet of(Collection<Long> pullRequestIds) {
+        long[] sorted = new long[pullRequestIds.size()];
+        int i = 0;
+        for (Long id : pullRequestIds) {
+            sorted[i++] = id;
+        }
+        Arrays.sort(sorted);
+        int size = 0;
+        for (int j = 0; j < sorted.length; j++) {
+            if (size == 0 || sorted[j] != sorted[size - 1]) {
+                sorted[size++] = sorted[j];
+            }
+        }
+        return size == 0 ? EMPTY : new PullRequestIdSet(Arrays.copyOf(sorted, size));
+    }
+
+    /**
+     * Decode the set from the settings value
+     * @param value - The value returned by {@link #encode()}
+     * @return the {@link PullRequestIdSet}, empty if the value is null or empty
+     * @throws IllegalArgumentException if the value is not a valid set
+     */
+    public static PullRequestIdSet decode(String value) {
+        if (value == null || value.isEmpty()) {
+            return EMPTY;
+        }
+        int count = 1;
+        for (int i = 0; i < value.length(); i++) {
+            if (value.charAt(i) == SEPARATOR) {
+                count++;
+            }
+        }
+        long[] ids = new long[count];
+        long previous = 0;
+        int start = 0;
+        for (int i = 0; i < count; i++) {
+            int end = value.indexOf(SEPARATOR, start);
+            if (end < 0) {
+                end = value.length();
+            }
+            long delta;
+            try {
+                delta = Long.parseLong(value.substring(start, end), RADIX);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException(String.format("The pull-request id set '%s' is not valid",value), e);
+            }
+            if (delta <= 0 && i > 0) {
+                throw new IllegalArgumentException(String.format("The pull-request id set '%s' is not sorted",value));
+            }
+            previous += delta;
+            ids[i] = previous;
+            start = end + 1;
+        }
+        return new PullRequestIdSet(ids);
+    }
+
+    /**
+     * @return the set encoded as a settings value
+     */
+    public String encode() {
+        StringBuilder sb = new StringBuilder(ids.length * 3);
+        long previous = 0;
+        for (int i = 0; i < ids.length; i++) {
+            if (i > 0) {
+                sb.append(SEPARATOR);
+            }
+            sb.append(Long.toString(ids[i] - previous, RADIX));
+            previous = ids[i];
+        }
+        return sb.toString();
+    }
+
+    public boolean contains(long pullRequestId) {
+        return Arrays.binarySearch(ids, pullRequestId) >= 0;
+    }
+
+    /**
+     * @param pullRequestIds - The ids to add
+     * @return a set with the ids added, or this set if all the ids are already in it
+     */
+    public PullRequestIdSet addAll(Collection<Long> pullRequestIds) {
+        List<Long> all = new ArrayList<Long>(ids.length + pullRequestIds.size());
+        for (long id : ids) {
+            all.add(id);
+        }
+        for (Long id : pullRequestIds) {
+            if (!contains(id)) {
+                all.add(id);
+            }
+        }
+        return all.size() == ids.length ? this : of(all);
+    }
+
+    /**
+     * @param pullRequestIds - The ids to remove
+     * @return a set without the ids, or this set if none of the ids are in it
+     */
+    public PullRequestIdSet removeAll(Collection<Long> pullRequestIds) {
+        long[] kept = new long[ids.length];
+        int size = 0;
+        for (long id : ids) {
+            if (!pullRequestIds.contains(id)) {
+                kept[size++] = id;
+            }
+        }
+        if (size == ids.length) {
+            return this;
+        }
+        return size == 0 ? EMPTY : new PullRequestIdSet(Arrays.copyOf(kept, size));
+    }
+
+    public int size() {
+        return ids.length;
+    }
+
+    public boolean isEmpty() {
+        return ids.length == 0;
+    }
+
+    /**
+     * @return a copy of the ids in ascending order
+     */
+    public long[] toArray() {
+        return ids.clone();
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        return obj instanceof PullRequestIdSet && Arrays.equals(ids, ((PullRequestIdSet) obj).ids);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(ids);
+    }
+
+    @Override
+    public String toString() {
+        return Arrays.toString(ids);
+    }
+}
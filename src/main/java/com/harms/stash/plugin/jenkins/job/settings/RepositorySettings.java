@@ -0,0 +1,210 @@
+package com.harms.stash.plugin.jenkins.job.settings;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.atlassian.sal.api.pluginsettings.PluginSettings;
+
+/**
+ * Immutable snapshot of the plug-in settings for a single repository. The snapshot is
+ * loaded once with {@link PluginSettingsHelper#getRepositorySettings(String, PluginSettings)}
+ * and cached, so the event listener and the triggers can read the settings without going
+ * to the settings storage for every value. The job parameters of the {@link JobTarget}s are compiled
+ * with the snapshot, so they are compiled again when the settings change.
+ *
+ * @author fharms
+ *
+ */
+final public class RepositorySettings {
+    private final String slug;
+    private final boolean disableAutomaticBuildByDefault;
+    private final boolean triggerBuildOnCreate;
+    private final boolean triggerBuildOnUpdate;
+    private final boolean triggerBuildOnReopen;
+    private final String buildReferenceField;
+    private final String buildTitleField;
+    private final String pullRequestUrlField;
+    private final String fromBranchField;
+    private final String toBranchField;
+    private final List<JobTarget> jobTargets;
+    private final boolean postParametersAsForm;
+    private final boolean reportBuildResult;
+    private final boolean updatePreviousComment;
+    private final int buildDelay;
+    private final int hedgePercentile;
+    private final String idempotencyKeyField;
+    private final String[] jenkinsCIServerList;
+    private final String jenkinsCIServerSelection;
+    private final String encryptedUsername;
+    private final String encryptedPassword;
+    private final long loadTime;
+
+    private RepositorySettings(String slug, PluginSettings settings) {
+        this.slug = slug;
+        this.disableAutomaticBuildByDefault = PluginSettingsHelper.isDisableAutomaticBuildByDefault(slug, settings);
+        this.triggerBuildOnCreate = PluginSettingsHelper.isTriggerBuildOnCreate(slug, settings);
+        this.triggerBuildOnUpdate = PluginSettingsHelper.isTriggerBuildOnUpdate(slug, settings);
+        this.triggerBuildOnReopen = PluginSettingsHelper.isTriggerBuildOnReopen(slug, settings);
+        this.buildReferenceField = PluginSettingsHelper.getBuildReferenceField(slug, settings);
+        this.buildTitleField = PluginSettingsHelper.getBuildTitleField(slug, settings);
+        this.pullRequestUrlField = PluginSettingsHelper.getPullRequestUrlFieldName(slug, settings);
+        this.fromBranchField = PluginSettingsHelper.getFromBranchField(slug, settings);
+        this.toBranchField = PluginSettingsHelper.getToBranchField(slug, settings);
+        List<JobTarget> targets = new ArrayList<JobTarget>();
+        targets.add(new JobTarget("", "", buildReferenceField, buildTitleField, pullRequestUrlField, fromBranchField, toBranchField));
+        targets.addAll(PluginSettingsHelper.getJobTargets(slug, settings));
+        this.jobTargets = Collections.unmodifiableList(targets);
+        this.postParametersAsForm = PluginSettingsHelper.isPostParametersAsForm(slug, settings);
+        this.reportBuildResult = PluginSettingsHelper.isReportBuildResult(slug, settings);
+        this.updatePreviousComment = PluginSettingsHelper.isUpdatePreviousComment(slug, settings);
+        this.buildDelay = PluginSettingsHelper.getBuildDelay(slug, settings);
+        this.hedgePercentile = PluginSettingsHelper.getHedgePercentile(slug, settings);
+        this.idempotencyKeyField = PluginSettingsHelper.getIdempotencyKeyField(slug, settings);
+        this.jenkinsCIServerList = PluginSettingsHelper.getJenkinsCIServerList(slug, settings);
+        this.jenkinsCIServerSelection = PluginSettingsHelper.getJenkinsCIServerSelection(slug, settings);
+        this.encryptedUsername = (String) settings.get(PluginSettingsHelper.getPluginKey(PluginSettingsHelper.JENKINS_USERNAME, slug));
+        this.encryptedPassword = (String) settings.get(PluginSettingsHelper.getPluginKey(PluginSettingsHelper.JENKINS_PASSWORD, slug));
+        this.loadTime = System.currentTimeMillis();
+    }
+
+    /**
+     * Load the settings for the repository from the settings storage
+     * @param slug - The slug of the repository
+     * @param settings - The plug-in settings
+     * @return the {@link RepositorySettings}
+     */
+    static RepositorySettings load(String slug, PluginSettings settings) {
+        return new RepositorySettings(slug, settings);
+    }
+
+    public String getSlug() {
+        return slug;
+    }
+
+    public boolean isDisableAutomaticBuildByDefault() {
+        return disableAutomaticBuildByDefault;
+    }
+
+    public boolean isTriggerBuildOnCreate() {
+        return triggerBuildOnCreate;
+    }
+
+    public boolean isTriggerBuildOnUpdate() {
+        return triggerBuildOnUpdate;
+    }
+
+    public boolean isTriggerBuildOnReopen() {
+        return triggerBuildOnReopen;
+    }
+
+    /**
+     * @return true if any of the pull-request events trigger a build
+     */
+    public boolean isTriggerEnabled() {
+        return triggerBuildOnCreate || triggerBuildOnUpdate || triggerBuildOnReopen;
+    }
+
+    public String getBuildReferenceField() {
+        return buildReferenceField;
+    }
+
+    public String getBuildTitleField() {
+        return buildTitleField;
+    }
+
+    public String getPullRequestUrlField() {
+        return pullRequestUrlField;
+    }
+
+    public String getFromBranchField() {
+        return fromBranchField;
+    }
+
+    public String getToBranchField() {
+        return toBranchField;
+    }
+
+    /**
+     * @return the jobs triggered for every pull-request event, starting with the configured job
+     */
+    public List<JobTarget> getJobTargets() {
+        return jobTargets;
+    }
+
+    /**
+     * @return true if the job parameters are posted as a form instead of the query string
+     */
+    public boolean isPostParametersAsForm() {
+        return postParametersAsForm;
+    }
+
+    /**
+     * @return true if the result of the triggered builds is commented on the pull-request
+     */
+    public boolean isReportBuildResult() {
+        return reportBuildResult;
+    }
+
+    /**
+     * @return true if the comments is added to the previous comment of the plug-in on the pull-request
+     */
+    public boolean isUpdatePreviousComment() {
+        return updatePreviousComment;
+    }
+
+    /**
+     * @return the build trigger delay in seconds
+     */
+    public int getBuildDelay() {
+        return buildDelay;
+    }
+
+    /**
+     * @return the percentile of the response times after which the trigger is sent to the next CI server too, 0 if the triggers are not hedged
+     */
+    public int getHedgePercentile() {
+        return hedgePercentile;
+    }
+
+    /**
+     * @return the name of the job parameter with the idempotency key of the trigger, empty if the key is not sent
+     */
+    public String getIdempotencyKeyField() {
+        return idempotencyKeyField;
+    }
+
+    /**
+     * @return a copy of the list of Jenkins CI servers
+     */
+    public String[] getJenkinsCIServerList() {
+        return jenkinsCIServerList.clone();
+    }
+
+    public String getJenkinsCIServerSelection() {
+        return jenkinsCIServerSelection;
+    }
+
+    /**
+     * @return the decrypted username
+     * @throws DecryptException
+     */
+    public byte[] getUsername() throws DecryptException {
+        return PluginSettingsHelper.decryptCredential(encryptedUsername);
+    }
+
+    /**
+     * @return the decrypted password
+     * @throws DecryptException
+     */
+    public byte[] getPassword() throws DecryptException {
+        return PluginSettingsHelper.decryptCredential(encryptedPassword);
+    }
+
+    /**
+     * @return the time in milliseconds the snapshot was loaded
+     */
+    long getLoadTime() {
+        return loadTime;
+    }
+}
@@ -0,0 +1,321 @@
+package com.harms.stash.plugin.jenkins.job.settings.servlet;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.atlassian.sal.api.auth.LoginUriProvider;
+import com.atlassian.scheduler.SchedulerServiceException;
+import com.atlassian.stash.project.Project;
+import com.atlassian.stash.project.ProjectService;
+import com.atlassian.stash.pull.PullRequest;
+import com.atlassian.stash.pull.PullRequestSearchRequest;
+import com.atlassian.stash.pull.PullRequestService;
+import com.atlassian.stash.pull.PullRequestState;
+import com.atlassian.stash.repository.Repository;
+import com.atlassian.stash.repository.RepositoryService;
+import com.atlassian.stash.user.Permission;
+import com.atlassian.stash.user.PermissionService;
+import com.atlassian.stash.user.StashAuthenticationContext;
+import com.atlassian.stash.util.Page;
+import com.atlassian.stash.util.PageRequest;
+import com.atlassian.stash.util.PageRequestImpl;
+import com.google.gson.Gson;
+import com.harms.stash.plugin.jenkins.job.intergration.JenkinsJobScheduler;
+import com.harms.stash.plugin.jenkins.job.intergration.TriggerRequestEvent;
+import com.harms.stash.plugin.jenkins.job.intergration.schedule.PendingTriggerKey;
+import com.harms.stash.plugin.jenkins.job.intergration.schedule.PendingTriggerRegistry;
+
+/**
+ * Trigger a build of many pull-requests in one request, e.g. after a Jenkins outage.
+ * The builds are forced and spread out in time, so the Jenkins servers are not hit
+ * with all the builds at once.
+ *
+ * To invoke : POST to the servlet with one or more of the following form parameters
+ * <ul>
+ *  <li>pullRequest - repository-id/pull-request-id of a pull-request to build</li>
+ *  <li>repositoryId - build all open pull-requests in the repository</li>
+ *  <li>projectKey - build all open pull-requests in all repositories of the project</li>
+ *  <li>spread - seconds between two builds, default {@value #DEFAULT_SPREAD}</li>
+ *  <li>limit - the maximum number of pull-requests to build, default and at most {@value #MAX_PULL_REQUESTS}</li>
+ * </ul>
+ * It return a JSON summary with the result for every pull-request.
+ *
+ * The user must be administrator of every repository and project in the request, the
+ * permissions is inherited so project and system administrators can trigger the repositories
+ * of their projects. Nothing is scheduled if one of them is missing.
+ *
+ * @author fharms
+ *
+ */
+public class BatchTriggerBuildServlet extends JenkinsStashBaseServlet {
+    private static final long serialVersionUID = 2867612738453925634L;
+    private static final Logger log = LoggerFactory.getLogger(BatchTriggerBuildServlet.class);
+
+    public static final int DEFAULT_SPREAD = 2;
+    public static final int MAX_SPREAD = 300;
+    public static final int MAX_PULL_REQUESTS = 1000;
+    private static final int PAGE_SIZE = 100;
+
+    private final PullRequestService pullRequestService;
+    private final RepositoryService repositoryService;
+    private final PendingTriggerRegistry pendingTriggers;
+    private final ProjectService projectService;
+    private final PermissionService permissionService;
+
+    public BatchTriggerBuildServlet(PullRequestService pullRequestService, RepositoryService repositoryService, ProjectService projectService, PermissionService permissionService, PendingTriggerRegistry pendingTriggers, StashAuthenticationContext stashAuthContext, LoginUriProvider loginUriProvider) {
+        super(loginUriProvider, stashAuthContext);
+        this.pullRequestService = pullRequestService;
+        this.repositoryService = repositoryService;
+        this.projectService = projectService;
+        this.permissionService = permissionService;
+        this.pendingTriggers = pendingTriggers;
+    }
+
+    @Override
+    protected void doPost(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+        setNoCacheHeaders(resp);
+
+        //validate all the parameters and permissions before anything is scheduled
+        int spread;
+        int limit;
+        List<Long> pullRequestKeys;
+        List<Integer> repositoryIds;
+        List<String> projectKeys;
+        try {
+            spread = getIntParameter(req, "spread", DEFAULT_SPREAD, 0, MAX_SPREAD);
+            limit = getIntParameter(req, "limit", MAX_PULL_REQUESTS, 1, MAX_PULL_REQUESTS);
+            pullRequestKeys = toPullRequestKeys(req.getParameterValues("pullRequest"));
+            repositoryIds = toRepositoryIds(req.getParameterValues("repositoryId"));
+            projectKeys = toProjectKeys(req.getParameterValues("projectKey"));
+        } catch (IllegalArgumentException e) {
+            resp.sendError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+            return;
+        }
+
+        String forbidden = getForbidden(pullRequestKeys, repositoryIds, projectKeys);
+        if (forbidden != null) {
+            log.warn(String.format("User %s is not allowed to batch trigger builds for %s",stashAuthContext.getCurrentUser().getName(),forbidden));
+            resp.sendError(HttpServletResponse.SC_FORBIDDEN, String.format("You must be administrator of %s to trigger the builds",forbidden));
+            return;
+        }
+
+        BatchSummary summary = new BatchSummary();
+        Set<Long> seen = new HashSet<Long>();
+        triggerPullRequests(pullRequestKeys, spread, limit, seen, summary);
+        for (Integer repositoryId : repositoryIds) {
+            triggerOpenPullRequests(repositoryId, spread, limit, seen, summary);
+        }
+        triggerProjects(projectKeys, spread, limit, seen, summary);
+
+        log.info(String.format("Batch trigger scheduled %s pull-requests, %s failed",summary.scheduled,summary.failed));
+        resp.setStatus(HttpServletResponse.SC_OK);
+        resp.setContentType("application/json");
+        resp.getWriter().print(new Gson().toJson(summary));
+        resp.getWriter().flush();
+    }
+
+    private void triggerPullRequests(List<Long> pullRequestKeys, int spread, int limit, Set<Long> seen, BatchSummary summary) {
+        for (Long key : pullRequestKeys) {
+            Integer repositoryId = PendingTriggerKey.getRepositoryId(key);
+            Long pullRequestId = PendingTriggerKey.getPullRequestId(key);
+            if (!seen.add(key)) {
+                continue;
+            }
+            if (seen.size() > limit) {
+                summary.truncated = true;
+                summary.add(new BatchResult(repositoryId, pullRequestId, BatchStatus.SKIPPED, "The limit of pull-requests is reached"));
+                continue;
+            }
+            PullRequest pr = pullRequestService.getById(repositoryId, pullRequestId);
+            if (pr == null) {
+                summary.add(new BatchResult(repositoryId, pullRequestId, BatchStatus.NOT_FOUND, null));
+            } else if (!pr.isOpen()) {
+                summary.add(new BatchResult(repositoryId, pullRequestId, BatchStatus.NOT_OPEN, null));
+            } else {
+                schedule(pr, spread, summary);
+            }
+        }
+    }
+
+    /**
+     * @return the first repository or project the current user is not administrator of, or null if the user is allowed to trigger them all
+     */
+    private String getForbidden(List<Long> pullRequestKeys, List<Integer> repositoryIds, List<String> projectKeys) {
+        Set<Integer> repositories = new HashSet<Integer>(repositoryIds);
+        for (Long key : pullRequestKeys) {
+            repositories.add(PendingTriggerKey.getRepositoryId(key));
+        }
+        for (Integer repositoryId : repositories) {
+            if (!permissionService.hasRepositoryPermission(repositoryId, Permission.REPO_ADMIN)) {
+                return "repository " + repositoryId;
+            }
+        }
+        for (String projectKey : projectKeys) {
+            Project project = projectService.getByKey(projectKey);
+            if (project == null || !permissionService.hasProjectPermission(project, Permission.PROJECT_ADMIN)) {
+                return "project " + projectKey;
+            }
+        }
+        return null;
+    }
+
+    private void triggerProjects(List<String> projectKeys, int spread, int limit, Set<Long> seen, BatchSummary summary) {
+        for (String projectKey : projectKeys) {
+            PageRequest pageRequest = new PageRequestImpl(0, PAGE_SIZE);
+            while (pageRequest != null && seen.size() < limit) {
+                Page<Repository> page = repositoryService.findByProjectKey(projectKey, pageRequest);
+                for (Repository repository : page.getValues()) {
+                    triggerOpenPullRequests(repository.getId(), spread, limit, seen, summary);
+                }
+                pageRequest = page.getIsLastPage() ? null : page.getNextPageRequest();
+            }
+        }
+    }
+
+    /**
+     * Page through the open pull-requests targeting the repository and schedule a build for each
+     */
+    private void triggerOpenPullRequests(Integer repositoryId, int spread, int limit, Set<Long> seen, BatchSummary summary) {
+        PullRequestSearchRequest searchRequest = new PullRequestSearchRequest.Builder()
+                .state(PullRequestState.OPEN)
+                .toRepositoryId(repositoryId)
+                .build();
+        PageRequest pageRequest = new PageRequestImpl(0, PAGE_SIZE);
+        while (pageRequest != null) {
+            Page<PullRequest> page = pullRequestService.search(searchRequest, pageRequest);
+            for (PullRequest pr : page.getValues()) {
+                if (seen.size() >= limit) {
+                    summary.truncated = true;
+                    return;
+                }
+                if (seen.add(PendingTriggerKey.of(repositoryId, pr.getId()))) {
+                    schedule(pr, spread, summary);
+                }
+            }
+            pageRequest = page.getIsLastPage() ? null : page.getNextPageRequest();
+        }
+    }
+
+    private void schedule(PullRequest pr, int spread, BatchSummary summary) {
+        Integer repositoryId = pr.getToRef().getRepository().getId();
+        long key = PendingTriggerKey.of(repositoryId, pr.getId());
+        Map<String, Serializable> jobData = JenkinsJobScheduler.buildJobDataMap(pr, stashAuthContext, TriggerRequestEvent.FORCED_BUILD);
+        try {
+            Date jobTime = pendingTriggers.scheduleForced(key, jobData, summary.scheduled * spread * 1000L);
+            summary.add(new BatchResult(repositoryId, pr.getId(), BatchStatus.SCHEDULED, String.format("%1$tH:%1$tM:%1$tS",jobTime)));
+        } catch (SchedulerServiceException e) {
+            log.error(String.format("Not able to schedule jenkins build with job id %s",PendingTriggerKey.toJobId(key)),e);
+            summary.add(new BatchResult(repositoryId, pr.getId(), BatchStatus.FAILED, e.getMessage()));
+        }
+    }
+
+    private List<Long> toPullRequestKeys(String[] values) {
+        List<Long> keys = new ArrayList<Long>();
+        if (values != null) {
+            for (String value : values) {
+                String[] ids = value.split("/");
+                try {
+                    if (ids.length != 2) {
+                        throw new NumberFormatException();
+                    }
+                    keys.add(PendingTriggerKey.of(Integer.parseInt(ids[0]), Long.parseLong(ids[1])));
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException(String.format("The pull-request %s must be repository-id/pull-request-id",value));
+                }
+            }
+        }
+        return keys;
+    }
+
+    private List<Integer> toRepositoryIds(String[] values) {
+        List<Integer> repositoryIds = new ArrayList<Integer>();
+        if (values != null) {
+            for (String value : values) {
+                try {
+                    repositoryIds.add(Integer.valueOf(value));
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException(String.format("The repository id %s is not a number",value));
+                }
+            }
+        }
+        return repositoryIds;
+    }
+
+    private List<String> toProjectKeys(String[] values) {
+        List<String> projectKeys = new ArrayList<String>();
+        if (values != null) {
+            for (String value : values) {
+                if (value.trim().isEmpty()) {
+                    throw new IllegalArgumentException("The project key is empty");
+                }
+                projectKeys.add(value.trim());
+            }
+        }
+        return projectKeys;
+    }
+
+    private int getIntParameter(HttpServletRequest req, String name, int defaultValue, int min, int max) {
+        String value = req.getParameter(name);
+        if (value == null || value.isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            return Math.max(min, Math.min(max, Integer.parseInt(value)));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(String.format("The parameter %s is not a number",name));
+        }
+    }
+
+    enum BatchStatus {
+        SCHEDULED, NOT_FOUND, NOT_OPEN, SKIPPED, FAILED
+    }
+
+    /**
+     * The result for one pull-request, serialized to JSON
+     */
+    static class BatchResult {
+        final Integer repositoryId;
+        final Long pullRequestId;
+        final BatchStatus status;
+        final String message;
+
+        BatchResult(Integer repositoryId, Long pullRequestId, BatchStatus status, String message) {
+            this.repositoryId = repositoryId;
+            this.pullRequestId = pullRequestId;
+            this.status = status;
+            this.message = message;
+        }
+    }
+
+    /**
+     * The summary of the batch, serialized to JSON
+     */
+    static class BatchSummary {
+        int scheduled = 0;
+        int failed = 0;
+        boolean truncated = false;
+        final List<BatchResult> results = new ArrayList<BatchResult>();
+
+        void add(BatchResult result) {
+            if (result.status == BatchStatus.SCHEDULED) {
+                scheduled++;
+            } else if (result.status == BatchStatus.FAILED) {
+                failed++;
+            }
+            results.add(result);
+        }
+    }
+}
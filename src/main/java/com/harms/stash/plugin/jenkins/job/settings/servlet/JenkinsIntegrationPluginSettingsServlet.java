@@ -1,6 +1,8 @@
 package com.harms.stash.plugin.jenkins.job.settings.servlet;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 
 import javax.servlet.ServletException;
@@ -10,6 +12,7 @@ import javax.servlet.http.HttpServletResponse;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.atlassian.beehive.ClusterLockService;
 import com.atlassian.sal.api.auth.LoginUriProvider;
 import com.atlassian.sal.api.pluginsettings.PluginSettings;
 import com.atlassian.sal.api.pluginsettings.PluginSettingsFactory;
@@ -18,9 +21,12 @@ import com.atlassian.soy.renderer.SoyTemplateRenderer;
 import com.atlassian.stash.repository.Repository;
 import com.atlassian.stash.repository.RepositoryService;
 import com.atlassian.stash.user.StashAuthenticationContext;
+import com.google.common.base.Joiner;
 import com.google.common.collect.Maps;
+import com.harms.stash.plugin.jenkins.job.intergration.server.ServerSelection;
 import com.harms.stash.plugin.jenkins.job.settings.DecryptException;
 import com.harms.stash.plugin.jenkins.job.settings.EncryptException;
+import com.harms.stash.plugin.jenkins.job.settings.JobTarget;
 import com.harms.stash.plugin.jenkins.job.settings.PluginSettingsHelper;
 import com.harms.stash.plugin.jenkins.job.settings.upgrade.UpgradeService;
 import com.harms.stash.plugin.jenkins.job.settings.upgrade.steps.Upgrade_1_0_1;
@@ -37,12 +43,15 @@ public class JenkinsIntegrationPluginSettingsServlet extends JenkinsStashBaseSer
     private final RepositoryService repositoryService;
     private final PluginSettingsFactory pluginSettingsFactory;
     private final UpgradeService upgradeService;
+    private final ClusterLockService lockService;
 
-    public JenkinsIntegrationPluginSettingsServlet(SoyTemplateRenderer soyTemplateRenderer, RepositoryService repositoryService, PluginSettingsFactory pluginSettingsFactory, StashAuthenticationContext stashAuthContext, LoginUriProvider loginUriProvider) {
+    public JenkinsIntegrationPluginSettingsServlet(SoyTemplateRenderer soyTemplateRenderer, RepositoryService repositoryService, PluginSettingsFactory pluginSettingsFactory, StashAuthenticationContext stashAuthContext, LoginUriProvider loginUriProvider,
+            ClusterLockService lockService) {
         super(loginUriProvider, stashAuthContext);
         this.soyTemplateRenderer = soyTemplateRenderer;
         this.repositoryService = repositoryService;
         this.pluginSettingsFactory = pluginSettingsFactory;
+        this.lockService = lockService;
         upgradeService = new UpgradeService(pluginSettingsFactory);
 
     }
@@ -80,7 +89,7 @@ public class JenkinsIntegrationPluginSettingsServlet extends JenkinsStashBaseSer
 
         if (req.getParameter("disableBuildParameter") != null) {
             Repository repository = repositoryService.getBySlug(components[1], components[2]);
-            updatePullRequestSetttings(pluginSettings, req.getParameter("disableBuildParameter"), repository.getProject().getKey(),repository.getSlug(),Long.valueOf(components[3]));
+            updatePullRequestSetttings(pluginSettings, req.getParameter("disableBuildParameter"), repository.getId(),repository.getProject().getKey(),repository.getSlug(),Long.valueOf(components[3]));
             resp.setStatus(HttpServletResponse.SC_OK);
         } else {
            try {
@@ -108,9 +117,21 @@ public class JenkinsIntegrationPluginSettingsServlet extends JenkinsStashBaseSer
             PluginSettingsHelper.setJenkinsCIServerList(jenkinsCIServerList, slug, ps);
         }
 
+        if (parameterMap.containsKey("jenkinsCIServerSelection")) {
+            PluginSettingsHelper.setJenkinsCIServerSelection(slug, ServerSelection.fromName(parameterMap.get("jenkinsCIServerSelection")[0]).name(), ps);
+        }
+
         PluginSettingsHelper.setBuildReferenceField(slug, parameterMap.get("buildRefField")[0], ps);
         PluginSettingsHelper.setBuildDelay(slug, new Integer(parameterMap.get("buildDelayField")[0]), ps);
 
+        if (parameterMap.containsKey("hedgePercentileField") && !parameterMap.get("hedgePercentileField")[0].trim().isEmpty()) {
+            PluginSettingsHelper.setHedgePercentile(slug, new Integer(parameterMap.get("hedgePercentileField")[0].trim()), ps);
+        }
+
+        if (parameterMap.containsKey("idempotencyKeyField")) {
+            PluginSettingsHelper.setIdempotencyKeyField(slug, parameterMap.get("idempotencyKeyField")[0].trim(), ps);
+        }
+
         if (parameterMap.containsKey("disableAutomaticBuildByDefault")) {
             PluginSettingsHelper.enableDisableAutomaticBuildByDefault(slug, ps);
         }
@@ -127,6 +148,22 @@ public class JenkinsIntegrationPluginSettingsServlet extends JenkinsStashBaseSer
             PluginSettingsHelper.enableTriggerOnReopen(slug, ps);
         }
 
+        if (parameterMap.containsKey("postParametersAsForm")) {
+            PluginSettingsHelper.enablePostParametersAsForm(slug, ps);
+        }
+
+        if (parameterMap.containsKey("reportBuildResult")) {
+            PluginSettingsHelper.enableReportBuildResult(slug, ps);
+        }
+
+        if (parameterMap.containsKey("updatePreviousComment")) {
+            PluginSettingsHelper.enableUpdatePreviousComment(slug, ps);
+        }
+
+        if (parameterMap.containsKey("jobTargets")) {
+            PluginSettingsHelper.setJobTargets(slug, parseJobTargets(parameterMap.get("jobTargets")[0]), ps);
+        }
+
         if (!parameterMap.get("jenkinsUserName")[0].isEmpty()) {
             PluginSettingsHelper.setUsername(slug, parameterMap.get("jenkinsUserName")[0].getBytes(), ps);
         }
@@ -149,21 +186,45 @@ public class JenkinsIntegrationPluginSettingsServlet extends JenkinsStashBaseSer
         if (!parameterMap.get("buildPullRequestUrlField")[0].isEmpty()) {
             PluginSettingsHelper.setPullRequestUrlFieldName(slug, parameterMap.get("buildPullRequestUrlField")[0], ps);
         }
+        PluginSettingsHelper.invalidateRepositorySettings(slug);
+        PluginSettingsHelper.updateEnabledRepository(slug, ps, lockService);
+    }
+
+    /**
+     * Parse the job targets from the settings form, one job target per line
+     * @param value - The lines with the job targets
+     * @return the list of {@link JobTarget}, the invalid lines is skipped
+     */
+    private List<JobTarget> parseJobTargets(String value) {
+        List<JobTarget> jobTargets = new ArrayList<JobTarget>();
+        for (String line : value.split("\r?\n")) {
+            if (line.trim().isEmpty()) {
+                continue;
+            }
+            JobTarget jobTarget = JobTarget.parse(line);
+            if (jobTarget == null) {
+                log.warn(String.format("The job target '%s' is skipped, the name, job and build ref. field is required",line));
+            } else {
+                jobTargets.add(jobTarget);
+            }
+        }
+        return jobTargets;
     }
 
     /**
      * Updates the pull-request settings with the state of the disable automatic check box
      * @param pluginSettings - {@link PluginSettings}
      * @param disableAutomaticBuildParameter - the state of the disable automatic check box
+     * @param repositoryId
      * @param projectKey
      * @param slug
      * @param pullRequestId
      */
-    private void updatePullRequestSetttings(PluginSettings pluginSettings, String disableAutomaticBuildParameter,String projectKey, String slug, Long pullRequestId) {
+    private void updatePullRequestSetttings(PluginSettings pluginSettings, String disableAutomaticBuildParameter,Integer repositoryId,String projectKey, String slug, Long pullRequestId) {
         if (disableAutomaticBuildParameter.isEmpty()) {
-            PluginSettingsHelper.clearAutomaticBuildFlag(projectKey,slug,pullRequestId,pluginSettings);
+            PluginSettingsHelper.clearAutomaticBuildFlag(repositoryId,projectKey,slug,pullRequestId,pluginSettings,lockService);
         } else {
-            PluginSettingsHelper.enableAutomaticBuildFlag(projectKey,slug,pullRequestId,pluginSettings);
+            PluginSettingsHelper.enableAutomaticBuildFlag(repositoryId,projectKey,slug,pullRequestId,pluginSettings,lockService);
         }
     }
 
@@ -215,11 +276,13 @@ public class JenkinsIntegrationPluginSettingsServlet extends JenkinsStashBaseSer
         upgradeService.addUpgradeStep(new Upgrade_1_0_5(repository.getSlug()));
         upgradeService.addUpgradeStep(new Upgrade_1_0_6(repository.getSlug()));
         upgradeService.process(); //if the upgrade is already executed this will just return
+        PluginSettingsHelper.invalidateRepositorySettings(repository.getSlug());
+        PluginSettingsHelper.updateEnabledRepository(repository.getSlug(), pluginSettingsFactory.createGlobalSettings(), lockService);
     }
 
     private String readPullRequestSettings(HttpServletResponse resp, Long pullRequestId, Repository repository) throws IOException {
         PluginSettings pluginSettings = pluginSettingsFactory.createGlobalSettings();
-        return PluginSettingsHelper.isAutomaticBuildDisabled(repository.getProject().getKey(), repository.getSlug(), pullRequestId, pluginSettings) ? "CHECKED":"";
+        return PluginSettingsHelper.isAutomaticBuildDisabled(repository.getId(), repository.getProject().getKey(), repository.getSlug(), pullRequestId, pluginSettings) ? "CHECKED":"";
     }
 
     private void readPluginSettings(Repository repository, Map<String, Object> context) {
@@ -227,6 +290,7 @@ public class JenkinsIntegrationPluginSettingsServlet extends JenkinsStashBaseSer
         String slug = repository.getSlug();
 
         context.put("jenkinsCIServerList", PluginSettingsHelper.getJenkinsCIServerList(slug, pluginSettings));
+        context.put("jenkinsCIServerSelection", ServerSelection.fromName(PluginSettingsHelper.getJenkinsCIServerSelection(slug, pluginSettings)).name());
 
         try {
             context.put("jenkinsUserName",new String(PluginSettingsHelper.getUsername(slug, pluginSettings)));
@@ -244,6 +308,9 @@ public class JenkinsIntegrationPluginSettingsServlet extends JenkinsStashBaseSer
 
         context.put("buildRefField", PluginSettingsHelper.getBuildReferenceField(slug, pluginSettings));
         context.put("buildDelayField", PluginSettingsHelper.getBuildDelay(slug, pluginSettings).toString());
+        int hedgePercentile = PluginSettingsHelper.getHedgePercentile(slug, pluginSettings);
+        context.put("hedgePercentileField", hedgePercentile == 0 ? "" : String.valueOf(hedgePercentile));
+        context.put("idempotencyKeyField", PluginSettingsHelper.getIdempotencyKeyField(slug, pluginSettings));
         context.put("buildTitleField", PluginSettingsHelper.getBuildTitleField(slug, pluginSettings));
         context.put("fromBranchField", PluginSettingsHelper.getFromBranchField(slug, pluginSettings));
         context.put("toBranchField", PluginSettingsHelper.getToBranchField(slug, pluginSettings));
@@ -265,6 +332,24 @@ public class JenkinsIntegrationPluginSettingsServlet extends JenkinsStashBaseSer
             context.put("triggerBuildOnReopen", "checked=\"checked\"");
         }
 
+        List<String> jobTargets = new ArrayList<String>();
+        for (JobTarget jobTarget : PluginSettingsHelper.getJobTargets(slug, pluginSettings)) {
+            jobTargets.add(jobTarget.format());
+        }
+        context.put("jobTargets", Joiner.on('\n').join(jobTargets));
+
+        if (PluginSettingsHelper.isReportBuildResult(slug, pluginSettings)){
+            context.put("reportBuildResult", "checked=\"checked\"");
+        }
+
+        if (PluginSettingsHelper.isUpdatePreviousComment(slug, pluginSettings)){
+            context.put("updatePreviousComment", "checked=\"checked\"");
+        }
+
+        if (PluginSettingsHelper.isPostParametersAsForm(slug, pluginSettings)){
+            context.put("postParametersAsForm", "checked=\"checked\"");
+        }
+
         context.put("repository", repository);
     }
 
@@ -275,12 +360,19 @@ public class JenkinsIntegrationPluginSettingsServlet extends JenkinsStashBaseSer
         context.put("buildTitleField", "");
         context.put("jenkinsBaseUrl", "");
         context.put("jenkinsCIServerList",null);
+        context.put("jenkinsCIServerSelection", ServerSelection.ROUND_ROBIN.name());
         context.put("disableAutomaticBuildByDefault", "");
         context.put("triggerBuildOnCreate", "");
         context.put("triggerBuildOnUpdate", "");
         context.put("triggerBuildOnReopen", "");
         context.put("buildPullRequestUrlField", "");
         context.put("buildDelayField", "");
+        context.put("hedgePercentileField", "");
+        context.put("idempotencyKeyField", "");
+        context.put("postParametersAsForm", "");
+        context.put("jobTargets", "");
+        context.put("reportBuildResult", "");
+        context.put("updatePreviousComment", "");
     }
 
 }
@@ -45,6 +45,21 @@ public class JenkinsStashBaseServlet extends HttpServlet {
         }
     }
     
+    /**
+     * Set the headers so the response is never cached by the browser or a proxy
+     * @param resp
+     */
+    protected void setNoCacheHeaders(HttpServletResponse resp) {
+        // Set to expire far in the past.
+        resp.setHeader("Expires", "Sat, 6 May 1995 12:00:00 GMT");
+        // Set standard HTTP/1.1 no-cache headers.
+        resp.setHeader("Cache-Control", "no-store, no-cache, must-revalidate");
+        // Set IE extended HTTP/1.1 no-cache headers (use addHeader).
+        resp.addHeader("Cache-Control", "post-check=0, pre-check=0");
+        // Set standard HTTP/1.0 no-cache header.
+        resp.setHeader("Pragma", "no-cache");
+    }
+    
     @Override
     protected void service(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
         if (!stashAuthContext.isAuthenticated()) {
@@ -3,7 +3,6 @@ package com.harms.stash.plugin.jenkins.job.settings.servlet;
 import java.io.IOException;
 import java.io.Serializable;
 import java.util.Arrays;
-import java.util.Date;
 import java.util.Map;
 
 import javax.servlet.ServletException;
@@ -14,23 +13,14 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.atlassian.sal.api.auth.LoginUriProvider;
-import com.atlassian.sal.api.pluginsettings.PluginSettings;
-import com.atlassian.sal.api.pluginsettings.PluginSettingsFactory;
-import com.atlassian.scheduler.SchedulerService;
 import com.atlassian.scheduler.SchedulerServiceException;
-import com.atlassian.scheduler.config.JobConfig;
-import com.atlassian.scheduler.config.JobId;
-import com.atlassian.scheduler.config.RunMode;
-import com.atlassian.scheduler.config.Schedule;
 import com.atlassian.stash.pull.PullRequest;
 import com.atlassian.stash.pull.PullRequestService;
-import com.atlassian.stash.user.SecurityService;
 import com.atlassian.stash.user.StashAuthenticationContext;
-import com.atlassian.stash.user.UserService;
 import com.harms.stash.plugin.jenkins.job.intergration.JenkinsJobScheduler;
-import com.harms.stash.plugin.jenkins.job.intergration.JobTrigger;
 import com.harms.stash.plugin.jenkins.job.intergration.TriggerRequestEvent;
-import com.harms.stash.plugin.jenkins.job.settings.PluginSettingsHelper;
+import com.harms.stash.plugin.jenkins.job.intergration.schedule.PendingTriggerKey;
+import com.harms.stash.plugin.jenkins.job.intergration.schedule.PendingTriggerRegistry;
 
 /**
  * This servlet is able to manual trigger a job based on the repository id and pull request id
@@ -43,32 +33,22 @@ public class ManualTriggerBuildServlet extends JenkinsStashBaseServlet {
     private static final Logger log = LoggerFactory.getLogger(ManualTriggerBuildServlet.class);
     
     private static final long serialVersionUID = -6947257382708409328L;
+    private static final long FORCED_BUILD_DELAY = 30000;
+
     private final PullRequestService pullRequestService;
-    private final SchedulerService schedulerService;
-    private final PluginSettings settings;
+    private final PendingTriggerRegistry pendingTriggers;
 
     
-    public ManualTriggerBuildServlet(JobTrigger jenkinsCiIntergration, PullRequestService pullRequestService, SchedulerService schedulerService, PluginSettingsFactory pluginSettingsFactory,StashAuthenticationContext stashAuthContext,SecurityService securityService,LoginUriProvider loginUriProvider, UserService userService) {
+    public ManualTriggerBuildServlet(PullRequestService pullRequestService, PendingTriggerRegistry pendingTriggers, StashAuthenticationContext stashAuthContext,LoginUriProvider loginUriProvider) {
         super(loginUriProvider, stashAuthContext);
         log.debug("invoked constructor");
-        this.schedulerService = schedulerService;
         this.pullRequestService = pullRequestService;
-        this.settings = pluginSettingsFactory.createGlobalSettings();
-        
-        schedulerService.registerJobRunner(JenkinsJobScheduler.jobRunnerKey, new JenkinsJobScheduler(pullRequestService,userService,securityService,jenkinsCiIntergration));
-        
+        this.pendingTriggers = pendingTriggers;
     }
     
     @Override
     protected void doPost(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
-	    // Set to expire far in the past.
-	    resp.setHeader("Expires", "Sat, 6 May 1995 12:00:00 GMT");
-	    // Set standard HTTP/1.1 no-cache headers.
-	    resp.setHeader("Cache-Control", "no-store, no-cache, must-revalidate");
-	    // Set IE extended HTTP/1.1 no-cache headers (use addHeader).
-	    resp.addHeader("Cache-Control", "post-check=0, pre-check=0");
-	    // Set standard HTTP/1.0 no-cache header.
-	    resp.setHeader("Pragma", "no-cache");
+	    setNoCacheHeaders(resp);
     	
     	String pathInfo = req.getPathInfo();
         log.debug(String.format("invoked with path info %s", pathInfo));
@@ -89,20 +69,16 @@ public class ManualTriggerBuildServlet extends JenkinsStashBaseServlet {
         PullRequest pullRequest = pullRequestService.getById(repositoryId, pullRequestId);
         if (pullRequest != null) {
             log.debug(String.format("Retrieved pull request information for %s", pullRequest.getId()));
-            String slug = pullRequest.getFromRef().getRepository().getSlug();
-            String scheduleJobKey = PluginSettingsHelper.getScheduleJobKey(slug,pullRequestId);
-            JobId jobKey = JobId.of(scheduleJobKey);
-            
-            unscheduleJob(jobKey);
+            long key = PendingTriggerKey.of(repositoryId, pullRequestId);
             
             Map<String, Serializable> jobData = JenkinsJobScheduler.buildJobDataMap(pullRequest,stashAuthContext,TriggerRequestEvent.FORCED_BUILD);
-            Date jobTime = PluginSettingsHelper.setScheduleJobTime(slug, settings, pullRequestId,30);
             try {
-				scheduleJob(pullRequestId, slug, scheduleJobKey, jobKey,jobData, jobTime);
+                //replace the current job if any and force a new build
+                pendingTriggers.scheduleForced(key, jobData, FORCED_BUILD_DELAY);
 				resp.setStatus(HttpServletResponse.SC_OK);
 			} catch (SchedulerServiceException e) {
-			    resp.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, String.format("Not able to schedule jenkins build with job id %1$s at %2$tH:%2$tM:%2$tS",scheduleJobKey,jobTime));
-				resp.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+			    log.error(String.format("Not able to schedule jenkins build with job id %s",PendingTriggerKey.toJobId(key)),e);
+			    resp.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, String.format("Not able to schedule jenkins build with job id %s",PendingTriggerKey.toJobId(key)));
 			}
             
         } else {
@@ -111,26 +87,4 @@ public class ManualTriggerBuildServlet extends JenkinsStashBaseServlet {
             resp.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, errorMsg);
         }
     }
-
-	private void scheduleJob(Long pullRequestId,String slug, String scheduleJobKey, JobId jobKey,Map<String, Serializable> jobData, Date jobTime) throws IOException, SchedulerServiceException {
-		try {
-			schedulerService.scheduleJob( 
-			        jobKey, 
-			        JobConfig.forJobRunnerKey(JenkinsJobScheduler.jobRunnerKey) 
-			                .withParameters(jobData)
-			                .withRunMode(RunMode.RUN_ONCE_PER_CLUSTER) 
-			                .withSchedule(Schedule.runOnce(jobTime)));
-		} catch (SchedulerServiceException e) {
-			log.error(String.format("Not able to schedule jenkins build with job id %1$s at %2$tH:%2$tM:%2$tS",scheduleJobKey,jobTime),e);
-			throw e;
-		}
-	}
-
-	private void unscheduleJob(JobId jobKey) {
-		try {
-			schedulerService.unscheduleJob(jobKey); //Unscheduled the current job if any 
-		} catch (IllegalArgumentException e) {
-			log.debug("No current job was scheduled for job id "+jobKey);  
-		}
-	}
 }
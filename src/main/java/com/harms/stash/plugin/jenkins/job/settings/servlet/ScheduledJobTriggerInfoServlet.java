@@ -3,7 +3,7 @@ package com.harms.stash.plugin.jenkins.job.settings.servlet;
 import java.io.IOException;
 import java.text.SimpleDateFormat;
 import java.util.Arrays;
-import java.util.Calendar;
+import java.util.Date;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
@@ -14,14 +14,15 @@ import org.slf4j.LoggerFactory;
 
 import com.atlassian.sal.api.auth.LoginUriProvider;
 import com.atlassian.stash.user.StashAuthenticationContext;
-import com.harms.stash.plugin.jenkins.job.settings.PluginSettingsHelper;
+import com.harms.stash.plugin.jenkins.job.intergration.schedule.PendingTriggerKey;
+import com.harms.stash.plugin.jenkins.job.intergration.schedule.PendingTriggerRegistry;
 
 /**
  * Retrieve the scheduled job trigger time if any. 
  * If a trigger is scheduled it will return the time in HH:mm:ss and
  * if no schedule time it will return an empty string.
  * 
- * To invoke : call the servlet with following path info /slug-id/pull-request-id/
+ * To invoke : call the servlet with following path info /repository-id/pull-request-id/
  * 
  * @author fharms
  *
@@ -30,8 +31,11 @@ public class ScheduledJobTriggerInfoServlet extends JenkinsStashBaseServlet {
     private static final long serialVersionUID = 604820129001885579L;
     private static final Logger log = LoggerFactory.getLogger(ScheduledJobTriggerInfoServlet.class);
     
-    public ScheduledJobTriggerInfoServlet(LoginUriProvider loginUriProvider, StashAuthenticationContext stashAuthContext) {
+    private final PendingTriggerRegistry pendingTriggers;
+    
+    public ScheduledJobTriggerInfoServlet(LoginUriProvider loginUriProvider, StashAuthenticationContext stashAuthContext, PendingTriggerRegistry pendingTriggers) {
      super(loginUriProvider, stashAuthContext);
+     this.pendingTriggers = pendingTriggers;
     }
     
     @Override
@@ -49,16 +53,16 @@ public class ScheduledJobTriggerInfoServlet extends JenkinsStashBaseServlet {
             resp.sendError(HttpServletResponse.SC_NOT_FOUND);
             return;
         }
-        String slug = components[1];
+        Integer repositoryId = new Integer(components[1]);
         Long pullRequestId = new Long(components[2]);
 
-        Calendar jobTime = PluginSettingsHelper.getScheduleJobTime(PluginSettingsHelper.getScheduleJobKey(slug,pullRequestId));
+        Date jobTime = pendingTriggers.getFireTime(PendingTriggerKey.of(repositoryId, pullRequestId));
         
         String formatTime = "";
         
         if (jobTime != null) {
          SimpleDateFormat sdf = new SimpleDateFormat("HH:mm:ss aaa",req.getLocale());
-         formatTime = sdf.format(jobTime.getTime());
+         formatTime = sdf.format(jobTime);
          log.debug("Calculated execution time in "+formatTime);
         }
         
@@ -0,0 +1,51 @@
+package com.harms.stash.plugin.jenkins.job.settings.servlet;
+
+import java.io.IOException;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import com.atlassian.sal.api.auth.LoginUriProvider;
+import com.atlassian.stash.user.Permission;
+import com.atlassian.stash.user.PermissionService;
+import com.atlassian.stash.user.StashAuthenticationContext;
+import com.google.gson.Gson;
+import com.harms.stash.plugin.jenkins.job.intergration.metrics.JmxTriggerMetrics;
+
+/**
+ * Return the same trigger metrics as exposed through JMX as JSON, for monitoring
+ * systems without access to JMX.
+ *
+ * To invoke : GET the servlet without any parameters
+ *
+ * The metrics include the URLs of the Jenkins servers, so only system administrators can read them.
+ *
+ * @author fharms
+ *
+ */
+public class TriggerMetricsServlet extends JenkinsStashBaseServlet {
+    private static final long serialVersionUID = -3151848920167313264L;
+
+    private final JmxTriggerMetrics triggerMetrics;
+    private final PermissionService permissionService;
+
+    public TriggerMetricsServlet(JmxTriggerMetrics triggerMetrics, PermissionService permissionService, StashAuthenticationContext stashAuthContext, LoginUriProvider loginUriProvider) {
+        super(loginUriProvider, stashAuthContext);
+        this.triggerMetrics = triggerMetrics;
+        this.permissionService = permissionService;
+    }
+
+    @Override
+    protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+        resp.setHeader("Cache-Control", "no-store, no-cache, must-revalidate");
+        if (!permissionService.hasGlobalPermission(Permission.SYS_ADMIN)) {
+            resp.sendError(HttpServletResponse.SC_FORBIDDEN, "You must be system administrator to read the trigger metrics");
+            return;
+        }
+        resp.setStatus(HttpServletResponse.SC_OK);
+        resp.setContentType("application/json");
+        resp.getWriter().print(new Gson().toJson(triggerMetrics.snapshot()));
+        resp.getWriter().flush();
+    }
+}
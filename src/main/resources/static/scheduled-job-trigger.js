@@ -7,8 +7,7 @@ var pageScheduleInitialized = false;
     function getScheduleJobTriggerServletUrl(pullRequestJson) {
 		var baseUrl = AJS.contextPath();
     	var repo = pullRequestJson.toRef.repository;
-        var proj = repo.project;
-        return baseUrl+'/plugins/servlet/jenkins/scheduledtriggers/' + repo.slug;
+        return baseUrl+'/plugins/servlet/jenkins/scheduledtriggers/' + repo.id;
     }
     
     var storage = { getCheckBoxStatus : function(pullRequestJson) {
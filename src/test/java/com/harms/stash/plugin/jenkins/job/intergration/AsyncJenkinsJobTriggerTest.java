@@ -0,0 +1,185 @@
+package com.harms.stash.plugin.jenkins.job.intergration;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.Serializable;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Matchers;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.mockito.stubbing.Answer;
+
+import com.atlassian.stash.project.Project;
+import com.atlassian.stash.pull.PullRequest;
+import com.atlassian.stash.pull.PullRequestRef;
+import com.atlassian.stash.pull.PullRequestService;
+import com.atlassian.stash.repository.Repository;
+import com.atlassian.stash.user.EscalatedSecurityContext;
+import com.atlassian.stash.user.SecurityService;
+import com.atlassian.stash.user.StashUser;
+import com.atlassian.stash.util.Operation;
+import com.harms.stash.plugin.jenkins.job.intergration.metrics.TriggerMetrics;
+import com.harms.stash.plugin.jenkins.job.intergration.schedule.PendingTriggerKey;
+import com.harms.stash.plugin.jenkins.job.intergration.schedule.PendingTriggerRegistry;
+
+@RunWith(MockitoJUnitRunner.class)
+public class AsyncJenkinsJobTriggerTest {
+    private static final String SLUG = "slug01";
+    private static final String SERVER = "http://ci:8080/job/build/";
+
+    @Mock
+    private PullRequestService pullRequestService;
+    @Mock
+    private SecurityService securityService;
+    @Mock
+    private EscalatedSecurityContext securityContext;
+    @Mock
+    private JobTrigger jenkinsCI;
+    @Mock
+    private PendingTriggerRegistry pendingTriggers;
+    @Mock
+    private StashUser user;
+    @Mock
+    private PullRequest pullRequest;
+    @Mock
+    private PullRequestRef fromRef;
+    @Mock
+    private PullRequestRef toRef;
+    @Mock
+    private Repository repository;
+    @Mock
+    private Project project;
+
+    private TriggerMetrics metrics;
+    private AsyncJenkinsJobTrigger trigger;
+
+    @Before
+    public void setUp() throws Throwable {
+        Mockito.when(user.getName()).thenReturn("user1");
+        Mockito.when(securityService.impersonating(Matchers.eq(user), Matchers.anyString())).thenReturn(securityContext);
+        Mockito.when(securityContext.call(Matchers.any(Operation.class))).thenAnswer(new Answer<Object>() {
+            @Override
+            public Object answer(InvocationOnMock invocation) throws Throwable {
+                return ((Operation<?, ?>) invocation.getArguments()[0]).perform();
+            }
+        });
+
+        Mockito.when(project.getKey()).thenReturn("PROJ");
+        Mockito.when(repository.getId()).thenReturn(1);
+        Mockito.when(repository.getSlug()).thenReturn(SLUG);
+        Mockito.when(repository.getProject()).thenReturn(project);
+        Mockito.when(fromRef.getRepository()).thenReturn(repository);
+        Mockito.when(fromRef.getLatestChangeset()).thenReturn("abc123");
+        Mockito.when(toRef.getRepository()).thenReturn(repository);
+        Mockito.when(toRef.getLatestChangeset()).thenReturn("def456");
+        Mockito.when(pullRequest.getId()).thenReturn(2L);
+        Mockito.when(pullRequest.getFromRef()).thenReturn(fromRef);
+        Mockito.when(pullRequest.getToRef()).thenReturn(toRef);
+        Mockito.when(pullRequestService.getById(1, 2L)).thenReturn(pullRequest);
+
+        Mockito.when(jenkinsCI.nextCIServer(SLUG)).thenReturn(SERVER);
+        Mockito.when(jenkinsCI.validateSettings(SERVER, SLUG)).thenReturn(true);
+
+        metrics = new TriggerMetrics();
+        trigger = new AsyncJenkinsJobTrigger(pullRequestService, securityService, jenkinsCI, pendingTriggers, metrics);
+    }
+
+    @After
+    public void tearDown() {
+        trigger.shutdown();
+    }
+
+    @Test
+    public void testTriggerRunAsTheUser() throws Exception {
+        trigger.triggerBuild(user, 1, 2L, TriggerRequestEvent.PULLREQUEST_EVENT_CREATED).get();
+
+        Mockito.verify(securityService, Mockito.times(1)).impersonating(Matchers.eq(user), Matchers.anyString());
+        Mockito.verify(jenkinsCI, Mockito.times(1)).triggerBuild(1, "abc123", 2L, null, SLUG, TriggerRequestEvent.PULLREQUEST_EVENT_CREATED, SERVER, "PROJ", null, null);
+    }
+
+    @Test
+    public void testMissingPullRequestIsNotTriggered() throws Exception {
+        trigger.triggerBuild(user, 1, 3L, TriggerRequestEvent.PULLREQUEST_EVENT_CREATED).get();
+
+        Mockito.verify(jenkinsCI, Mockito.never()).nextCIServer(Matchers.anyString());
+    }
+
+    @Test
+    public void testDuplicateTriggerDoNotSelectServer() throws Exception {
+        trigger.triggerBuild(user, 1, 2L, TriggerRequestEvent.PULLREQUEST_EVENT_SOURCE_UPDATED).get();
+        trigger.triggerBuild(user, 1, 2L, TriggerRequestEvent.PULLREQUEST_EVENT_SOURCE_UPDATED).get();
+
+        assertEquals(1, metrics.getDuplicatesSuppressed());
+        Mockito.verify(jenkinsCI, Mockito.times(1)).nextCIServer(SLUG);
+        Mockito.verify(jenkinsCI, Mockito.times(1)).triggerBuild(1, "abc123", 2L, null, SLUG, TriggerRequestEvent.PULLREQUEST_EVENT_SOURCE_UPDATED, SERVER, "PROJ", null, null);
+    }
+
+    @Test
+    public void testThrottledTriggerIsDeferred() throws Exception {
+        Mockito.doThrow(new TriggerThrottledException("rate limited")).when(jenkinsCI).triggerBuild(1, "abc123", 2L, null, SLUG, TriggerRequestEvent.PULLREQUEST_EVENT_SOURCE_UPDATED, SERVER, "PROJ", null, null);
+
+        trigger.triggerBuild(user, 1, 2L, TriggerRequestEvent.PULLREQUEST_EVENT_SOURCE_UPDATED).get();
+
+        assertEquals(1, trigger.getDeferredCount());
+        assertEquals(0, metrics.getFailedTriggers());
+        Mockito.verify(pendingTriggers, Mockito.times(1)).schedule(Matchers.eq(PendingTriggerKey.of(1, 2L)), Matchers.<Map<String, Serializable>>anyObject(),
+                Matchers.eq(AsyncJenkinsJobTrigger.THROTTLED_DELAY), Matchers.eq(AsyncJenkinsJobTrigger.THROTTLED_DELAY));
+
+        //the deferred trigger is not suppressed as a duplicate
+        trigger.triggerBuild(user, 1, 2L, TriggerRequestEvent.PULLREQUEST_EVENT_SOURCE_UPDATED).get();
+        assertEquals(0, metrics.getDuplicatesSuppressed());
+    }
+
+    @Test
+    public void testFullQueueDeferLowestPriority() throws Exception {
+        final CountDownLatch running = new CountDownLatch(4);
+        final CountDownLatch release = new CountDownLatch(1);
+        Mockito.when(pullRequestService.getById(Matchers.anyInt(), Matchers.anyLong())).thenAnswer(new Answer<PullRequest>() {
+            @Override
+            public PullRequest answer(InvocationOnMock invocation) throws Throwable {
+                running.countDown();
+                release.await();
+                return null;
+            }
+        });
+        try {
+            for (long id = 1; id <= 4; id++) {
+                trigger.triggerBuild(user, 1, id, TriggerRequestEvent.PULLREQUEST_EVENT_SOURCE_UPDATED);
+            }
+            assertTrue(running.await(10, TimeUnit.SECONDS));
+            for (long id = 100; id < 600; id++) {
+                trigger.triggerBuild(user, 1, id, TriggerRequestEvent.PULLREQUEST_EVENT_SOURCE_UPDATED);
+            }
+            assertEquals(500, trigger.getQueueSize());
+
+            //a created pull-request replace the latest updated pull-request in the queue
+            trigger.triggerBuild(user, 1, 1000L, TriggerRequestEvent.PULLREQUEST_EVENT_CREATED);
+            assertEquals(500, trigger.getQueueSize());
+            verifyDeferred(599L);
+
+            //an updated pull-request is the lowest priority itself
+            Future<Object> rejected = trigger.triggerBuild(user, 1, 2000L, TriggerRequestEvent.PULLREQUEST_EVENT_SOURCE_UPDATED);
+            assertTrue(rejected.isCancelled());
+            verifyDeferred(2000L);
+            assertEquals(2, trigger.getDeferredCount());
+        } finally {
+            release.countDown();
+        }
+    }
+
+    private void verifyDeferred(long pullRequestId) throws Exception {
+        Mockito.verify(pendingTriggers, Mockito.times(1)).schedule(Matchers.eq(PendingTriggerKey.of(1, pullRequestId)), Matchers.<Map<String, Serializable>>anyObject(),
+                Matchers.eq(AsyncJenkinsJobTrigger.DEFER_DELAY), Matchers.eq(AsyncJenkinsJobTrigger.DEFER_DELAY));
+    }
+}
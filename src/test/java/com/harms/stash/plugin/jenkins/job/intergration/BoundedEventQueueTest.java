@@ -0,0 +1,76 @@
+package com.harms.stash.plugin.jenkins.job.intergration;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class BoundedEventQueueTest {
+
+    private BoundedEventQueue<Integer> queue;
+
+    @After
+    public void tearDown() {
+        if (queue != null) {
+            queue.shutdown();
+        }
+    }
+
+    @Test
+    public void testEventsAreHandledInOrder() throws InterruptedException {
+        final List<Integer> handled = new ArrayList<Integer>();
+        final CountDownLatch done = new CountDownLatch(5);
+        queue = new BoundedEventQueue<Integer>("test-worker", 10, 2, new BoundedEventQueue.BatchHandler<Integer>() {
+            @Override
+            public void handle(List<Integer> events) {
+                assertTrue(events.size() <= 2);
+                for (Integer event : events) {
+                    handled.add(event);
+                    done.countDown();
+                }
+            }
+        });
+        for (int i = 1; i <= 5; i++) {
+            assertTrue(queue.offer(i));
+        }
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList(1, 2, 3, 4, 5), handled);
+        assertEquals(0, queue.size());
+    }
+
+    @Test
+    public void testFullQueueRejectEvents() throws InterruptedException {
+        final CountDownLatch blocked = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        queue = new BoundedEventQueue<Integer>("test-worker", 2, 1, new BoundedEventQueue.BatchHandler<Integer>() {
+            @Override
+            public void handle(List<Integer> events) {
+                blocked.countDown();
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        assertTrue(queue.offer(1));
+        assertTrue(blocked.await(5, TimeUnit.SECONDS));
+        assertTrue(queue.offer(2));
+        assertTrue(queue.offer(3));
+        assertFalse(queue.offer(4));
+        assertEquals(2, queue.size());
+
+        release.countDown();
+        queue.shutdown();
+        assertEquals(0, queue.size());
+        assertFalse(queue.offer(5));
+    }
+}
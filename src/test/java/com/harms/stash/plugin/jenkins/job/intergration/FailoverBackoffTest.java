@@ -0,0 +1,44 @@
+package com.harms.stash.plugin.jenkins.job.intergration;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class FailoverBackoffTest {
+
+    @Test
+    public void testNextBackoffGrowExponential() {
+        FailoverBackoff backoff = new FailoverBackoff(30000, 200, 10000, new Random(42));
+        for (int retry = 1; retry <= 5; retry++) {
+            long base = 200L << (retry - 1);
+            long pause = backoff.nextBackoff(retry);
+            assertTrue(pause >= base / 2);
+            assertTrue(pause <= base);
+        }
+    }
+
+    @Test
+    public void testNextBackoffIsCapped() {
+        FailoverBackoff backoff = new FailoverBackoff(30000, 200, 1000, new Random(42));
+        for (int retry = 1; retry <= 64; retry++) {
+            assertTrue(backoff.nextBackoff(retry) <= 1000);
+        }
+    }
+
+    @Test
+    public void testAwaitStopAtDeadline() throws InterruptedException {
+        FailoverBackoff backoff = new FailoverBackoff(0, 200, 1000, new Random(42));
+        assertEquals(0, backoff.remaining());
+        assertFalse(backoff.await(1));
+    }
+
+    @Test
+    public void testAwaitWithinDeadline() throws InterruptedException {
+        FailoverBackoff backoff = new FailoverBackoff(5000, 10, 20, new Random(42));
+        assertTrue(backoff.await(1));
+    }
+}
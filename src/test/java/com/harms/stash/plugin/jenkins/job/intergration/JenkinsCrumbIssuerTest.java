@@ -0,0 +1,86 @@
+package com.harms.stash.plugin.jenkins.job.intergration;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.harms.stash.plugin.jenkins.job.intergration.server.JenkinsSession;
+import com.harms.stash.plugin.jenkins.job.intergration.server.JenkinsSession.Crumb;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+public class JenkinsCrumbIssuerTest {
+
+    private HttpServer server;
+    private JenkinsHttpClient httpClient;
+    private JenkinsCrumbIssuer crumbIssuer;
+    private String baseUrl;
+    private final AtomicInteger crumbRequests = new AtomicInteger();
+    private volatile int status = 200;
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                byte[] body = String.format("{\"crumbRequestField\":\"Jenkins-Crumb\",\"crumb\":\"c%s\"}", crumbRequests.incrementAndGet()).getBytes("UTF-8");
+                exchange.sendResponseHeaders(status, body.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(body);
+                out.close();
+            }
+        });
+        server.start();
+        baseUrl = String.format("http://localhost:%s/", server.getAddress().getPort());
+        httpClient = new JenkinsHttpClient();
+        crumbIssuer = new JenkinsCrumbIssuer(httpClient);
+    }
+
+    @After
+    public void tearDown() {
+        httpClient.shutdown();
+        server.stop(0);
+    }
+
+    @Test
+    public void testCrumbIsCached() throws IOException {
+        JenkinsSession session = new JenkinsSession();
+        Crumb crumb = crumbIssuer.getCrumb(baseUrl, session, null, null, null);
+        assertEquals("Jenkins-Crumb", crumb.getField());
+        assertEquals("c1", crumb.getValue());
+        assertSame(crumb, crumbIssuer.getCrumb(baseUrl, session, null, null, null));
+        assertEquals(1, crumbRequests.get());
+    }
+
+    @Test
+    public void testRejectedCrumbIsFetchedOnce() throws IOException {
+        JenkinsSession session = new JenkinsSession();
+        Crumb rejected = crumbIssuer.getCrumb(baseUrl, session, null, null, null);
+        Crumb crumb = crumbIssuer.getCrumb(baseUrl, session, rejected, null, null);
+        assertNotSame(rejected, crumb);
+        assertEquals("c2", crumb.getValue());
+        assertSame(crumb, crumbIssuer.getCrumb(baseUrl, session, rejected, null, null));
+        assertEquals(2, crumbRequests.get());
+    }
+
+    @Test
+    public void testNoCrumbIssuer() throws IOException {
+        status = 404;
+        JenkinsSession session = new JenkinsSession();
+        assertNull(crumbIssuer.getCrumb(baseUrl, session, null, null, null));
+        assertNull(crumbIssuer.getCrumb(baseUrl, session, null, null, null));
+        assertEquals(1, crumbRequests.get());
+    }
+}
@@ -0,0 +1,363 @@
+package com.harms.stash.plugin.jenkins.job.intergration;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Matchers;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.mockito.stubbing.Answer;
+
+import com.atlassian.plugin.webresource.UrlMode;
+import com.atlassian.plugin.webresource.WebResourceUrlProvider;
+import com.atlassian.sal.api.pluginsettings.PluginSettings;
+import com.atlassian.sal.api.pluginsettings.PluginSettingsFactory;
+import com.atlassian.stash.pull.PullRequestService;
+import com.atlassian.stash.user.StashAuthenticationContext;
+import com.harms.stash.plugin.jenkins.job.intergration.comment.PullRequestCommentWriter;
+import com.harms.stash.plugin.jenkins.job.intergration.metrics.TriggerMetrics;
+import com.harms.stash.plugin.jenkins.job.intergration.server.CircuitBreaker;
+import com.harms.stash.plugin.jenkins.job.intergration.server.JenkinsServer;
+import com.harms.stash.plugin.jenkins.job.intergration.server.JenkinsServerRegistry;
+import com.harms.stash.plugin.jenkins.job.settings.JobTarget;
+import com.harms.stash.plugin.jenkins.job.settings.PluginSettingsHelper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+@RunWith(MockitoJUnitRunner.class)
+public class JenkinsJobTriggerTest {
+    private static final String SLUG = "hedged-repo";
+
+    @Mock
+    private PullRequestService pullRequestService;
+    @Mock
+    private StashAuthenticationContext authContext;
+    @Mock
+    private WebResourceUrlProvider urlProvider;
+    @Mock
+    private PluginSettingsFactory pluginSettingsFactory;
+    @Mock
+    private PluginSettings settings;
+
+    private final List<HttpServer> servers = new ArrayList<HttpServer>();
+    private final ExecutorService serverThreads = Executors.newCachedThreadPool();
+    private final List<String> queries = new ArrayList<String>();
+    private final List<String> requests = new ArrayList<String>();
+    private final AtomicInteger crumbRequests = new AtomicInteger();
+    private final Map<String, Object> values = new HashMap<String, Object>();
+    private final CountDownLatch releaseSlowServer = new CountDownLatch(1);
+    private final AtomicInteger slowResponses = new AtomicInteger();
+    private JenkinsHttpClient httpClient;
+    private PullRequestCommentWriter commentWriter;
+    private TriggerMetrics metrics;
+    private JenkinsServerRegistry serverRegistry;
+    private JenkinsJobTrigger trigger;
+
+    @Before
+    public void setUp() {
+        //the settings is kept in a map, as the settings storage of Stash
+        Mockito.when(settings.get(Matchers.anyString())).thenAnswer(new Answer<Object>() {
+            @Override
+            public Object answer(InvocationOnMock invocation) {
+                return values.get(invocation.getArguments()[0]);
+            }
+        });
+        Mockito.when(settings.put(Matchers.anyString(), Matchers.anyObject())).thenAnswer(new Answer<Object>() {
+            @Override
+            public Object answer(InvocationOnMock invocation) {
+                return values.put((String) invocation.getArguments()[0], invocation.getArguments()[1]);
+            }
+        });
+        Mockito.when(settings.remove(Matchers.anyString())).thenAnswer(new Answer<Object>() {
+            @Override
+            public Object answer(InvocationOnMock invocation) {
+                return values.remove(invocation.getArguments()[0]);
+            }
+        });
+        Mockito.when(pluginSettingsFactory.createGlobalSettings()).thenReturn(settings);
+        //the settings snapshot of the previous test is cached
+        PluginSettingsHelper.invalidateRepositorySettings(SLUG);
+        Mockito.when(urlProvider.getBaseUrl(Matchers.any(UrlMode.class))).thenReturn("http://stash:7990");
+
+        httpClient = new JenkinsHttpClient();
+        commentWriter = new PullRequestCommentWriter(pullRequestService, null, authContext);
+        metrics = new TriggerMetrics();
+        serverRegistry = new JenkinsServerRegistry();
+        trigger = new JenkinsJobTrigger(commentWriter, pluginSettingsFactory, urlProvider, httpClient, serverRegistry, metrics, null);
+    }
+
+    @After
+    public void tearDown() {
+        releaseSlowServer.countDown();
+        trigger.destroy();
+        commentWriter.destroy();
+        httpClient.shutdown();
+        for (HttpServer server : servers) {
+            server.stop(0);
+        }
+        serverThreads.shutdownNow();
+    }
+
+    @Test
+    public void testFailoverAddOneComment() throws IOException {
+        String failing1 = startServer(false, 500, false);
+        String failing2 = startServer(false, 503, false);
+        String accepting = startServer(false, 201, false);
+        configure(failing1, failing2, accepting);
+
+        trigger.triggerBuild(1, "abc123", 2L, "Title", SLUG, TriggerRequestEvent.PULLREQUEST_EVENT_CREATED, failing1, "PROJ", "feature", "master");
+
+        assertEquals(1, getRequests(failing1));
+        assertEquals(1, getRequests(failing2));
+        assertEquals(1, getRequests(accepting));
+        assertEquals(2, metrics.getFailoverHops());
+        String comment = getComment();
+        assertTrue(comment.contains("Job: " + accepting));
+        assertTrue(comment.contains(failing1 + "(500)"));
+        assertTrue(comment.contains(failing2 + "(503)"));
+    }
+
+    @Test
+    public void testAllServersFailedAddOneComment() throws IOException {
+        String failing1 = startServer(false, 500, false);
+        String failing2 = startServer(false, 500, false);
+        configure(failing1, failing2);
+
+        try {
+            trigger.triggerBuild(1, "abc123", 2L, "Title", SLUG, TriggerRequestEvent.PULLREQUEST_EVENT_CREATED, failing1, "PROJ", "feature", "master");
+            fail("The failed trigger is not thrown");
+        } catch (RuntimeException e) {
+            //expected
+        }
+        String comment = getComment();
+        assertTrue(comment.startsWith("All CI servers failed"));
+        assertTrue(comment.contains(failing1 + "(500)"));
+        assertTrue(comment.contains(failing2 + "(500)"));
+    }
+
+    @Test
+    public void testDeadlineStopFailover() throws IOException {
+        String failing = startServer(false, 500, false);
+        String accepting = startServer(false, 201, false);
+        configure(failing, accepting);
+        //the deadline is reached before the first backoff is over
+        trigger.setFailoverDeadline(FailoverBackoff.INITIAL_BACKOFF / 4);
+
+        try {
+            trigger.triggerBuild(1, "abc123", 2L, "Title", SLUG, TriggerRequestEvent.PULLREQUEST_EVENT_CREATED, failing, "PROJ", "feature", "master");
+            fail("The failed trigger is not thrown");
+        } catch (RuntimeException e) {
+            //expected
+        }
+        assertEquals(1, getRequests(failing));
+        assertEquals(0, getRequests(accepting));
+        assertTrue(getComment().startsWith("All CI servers failed"));
+    }
+
+    @Test
+    public void testOpenCircuitIsSkipped() throws IOException {
+        String open = startServer(false, 201, false);
+        String accepting = startServer(false, 201, false);
+        configure(open, accepting);
+        CircuitBreaker circuitBreaker = serverRegistry.getServer(open).getCircuitBreaker();
+        for (int i = 0; i < CircuitBreaker.DEFAULT_MINIMUM_CALLS; i++) {
+            circuitBreaker.tryAcquirePermission();
+            circuitBreaker.onFailure(10);
+        }
+        assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.getState());
+
+        trigger.triggerBuild(1, "abc123", 2L, "Title", SLUG, TriggerRequestEvent.PULLREQUEST_EVENT_CREATED, open, "PROJ", "feature", "master");
+
+        assertEquals(0, getRequests(open));
+        assertEquals(1, getRequests(accepting));
+        String comment = getComment();
+        assertTrue(comment.contains("Job: " + accepting));
+        assertTrue(comment.contains(open + "(circuit open)"));
+    }
+
+    @Test
+    public void testRejectedCrumbIsRefreshed() throws IOException {
+        String server = startServer(false, 201, true);
+        configure(server);
+
+        trigger.triggerBuild(1, "abc123", 2L, "Title", SLUG, TriggerRequestEvent.PULLREQUEST_EVENT_CREATED, server, "PROJ", "feature", "master");
+
+        //the build is sent again once with a new crumb
+        assertEquals(2, crumbRequests.get());
+        assertEquals(2, getRequests(server));
+        assertEquals(0, metrics.getFailedTriggers());
+        assertTrue(getComment().contains("Job: " + server));
+    }
+
+    @Test
+    public void testJobTargetsAddOneComment() throws IOException {
+        String server = startServer(false, 201, false);
+        configure(server);
+        PluginSettingsHelper.setJobTargets(SLUG, Arrays.asList(new JobTarget("Sonar", "../sonar/", "REF", null, null, null, null),
+                new JobTarget("Deploy", "../fail-deploy/", "REF", null, null, null, null),
+                new JobTarget("Docs", "../fail-docs/", "REF", null, null, null, null)), settings);
+
+        trigger.triggerBuild(1, "abc123", 2L, "Title", SLUG, TriggerRequestEvent.PULLREQUEST_EVENT_CREATED, server, "PROJ", "feature", "master");
+
+        assertEquals(4, getRequests(server));
+        assertEquals(2, metrics.getFailedTriggers());
+        String comment = getComment();
+        assertTrue(comment.contains("Job: " + server));
+        assertTrue(comment.contains("Job: " + JenkinsServerRegistry.getRootUrl(server) + "job/sonar/"));
+        assertTrue(comment.contains("Failed jobs:"));
+        assertTrue(comment.contains("fail-deploy"));
+        assertTrue(comment.contains("fail-docs"));
+    }
+
+    @Test
+    public void testHedgeDelay() {
+        JenkinsServer server = new JenkinsServer("http://ci:8080/job/build/");
+        assertEquals(JenkinsJobTrigger.DEFAULT_HEDGE_DELAY, JenkinsJobTrigger.getHedgeDelay(server, 95));
+        for (int i = 0; i < 100; i++) {
+            server.getStatistics().onStart();
+            server.getStatistics().onComplete(i < 90 ? 100 : 7000);
+        }
+        long delay = JenkinsJobTrigger.getHedgeDelay(server, 80);
+        assertTrue(delay >= 100 && delay < 120);
+        assertTrue(JenkinsJobTrigger.getHedgeDelay(server, 99) >= 7000);
+    }
+
+    @Test
+    public void testSlowServerIsHedged() throws IOException {
+        String slow = startServer(true);
+        String fast = startServer(false);
+        PluginSettingsHelper.setBuildReferenceField(SLUG, "REF", settings);
+        PluginSettingsHelper.setJenkinsCIServerList(new String[] { slow, fast }, SLUG, settings);
+        PluginSettingsHelper.setHedgePercentile(SLUG, 95, settings);
+        PluginSettingsHelper.setIdempotencyKeyField(SLUG, "TRIGGER_ID", settings);
+
+        trigger.triggerBuild(1, "abc123", 2L, "Title", SLUG, TriggerRequestEvent.PULLREQUEST_EVENT_CREATED, slow, "PROJ", "feature", "master");
+        //the trigger returned while the slow server is still holding the request
+        assertEquals(0, slowResponses.get());
+        assertEquals(1, metrics.getHedgedTriggers());
+        assertEquals(1, metrics.getHedgeWins());
+
+        //both servers got the same idempotency key
+        assertEquals(2, queries.size());
+        assertTrue(queries.get(0).startsWith("REF=abc123&TRIGGER_ID="));
+        assertEquals(queries.get(0), queries.get(1));
+
+        commentWriter.flush();
+        ArgumentCaptor<String> comment = ArgumentCaptor.forClass(String.class);
+        Mockito.verify(pullRequestService, Mockito.times(1)).addComment(Matchers.eq(1), Matchers.eq(2L), comment.capture());
+        assertTrue(comment.getValue().contains("Job: " + fast));
+    }
+
+    /**
+     * Start a Jenkins stub accepting the build. A slow server hold the request until the test is finished.
+     */
+    private String startServer(final boolean slow) throws IOException {
+        return startServer(slow, 201, false);
+    }
+
+    /**
+     * Start a Jenkins stub answering the builds with the status, the jobs with "fail" in the name always fail.
+     * A slow server hold the request until the test is finished. A server with a crumb issuer reject the
+     * first crumb it issued, as when the session of the crumb is expired.
+     */
+    private String startServer(final boolean slow, final int status, final boolean crumbIssuer) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                String path = exchange.getRequestURI().getPath();
+                if (path.contains("crumbIssuer")) {
+                    if (!crumbIssuer) {
+                        exchange.sendResponseHeaders(404, -1);
+                        exchange.close();
+                        return;
+                    }
+                    byte[] body = String.format("{\"crumbRequestField\":\"Jenkins-Crumb\",\"crumb\":\"c%s\"}", crumbRequests.incrementAndGet()).getBytes("UTF-8");
+                    exchange.sendResponseHeaders(200, body.length);
+                    OutputStream out = exchange.getResponseBody();
+                    out.write(body);
+                    out.close();
+                    return;
+                }
+                synchronized (queries) {
+                    queries.add(exchange.getRequestURI().getRawQuery());
+                    requests.add(String.format("http://localhost:%s%s", exchange.getLocalAddress().getPort(), path));
+                }
+                if (slow) {
+                    try {
+                        releaseSlowServer.await(30, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    slowResponses.incrementAndGet();
+                }
+                if (crumbIssuer && "c1".equals(exchange.getRequestHeaders().getFirst("Jenkins-Crumb"))) {
+                    exchange.sendResponseHeaders(403, -1);
+                } else if (path.contains("fail")) {
+                    exchange.sendResponseHeaders(500, -1);
+                } else {
+                    exchange.getResponseHeaders().add("Location", "http://localhost/queue/item/7/");
+                    exchange.sendResponseHeaders(status, -1);
+                }
+                exchange.close();
+            }
+        });
+        server.setExecutor(serverThreads);
+        server.start();
+        servers.add(server);
+        return String.format("http://localhost:%s/job/build/", server.getAddress().getPort());
+    }
+
+    /**
+     * @return the number of builds requested from the server
+     */
+    private int getRequests(String serverUrl) {
+        int count = 0;
+        synchronized (queries) {
+            for (String request : requests) {
+                if (request.startsWith(JenkinsServerRegistry.getRootUrl(serverUrl))) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return the comment added to the pull-request, verifying only one is added
+     */
+    private String getComment() {
+        commentWriter.flush();
+        ArgumentCaptor<String> comment = ArgumentCaptor.forClass(String.class);
+        Mockito.verify(pullRequestService, Mockito.times(1)).addComment(Matchers.eq(1), Matchers.eq(2L), comment.capture());
+        return comment.getValue();
+    }
+
+    private void configure(String... serverList) {
+        PluginSettingsHelper.setBuildReferenceField(SLUG, "REF", settings);
+        PluginSettingsHelper.setJenkinsCIServerList(serverList, SLUG, settings);
+    }
+}
@@ -0,0 +1,36 @@
+package com.harms.stash.plugin.jenkins.job.intergration;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+
+import org.junit.Test;
+
+public class JobParametersTemplateTest {
+
+    @Test
+    public void testEncodedAsUrlEncoder() throws UnsupportedEncodingException {
+        String[] values = {"", "abc-XYZ_0.9*", "feature/a b&c=d", "100% #1 + ?", "\u00e6\u00f8\u00e5 \u20ac", "emoji \ud83d\ude00!", "\u00a0~'"};
+        for (String value : values) {
+            StringBuilder sb = new StringBuilder();
+            JobParametersTemplate.appendEncoded(sb, value);
+            assertEquals(URLEncoder.encode(value, "UTF-8"), sb.toString());
+        }
+    }
+
+    @Test
+    public void testFill() {
+        JobParametersTemplate template = JobParametersTemplate.compile("REF", "TITLE", "PR URL", "FROM", "TO");
+        String parameters = template.fill("abc123", 7L, "Fix \u00f8 & more", "http://stash:7990/stash", "PRJ", "repo", "feature/x", "master");
+        assertEquals("REF=abc123&TITLE=pull-request+%237+-+Fix+%C3%B8+%26+more"
+                + "&PR+URL=http%3A%2F%2Fstash%3A7990%2Fstash%2Fprojects%2FPRJ%2Frepos%2Frepo%2Fpull-requests%2F7"
+                + "&FROM=feature%2Fx&TO=master", parameters);
+    }
+
+    @Test
+    public void testFieldsWithoutNameAreLeftOut() {
+        JobParametersTemplate template = JobParametersTemplate.compile("REF", null, "", " ", "TO");
+        assertEquals("REF=abc123&TO=master", template.fill("abc123", 7L, "title", "http://stash", "PRJ", "repo", "feature/x", "master"));
+    }
+}
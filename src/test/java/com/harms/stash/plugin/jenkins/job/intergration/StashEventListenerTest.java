@@ -0,0 +1,100 @@
+package com.harms.stash.plugin.jenkins.job.intergration;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Matchers;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import com.atlassian.beehive.ClusterLockService;
+import com.atlassian.sal.api.pluginsettings.PluginSettings;
+import com.atlassian.sal.api.pluginsettings.PluginSettingsFactory;
+import com.atlassian.stash.project.Project;
+import com.atlassian.stash.pull.PullRequest;
+import com.atlassian.stash.pull.PullRequestRef;
+import com.atlassian.stash.repository.Repository;
+import com.atlassian.stash.user.StashAuthenticationContext;
+import com.harms.stash.plugin.jenkins.job.intergration.StashEventListener.EventType;
+import com.harms.stash.plugin.jenkins.job.intergration.StashEventListener.QueuedEvent;
+import com.harms.stash.plugin.jenkins.job.intergration.metrics.TriggerMetrics;
+import com.harms.stash.plugin.jenkins.job.intergration.schedule.PendingTriggerKey;
+import com.harms.stash.plugin.jenkins.job.intergration.schedule.PendingTriggerRegistry;
+import com.harms.stash.plugin.jenkins.job.settings.PluginSettingsHelper;
+
+@RunWith(MockitoJUnitRunner.class)
+public class StashEventListenerTest {
+    private static final String SLUG = "slug01";
+    private static final long KEY = PendingTriggerKey.of(1, 2L);
+    private static final long BUILD_DELAY = 300000L;
+
+    @Mock
+    private PluginSettingsFactory pluginSettingsFactory;
+    @Mock
+    private PluginSettings settings;
+    @Mock
+    private PendingTriggerRegistry pendingTriggers;
+    @Mock
+    private StashAuthenticationContext authContext;
+    @Mock
+    private ClusterLockService lockService;
+    @Mock
+    private PullRequest pullRequest;
+    @Mock
+    private PullRequestRef ref;
+    @Mock
+    private Repository repository;
+    @Mock
+    private Project project;
+
+    private StashEventListener listener;
+
+    @Before
+    public void setUp() {
+        Mockito.when(settings.get(PluginSettingsHelper.getPluginKey(PluginSettingsHelper.TRIGGER_BUILD_ON_CREATE, SLUG))).thenReturn("checked");
+        Mockito.when(settings.get(PluginSettingsHelper.getPluginKey(PluginSettingsHelper.TRIGGER_BUILD_ON_UPDATE, SLUG))).thenReturn("checked");
+        Mockito.when(pluginSettingsFactory.createGlobalSettings()).thenReturn(settings);
+        Mockito.when(project.getKey()).thenReturn("PROJ");
+        Mockito.when(repository.getId()).thenReturn(1);
+        Mockito.when(repository.getSlug()).thenReturn(SLUG);
+        Mockito.when(repository.getProject()).thenReturn(project);
+        Mockito.when(ref.getRepository()).thenReturn(repository);
+        Mockito.when(pullRequest.getId()).thenReturn(2L);
+        Mockito.when(pullRequest.getFromRef()).thenReturn(ref);
+        Mockito.when(pullRequest.getToRef()).thenReturn(ref);
+        PluginSettingsHelper.invalidateRepositorySettings(SLUG);
+        listener = new StashEventListener(pluginSettingsFactory, pendingTriggers, authContext, new TriggerMetrics(), lockService);
+    }
+
+    @After
+    public void tearDown() {
+        listener.destroy();
+        PluginSettingsHelper.invalidateRepositorySettings(SLUG);
+    }
+
+    @Test
+    public void testEventsForThePullRequestScheduleOneTrigger() throws Exception {
+        listener.handle(Arrays.asList(new QueuedEvent(EventType.OPENED, pullRequest, "user1", false),
+                new QueuedEvent(EventType.RESCOPED, pullRequest, "user1", true)));
+
+        //the trigger is scheduled once with the latest event
+        Map<String, Serializable> jobData = JenkinsJobScheduler.buildJobDataMap(1, 2L, TriggerRequestEvent.PULLREQUEST_EVENT_SOURCE_UPDATED, "user1");
+        Mockito.verify(pendingTriggers, Mockito.times(1)).schedule(Matchers.anyLong(), Matchers.<Map<String, Serializable>>anyObject(), Matchers.anyLong(), Matchers.anyLong());
+        Mockito.verify(pendingTriggers, Mockito.times(1)).schedule(KEY, jobData, BUILD_DELAY, BUILD_DELAY * 3);
+    }
+
+    @Test
+    public void testClosedCancelThePendingTrigger() throws Exception {
+        listener.handle(Arrays.asList(new QueuedEvent(EventType.OPENED, pullRequest, "user1", false),
+                new QueuedEvent(EventType.CLOSED, pullRequest, "user1", false)));
+
+        Mockito.verify(pendingTriggers, Mockito.times(1)).cancel(KEY);
+        Mockito.verify(pendingTriggers, Mockito.never()).schedule(Matchers.anyLong(), Matchers.<Map<String, Serializable>>anyObject(), Matchers.anyLong(), Matchers.anyLong());
+    }
+}
@@ -0,0 +1,41 @@
+package com.harms.stash.plugin.jenkins.job.intergration;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class TriggeredChangesetsTest {
+
+    private TriggeredChangesets triggeredChangesets;
+
+    @Before
+    public void setUp() {
+        triggeredChangesets = new TriggeredChangesets();
+    }
+
+    @Test
+    public void testSameChangesetsAreRecordedOnce() {
+        assertTrue(triggeredChangesets.record(1L, "from1", "to1"));
+        assertFalse(triggeredChangesets.record(1L, "from1", "to1"));
+        assertTrue(triggeredChangesets.record(1L, "from1", "to2"));
+        assertTrue(triggeredChangesets.record(2L, "from1", "to1"));
+    }
+
+    @Test
+    public void testForget() {
+        assertTrue(triggeredChangesets.record(1L, "from1", "to1"));
+        triggeredChangesets.forget(1L, "from1", "to1");
+        assertTrue(triggeredChangesets.record(1L, "from1", "to1"));
+    }
+
+    @Test
+    public void testOnlyLatestChangesetsAreKept() {
+        for (int i = 0; i <= TriggeredChangesets.CHANGESETS_PER_PULL_REQUEST; i++) {
+            assertTrue(triggeredChangesets.record(1L, "from" + i, "to"));
+        }
+        assertTrue(triggeredChangesets.record(1L, "from0", "to"));
+        assertFalse(triggeredChangesets.record(1L, "from" + TriggeredChangesets.CHANGESETS_PER_PULL_REQUEST, "to"));
+    }
+}
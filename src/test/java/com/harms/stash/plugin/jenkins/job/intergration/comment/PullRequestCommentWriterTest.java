@@ -0,0 +1,76 @@
+package com.harms.stash.plugin.jenkins.job.intergration.comment;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Matchers;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import com.atlassian.stash.comment.Comment;
+import com.atlassian.stash.pull.PullRequestService;
+
+@RunWith(MockitoJUnitRunner.class)
+public class PullRequestCommentWriterTest {
+
+    @Mock
+    private PullRequestService pullRequestService;
+    @Mock
+    private Comment comment;
+
+    private PullRequestCommentWriter writer;
+
+    @Before
+    public void setUp() {
+        Mockito.when(comment.getId()).thenReturn(1L);
+        Mockito.when(comment.getVersion()).thenReturn(0);
+        Mockito.when(comment.getText()).thenReturn("Build triggered");
+        writer = new PullRequestCommentWriter(pullRequestService, null, null);
+    }
+
+    @After
+    public void tearDown() {
+        writer.destroy();
+    }
+
+    @Test
+    public void testCommentsForThePullRequestAreCoalesced() {
+        writer.post(null, 1, 2L, "Failed CI server", false);
+        writer.post(null, 1, 2L, "Build triggered", false);
+        writer.post(null, 1, 3L, "Build triggered", false);
+        assertEquals(2, writer.getPendingComments());
+        writer.flush();
+        assertEquals(0, writer.getPendingComments());
+        Mockito.verify(pullRequestService, Mockito.times(1)).addComment(1, 2L, "Failed CI server\n\nBuild triggered");
+        Mockito.verify(pullRequestService, Mockito.times(1)).addComment(1, 3L, "Build triggered");
+        Mockito.verify(pullRequestService, Mockito.times(2)).addComment(Matchers.anyInt(), Matchers.anyLong(), Matchers.anyString());
+    }
+
+    @Test
+    public void testPreviousCommentIsUpdated() {
+        Mockito.when(pullRequestService.addComment(1, 2L, "Build triggered")).thenReturn(comment);
+        writer.post(null, 1, 2L, "Build triggered", true);
+        writer.flush();
+        writer.post(null, 1, 2L, "Build finished", true);
+        writer.flush();
+        Mockito.verify(pullRequestService, Mockito.times(1)).updateComment(1, 2L, 1L, 0, "Build triggered\n\nBuild finished");
+        Mockito.verify(pullRequestService, Mockito.times(1)).addComment(Matchers.anyInt(), Matchers.anyLong(), Matchers.anyString());
+    }
+
+    @Test
+    public void testCommentIsAddedWhenUpdateFail() {
+        Mockito.when(pullRequestService.addComment(1, 2L, "Build triggered")).thenReturn(comment);
+        Mockito.when(pullRequestService.updateComment(Matchers.anyInt(), Matchers.anyLong(), Matchers.anyLong(), Matchers.anyInt(), Matchers.anyString()))
+                .thenThrow(new IllegalStateException("The comment is out of date"));
+        writer.post(null, 1, 2L, "Build triggered", true);
+        writer.flush();
+        writer.post(null, 1, 2L, "Build finished", true);
+        writer.flush();
+        Mockito.verify(pullRequestService, Mockito.times(1)).updateComment(1, 2L, 1L, 0, "Build triggered\n\nBuild finished");
+        Mockito.verify(pullRequestService, Mockito.times(1)).addComment(1, 2L, "Build finished");
+    }
+}
@@ -0,0 +1,54 @@
+package com.harms.stash.plugin.jenkins.job.intergration.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class HistogramTest {
+
+    @Test
+    public void testEmpty() {
+        Histogram histogram = new Histogram();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getPercentile(99));
+        assertEquals(0.0, histogram.getMean(), 0.0);
+    }
+
+    @Test
+    public void testBucketBoundsCoverAllValues() {
+        long[] values = { 0, 1, 7, 8, 9, 15, 16, 17, 100, 1000, 65535, Long.MAX_VALUE };
+        for (long value : values) {
+            int index = Histogram.bucketIndex(value);
+            assertTrue(value <= Histogram.bucketUpperBound(index));
+            assertTrue(index == 0 || value > Histogram.bucketUpperBound(index - 1));
+        }
+    }
+
+    @Test
+    public void testPercentiles() {
+        Histogram histogram = new Histogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i);
+        }
+        assertEquals(1000, histogram.getCount());
+        assertEquals(500.5, histogram.getMean(), 0.001);
+        assertEquals(1000, histogram.getMax());
+        assertAccurate(500, histogram.getPercentile(50));
+        assertAccurate(950, histogram.getPercentile(95));
+        assertAccurate(990, histogram.getPercentile(99));
+        assertEquals(1000, histogram.getPercentile(100));
+    }
+
+    @Test
+    public void testNegativeRecordedAsZero() {
+        Histogram histogram = new Histogram();
+        histogram.record(-10);
+        assertEquals(0, histogram.getPercentile(50));
+        assertEquals(0, histogram.getMax());
+    }
+
+    private static void assertAccurate(long expected, long actual) {
+        assertTrue(String.format("expected %s but was %s", expected, actual), actual >= expected && actual <= expected * 1.125);
+    }
+}
@@ -0,0 +1,102 @@
+package com.harms.stash.plugin.jenkins.job.intergration.schedule;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.Serializable;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Matchers;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import com.atlassian.scheduler.SchedulerService;
+import com.atlassian.scheduler.SchedulerServiceException;
+import com.atlassian.scheduler.config.JobConfig;
+import com.harms.stash.plugin.jenkins.job.intergration.TriggerRequestEvent;
+
+@RunWith(MockitoJUnitRunner.class)
+public class LocalPendingTriggerRegistryTest {
+
+    private static final long KEY = PendingTriggerKey.of(1, 2L);
+
+    @Mock
+    private SchedulerService schedulerService;
+
+    private LocalPendingTriggerRegistry registry;
+    private Map<String, Serializable> jobData;
+
+    @Before
+    public void setUp() {
+        registry = new LocalPendingTriggerRegistry(schedulerService);
+        jobData = jobData(TriggerRequestEvent.PULLREQUEST_EVENT_SOURCE_UPDATED, "user1");
+    }
+
+    @Test
+    public void testKeyRoundTrip() {
+        long key = PendingTriggerKey.of(Integer.MAX_VALUE, 4294967295L);
+        assertEquals(Integer.MAX_VALUE, PendingTriggerKey.getRepositoryId(key));
+        assertEquals(4294967295L, PendingTriggerKey.getPullRequestId(key));
+        assertFalse(PendingTriggerKey.of(1, 2L) == PendingTriggerKey.of(2, 1L));
+    }
+
+    @Test
+    public void testEventsAreCoalesced() throws SchedulerServiceException {
+        Date fireTime = registry.schedule(KEY, jobData, 60000, 180000);
+        assertNotNull(fireTime);
+        assertNull(registry.schedule(KEY, jobData, 60000, 180000));
+        assertNull(registry.schedule(KEY, jobData, 60000, 180000));
+
+        Mockito.verify(schedulerService, Mockito.times(1)).scheduleJob(Matchers.eq(PendingTriggerKey.toJobId(KEY)), Matchers.any(JobConfig.class));
+        assertTrue(registry.getFireTime(KEY).getTime() >= fireTime.getTime());
+    }
+
+    @Test
+    public void testPostponedTriggerReArmJob() throws SchedulerServiceException {
+        Date fireTime = registry.schedule(KEY, jobData, 60000, 180000);
+        assertNull(registry.tryFire(KEY, jobData, fireTime.getTime() - 1000));
+        Mockito.verify(schedulerService, Mockito.times(2)).scheduleJob(Matchers.eq(PendingTriggerKey.toJobId(KEY)), Matchers.any(JobConfig.class));
+
+        assertNotNull(registry.tryFire(KEY, jobData, fireTime.getTime() + 180000));
+        registry.fired(KEY);
+        assertNull(registry.getFireTime(KEY));
+    }
+
+    @Test
+    public void testTriggerFireWithLatestEvent() throws SchedulerServiceException {
+        Date fireTime = registry.schedule(KEY, jobData, 60000, 180000);
+        registry.schedule(KEY, jobData(TriggerRequestEvent.PULLREQUEST_EVENT_SOURCE_UPDATED, "user2"), 60000, 180000);
+        assertEquals("user2", registry.tryFire(KEY, jobData, fireTime.getTime() + 180000).get("User"));
+    }
+
+    @Test
+    public void testScheduleAfterFired() throws SchedulerServiceException {
+        Date fireTime = registry.schedule(KEY, jobData, 0, 0);
+        assertNotNull(registry.tryFire(KEY, jobData, fireTime.getTime()));
+        assertNotNull(registry.schedule(KEY, jobData, 60000, 180000));
+    }
+
+    @Test
+    public void testCancel() throws SchedulerServiceException {
+        registry.schedule(KEY, jobData, 60000, 180000);
+        registry.cancel(KEY);
+        assertNull(registry.getFireTime(KEY));
+        Mockito.verify(schedulerService, Mockito.times(1)).unscheduleJob(PendingTriggerKey.toJobId(KEY));
+    }
+
+    private static Map<String, Serializable> jobData(TriggerRequestEvent event, String user) {
+        Map<String, Serializable> jobData = new HashMap<String, Serializable>();
+        jobData.put("TriggerRequestEvent", event);
+        jobData.put("User", user);
+        return jobData;
+    }
+}
@@ -0,0 +1,79 @@
+package com.harms.stash.plugin.jenkins.job.intergration.schedule;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.harms.stash.plugin.jenkins.job.intergration.TriggerRequestEvent;
+
+public class PendingTriggerTest {
+
+    @Test
+    public void testPostponeMoveFireTimeForward() {
+        PendingTrigger pending = new PendingTrigger(1000, 3000, jobData(TriggerRequestEvent.PULLREQUEST_EVENT_SOURCE_UPDATED, "user1"));
+        assertTrue(pending.postpone(1500));
+        assertEquals(1500, pending.getFireTime());
+    }
+
+    @Test
+    public void testPostponeNeverMoveFireTimeBack() {
+        PendingTrigger pending = new PendingTrigger(1000, 3000, jobData(TriggerRequestEvent.PULLREQUEST_EVENT_SOURCE_UPDATED, "user1"));
+        assertTrue(pending.postpone(500));
+        assertEquals(1000, pending.getFireTime());
+    }
+
+    @Test
+    public void testPostponeIsCappedByLatestFireTime() {
+        PendingTrigger pending = new PendingTrigger(1000, 3000, jobData(TriggerRequestEvent.PULLREQUEST_EVENT_SOURCE_UPDATED, "user1"));
+        assertTrue(pending.postpone(10000));
+        assertEquals(3000, pending.getFireTime());
+    }
+
+    @Test
+    public void testTryFireBeforeFireTime() {
+        PendingTrigger pending = new PendingTrigger(1000, 3000, jobData(TriggerRequestEvent.PULLREQUEST_EVENT_SOURCE_UPDATED, "user1"));
+        pending.postpone(2000);
+        assertFalse(pending.tryFire(1000));
+        assertFalse(pending.isFired());
+        assertTrue(pending.tryFire(2000));
+        assertTrue(pending.isFired());
+    }
+
+    @Test
+    public void testPostponeAfterFired() {
+        PendingTrigger pending = new PendingTrigger(1000, 3000, jobData(TriggerRequestEvent.PULLREQUEST_EVENT_SOURCE_UPDATED, "user1"));
+        assertTrue(pending.tryFire(1000));
+        assertFalse(pending.postpone(2000));
+    }
+
+    @Test
+    public void testForcedTriggerIsNotMoved() {
+        PendingTrigger pending = new PendingTrigger(1000, 1000, jobData(TriggerRequestEvent.PULLREQUEST_EVENT_SOURCE_UPDATED, "user1"));
+        assertTrue(pending.postpone(2000));
+        assertEquals(1000, pending.getFireTime());
+    }
+
+    @Test
+    public void testMergeKeepCreatedEvent() {
+        PendingTrigger pending = new PendingTrigger(1000, 3000, jobData(TriggerRequestEvent.PULLREQUEST_EVENT_CREATED, "user1"));
+        pending.merge(jobData(TriggerRequestEvent.PULLREQUEST_EVENT_SOURCE_UPDATED, "user2"));
+        assertEquals(TriggerRequestEvent.PULLREQUEST_EVENT_CREATED, pending.getJobData().get("TriggerRequestEvent"));
+        assertEquals("user1", pending.getJobData().get("User"));
+
+        pending.merge(jobData(TriggerRequestEvent.PULLREQUEST_EVENT_CREATED, "user3"));
+        assertEquals("user3", pending.getJobData().get("User"));
+    }
+
+    private static Map<String, Serializable> jobData(TriggerRequestEvent event, String user) {
+        Map<String, Serializable> jobData = new HashMap<String, Serializable>();
+        jobData.put("TriggerRequestEvent", event);
+        jobData.put("User", user);
+        return jobData;
+    }
+}
@@ -0,0 +1,98 @@
+package com.harms.stash.plugin.jenkins.job.intergration.schedule;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.Serializable;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Matchers;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import com.atlassian.scheduler.SchedulerService;
+import com.atlassian.scheduler.SchedulerServiceException;
+import com.atlassian.scheduler.config.JobConfig;
+import com.atlassian.scheduler.status.JobDetails;
+import com.harms.stash.plugin.jenkins.job.intergration.TriggerRequestEvent;
+
+@RunWith(MockitoJUnitRunner.class)
+public class SchedulerPendingTriggerRegistryTest {
+
+    private static final long KEY = PendingTriggerKey.of(1, 2L);
+
+    @Mock
+    private SchedulerService schedulerService;
+    @Mock
+    private JobDetails jobDetails;
+
+    private SchedulerPendingTriggerRegistry registry;
+
+    @Before
+    public void setUp() {
+        registry = new SchedulerPendingTriggerRegistry(schedulerService);
+    }
+
+    @Test
+    public void testRescheduleThresholdFollowBuildDelay() {
+        assertEquals(1000, SchedulerPendingTriggerRegistry.getRescheduleThreshold(4000));
+        assertEquals(SchedulerPendingTriggerRegistry.RESCHEDULE_THRESHOLD, SchedulerPendingTriggerRegistry.getRescheduleThreshold(600000));
+    }
+
+    @Test
+    public void testShortDelayIsDebounced() throws SchedulerServiceException {
+        pendingJob(TriggerRequestEvent.PULLREQUEST_EVENT_SOURCE_UPDATED, "user1", System.currentTimeMillis() + 1000);
+        assertNull(registry.schedule(KEY, jobData(TriggerRequestEvent.PULLREQUEST_EVENT_SOURCE_UPDATED, "user1"), 4000, 12000));
+        Mockito.verify(schedulerService, Mockito.times(1)).scheduleJob(Matchers.eq(PendingTriggerKey.toJobId(KEY)), Matchers.any(JobConfig.class));
+    }
+
+    @Test
+    public void testSmallMoveIsNotRescheduled() throws SchedulerServiceException {
+        pendingJob(TriggerRequestEvent.PULLREQUEST_EVENT_SOURCE_UPDATED, "user1", System.currentTimeMillis() + 59000);
+        assertNull(registry.schedule(KEY, jobData(TriggerRequestEvent.PULLREQUEST_EVENT_SOURCE_UPDATED, "user1"), 60000, 180000));
+        Mockito.verify(schedulerService, Mockito.never()).scheduleJob(Matchers.eq(PendingTriggerKey.toJobId(KEY)), Matchers.any(JobConfig.class));
+    }
+
+    @Test
+    public void testRescheduledJobKeepCreatedEvent() throws SchedulerServiceException {
+        pendingJob(TriggerRequestEvent.PULLREQUEST_EVENT_CREATED, "user1", System.currentTimeMillis() + 1000);
+        registry.schedule(KEY, jobData(TriggerRequestEvent.PULLREQUEST_EVENT_SOURCE_UPDATED, "user2"), 60000, 180000);
+
+        ArgumentCaptor<JobConfig> jobConfig = ArgumentCaptor.forClass(JobConfig.class);
+        Mockito.verify(schedulerService, Mockito.times(1)).scheduleJob(Matchers.eq(PendingTriggerKey.toJobId(KEY)), jobConfig.capture());
+        assertEquals(TriggerRequestEvent.PULLREQUEST_EVENT_CREATED, jobConfig.getValue().getParameters().get("TriggerRequestEvent"));
+        assertEquals("user1", jobConfig.getValue().getParameters().get("User"));
+    }
+
+    @Test
+    public void testLatestUpdateWin() throws SchedulerServiceException {
+        pendingJob(TriggerRequestEvent.PULLREQUEST_EVENT_SOURCE_UPDATED, "user1", System.currentTimeMillis() + 59000);
+        registry.schedule(KEY, jobData(TriggerRequestEvent.PULLREQUEST_EVENT_SOURCE_UPDATED, "user2"), 60000, 180000);
+
+        ArgumentCaptor<JobConfig> jobConfig = ArgumentCaptor.forClass(JobConfig.class);
+        Mockito.verify(schedulerService, Mockito.times(1)).scheduleJob(Matchers.eq(PendingTriggerKey.toJobId(KEY)), jobConfig.capture());
+        assertEquals("user2", jobConfig.getValue().getParameters().get("User"));
+    }
+
+    private void pendingJob(TriggerRequestEvent event, String user, long nextRunTime) {
+        Map<String, Serializable> parameters = new HashMap<String, Serializable>(jobData(event, user));
+        parameters.put(SchedulerPendingTriggerRegistry.LATEST_FIRE_TIME, nextRunTime + 120000);
+        Mockito.when(jobDetails.getNextRunTime()).thenReturn(new Date(nextRunTime));
+        Mockito.when(jobDetails.getParameters()).thenReturn(parameters);
+        Mockito.when(schedulerService.getJobDetails(PendingTriggerKey.toJobId(KEY))).thenReturn(jobDetails);
+    }
+
+    private static Map<String, Serializable> jobData(TriggerRequestEvent event, String user) {
+        Map<String, Serializable> jobData = new HashMap<String, Serializable>();
+        jobData.put("TriggerRequestEvent", event);
+        jobData.put("User", user);
+        return jobData;
+    }
+}
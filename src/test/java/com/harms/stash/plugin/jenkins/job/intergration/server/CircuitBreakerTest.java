@@ -0,0 +1,104 @@
+package com.harms.stash.plugin.jenkins.job.intergration.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.base.Ticker;
+import com.harms.stash.plugin.jenkins.job.intergration.server.CircuitBreaker.State;
+
+public class CircuitBreakerTest {
+
+    private FakeTicker ticker;
+    private CircuitBreaker circuitBreaker;
+
+    @Before
+    public void setUp() {
+        ticker = new FakeTicker();
+        circuitBreaker = new CircuitBreaker("http://ci-server/", 4, 4, 50, 100, 1000, 30000, 1, ticker);
+    }
+
+    @Test
+    public void testStayClosedBelowMinimumCalls() {
+        circuitBreaker.onFailure(10);
+        circuitBreaker.onFailure(10);
+        circuitBreaker.onFailure(10);
+        assertEquals(State.CLOSED, circuitBreaker.getState());
+        assertTrue(circuitBreaker.tryAcquirePermission());
+    }
+
+    @Test
+    public void testOpenOnFailureRate() {
+        circuitBreaker.onSuccess(10);
+        circuitBreaker.onSuccess(10);
+        circuitBreaker.onFailure(10);
+        circuitBreaker.onFailure(10);
+        assertEquals(State.OPEN, circuitBreaker.getState());
+        assertFalse(circuitBreaker.isCallPermitted());
+        assertFalse(circuitBreaker.tryAcquirePermission());
+    }
+
+    @Test
+    public void testOpenOnSlowCallRate() {
+        for (int i = 0; i < 4; i++) {
+            circuitBreaker.onSuccess(1500);
+        }
+        assertEquals(State.OPEN, circuitBreaker.getState());
+    }
+
+    @Test
+    public void testHalfOpenAfterCooldown() {
+        openCircuit();
+        ticker.advance(30, TimeUnit.SECONDS);
+        assertEquals(State.HALF_OPEN, circuitBreaker.getState());
+        assertTrue(circuitBreaker.tryAcquirePermission());
+        assertFalse("only one trial call is permitted", circuitBreaker.tryAcquirePermission());
+    }
+
+    @Test
+    public void testCloseOnSuccessfulTrialCall() {
+        openCircuit();
+        ticker.advance(30, TimeUnit.SECONDS);
+        assertTrue(circuitBreaker.tryAcquirePermission());
+        circuitBreaker.onSuccess(10);
+        assertEquals(State.CLOSED, circuitBreaker.getState());
+        circuitBreaker.onFailure(10);
+        assertEquals("the window is reset when closed", State.CLOSED, circuitBreaker.getState());
+    }
+
+    @Test
+    public void testReopenOnFailedTrialCall() {
+        openCircuit();
+        ticker.advance(30, TimeUnit.SECONDS);
+        assertTrue(circuitBreaker.tryAcquirePermission());
+        circuitBreaker.onFailure(10);
+        assertEquals(State.OPEN, circuitBreaker.getState());
+        ticker.advance(29, TimeUnit.SECONDS);
+        assertFalse(circuitBreaker.isCallPermitted());
+    }
+
+    private void openCircuit() {
+        for (int i = 0; i < 4; i++) {
+            circuitBreaker.onFailure(10);
+        }
+        assertEquals(State.OPEN, circuitBreaker.getState());
+    }
+
+    static class FakeTicker extends Ticker {
+        private long nanos = 0;
+
+        @Override
+        public long read() {
+            return nanos;
+        }
+
+        void advance(long time, TimeUnit unit) {
+            nanos += unit.toNanos(time);
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package com.harms.stash.plugin.jenkins.job.intergration.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+public class JenkinsServerRegistryTest {
+
+    @Test
+    public void testRootUrl() {
+        assertEquals("http://ci:8080/jenkins/", JenkinsServerRegistry.getRootUrl("http://ci:8080/jenkins/job/folder/job/build/"));
+        assertEquals("http://ci:8080/", JenkinsServerRegistry.getRootUrl("http://ci:8080/job/build/"));
+        assertEquals("http://ci:8080/", JenkinsServerRegistry.getRootUrl("http://ci:8080"));
+    }
+
+    @Test
+    public void testSessionIsSharedByTheJobsOfAServer() {
+        JenkinsServerRegistry registry = new JenkinsServerRegistry();
+        JenkinsSession session = registry.getSession("http://ci:8080/job/build/", "user1".getBytes());
+        assertSame(session, registry.getSession("http://ci:8080/job/test/", "user1".getBytes()));
+        assertNotSame(session, registry.getSession("http://ci:8080/job/build/", "user2".getBytes()));
+        assertNotSame(session, registry.getSession("http://ci2:8080/job/build/", "user1".getBytes()));
+        assertNotSame(registry.getServer("http://ci:8080/job/build/"), registry.getServer("http://ci:8080/job/test/"));
+    }
+}
@@ -0,0 +1,92 @@
+package com.harms.stash.plugin.jenkins.job.intergration.server;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Matchers;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.mockito.stubbing.Answer;
+
+import com.atlassian.sal.api.pluginsettings.PluginSettings;
+import com.harms.stash.plugin.jenkins.job.settings.PluginSettingsHelper;
+
+@RunWith(MockitoJUnitRunner.class)
+public class RoundRobinSelectionTest {
+
+    private static final String SLUG01 = "slug01";
+    private static final String SLUG02 = "slug02";
+
+    @Mock
+    private PluginSettings settings;
+
+    private final Map<String, Object> values = new HashMap<String, Object>();
+    private List<String> servers;
+
+    @Before
+    public void setUp() {
+        //the settings is kept in a map, as the settings storage of Stash
+        Mockito.when(settings.get(Matchers.anyString())).thenAnswer(new Answer<Object>() {
+            @Override
+            public Object answer(InvocationOnMock invocation) {
+                return values.get(invocation.getArguments()[0]);
+            }
+        });
+        Mockito.when(settings.put(Matchers.anyString(), Matchers.anyObject())).thenAnswer(new Answer<Object>() {
+            @Override
+            public Object answer(InvocationOnMock invocation) {
+                return values.put((String) invocation.getArguments()[0], invocation.getArguments()[1]);
+            }
+        });
+        Mockito.when(settings.remove(Matchers.anyString())).thenAnswer(new Answer<Object>() {
+            @Override
+            public Object answer(InvocationOnMock invocation) {
+                return values.remove(invocation.getArguments()[0]);
+            }
+        });
+        servers = Arrays.asList("http://ci1/", "http://ci2/", "http://ci3/");
+    }
+
+    @Test
+    public void testRotate() {
+        RoundRobinSelection selection = new RoundRobinSelection(settings);
+        assertEquals("http://ci1/", selection.select(SLUG01, servers));
+        assertEquals("http://ci2/", selection.select(SLUG01, servers));
+        assertEquals("http://ci3/", selection.select(SLUG01, servers));
+        assertEquals("http://ci1/", selection.select(SLUG01, servers));
+    }
+
+    @Test
+    public void testRotationPerRepository() {
+        RoundRobinSelection selection = new RoundRobinSelection(settings);
+        assertEquals("http://ci1/", selection.select(SLUG01, servers));
+        assertEquals("http://ci1/", selection.select(SLUG02, servers));
+        assertEquals("http://ci2/", selection.select(SLUG01, servers));
+    }
+
+    @Test
+    public void testContinueAfterStoredServer() {
+        PluginSettingsHelper.setLastJenkinsCIServer(SLUG01, "http://ci2/", settings);
+        RoundRobinSelection selection = new RoundRobinSelection(settings);
+        assertEquals("http://ci3/", selection.select(SLUG01, servers));
+    }
+
+    @Test
+    public void testPersistOnlyPeriodically() {
+        RoundRobinSelection selection = new RoundRobinSelection(settings);
+        selection.select(SLUG01, servers);
+        selection.select(SLUG01, servers);
+        selection.select(SLUG01, servers);
+        assertEquals("http://ci1/", PluginSettingsHelper.getLastJenkinsCIServer(SLUG01, settings));
+        Mockito.verify(settings, Mockito.times(1)).put(Matchers.anyString(), Matchers.anyObject());
+    }
+}
@@ -0,0 +1,68 @@
+package com.harms.stash.plugin.jenkins.job.intergration.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class ServerSelectionStrategyTest {
+
+    private static final String FAST = "http://fast/";
+    private static final String SLOW = "http://slow/";
+    private static final String SLUG = "slug01";
+
+    private JenkinsServerRegistry serverRegistry;
+    private List<String> servers;
+
+    @Before
+    public void setUp() {
+        serverRegistry = new JenkinsServerRegistry();
+        servers = Arrays.asList(FAST, SLOW);
+        measure(FAST, 100);
+        measure(SLOW, 1000);
+    }
+
+    @Test
+    public void testLeastOutstanding() {
+        serverRegistry.getServer(FAST).getStatistics().onStart();
+        assertEquals(SLOW, new LeastOutstandingSelection(serverRegistry).select(SLUG, servers));
+    }
+
+    @Test
+    public void testPowerOfTwoChoicesPickTheCheapest() {
+        PowerOfTwoChoicesSelection selection = new PowerOfTwoChoicesSelection(serverRegistry);
+        for (int i = 0; i < 20; i++) {
+            assertEquals(FAST, selection.select(SLUG, servers));
+        }
+    }
+
+    @Test
+    public void testEwmaLatencyPreferFastServer() {
+        EwmaLatencySelection selection = new EwmaLatencySelection(serverRegistry);
+        int fast = 0;
+        for (int i = 0; i < 1000; i++) {
+            if (FAST.equals(selection.select(SLUG, servers))) {
+                fast++;
+            }
+        }
+        assertTrue("expected about 90% on the fast server but was " + fast, fast > 800);
+    }
+
+    @Test
+    public void testSingleServer() {
+        List<String> single = Arrays.asList(SLOW);
+        assertEquals(SLOW, new PowerOfTwoChoicesSelection(serverRegistry).select(SLUG, single));
+        assertEquals(SLOW, new EwmaLatencySelection(serverRegistry).select(SLUG, single));
+        assertEquals(SLOW, new LeastOutstandingSelection(serverRegistry).select(SLUG, single));
+    }
+
+    private void measure(String server, long latency) {
+        ServerStatistics statistics = serverRegistry.getServer(server).getStatistics();
+        statistics.onStart();
+        statistics.onComplete(latency);
+    }
+}
@@ -0,0 +1,39 @@
+package com.harms.stash.plugin.jenkins.job.intergration.server;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class ServerStatisticsTest {
+
+    @Test
+    public void testFirstSampleSetTheLatency() {
+        ServerStatistics statistics = new ServerStatistics(0.5);
+        statistics.onStart();
+        statistics.onComplete(100);
+        assertEquals(100.0, statistics.getLatency(), 0.001);
+        assertEquals(0, statistics.getOutstanding());
+    }
+
+    @Test
+    public void testMovingAverage() {
+        ServerStatistics statistics = new ServerStatistics(0.5);
+        statistics.onStart();
+        statistics.onComplete(100);
+        statistics.onStart();
+        statistics.onComplete(300);
+        assertEquals(200.0, statistics.getLatency(), 0.001);
+        assertEquals(2, statistics.getSamples());
+    }
+
+    @Test
+    public void testCostIncludeOutstandingRequests() {
+        ServerStatistics statistics = new ServerStatistics(0.5);
+        statistics.onStart();
+        statistics.onComplete(100);
+        statistics.onStart();
+        statistics.onStart();
+        assertEquals(2, statistics.getOutstanding());
+        assertEquals(300.0, statistics.getCost(), 0.001);
+    }
+}
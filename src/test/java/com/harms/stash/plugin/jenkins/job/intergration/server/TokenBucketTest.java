@@ -0,0 +1,48 @@
+package com.harms.stash.plugin.jenkins.job.intergration.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.harms.stash.plugin.jenkins.job.intergration.server.CircuitBreakerTest.FakeTicker;
+
+public class TokenBucketTest {
+
+    private FakeTicker ticker;
+    private TokenBucket bucket;
+
+    @Before
+    public void setUp() {
+        ticker = new FakeTicker();
+        bucket = new TokenBucket(3, 2, ticker);
+    }
+
+    @Test
+    public void testBurstUpToCapacity() {
+        assertEquals(0, bucket.tryAcquire());
+        assertEquals(0, bucket.tryAcquire());
+        assertEquals(0, bucket.tryAcquire());
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(500), bucket.tryAcquire());
+        assertEquals(0, bucket.getAvailableTokens());
+    }
+
+    @Test
+    public void testRefillAtRate() {
+        for (int i = 0; i < 3; i++) {
+            bucket.tryAcquire();
+        }
+        ticker.advance(500, TimeUnit.MILLISECONDS);
+        assertEquals(0, bucket.tryAcquire());
+        assertTrue(bucket.tryAcquire() > 0);
+    }
+
+    @Test
+    public void testRefillNotAboveCapacity() {
+        ticker.advance(1, TimeUnit.HOURS);
+        assertEquals(3, bucket.getAvailableTokens());
+    }
+}
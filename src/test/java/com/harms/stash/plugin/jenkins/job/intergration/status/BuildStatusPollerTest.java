@@ -0,0 +1,168 @@
+package com.harms.stash.plugin.jenkins.job.intergration.status;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Matchers;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import com.atlassian.sal.api.pluginsettings.PluginSettings;
+import com.atlassian.sal.api.pluginsettings.PluginSettingsFactory;
+import com.atlassian.stash.pull.PullRequestService;
+import com.atlassian.stash.user.StashAuthenticationContext;
+import com.harms.stash.plugin.jenkins.job.intergration.JenkinsHttpClient;
+import com.harms.stash.plugin.jenkins.job.intergration.comment.PullRequestCommentWriter;
+import com.harms.stash.plugin.jenkins.job.intergration.server.JenkinsServerRegistry;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+@RunWith(MockitoJUnitRunner.class)
+public class BuildStatusPollerTest {
+
+    @Mock
+    private PullRequestService pullRequestService;
+    @Mock
+    private StashAuthenticationContext authContext;
+    @Mock
+    private PluginSettingsFactory pluginSettingsFactory;
+    @Mock
+    private PluginSettings pluginSettings;
+
+    private HttpServer server;
+    private JenkinsHttpClient httpClient;
+    private PullRequestCommentWriter commentWriter;
+    private BuildStatusPoller poller;
+    private String jobUrl;
+    private String testJobUrl;
+    private volatile String builds = "{\"builds\":[]}";
+    private volatile String jobs = "{\"jobs\":[]}";
+    private volatile int polls = 0;
+    private volatile int serverPolls = 0;
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                byte[] body;
+                if (exchange.getRequestURI().getQuery().startsWith("tree=jobs")) {
+                    serverPolls++;
+                    body = jobs.getBytes("UTF-8");
+                } else {
+                    polls++;
+                    body = builds.getBytes("UTF-8");
+                }
+                exchange.sendResponseHeaders(200, body.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(body);
+                out.close();
+            }
+        });
+        server.start();
+        jobUrl = String.format("http://localhost:%s/job/build/", server.getAddress().getPort());
+        testJobUrl = String.format("http://localhost:%s/job/build%%20test/", server.getAddress().getPort());
+        Mockito.when(pluginSettingsFactory.createGlobalSettings()).thenReturn(pluginSettings);
+        httpClient = new JenkinsHttpClient();
+        commentWriter = new PullRequestCommentWriter(pullRequestService, null, authContext);
+        poller = new BuildStatusPoller(commentWriter, authContext, pluginSettingsFactory, httpClient, new JenkinsServerRegistry());
+    }
+
+    @After
+    public void tearDown() {
+        poller.destroy();
+        commentWriter.destroy();
+        httpClient.shutdown();
+        server.stop(0);
+    }
+
+    @Test
+    public void testQueueId() {
+        assertEquals(Long.valueOf(42), BuildStatusPoller.getQueueId("http://ci:8080/queue/item/42/"));
+        assertEquals(Long.valueOf(42), BuildStatusPoller.getQueueId("http://ci:8080/jenkins/queue/item/42"));
+        assertNull(BuildStatusPoller.getQueueId("http://ci:8080/job/build/"));
+        assertNull(BuildStatusPoller.getQueueId(null));
+    }
+
+    @Test
+    public void testBuildResultIsCommented() {
+        assertTrue(poller.track(1, 2L, "abc123", "repo", jobUrl, jobUrl, "http://localhost/queue/item/7/"));
+        assertTrue(poller.track(1, 3L, "def456", "repo", jobUrl, jobUrl, "http://localhost/queue/item/8/"));
+        long now = System.currentTimeMillis();
+        poller.poll(now);
+        assertEquals(0, polls);
+
+        builds = "{\"builds\":[{\"number\":5,\"url\":\"" + jobUrl + "5/\",\"building\":true,\"queueId\":7}]}";
+        poller.poll(now + BuildStatusPoller.MIN_POLL_INTERVAL);
+        assertEquals(1, polls);
+        Mockito.verify(pullRequestService, Mockito.never()).addComment(Matchers.anyInt(), Matchers.anyLong(), Matchers.anyString());
+
+        builds = "{\"builds\":[{\"number\":6,\"url\":\"" + jobUrl + "6/\",\"building\":true,\"queueId\":8},"
+                + "{\"number\":5,\"url\":\"" + jobUrl + "5/\",\"result\":\"SUCCESS\",\"building\":false,\"queueId\":7}]}";
+        poller.poll(now + 2 * BuildStatusPoller.MIN_POLL_INTERVAL);
+        assertEquals(2, polls);
+        commentWriter.flush();
+        ArgumentCaptor<String> comment = ArgumentCaptor.forClass(String.class);
+        Mockito.verify(pullRequestService, Mockito.times(1)).addComment(Matchers.eq(1), Matchers.eq(2L), comment.capture());
+        assertEquals(String.format("Build finished\nResult: SUCCESS\nCommit id: abc123\nBuild: %s5/", jobUrl), comment.getValue());
+        assertEquals(1, poller.getTrackedBuilds());
+    }
+
+    @Test
+    public void testJobsOfAServerArePolledTogether() {
+        poller.track(1, 2L, "abc123", "repo", jobUrl, jobUrl, "http://localhost/queue/item/7/");
+        poller.track(1, 3L, "def456", "repo", jobUrl, testJobUrl, "http://localhost/queue/item/8/");
+        long now = System.currentTimeMillis();
+        poller.poll(now);
+
+        jobs = "{\"jobs\":[{\"name\":\"build\",\"builds\":[{\"number\":5,\"url\":\"" + jobUrl + "5/\",\"result\":\"SUCCESS\",\"building\":false,\"queueId\":7}]},"
+                + "{\"name\":\"build test\",\"builds\":[{\"number\":9,\"url\":\"" + testJobUrl + "9/\",\"result\":\"FAILURE\",\"building\":false,\"queueId\":8}]}]}";
+        poller.poll(now + BuildStatusPoller.MIN_POLL_INTERVAL);
+        assertEquals(1, serverPolls);
+        assertEquals(0, polls);
+        assertEquals(0, poller.getTrackedBuilds());
+
+        commentWriter.flush();
+        Mockito.verify(pullRequestService, Mockito.times(1)).addComment(Matchers.eq(1), Matchers.eq(2L), Matchers.contains("Result: SUCCESS"));
+        Mockito.verify(pullRequestService, Mockito.times(1)).addComment(Matchers.eq(1), Matchers.eq(3L), Matchers.contains("Result: FAILURE"));
+    }
+
+    @Test
+    public void testRootJobName() {
+        assertEquals("build", BuildStatusPoller.getRootJobName("http://ci:8080/", "http://ci:8080/job/build/"));
+        assertEquals("build test", BuildStatusPoller.getRootJobName("http://ci:8080/", "http://ci:8080/job/build%20test"));
+        assertNull(BuildStatusPoller.getRootJobName("http://ci:8080/", "http://ci:8080/job/folder/job/build/"));
+    }
+
+    @Test
+    public void testIntervalIsDoubledWithoutChanges() {
+        poller.track(1, 2L, "abc123", "repo", jobUrl, jobUrl, "http://localhost/queue/item/7/");
+        long now = System.currentTimeMillis();
+        poller.poll(now);
+        poller.poll(now + BuildStatusPoller.MIN_POLL_INTERVAL);
+        poller.poll(now + 2 * BuildStatusPoller.MIN_POLL_INTERVAL);
+        assertEquals(1, polls);
+        poller.poll(now + 3 * BuildStatusPoller.MIN_POLL_INTERVAL);
+        assertEquals(2, polls);
+    }
+
+    @Test
+    public void testUnknownQueueItemIsNotTracked() {
+        assertFalse(poller.track(1, 2L, "abc123", "repo", jobUrl, jobUrl, null));
+        assertEquals(0, poller.getTrackedBuilds());
+    }
+}
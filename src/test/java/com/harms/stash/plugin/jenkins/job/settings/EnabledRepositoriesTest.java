@@ -0,0 +1,55 @@
+package com.harms.stash.plugin.jenkins.job.settings;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import com.atlassian.sal.api.pluginsettings.PluginSettings;
+
+@RunWith(MockitoJUnitRunner.class)
+public class EnabledRepositoriesTest {
+
+    @Mock
+    private PluginSettings pluginSettings;
+
+    @Test
+    public void testAddAndRemove() {
+        EnabledRepositories enabled = EnabledRepositories.of(Arrays.asList("slug01", "slug02"));
+        assertTrue(enabled.isIndexed());
+        assertTrue(enabled.isEnabled("slug01"));
+        assertFalse(enabled.isEnabled("slug03"));
+        assertSame(enabled, enabled.with("slug01", true));
+        assertSame(enabled, enabled.with("slug03", false));
+
+        EnabledRepositories updated = enabled.with("slug03", true).with("slug01", false);
+        assertTrue(updated.isEnabled("slug03"));
+        assertFalse(updated.isEnabled("slug01"));
+        assertTrue(enabled.isEnabled("slug01"));
+    }
+
+    @Test
+    public void testNotIndexedEnableAll() {
+        EnabledRepositories notIndexed = EnabledRepositories.load(pluginSettings);
+        assertFalse(notIndexed.isIndexed());
+        assertTrue(notIndexed.isEnabled("slug01"));
+        assertSame(notIndexed, notIndexed.with("slug01", false));
+        assertTrue(notIndexed.getSlugs().isEmpty());
+    }
+
+    @Test
+    public void testLoad() {
+        Mockito.when(pluginSettings.get(PluginSettingsHelper.ENABLED_REPOSITORIES)).thenReturn(EnabledRepositories.of(Arrays.asList("slug01")).encode());
+        EnabledRepositories enabled = EnabledRepositories.load(pluginSettings);
+        assertTrue(enabled.isIndexed());
+        assertTrue(enabled.isEnabled("slug01"));
+        assertFalse(enabled.isEnabled("slug02"));
+    }
+}
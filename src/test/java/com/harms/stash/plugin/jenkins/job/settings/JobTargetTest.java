@@ -0,0 +1,36 @@
+package com.harms.stash.plugin.jenkins.job.settings;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+public class JobTargetTest {
+
+    @Test
+    public void testParse() {
+        JobTarget jobTarget = JobTarget.parse(" unit | ../Unit-Tests/ | REF | TITLE ");
+        assertEquals("unit", jobTarget.getName());
+        assertEquals("../Unit-Tests/", jobTarget.getJob());
+        assertEquals("REF", jobTarget.getBuildReferenceField());
+        assertEquals("TITLE", jobTarget.getBuildTitleField());
+        assertEquals("", jobTarget.getToBranchField());
+        assertEquals("unit | ../Unit-Tests/ | REF | TITLE |  |  | ", jobTarget.format());
+        assertArrayEquals(jobTarget.toArray(), JobTarget.parse(jobTarget.format()).toArray());
+    }
+
+    @Test
+    public void testRequiredColumns() {
+        assertNull(JobTarget.parse("unit | ../Unit-Tests/"));
+        assertNull(JobTarget.parse(" | ../Unit-Tests/ | REF"));
+        assertNull(JobTarget.parse("unit |  | REF"));
+    }
+
+    @Test
+    public void testJobUrl() {
+        JobTarget jobTarget = JobTarget.parse("it | ../Integration-Tests | REF");
+        assertEquals("http://ci:8080/job/Integration-Tests/", jobTarget.getJobUrl("http://ci:8080/job/Build/"));
+        assertEquals("http://ci:8080/job/Build/", new JobTarget("", "", "REF", null, null, null, null).getJobUrl("http://ci:8080/job/Build/"));
+    }
+}
@@ -5,6 +5,7 @@ import static org.junit.Assert.*;
 import java.net.SocketException;
 import java.net.UnknownHostException;
 import java.security.GeneralSecurityException;
+import java.util.Arrays;
 
 import org.apache.commons.io.Charsets;
 import org.junit.Test;
@@ -17,6 +18,25 @@ public class PasswordEncryptionHelpTest {
         assertTrue(computedKey.length == 16); 
     }
 
+    @Test
+    public void testComputedKeyIsCached() throws UnknownHostException, SocketException {
+        byte[] computedKey = CryptoHelp.getComputedKey();
+        computedKey[0]++;
+        assertFalse(Arrays.equals(computedKey, CryptoHelp.getComputedKey()));
+        assertArrayEquals(CryptoHelp.refreshComputedKey(), CryptoHelp.getComputedKey());
+    }
+
+    @Test
+    public void testDecryptCredentialIsCached() throws UnknownHostException, SocketException, GeneralSecurityException, DecryptException {
+        String password = "MySecretPassword";
+        String encrypt = new String(CryptoHelp.encrypt(CryptoHelp.getComputedKey(), password.getBytes(Charsets.UTF_8)));
+        byte[] decrypt = PluginSettingsHelper.decryptCredential(encrypt);
+        assertEquals(password, new String(decrypt));
+        decrypt[0] = 0;
+        assertEquals(password, new String(PluginSettingsHelper.decryptCredential(encrypt)));
+        assertEquals(0, PluginSettingsHelper.decryptCredential(null).length);
+    }
+
     @Test
     public void testEncrypt() throws UnknownHostException, SocketException, GeneralSecurityException {
         String password = "MySecretPassword";
@@ -0,0 +1,137 @@
+package com.harms.stash.plugin.jenkins.job.settings;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Matchers;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.mockito.stubbing.Answer;
+
+import com.atlassian.beehive.ClusterLock;
+import com.atlassian.beehive.ClusterLockService;
+import com.atlassian.sal.api.pluginsettings.PluginSettings;
+
+@RunWith(MockitoJUnitRunner.class)
+public class PluginSettingsHelperTest {
+    private static final String DISABLED_KEY = PluginSettingsHelper.getPluginKey(PluginSettingsHelper.DISABLED_PULL_REQUESTS, "1");
+    private static final String SLUG01_SERVERS = PluginSettingsHelper.getPluginKey(PluginSettingsHelper.JENKINS_CI_SERVER_LIST, "slug01");
+    private static final String SLUG02_SERVERS = PluginSettingsHelper.getPluginKey(PluginSettingsHelper.JENKINS_CI_SERVER_LIST, "slug02");
+
+    @Mock
+    private PluginSettings settings;
+    @Mock
+    private ClusterLockService lockService;
+    @Mock
+    private ClusterLock lock;
+
+    @Before
+    public void setUp() {
+        Mockito.when(lockService.getLockForName(Matchers.anyString())).thenReturn(lock);
+    }
+
+    @Test
+    public void testDisabledPullRequestsIsUpdatedHoldingTheClusterLock() {
+        Mockito.when(settings.get(DISABLED_KEY)).thenReturn(PullRequestIdSet.of(Arrays.asList(2L)).encode());
+
+        PluginSettingsHelper.addDisabledPullRequests(1, Collections.singleton(3L), settings, lockService);
+
+        Mockito.verify(lock, Mockito.times(1)).lock();
+        Mockito.verify(settings, Mockito.times(1)).put(DISABLED_KEY, PullRequestIdSet.of(Arrays.asList(2L, 3L)).encode());
+        Mockito.verify(lock, Mockito.times(1)).unlock();
+    }
+
+    @Test
+    public void testUnchangedDisabledPullRequestsIsNotLocked() {
+        Mockito.when(settings.get(DISABLED_KEY)).thenReturn(PullRequestIdSet.of(Arrays.asList(2L)).encode());
+
+        PluginSettingsHelper.addDisabledPullRequests(1, Collections.singleton(2L), settings, lockService);
+        assertEquals(0, PluginSettingsHelper.removeDisabledPullRequests(1, Collections.singleton(3L), settings, lockService));
+
+        Mockito.verify(lockService, Mockito.never()).getLockForName(Matchers.anyString());
+        Mockito.verify(settings, Mockito.never()).put(Matchers.eq(DISABLED_KEY), Matchers.anyObject());
+    }
+
+    @Test
+    public void testLockIsReleasedWhenTheUpdateFail() {
+        Mockito.when(settings.get(DISABLED_KEY)).thenReturn(PullRequestIdSet.of(Arrays.asList(2L)).encode());
+        Mockito.when(settings.remove(DISABLED_KEY)).thenThrow(new IllegalStateException("storage"));
+
+        try {
+            PluginSettingsHelper.removeDisabledPullRequests(1, Collections.singleton(2L), settings, lockService);
+            fail("The storage failure is not thrown");
+        } catch (IllegalStateException e) {
+            //expected
+        }
+        Mockito.verify(lock, Mockito.times(1)).unlock();
+    }
+
+    @Test
+    public void testEnabledRepositoriesIsReadFromMemory() {
+        Mockito.when(settings.get(PluginSettingsHelper.ENABLED_REPOSITORIES)).thenReturn(EnabledRepositories.of(Arrays.asList("slug01")).encode());
+        PluginSettingsHelper.refreshEnabledRepositories(settings);
+
+        for (int i = 0; i < 10; i++) {
+            assertTrue(PluginSettingsHelper.isRepositoryEnabled("slug01", settings));
+            assertFalse(PluginSettingsHelper.isRepositoryEnabled("slug02", settings));
+        }
+        Mockito.verify(settings, Mockito.times(1)).get(PluginSettingsHelper.ENABLED_REPOSITORIES);
+    }
+
+    @Test
+    public void testEnabledRepositoryIsUpdatedHoldingTheClusterLock() {
+        Mockito.when(settings.get(SLUG02_SERVERS)).thenReturn("http://ci/job/build/");
+        //another node enable slug03 before the lock is acquired
+        changeIndexWhenLocked(Arrays.asList("slug01"), Arrays.asList("slug01", "slug03"));
+
+        PluginSettingsHelper.updateEnabledRepository("slug02", settings, lockService);
+
+        Mockito.verify(settings, Mockito.times(1)).put(PluginSettingsHelper.ENABLED_REPOSITORIES, EnabledRepositories.of(Arrays.asList("slug01", "slug02", "slug03")).encode());
+        Mockito.verify(lock, Mockito.times(1)).unlock();
+    }
+
+    @Test
+    public void testIndexKeepRepositoryEnabledHoldingTheClusterLock() {
+        Mockito.when(settings.get(SLUG01_SERVERS)).thenReturn("http://ci/job/build/");
+        Mockito.when(settings.get(SLUG02_SERVERS)).thenReturn("http://ci/job/build/");
+        //another node enable slug02 while the repositories is indexed
+        changeIndexWhenLocked(Arrays.asList("slug01"), Arrays.asList("slug01", "slug02"));
+
+        PluginSettingsHelper.setEnabledRepositories(Arrays.asList("slug01"), settings, lockService);
+
+        Mockito.verify(settings, Mockito.times(1)).put(PluginSettingsHelper.ENABLED_REPOSITORIES, EnabledRepositories.of(Arrays.asList("slug01", "slug02")).encode());
+        Mockito.verify(lock, Mockito.times(1)).unlock();
+    }
+
+    /**
+     * The stored index is changed by another node when the cluster lock is acquired
+     */
+    private void changeIndexWhenLocked(List<String> before, final List<String> after) {
+        final AtomicReference<String> stored = new AtomicReference<String>(EnabledRepositories.of(before).encode());
+        Mockito.when(settings.get(PluginSettingsHelper.ENABLED_REPOSITORIES)).thenAnswer(new Answer<Object>() {
+            @Override
+            public Object answer(InvocationOnMock invocation) {
+                return stored.get();
+            }
+        });
+        Mockito.doAnswer(new Answer<Object>() {
+            @Override
+            public Object answer(InvocationOnMock invocation) {
+                stored.set(EnabledRepositories.of(after).encode());
+                return null;
+            }
+        }).when(lock).lock();
+    }
+}
@@ -0,0 +1,51 @@
+package com.harms.stash.plugin.jenkins.job.settings;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Test;
+
+public class PullRequestIdSetTest {
+
+    @Test
+    public void testEncodeRoundTrip() {
+        PullRequestIdSet set = PullRequestIdSet.of(Arrays.asList(1000L, 3L, 40L, 3L, 4294967296L));
+        assertArrayEquals(new long[] {3L, 40L, 1000L, 4294967296L}, set.toArray());
+        assertEquals("3,11,qo,1z1417c", set.encode());
+        assertEquals(set, PullRequestIdSet.decode(set.encode()));
+        assertEquals("", PullRequestIdSet.EMPTY.encode());
+        assertSame(PullRequestIdSet.EMPTY, PullRequestIdSet.decode(null));
+    }
+
+    @Test
+    public void testAddAndRemove() {
+        PullRequestIdSet set = PullRequestIdSet.of(Arrays.asList(5L, 7L));
+        assertSame(set, set.addAll(Collections.singleton(7L)));
+        assertSame(set, set.removeAll(Collections.singleton(6L)));
+
+        PullRequestIdSet added = set.addAll(Arrays.asList(6L, 1L));
+        assertArrayEquals(new long[] {1L, 5L, 6L, 7L}, added.toArray());
+        assertTrue(added.contains(6L));
+        assertFalse(set.contains(6L));
+
+        PullRequestIdSet removed = added.removeAll(Arrays.asList(1L, 7L));
+        assertArrayEquals(new long[] {5L, 6L}, removed.toArray());
+        assertTrue(removed.removeAll(Arrays.asList(5L, 6L)).isEmpty());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDecodeNotSorted() {
+        PullRequestIdSet.decode("5,0");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDecodeNotValid() {
+        PullRequestIdSet.decode("5,,7");
+    }
+}
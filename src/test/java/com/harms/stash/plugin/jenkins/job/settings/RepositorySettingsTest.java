@@ -0,0 +1,93 @@
+package com.harms.stash.plugin.jenkins.job.settings;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.mockito.stubbing.Answer;
+
+import com.atlassian.sal.api.pluginsettings.PluginSettings;
+
+@RunWith(MockitoJUnitRunner.class)
+public class RepositorySettingsTest {
+
+    private static final String SLUG01 = "slug01";
+
+    @Mock
+    private PluginSettings pluginSettings;
+
+    @After
+    public void tearDown() {
+        PluginSettingsHelper.invalidateRepositorySettings(SLUG01);
+    }
+
+    @Test
+    public void testSnapshotIsCached() {
+        Mockito.when(pluginSettings.get(PluginSettingsHelper.getPluginKey(PluginSettingsHelper.TRIGGER_BUILD_ON_CREATE, SLUG01))).thenReturn("checked");
+        Mockito.when(pluginSettings.get(PluginSettingsHelper.getPluginKey(PluginSettingsHelper.JENKINS_CI_SERVER_LIST, SLUG01))).thenReturn("http://server1/job/build/,http://server2/job/build/");
+
+        RepositorySettings snapshot = PluginSettingsHelper.getRepositorySettings(SLUG01, pluginSettings);
+        assertTrue(snapshot.isTriggerBuildOnCreate());
+        assertFalse(snapshot.isTriggerBuildOnUpdate());
+        assertEquals(2, snapshot.getJenkinsCIServerList().length);
+
+        assertSame(snapshot, PluginSettingsHelper.getRepositorySettings(SLUG01, pluginSettings));
+        Mockito.verify(pluginSettings, Mockito.times(1)).get(PluginSettingsHelper.getPluginKey(PluginSettingsHelper.TRIGGER_BUILD_ON_CREATE, SLUG01));
+    }
+
+    @Test
+    public void testInvalidateReloadSnapshot() {
+        Mockito.when(pluginSettings.get(PluginSettingsHelper.getPluginKey(PluginSettingsHelper.TRIGGER_BUILD_ON_UPDATE, SLUG01))).thenReturn("false");
+        RepositorySettings snapshot = PluginSettingsHelper.getRepositorySettings(SLUG01, pluginSettings);
+        assertFalse(snapshot.isTriggerBuildOnUpdate());
+
+        Mockito.when(pluginSettings.get(PluginSettingsHelper.getPluginKey(PluginSettingsHelper.TRIGGER_BUILD_ON_UPDATE, SLUG01))).thenReturn("checked");
+        PluginSettingsHelper.invalidateRepositorySettings(SLUG01);
+
+        RepositorySettings reloaded = PluginSettingsHelper.getRepositorySettings(SLUG01, pluginSettings);
+        assertNotSame(snapshot, reloaded);
+        assertTrue(reloaded.isTriggerBuildOnUpdate());
+    }
+
+    @Test
+    public void testLoadRacingWithInvalidateIsNotCached() {
+        Mockito.when(pluginSettings.get(PluginSettingsHelper.getPluginKey(PluginSettingsHelper.TRIGGER_BUILD_ON_UPDATE, SLUG01))).thenAnswer(new Answer<Object>() {
+            private boolean first = true;
+
+            @Override
+            public Object answer(InvocationOnMock invocation) {
+                if (first) {
+                    //the settings is saved while the snapshot is loaded
+                    first = false;
+                    PluginSettingsHelper.invalidateRepositorySettings(SLUG01);
+                    return "false";
+                }
+                return "checked";
+            }
+        });
+        RepositorySettings stale = PluginSettingsHelper.getRepositorySettings(SLUG01, pluginSettings);
+        assertFalse(stale.isTriggerBuildOnUpdate());
+
+        RepositorySettings reloaded = PluginSettingsHelper.getRepositorySettings(SLUG01, pluginSettings);
+        assertNotSame(stale, reloaded);
+        assertTrue(reloaded.isTriggerBuildOnUpdate());
+    }
+
+    @Test
+    public void testServerListIsCopied() {
+        Mockito.when(pluginSettings.get(PluginSettingsHelper.getPluginKey(PluginSettingsHelper.JENKINS_CI_SERVER_LIST, SLUG01))).thenReturn("http://server1/job/build/");
+        RepositorySettings snapshot = PluginSettingsHelper.getRepositorySettings(SLUG01, pluginSettings);
+
+        snapshot.getJenkinsCIServerList()[0] = "changed";
+        assertEquals("http://server1/job/build/", snapshot.getJenkinsCIServerList()[0]);
+    }
+}
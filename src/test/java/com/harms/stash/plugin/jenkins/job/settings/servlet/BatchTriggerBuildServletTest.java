@@ -0,0 +1,151 @@
+package com.harms.stash.plugin.jenkins.job.settings.servlet;
+
+import java.io.PrintWriter;
+import java.io.Serializable;
+import java.io.StringWriter;
+import java.util.Date;
+import java.util.Map;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Matchers;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import com.atlassian.sal.api.auth.LoginUriProvider;
+import com.atlassian.stash.project.Project;
+import com.atlassian.stash.project.ProjectService;
+import com.atlassian.stash.pull.PullRequest;
+import com.atlassian.stash.pull.PullRequestRef;
+import com.atlassian.stash.pull.PullRequestService;
+import com.atlassian.stash.repository.Repository;
+import com.atlassian.stash.repository.RepositoryService;
+import com.atlassian.stash.user.Permission;
+import com.atlassian.stash.user.PermissionService;
+import com.atlassian.stash.user.StashAuthenticationContext;
+import com.atlassian.stash.user.StashUser;
+import com.atlassian.stash.util.PageRequest;
+import com.harms.stash.plugin.jenkins.job.intergration.schedule.PendingTriggerKey;
+import com.harms.stash.plugin.jenkins.job.intergration.schedule.PendingTriggerRegistry;
+
+@RunWith(MockitoJUnitRunner.class)
+public class BatchTriggerBuildServletTest {
+
+    @Mock
+    private PullRequestService pullRequestService;
+    @Mock
+    private RepositoryService repositoryService;
+    @Mock
+    private ProjectService projectService;
+    @Mock
+    private PermissionService permissionService;
+    @Mock
+    private PendingTriggerRegistry pendingTriggers;
+    @Mock
+    private StashAuthenticationContext stashAuthContext;
+    @Mock
+    private LoginUriProvider loginUriProvider;
+    @Mock
+    private StashUser user;
+    @Mock
+    private Project project;
+    @Mock
+    private HttpServletRequest req;
+    @Mock
+    private HttpServletResponse resp;
+
+    private BatchTriggerBuildServlet servlet;
+
+    @Before
+    public void setUp() throws Exception {
+        Mockito.when(user.getName()).thenReturn("user1");
+        Mockito.when(stashAuthContext.getCurrentUser()).thenReturn(user);
+        Mockito.when(resp.getWriter()).thenReturn(new PrintWriter(new StringWriter()));
+        Mockito.when(projectService.getByKey("PROJ")).thenReturn(project);
+        Mockito.when(pendingTriggers.scheduleForced(Matchers.anyLong(), Matchers.<Map<String, Serializable>>anyObject(), Matchers.anyLong())).thenReturn(new Date());
+        servlet = new BatchTriggerBuildServlet(pullRequestService, repositoryService, projectService, permissionService, pendingTriggers, stashAuthContext, loginUriProvider);
+    }
+
+    @Test
+    public void testForbiddenWithoutRepositoryAdmin() throws Exception {
+        openPullRequest(1, 2L);
+        Mockito.when(req.getParameterValues("pullRequest")).thenReturn(new String[] { "1/2" });
+        Mockito.when(permissionService.hasRepositoryPermission(1, Permission.REPO_ADMIN)).thenReturn(false);
+
+        servlet.doPost(req, resp);
+
+        Mockito.verify(resp, Mockito.times(1)).sendError(Matchers.eq(HttpServletResponse.SC_FORBIDDEN), Matchers.anyString());
+        Mockito.verify(pendingTriggers, Mockito.never()).scheduleForced(Matchers.anyLong(), Matchers.<Map<String, Serializable>>anyObject(), Matchers.anyLong());
+    }
+
+    @Test
+    public void testForbiddenWithoutProjectAdmin() throws Exception {
+        Mockito.when(req.getParameterValues("projectKey")).thenReturn(new String[] { "PROJ" });
+        Mockito.when(permissionService.hasProjectPermission(project, Permission.PROJECT_ADMIN)).thenReturn(false);
+
+        servlet.doPost(req, resp);
+
+        Mockito.verify(resp, Mockito.times(1)).sendError(Matchers.eq(HttpServletResponse.SC_FORBIDDEN), Matchers.anyString());
+        Mockito.verify(repositoryService, Mockito.never()).findByProjectKey(Matchers.anyString(), Matchers.any(PageRequest.class));
+    }
+
+    @Test
+    public void testBuildsAreSpread() throws Exception {
+        openPullRequest(1, 2L);
+        openPullRequest(1, 3L);
+        Mockito.when(req.getParameterValues("pullRequest")).thenReturn(new String[] { "1/2", "1/3" });
+        Mockito.when(req.getParameter("spread")).thenReturn("10");
+        Mockito.when(permissionService.hasRepositoryPermission(1, Permission.REPO_ADMIN)).thenReturn(true);
+
+        servlet.doPost(req, resp);
+
+        Mockito.verify(resp, Mockito.times(1)).setStatus(HttpServletResponse.SC_OK);
+        Mockito.verify(resp, Mockito.times(1)).setHeader("Pragma", "no-cache");
+        Mockito.verify(pendingTriggers, Mockito.times(1)).scheduleForced(Matchers.eq(PendingTriggerKey.of(1, 2L)), Matchers.<Map<String, Serializable>>anyObject(), Matchers.eq(0L));
+        Mockito.verify(pendingTriggers, Mockito.times(1)).scheduleForced(Matchers.eq(PendingTriggerKey.of(1, 3L)), Matchers.<Map<String, Serializable>>anyObject(), Matchers.eq(10000L));
+    }
+
+    @Test
+    public void testSpreadAndLimitAreCapped() throws Exception {
+        openPullRequest(1, 2L);
+        openPullRequest(1, 3L);
+        openPullRequest(1, 4L);
+        Mockito.when(req.getParameterValues("pullRequest")).thenReturn(new String[] { "1/2", "1/3", "1/4" });
+        Mockito.when(req.getParameter("spread")).thenReturn("100000");
+        Mockito.when(req.getParameter("limit")).thenReturn("2");
+        Mockito.when(permissionService.hasRepositoryPermission(1, Permission.REPO_ADMIN)).thenReturn(true);
+
+        servlet.doPost(req, resp);
+
+        Mockito.verify(pendingTriggers, Mockito.times(1)).scheduleForced(Matchers.eq(PendingTriggerKey.of(1, 3L)), Matchers.<Map<String, Serializable>>anyObject(), Matchers.eq(BatchTriggerBuildServlet.MAX_SPREAD * 1000L));
+        Mockito.verify(pendingTriggers, Mockito.never()).scheduleForced(Matchers.eq(PendingTriggerKey.of(1, 4L)), Matchers.<Map<String, Serializable>>anyObject(), Matchers.anyLong());
+    }
+
+    @Test
+    public void testInvalidPullRequestIsRejected() throws Exception {
+        Mockito.when(req.getParameterValues("pullRequest")).thenReturn(new String[] { "1-2" });
+
+        servlet.doPost(req, resp);
+
+        Mockito.verify(resp, Mockito.times(1)).sendError(Matchers.eq(HttpServletResponse.SC_BAD_REQUEST), Matchers.anyString());
+        Mockito.verify(permissionService, Mockito.never()).hasRepositoryPermission(Matchers.anyInt(), Matchers.any(Permission.class));
+    }
+
+    private void openPullRequest(int repositoryId, long pullRequestId) {
+        Repository repository = Mockito.mock(Repository.class);
+        Mockito.when(repository.getId()).thenReturn(repositoryId);
+        PullRequestRef ref = Mockito.mock(PullRequestRef.class);
+        Mockito.when(ref.getRepository()).thenReturn(repository);
+        PullRequest pr = Mockito.mock(PullRequest.class);
+        Mockito.when(pr.getId()).thenReturn(pullRequestId);
+        Mockito.when(pr.isOpen()).thenReturn(true);
+        Mockito.when(pr.getFromRef()).thenReturn(ref);
+        Mockito.when(pr.getToRef()).thenReturn(ref);
+        Mockito.when(pullRequestService.getById(repositoryId, pullRequestId)).thenReturn(pr);
+    }
+}
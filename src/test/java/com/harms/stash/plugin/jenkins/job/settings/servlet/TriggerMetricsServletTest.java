@@ -0,0 +1,52 @@
+package com.harms.stash.plugin.jenkins.job.settings.servlet;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Matchers;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import com.atlassian.sal.api.auth.LoginUriProvider;
+import com.atlassian.stash.user.Permission;
+import com.atlassian.stash.user.PermissionService;
+import com.atlassian.stash.user.StashAuthenticationContext;
+import com.harms.stash.plugin.jenkins.job.intergration.metrics.JmxTriggerMetrics;
+
+@RunWith(MockitoJUnitRunner.class)
+public class TriggerMetricsServletTest {
+
+    @Mock
+    private JmxTriggerMetrics triggerMetrics;
+    @Mock
+    private PermissionService permissionService;
+    @Mock
+    private StashAuthenticationContext stashAuthContext;
+    @Mock
+    private LoginUriProvider loginUriProvider;
+    @Mock
+    private HttpServletRequest req;
+    @Mock
+    private HttpServletResponse resp;
+
+    private TriggerMetricsServlet servlet;
+
+    @Before
+    public void setUp() {
+        servlet = new TriggerMetricsServlet(triggerMetrics, permissionService, stashAuthContext, loginUriProvider);
+    }
+
+    @Test
+    public void testForbiddenWithoutSystemAdmin() throws Exception {
+        Mockito.when(permissionService.hasGlobalPermission(Permission.SYS_ADMIN)).thenReturn(false);
+
+        servlet.doGet(req, resp);
+
+        Mockito.verify(resp).sendError(Matchers.eq(HttpServletResponse.SC_FORBIDDEN), Matchers.anyString());
+        Mockito.verify(resp, Mockito.never()).getWriter();
+    }
+}